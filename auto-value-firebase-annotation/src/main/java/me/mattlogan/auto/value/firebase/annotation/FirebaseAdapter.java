@@ -0,0 +1,18 @@
+package me.mattlogan.auto.value.firebase.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface FirebaseAdapter {
+
+  /**
+   * The {@code TypeConverter} that converts the property to and from the type Firebase stores
+   * it as. The generated class creates one instance of it, which converts the property every
+   * time. This requires the {@code auto-value-firebase-runtime} library.
+   */
+  Class<?> value();
+}
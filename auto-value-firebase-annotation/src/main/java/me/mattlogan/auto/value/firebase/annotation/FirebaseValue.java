@@ -8,4 +8,56 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.SOURCE)
 @Target(ElementType.TYPE)
 public @interface FirebaseValue {
+
+  /**
+   * How the generated conversions between the {@code AutoValue} and {@code FirebaseValue}
+   * classes allocate collections.
+   */
+  Allocation allocation() default Allocation.DEFAULT;
+
+  /**
+   * Whether the generated {@code toAutoValue()} returns read-only views of {@code List} and
+   * {@code Map} properties of {@code FirebaseValue} types, which convert each element the first
+   * time it's read. This requires the {@code auto-value-firebase-runtime} library.
+   */
+  boolean lazyCollections() default false;
+
+  /**
+   * The size at or over which the generated constructor and {@code toAutoValue()} convert the
+   * elements of {@code List} and {@code Map} properties of {@code FirebaseValue} types on several
+   * threads. The default, zero, always converts on the calling thread. This requires the
+   * {@code auto-value-firebase-runtime} library.
+   */
+  int parallelThreshold() default 0;
+
+  /**
+   * Whether the generated {@code toAutoValue()} returns a canonical instance for equal values, so
+   * values that are decoded many times share one instance. Canonical instances are weakly
+   * referenced and bounded in number. This requires the {@code auto-value-firebase-runtime}
+   * library.
+   */
+  boolean intern() default false;
+
+  /**
+   * Whether properties without a {@code @PropertyName} are stored under short keys derived from
+   * their names, instead of under their names. A key only depends on the name of its property, and
+   * the generated class lists them in its {@code KEYS} table. Renaming a property changes its key,
+   * so give a stored property its old key with {@code @PropertyName} before renaming it.
+   */
+  boolean compactKeys() default false;
+
+  enum Allocation {
+    /**
+     * Collections are built with default capacities and iterated with for-each loops.
+     */
+    DEFAULT,
+
+    /**
+     * Collections are built with exact capacities, {@link java.util.RandomAccess} lists are
+     * iterated by index, and collections of primitives are handed to the {@code AutoValue}
+     * instance as unmodifiable views instead of being shared. The views aren't copies, so changing
+     * a {@code FirebaseValue}'s collections after {@code toAutoValue()} changes the instance too.
+     */
+    MINIMAL
+  }
 }
@@ -0,0 +1,84 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the conversions generated for a model shaped like the example Taco, with the size
+ * of its List and Map properties as a parameter. Each conversion is measured with the default
+ * and the MINIMAL allocation profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FirebaseValueBenchmark {
+
+  @Param({"1", "10", "100", "1000", "10000", "100000"})
+  int size;
+
+  Taco taco;
+  AutoValue_Taco.FirebaseValue tacoFirebaseValue;
+
+  MinimalTaco minimalTaco;
+  AutoValue_MinimalTaco.FirebaseValue minimalTacoFirebaseValue;
+
+  @Setup
+  public void setUp() {
+    List<Ingredient> ingredients = new ArrayList<>();
+    Map<String, Review> reviews = new HashMap<>();
+    List<String> tags = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      ingredients.add(Ingredient.create("Ingredient " + i, i % 10));
+      reviews.put("user" + i, Review.create("Review " + i, i % 5));
+      tags.add("tag" + i);
+    }
+    Review review = Review.create("Amazing taco.", 5);
+
+    taco = Taco.create("Kalimari Desert", ingredients, review, reviews, tags);
+    tacoFirebaseValue = new AutoValue_Taco.FirebaseValue(taco);
+
+    minimalTaco = MinimalTaco.create("Kalimari Desert", ingredients, review, reviews, tags);
+    minimalTacoFirebaseValue = new AutoValue_MinimalTaco.FirebaseValue(minimalTaco);
+  }
+
+  @Benchmark
+  public Object toFirebaseValue() {
+    return new AutoValue_Taco.FirebaseValue(taco);
+  }
+
+  @Benchmark
+  public Object toAutoValue() {
+    return tacoFirebaseValue.toAutoValue();
+  }
+
+  @Benchmark
+  public Object roundTrip() {
+    return new AutoValue_Taco.FirebaseValue(taco).toAutoValue();
+  }
+
+  @Benchmark
+  public Object minimalToFirebaseValue() {
+    return new AutoValue_MinimalTaco.FirebaseValue(minimalTaco);
+  }
+
+  @Benchmark
+  public Object minimalToAutoValue() {
+    return minimalTacoFirebaseValue.toAutoValue();
+  }
+
+  @Benchmark
+  public Object minimalRoundTrip() {
+    return new AutoValue_MinimalTaco.FirebaseValue(minimalTaco).toAutoValue();
+  }
+}
@@ -0,0 +1,16 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Review {
+
+  public static Review create(String description, int rating) {
+    return new AutoValue_Review(description, rating);
+  }
+
+  public abstract String description();
+
+  public abstract int rating();
+}
@@ -0,0 +1,25 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Taco {
+
+  public static Taco create(String name, List<Ingredient> ingredients, Review review,
+                          Map<String, Review> reviews, List<String> tags) {
+    return new AutoValue_Taco(name, ingredients, review, reviews, tags);
+  }
+
+  public abstract String name();
+
+  public abstract List<Ingredient> ingredients();
+
+  public abstract Review review();
+
+  public abstract Map<String, Review> reviews();
+
+  public abstract List<String> tags();
+}
@@ -0,0 +1,116 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * The encodings shared by the generated {@code writeTo(DataOutput)} and {@code readFrom(DataInput)}
+ * methods.
+ *
+ * <p>A record starts with the schema hash of its class, followed by its properties in declaration
+ * order, without keys. Integral numbers are zigzag varints, so small magnitudes take one byte.
+ * Sizes and Strings are varints offset by one, so that zero can stand for null. Strings are
+ * length-prefixed UTF-8. Other values that can be null are preceded by a boolean.
+ */
+public final class BinaryFormat {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private BinaryFormat() {
+  }
+
+  /** Writes a non-negative int in 7-bit groups, least significant first. */
+  public static void writeVarint(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  public static int readVarint(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.readByte();
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  /** Writes a long of any sign, so that values close to zero take the fewest bytes. */
+  public static void writeSignedVarint(DataOutput out, long value) throws IOException {
+    long zigzag = (value << 1) ^ (value >> 63);
+    while ((zigzag & ~0x7fL) != 0) {
+      out.writeByte((int) ((zigzag & 0x7f) | 0x80));
+      zigzag >>>= 7;
+    }
+    out.writeByte((int) zigzag);
+  }
+
+  public static long readSignedVarint(DataInput in) throws IOException {
+    long zigzag = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.readByte();
+      zigzag |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  /** Writes the size of a collection or array, or -1 for null. */
+  public static void writeSize(DataOutput out, int size) throws IOException {
+    writeVarint(out, size + 1);
+  }
+
+  /** Reads the size of a collection or array, or -1 for null. */
+  public static int readSize(DataInput in) throws IOException {
+    return readVarint(in) - 1;
+  }
+
+  /** Writes a String, which may be null, unlike {@link DataOutput#writeUTF}'s. */
+  public static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      writeSize(out, -1);
+      return;
+    }
+    byte[] bytes = value.getBytes(UTF_8);
+    writeSize(out, bytes.length);
+    out.write(bytes);
+  }
+
+  public static String readString(DataInput in) throws IOException {
+    int length = readSize(in);
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /** Checks the schema hash at the start of a record against the one of the class reading it. */
+  public static void checkSchema(DataInput in, int schemaHash) throws IOException {
+    int recorded = in.readInt();
+    if (recorded != schemaHash) {
+      throw new StaleRecordException(recorded, schemaHash);
+    }
+  }
+
+  /**
+   * Thrown when a record was written by a version of its class, or of a class it contains, with
+   * different properties. Stale records can't be read, so caches should drop them.
+   */
+  public static final class StaleRecordException extends IOException {
+
+    StaleRecordException(int recorded, int expected) {
+      super("Record has schema " + Integer.toHexString(recorded) + ", expected " + Integer.toHexString(expected));
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.firebase.database.DataSnapshot;
+import java.util.Iterator;
+
+/**
+ * A {@link FirebaseNode} backed by a {@link DataSnapshot}. Children are wrapped as they're
+ * visited, and {@link #value()} is only called for the leaves a generated decoder reads.
+ */
+public final class DataSnapshotFirebaseNode implements FirebaseNode {
+
+  private final DataSnapshot snapshot;
+
+  private DataSnapshotFirebaseNode(DataSnapshot snapshot) {
+    this.snapshot = snapshot;
+  }
+
+  public static FirebaseNode create(DataSnapshot snapshot) {
+    return new DataSnapshotFirebaseNode(snapshot);
+  }
+
+  @Override
+  public String key() {
+    return snapshot.getKey();
+  }
+
+  @Override
+  public FirebaseNode child(String key) {
+    return snapshot.hasChild(key) ? new DataSnapshotFirebaseNode(snapshot.child(key)) : null;
+  }
+
+  @Override
+  public Iterable<FirebaseNode> children() {
+    final Iterable<DataSnapshot> children = snapshot.getChildren();
+    return new Iterable<FirebaseNode>() {
+      @Override
+      public Iterator<FirebaseNode> iterator() {
+        final Iterator<DataSnapshot> iterator = children.iterator();
+        return new Iterator<FirebaseNode>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public FirebaseNode next() {
+            return new DataSnapshotFirebaseNode(iterator.next());
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  @Override
+  public Object value() {
+    return snapshot.getValue();
+  }
+}
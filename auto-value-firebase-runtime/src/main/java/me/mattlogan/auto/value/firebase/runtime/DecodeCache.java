@@ -0,0 +1,205 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of decoded values in front of a generated decoder, for listeners that fire again with
+ * the same data. Values are keyed by the key of their node, and are only reused while a
+ * fingerprint of the node's raw value is unchanged.
+ *
+ * <pre>{@code
+ * Taco taco = cache.get(snapshot.getKey(), snapshot.getValue(), new DecodeCache.Decoder<Taco>() {
+ *   public Taco decode(Object value) {
+ *     return AutoValue_Taco.fromMap((Map<String, Object>) value);
+ *   }
+ * });
+ * }</pre>
+ *
+ * <p>The fingerprint is a 64-bit hash of the whole raw value, computed without allocating. The
+ * cache is split into independently locked segments, and each evicts its least recently used
+ * entries once it's full.
+ */
+public final class DecodeCache<T> {
+
+  /** Decodes the raw value of a node, such as {@code DataSnapshot.getValue()}. */
+  public interface Decoder<T> {
+    T decode(Object value);
+  }
+
+  private static final int MAX_SEGMENT_COUNT = 16;
+
+  private final Segment<T>[] segments;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public static <T> DecodeCache<T> create(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+    }
+    return new DecodeCache<>(maxSize, Integer.highestOneBit(Math.min(MAX_SEGMENT_COUNT, maxSize)));
+  }
+
+  @SuppressWarnings("unchecked")
+  DecodeCache(int maxSize, int segmentCount) {
+    segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment<>(maxSize / segmentCount);
+    }
+  }
+
+  /**
+   * Returns the value decoded for {@code key} if {@code value} has the same fingerprint as when it
+   * was decoded, and otherwise decodes and caches {@code value}. Null values aren't cached.
+   */
+  public T get(String key, Object value, Decoder<T> decoder) {
+    if (value == null) {
+      invalidate(key);
+      return null;
+    }
+    long fingerprint = fingerprint(value);
+    Segment<T> segment = segmentFor(key);
+
+    T cached = segment.get(key, fingerprint);
+    if (cached != null) {
+      hits.incrementAndGet();
+      return cached;
+    }
+    misses.incrementAndGet();
+
+    // Decode outside of the lock, so a slow decode doesn't hold up the rest of the segment
+    T decoded = decoder.decode(value);
+    if (decoded != null) {
+      segment.put(key, fingerprint, decoded);
+    }
+    return decoded;
+  }
+
+  /** Removes the value cached for {@code key}, such as when its node is removed. */
+  public void invalidate(String key) {
+    segmentFor(key).remove(key);
+  }
+
+  public void clear() {
+    for (Segment<T> segment : segments) {
+      segment.clear();
+    }
+  }
+
+  /** The number of values currently cached. */
+  public int size() {
+    int size = 0;
+    for (Segment<T> segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /** The number of times {@link #get} returned a cached value. */
+  public long hitCount() {
+    return hits.get();
+  }
+
+  /** The number of times {@link #get} had to decode a value. */
+  public long missCount() {
+    return misses.get();
+  }
+
+  private Segment<T> segmentFor(String key) {
+    int hash = key.hashCode();
+    // Spread the high bits down, since only the low bits pick a segment
+    hash ^= hash >>> 16;
+    return segments[hash & (segments.length - 1)];
+  }
+
+  /**
+   * A 64-bit hash of a raw Firebase value: a tree of Maps and Lists with String, Number and
+   * Boolean leaves. Map entries are combined independently of their order, since Firebase makes
+   * no promises about it.
+   */
+  static long fingerprint(Object value) {
+    if (value instanceof Map) {
+      long hash = 0x4d41500000000000L;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        hash += mix(fingerprint(entry.getKey()) * 31 + fingerprint(entry.getValue()));
+      }
+      return mix(hash);
+    } else if (value instanceof List) {
+      long hash = 0x4c49535400000000L;
+      for (Object element : (List<?>) value) {
+        hash = mix(hash * 31 + fingerprint(element));
+      }
+      return hash;
+    } else if (value instanceof String) {
+      String string = (String) value;
+      long hash = 0x5354520000000000L;
+      for (int i = 0; i < string.length(); i++) {
+        hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+      }
+      return mix(hash);
+    } else if (value instanceof Double || value instanceof Float) {
+      return mix(Double.doubleToLongBits(((Number) value).doubleValue()) ^ 0x444f55424c450000L);
+    } else if (value instanceof Number) {
+      return mix(((Number) value).longValue() ^ 0x4c4f4e4700000000L);
+    } else if (value instanceof Boolean) {
+      return (Boolean) value ? 0x5452554500000000L : 0x46414c5345000000L;
+    } else if (value == null) {
+      return 0;
+    }
+    return mix(value.hashCode());
+  }
+
+  // The finalizer of SplitMix64, which spreads every input bit across the whole result
+  private static long mix(long hash) {
+    hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+    hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+    return hash ^ (hash >>> 31);
+  }
+
+  private static final class Entry<T> {
+    final long fingerprint;
+    final T value;
+
+    Entry(long fingerprint, T value) {
+      this.fingerprint = fingerprint;
+      this.value = value;
+    }
+  }
+
+  private static final class Segment<T> {
+    private final Map<String, Entry<T>> entries;
+
+    Segment(final int maxSize) {
+      // Access order, so the eldest entry is the least recently used one
+      this.entries = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DecodeCache.Entry<T>> eldest) {
+          return size() > maxSize;
+        }
+      };
+    }
+
+    synchronized T get(String key, long fingerprint) {
+      Entry<T> entry = entries.get(key);
+      return entry != null && entry.fingerprint == fingerprint ? entry.value : null;
+    }
+
+    synchronized void put(String key, long fingerprint, T value) {
+      entries.put(key, new Entry<>(fingerprint, value));
+    }
+
+    synchronized void remove(String key) {
+      entries.remove(key);
+    }
+
+    synchronized void clear() {
+      entries.clear();
+    }
+
+    synchronized int size() {
+      return entries.size();
+    }
+  }
+}
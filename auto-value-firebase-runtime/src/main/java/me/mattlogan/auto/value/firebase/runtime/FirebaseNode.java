@@ -0,0 +1,30 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+/**
+ * A read-only view of one node in a Firebase Realtime Database tree.
+ *
+ * Generated {@code fromNode()} decoders walk this instead of a fully materialized
+ * {@code Map<String, Object>}, so only the children a model declares are ever read.
+ */
+public interface FirebaseNode {
+
+  /**
+   * The key of this node within its parent, or null for a root node.
+   */
+  String key();
+
+  /**
+   * The child at {@code key}, or null if there's no value there.
+   */
+  FirebaseNode child(String key);
+
+  /**
+   * The children of this node, in the order Firebase returns them.
+   */
+  Iterable<FirebaseNode> children();
+
+  /**
+   * The value of this node. This is a String, Boolean, Long or Double for leaf nodes.
+   */
+  Object value();
+}
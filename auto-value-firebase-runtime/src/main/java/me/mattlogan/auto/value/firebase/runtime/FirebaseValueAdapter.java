@@ -0,0 +1,27 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.Map;
+
+/**
+ * Converts one @FirebaseValue class to and from Firebase values, for code that only knows the
+ * class at runtime, such as a generic repository.
+ *
+ * <p>Each generated class has one adapter, which calls the generated methods directly. With the
+ * {@code autoValueFirebase.index} processor option, they're all looked up through a generated
+ * index class instead of through reflection.
+ *
+ * @param <T> the @FirebaseValue class
+ */
+public interface FirebaseValueAdapter<T> {
+
+  /**
+   * The generated FirebaseValue of {@code value}, for {@code setValue()}.
+   */
+  Object toFirebaseValue(T value);
+
+  Map<String, Object> toMap(T value);
+
+  T fromMap(Map<String, Object> map);
+
+  T fromNode(FirebaseNode node);
+}
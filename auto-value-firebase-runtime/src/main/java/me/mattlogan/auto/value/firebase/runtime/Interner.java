@@ -0,0 +1,90 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * A bounded pool of canonical instances of immutable values, so equal values that are decoded
+ * many times can share one instance.
+ *
+ * <p>Generated {@code toAutoValue()} methods intern their results when {@code intern} is set.
+ * Canonical instances are only weakly referenced, so the pool never keeps a value alive on its
+ * own. The pool is split into independently locked segments, and a segment that fills up is
+ * cleared. Interning is only an optimization, so an evicted value simply becomes canonical again
+ * the next time an equal value is interned.
+ */
+public final class Interner<T> {
+
+  /** The number of canonical instances an interner holds at most by default. */
+  public static final int DEFAULT_MAX_SIZE = 8192;
+
+  private static final int SEGMENT_COUNT = 16;
+
+  private final Segment<T>[] segments;
+  private final int maxSegmentSize;
+
+  public static <T> Interner<T> create() {
+    return create(DEFAULT_MAX_SIZE);
+  }
+
+  public static <T> Interner<T> create(int maxSize) {
+    if (maxSize < SEGMENT_COUNT) {
+      throw new IllegalArgumentException("maxSize must be at least " + SEGMENT_COUNT + ": " + maxSize);
+    }
+    return new Interner<>(maxSize / SEGMENT_COUNT);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Interner(int maxSegmentSize) {
+    this.maxSegmentSize = maxSegmentSize;
+    this.segments = new Segment[SEGMENT_COUNT];
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment<>();
+    }
+  }
+
+  /**
+   * Returns the canonical instance equal to {@code value}, making {@code value} canonical if there
+   * isn't one.
+   */
+  public T intern(T value) {
+    if (value == null) {
+      return null;
+    }
+    int hash = value.hashCode();
+    // Spread the high bits down, since only the low bits pick a segment
+    hash ^= hash >>> 16;
+    return segments[hash & (SEGMENT_COUNT - 1)].intern(value, maxSegmentSize);
+  }
+
+  /** The number of canonical instances currently held, including any not yet collected. */
+  public int size() {
+    int size = 0;
+    for (Segment<T> segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  private static final class Segment<T> {
+    // The values are weak too, since a strong reference to the key would keep it alive
+    private final WeakHashMap<T, WeakReference<T>> canonical = new WeakHashMap<>();
+
+    synchronized T intern(T value, int maxSize) {
+      WeakReference<T> reference = canonical.get(value);
+      T existing = reference == null ? null : reference.get();
+      if (existing != null) {
+        return existing;
+      }
+      if (canonical.size() >= maxSize) {
+        canonical.clear();
+      }
+      canonical.put(value, new WeakReference<>(value));
+      return value;
+    }
+
+    synchronized int size() {
+      return canonical.size();
+    }
+  }
+}
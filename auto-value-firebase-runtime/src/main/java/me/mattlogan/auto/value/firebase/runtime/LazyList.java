@@ -0,0 +1,48 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only view of a {@code List} of {@code FirebaseValue} instances that converts each
+ * element the first time it's read, and returns the same converted instance after that.
+ *
+ * <p>Generated {@code toAutoValue()} methods return these when {@code lazyCollections} is set.
+ * Conversions are pure, so an element read concurrently by several threads may be converted
+ * more than once, but every reader sees an equal value.
+ */
+public abstract class LazyList<F, T> extends AbstractList<T> implements RandomAccess {
+
+  private final List<F> source;
+  private final Object[] converted;
+
+  protected LazyList(List<F> source) {
+    // Elements are read by index, so don't pay for that on a linked list
+    this.source = source instanceof RandomAccess ? source : new ArrayList<>(source);
+    this.converted = new Object[source.size()];
+  }
+
+  /** Converts one non-null element of the source list. */
+  protected abstract T convert(F value);
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public T get(int index) {
+    T value = (T) converted[index];
+    if (value == null) {
+      F sourceValue = source.get(index);
+      if (sourceValue != null) {
+        value = convert(sourceValue);
+        converted[index] = value;
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public int size() {
+    return converted.length;
+  }
+}
@@ -0,0 +1,89 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only view of a {@code Map} with {@code FirebaseValue} values that converts each value
+ * the first time it's read, and returns the same converted instance after that.
+ *
+ * <p>Generated {@code toAutoValue()} methods return these when {@code lazyCollections} is set.
+ * Conversions are pure, so a value read concurrently by several threads may be converted more
+ * than once, but every reader sees an equal value.
+ */
+public abstract class LazyMap<K, F, T> extends AbstractMap<K, T> {
+
+  private final Map<K, F> source;
+  private final Map<Object, T> converted;
+  private Set<Map.Entry<K, T>> entrySet;
+
+  protected LazyMap(Map<K, F> source) {
+    this.source = source;
+    this.converted = new ConcurrentHashMap<>();
+  }
+
+  /** Converts one non-null value of the source map. */
+  protected abstract T convert(F value);
+
+  @Override
+  public T get(Object key) {
+    T value = converted.get(key);
+    if (value == null) {
+      F sourceValue = source.get(key);
+      if (sourceValue != null) {
+        value = convert(sourceValue);
+        converted.put(key, value);
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return source.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return source.size();
+  }
+
+  @Override
+  public Set<Map.Entry<K, T>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Map.Entry<K, T>>() {
+        @Override
+        public Iterator<Map.Entry<K, T>> iterator() {
+          final Iterator<K> keys = source.keySet().iterator();
+          return new Iterator<Map.Entry<K, T>>() {
+            @Override
+            public boolean hasNext() {
+              return keys.hasNext();
+            }
+
+            @Override
+            public Map.Entry<K, T> next() {
+              K key = keys.next();
+              return new SimpleImmutableEntry<>(key, get(key));
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return source.size();
+        }
+      };
+    }
+    return entrySet;
+  }
+}
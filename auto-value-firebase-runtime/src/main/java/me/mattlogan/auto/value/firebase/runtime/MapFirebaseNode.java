@@ -0,0 +1,83 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link FirebaseNode} backed by the plain Java value tree returned by
+ * {@code DataSnapshot.getValue()}, or built by a generated {@code toMap()}.
+ */
+public final class MapFirebaseNode implements FirebaseNode {
+
+  private final String key;
+  private final Object value;
+
+  private MapFirebaseNode(String key, Object value) {
+    this.key = key;
+    this.value = value;
+  }
+
+  public static FirebaseNode create(Map<String, Object> map) {
+    return new MapFirebaseNode(null, map);
+  }
+
+  @Override
+  public String key() {
+    return key;
+  }
+
+  @Override
+  public FirebaseNode child(String key) {
+    Object child = null;
+    if (value instanceof Map) {
+      child = ((Map<?, ?>) value).get(key);
+    } else if (value instanceof List) {
+      int index = indexOf(key);
+      List<?> list = (List<?>) value;
+      if (index >= 0 && index < list.size()) {
+        child = list.get(index);
+      }
+    }
+    return child == null ? null : new MapFirebaseNode(key, child);
+  }
+
+  @Override
+  public Iterable<FirebaseNode> children() {
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      List<FirebaseNode> children = new ArrayList<>(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        if (entry.getValue() != null) {
+          children.add(new MapFirebaseNode(String.valueOf(entry.getKey()), entry.getValue()));
+        }
+      }
+      return children;
+
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      List<FirebaseNode> children = new ArrayList<>(list.size());
+      for (int i = 0; i < list.size(); i++) {
+        if (list.get(i) != null) {
+          children.add(new MapFirebaseNode(String.valueOf(i), list.get(i)));
+        }
+      }
+      return children;
+    }
+    return Collections.emptyList();
+  }
+
+  @Override
+  public Object value() {
+    return value;
+  }
+
+  private static int indexOf(String key) {
+    try {
+      return Integer.parseInt(key);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
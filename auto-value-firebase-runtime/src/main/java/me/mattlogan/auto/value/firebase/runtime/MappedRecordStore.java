@@ -0,0 +1,587 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A keyed store of encoded values in a memory-mapped file, for mirroring more data than fits on
+ * the heap. Values are only decoded when they're read, usually through the generated binary codec.
+ *
+ * <pre>{@code
+ * MappedRecordStore<Taco> tacos = MappedRecordStore.open(file, new MappedRecordStore.Codec<Taco>() {
+ *   public void write(Taco taco, DataOutput out) throws IOException {
+ *     AutoValue_Taco.writeTo(taco, out);
+ *   }
+ *   public Taco read(DataInput in) throws IOException {
+ *     return AutoValue_Taco.readFrom(in);
+ *   }
+ * });
+ * }</pre>
+ *
+ * <p>The file is a log: every put and remove appends a record, so reopening a store replays the
+ * file instead of downloading its data again. Keys are indexed by an open-addressing hash table in
+ * a direct buffer, which only holds a hash and a file position per key, so the heap holds neither
+ * keys nor values. Replaced and removed records take up space until {@link #compact} is called.
+ *
+ * <p>The file is mapped in chunks of up to a gigabyte, so it can grow past the 2 GB limit of a
+ * single mapping, and no record may be larger than a chunk. Every method is thread-safe, and
+ * values are decoded outside of the store's lock.
+ */
+public final class MappedRecordStore<T> implements Closeable, Iterable<MappedRecordStore.Record<T>> {
+
+  /** Encodes and decodes the values of a store. */
+  public interface Codec<T> {
+    void write(T value, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+  }
+
+  /** A record of a store, whose value is only decoded when it's asked for. */
+  public static final class Record<T> {
+    private final String key;
+    private final ByteBuffer value;
+    private final Codec<T> codec;
+
+    Record(String key, ByteBuffer value, Codec<T> codec) {
+      this.key = key;
+      this.value = value;
+      this.codec = codec;
+    }
+
+    public String key() {
+      return key;
+    }
+
+    /** Decodes the value. Every call decodes it again. */
+    public T value() throws IOException {
+      return decode(value.duplicate(), codec);
+    }
+  }
+
+  static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int MAGIC = 0x41564653;
+  private static final int VERSION = 1;
+  // The magic number, the version, the position the log ends at, and the chunk size
+  private static final int HEADER_SIZE = 20;
+  private static final int END_OFFSET = 8;
+  private static final int CHUNK_SIZE_OFFSET = 16;
+  // The key length plus one, so that zero marks the padding at the end of a chunk, and the value
+  // length, or -1 for a removal
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final int MIN_MAPPING_SIZE = 64 * 1024;
+  // A hash and a file position, which is never 0 for a used slot since the header comes first
+  private static final int SLOT_SIZE = 16;
+  private static final int MIN_SLOT_COUNT = 64;
+
+  private final File file;
+  private final Codec<T> codec;
+  private final List<MappedByteBuffer> chunks = new ArrayList<>();
+  private RandomAccessFile randomAccessFile;
+  private FileChannel channel;
+  // The size of the chunks the file was created with, which it keeps
+  private int chunkSize;
+  private long end;
+  private ByteBuffer index;
+  private int slotCount;
+  private int size;
+  private long garbageBytes;
+  private int modCount;
+
+  /** Opens the store in {@code file}, creating the file if it doesn't exist. */
+  public static <T> MappedRecordStore<T> open(File file, Codec<T> codec) throws IOException {
+    return open(file, codec, DEFAULT_CHUNK_SIZE);
+  }
+
+  static <T> MappedRecordStore<T> open(File file, Codec<T> codec, int chunkSize) throws IOException {
+    if (chunkSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("chunkSize is too small: " + chunkSize);
+    }
+    MappedRecordStore<T> store = new MappedRecordStore<>(file, codec);
+    store.load(chunkSize);
+    return store;
+  }
+
+  private MappedRecordStore(File file, Codec<T> codec) {
+    this.file = file;
+    this.codec = codec;
+  }
+
+  /** Returns the value stored under {@code key}, decoded, or null if there's none. */
+  public T get(String key) throws IOException {
+    ByteBuffer value;
+    synchronized (this) {
+      checkOpen();
+      byte[] keyBytes = key.getBytes(UTF_8);
+      long position = positionAt(find(keyBytes, hash(keyBytes)));
+      if (position == 0) {
+        return null;
+      }
+      value = value(position);
+    }
+    return decode(value, codec);
+  }
+
+  /** Stores {@code value} under {@code key}, replacing any value stored before. Null removes the key. */
+  public void put(String key, T value) throws IOException {
+    if (value == null) {
+      remove(key);
+      return;
+    }
+    // Encoded outside of the lock, like values are decoded
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    codec.write(value, new DataOutputStream(bytes));
+    putEncoded(key.getBytes(UTF_8), bytes.toByteArray());
+  }
+
+  /** Removes the value stored under {@code key}, and returns whether there was one. */
+  public synchronized boolean remove(String key) throws IOException {
+    checkOpen();
+    byte[] keyBytes = key.getBytes(UTF_8);
+    int slot = find(keyBytes, hash(keyBytes));
+    long position = positionAt(slot);
+    if (position == 0) {
+      return false;
+    }
+    // The removal is logged, so it's replayed when the store is opened again
+    long removal = append(keyBytes, null);
+    garbageBytes += recordLength(position) + recordLength(removal);
+    clearSlot(slot);
+    size--;
+    modCount++;
+    return true;
+  }
+
+  public synchronized boolean containsKey(String key) {
+    checkOpen();
+    byte[] keyBytes = key.getBytes(UTF_8);
+    return positionAt(find(keyBytes, hash(keyBytes))) != 0;
+  }
+
+  /** The number of keys with a value. */
+  public synchronized int size() {
+    checkOpen();
+    return size;
+  }
+
+  /** The number of bytes of the file taken up by replaced and removed records, which {@link #compact} reclaims. */
+  public synchronized long garbageBytes() {
+    checkOpen();
+    return garbageBytes;
+  }
+
+  /**
+   * Iterates over the records of the store, in no particular order. Values are decoded by {@link
+   * Record#value}. Changing the store while iterating makes the iterator throw a {@link
+   * ConcurrentModificationException}.
+   */
+  @Override
+  public synchronized Iterator<Record<T>> iterator() {
+    checkOpen();
+    final int expectedModCount = modCount;
+
+    return new Iterator<Record<T>>() {
+      private int nextSlot = nextUsedSlot(0);
+
+      @Override
+      public boolean hasNext() {
+        synchronized (MappedRecordStore.this) {
+          checkModCount(expectedModCount);
+          return nextSlot < slotCount;
+        }
+      }
+
+      @Override
+      public Record<T> next() {
+        synchronized (MappedRecordStore.this) {
+          checkModCount(expectedModCount);
+          if (nextSlot >= slotCount) {
+            throw new NoSuchElementException();
+          }
+          long position = positionAt(nextSlot);
+          nextSlot = nextUsedSlot(nextSlot + 1);
+          return new Record<>(new String(key(position), UTF_8), value(position), codec);
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /** Rewrites the file with only the current records, reclaiming the space of replaced and removed ones. */
+  public synchronized void compact() throws IOException {
+    checkOpen();
+    File compacted = new File(file.getPath() + ".compact");
+    Files.deleteIfExists(compacted.toPath());
+
+    // Records are copied as they're encoded, without decoding them
+    MappedRecordStore<T> target = open(compacted, codec, chunkSize);
+    try {
+      for (int slot = nextUsedSlot(0); slot < slotCount; slot = nextUsedSlot(slot + 1)) {
+        long position = positionAt(slot);
+        ByteBuffer value = value(position);
+        byte[] valueBytes = new byte[value.remaining()];
+        value.get(valueBytes);
+        target.putEncoded(key(position), valueBytes);
+      }
+      target.flush();
+    } finally {
+      target.close();
+    }
+
+    close();
+    Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    load(chunkSize);
+    modCount++;
+  }
+
+  /** Writes the changes to the file to the storage device. */
+  public synchronized void flush() {
+    checkOpen();
+    for (MappedByteBuffer chunk : chunks) {
+      chunk.force();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    // Mappings stay valid until they're garbage collected, so records being decoded are unaffected
+    chunks.clear();
+    index = null;
+    try {
+      channel.close();
+    } finally {
+      randomAccessFile.close();
+      channel = null;
+      randomAccessFile = null;
+    }
+  }
+
+  private void load(int newChunkSize) throws IOException {
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    channel = randomAccessFile.getChannel();
+    long logEnd;
+
+    if (channel.size() == 0) {
+      chunkSize = newChunkSize;
+      MappedByteBuffer header = chunk(0, HEADER_SIZE);
+      header.putInt(0, MAGIC);
+      header.putInt(4, VERSION);
+      header.putLong(END_OFFSET, HEADER_SIZE);
+      header.putInt(CHUNK_SIZE_OFFSET, chunkSize);
+      logEnd = HEADER_SIZE;
+    } else {
+      // Read before mapping anything, since mappings grow the file
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      channel.read(header, 0);
+      if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+        close();
+        throw new IOException("Not a record store: " + file);
+      } else if (header.getInt(4) != VERSION) {
+        close();
+        throw new IOException("Unsupported record store version " + header.getInt(4) + ": " + file);
+      }
+      chunkSize = header.getInt(CHUNK_SIZE_OFFSET);
+      logEnd = header.getLong(END_OFFSET);
+    }
+
+    end = HEADER_SIZE;
+    slotCount = MIN_SLOT_COUNT;
+    index = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+    size = 0;
+    garbageBytes = 0;
+    replay(logEnd);
+  }
+
+  // Rebuilds the index from the log, where later records replace earlier ones
+  private void replay(long logEnd) throws IOException {
+    long position = HEADER_SIZE;
+    while (position < logEnd) {
+      int offset = offset(position);
+      if (chunkSize - offset < RECORD_HEADER_SIZE || chunk(position, RECORD_HEADER_SIZE).getInt(offset) == 0) {
+        position = nextChunk(position);
+        continue;
+      }
+      int recordLength = recordLength(position);
+      chunk(position, recordLength);
+      byte[] key = key(position);
+      int slot = find(key, hash(key));
+      long previous = positionAt(slot);
+
+      if (chunks.get(chunkIndex(position)).getInt(offset + 4) < 0) {
+        garbageBytes += recordLength;
+        if (previous != 0) {
+          garbageBytes += recordLength(previous);
+          clearSlot(slot);
+          size--;
+        }
+      } else {
+        setSlot(slot, hash(key), position);
+        if (previous != 0) {
+          garbageBytes += recordLength(previous);
+        } else {
+          size++;
+          growIfFull();
+        }
+      }
+      position += recordLength;
+    }
+    end = position;
+  }
+
+  private synchronized void putEncoded(byte[] key, byte[] value) throws IOException {
+    checkOpen();
+    long hash = hash(key);
+    int slot = find(key, hash);
+    long previous = positionAt(slot);
+    setSlot(slot, hash, append(key, value));
+    if (previous != 0) {
+      garbageBytes += recordLength(previous);
+    } else {
+      size++;
+      growIfFull();
+    }
+    modCount++;
+  }
+
+  // Appends a record to the log, and returns its position
+  private long append(byte[] key, byte[] value) throws IOException {
+    int recordLength = RECORD_HEADER_SIZE + key.length + (value != null ? value.length : 0);
+    if (recordLength > chunkSize - HEADER_SIZE) {
+      throw new IllegalArgumentException("Record for " + new String(key, UTF_8) + " is larger than "
+                                         + (chunkSize - HEADER_SIZE) + " bytes: " + recordLength);
+    }
+
+    long position = end;
+    if (offset(position) + recordLength > chunkSize) {
+      // Records never span two chunks, so the rest of this one is padding
+      if (chunkSize - offset(position) >= RECORD_HEADER_SIZE) {
+        chunk(position, RECORD_HEADER_SIZE).putInt(offset(position), 0);
+      }
+      position = nextChunk(position);
+    }
+
+    ByteBuffer record = chunk(position, recordLength).duplicate();
+    record.position(offset(position));
+    record.putInt(key.length + 1)
+          .putInt(value != null ? value.length : -1)
+          .put(key);
+    if (value != null) {
+      record.put(value);
+    }
+
+    // The end is only moved once the record is complete, so a crash never leaves half a record
+    end = position + recordLength;
+    chunks.get(0).putLong(END_OFFSET, end);
+    return position;
+  }
+
+  // Maps enough of the chunk holding position for length bytes from it. Mappings grow by doubling,
+  // so small stores don't take up a whole chunk of the file.
+  private MappedByteBuffer chunk(long position, int length) throws IOException {
+    int chunkIndex = chunkIndex(position);
+    int required = offset(position) + length;
+    while (chunks.size() <= chunkIndex) {
+      chunks.add(null);
+    }
+    MappedByteBuffer chunk = chunks.get(chunkIndex);
+    if (chunk == null || chunk.capacity() < required) {
+      int mappingSize = chunk != null ? chunk.capacity() : MIN_MAPPING_SIZE;
+      while (mappingSize < required) {
+        mappingSize *= 2;
+      }
+      chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkIndex * chunkSize,
+                          Math.min(mappingSize, chunkSize));
+      chunks.set(chunkIndex, chunk);
+    }
+    return chunk;
+  }
+
+  private int chunkIndex(long position) {
+    return (int) (position / chunkSize);
+  }
+
+  private int offset(long position) {
+    return (int) (position % chunkSize);
+  }
+
+  private long nextChunk(long position) {
+    return (long) (chunkIndex(position) + 1) * chunkSize;
+  }
+
+  // Records before the end of the log are always mapped, so reading them never maps anything
+
+  private int recordLength(long position) {
+    ByteBuffer chunk = chunks.get(chunkIndex(position));
+    int offset = offset(position);
+    return RECORD_HEADER_SIZE + chunk.getInt(offset) - 1 + Math.max(chunk.getInt(offset + 4), 0);
+  }
+
+  private byte[] key(long position) {
+    ByteBuffer record = chunks.get(chunkIndex(position)).duplicate();
+    record.position(offset(position));
+    byte[] key = new byte[record.getInt() - 1];
+    record.getInt();
+    record.get(key);
+    return key;
+  }
+
+  private ByteBuffer value(long position) {
+    ByteBuffer record = chunks.get(chunkIndex(position)).duplicate();
+    int offset = offset(position);
+    int valueOffset = offset + RECORD_HEADER_SIZE + record.getInt(offset) - 1;
+    record.limit(valueOffset + record.getInt(offset + 4));
+    record.position(valueOffset);
+    return record;
+  }
+
+  private boolean keyEquals(long position, byte[] key) {
+    ByteBuffer chunk = chunks.get(chunkIndex(position));
+    int offset = offset(position);
+    if (chunk.getInt(offset) - 1 != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (chunk.get(offset + RECORD_HEADER_SIZE + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // FNV-1a over the UTF-8 bytes, with the high bits folded down since only the low bits pick a slot
+  private static long hash(byte[] key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    return hash ^ (hash >>> 32);
+  }
+
+  // Returns the slot holding key, or the empty slot it would go in. Keys are only compared when
+  // their hashes are equal, which is the only time the index reads the file.
+  private int find(byte[] key, long hash) {
+    int mask = slotCount - 1;
+    for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+      long position = positionAt(slot);
+      if (position == 0 || (hashAt(slot) == hash && keyEquals(position, key))) {
+        return slot;
+      }
+    }
+  }
+
+  private long hashAt(int slot) {
+    return index.getLong(slot * SLOT_SIZE);
+  }
+
+  private long positionAt(int slot) {
+    return index.getLong(slot * SLOT_SIZE + 8);
+  }
+
+  private void setSlot(int slot, long hash, long position) {
+    index.putLong(slot * SLOT_SIZE, hash);
+    index.putLong(slot * SLOT_SIZE + 8, position);
+  }
+
+  private int nextUsedSlot(int slot) {
+    while (slot < slotCount && positionAt(slot) == 0) {
+      slot++;
+    }
+    return slot;
+  }
+
+  // Linear probing without tombstones: the entries after the cleared slot are moved back into it
+  // unless that would put them before their own slot
+  private void clearSlot(int slot) {
+    int mask = slotCount - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask; positionAt(next) != 0; next = (next + 1) & mask) {
+      int home = (int) hashAt(next) & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        setSlot(hole, hashAt(next), positionAt(next));
+        hole = next;
+      }
+    }
+    setSlot(hole, 0, 0);
+  }
+
+  // Keeps the index at most half full, so probes stay short
+  private void growIfFull() {
+    if (size * 2 <= slotCount) {
+      return;
+    }
+    ByteBuffer oldIndex = index;
+    int oldSlotCount = slotCount;
+    slotCount *= 2;
+    index = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+    int mask = slotCount - 1;
+    for (int oldSlot = 0; oldSlot < oldSlotCount; oldSlot++) {
+      long position = oldIndex.getLong(oldSlot * SLOT_SIZE + 8);
+      if (position != 0) {
+        long hash = oldIndex.getLong(oldSlot * SLOT_SIZE);
+        int slot = (int) hash & mask;
+        while (positionAt(slot) != 0) {
+          slot = (slot + 1) & mask;
+        }
+        setSlot(slot, hash, position);
+      }
+    }
+  }
+
+  private void checkOpen() {
+    if (channel == null) {
+      throw new IllegalStateException("Store is closed: " + file);
+    }
+  }
+
+  private void checkModCount(int expectedModCount) {
+    if (modCount != expectedModCount) {
+      throw new ConcurrentModificationException();
+    }
+  }
+
+  private static <T> T decode(final ByteBuffer value, Codec<T> codec) throws IOException {
+    return codec.read(new DataInputStream(new InputStream() {
+      @Override
+      public int read() {
+        return value.hasRemaining() ? value.get() & 0xff : -1;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) {
+        if (!value.hasRemaining()) {
+          return -1;
+        }
+        length = Math.min(length, value.remaining());
+        value.get(bytes, offset, length);
+        return length;
+      }
+    }));
+  }
+}
@@ -0,0 +1,162 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Converts the elements of large collections on several threads. Generated constructors and
+ * {@code toAutoValue()} methods use this for collections at or over the {@code parallelThreshold}
+ * set on {@code @FirebaseValue}.
+ *
+ * <p>Lists keep their order, and maps are built with a capacity that fits all of their entries.
+ */
+public final class ParallelConversion {
+
+  /** Converts one non-null element of a collection. */
+  public interface Converter<F, T> {
+    T convert(F value);
+  }
+
+  private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+  private static volatile Executor executor;
+
+  private ParallelConversion() {
+  }
+
+  /**
+   * Sets the {@link Executor} that collections are converted on. If this is never set, or set to
+   * null, a shared {@link ForkJoinPool} with one thread per processor is used.
+   */
+  public static void setExecutor(Executor executor) {
+    ParallelConversion.executor = executor;
+  }
+
+  public static <F, T> List<T> convertList(List<F> source, Converter<F, T> converter) {
+    // toArray() may return an array of the element type, which can't hold the converted values
+    Object[] values = source.toArray(new Object[source.size()]);
+    convertAll(values, converter);
+
+    List<T> converted = new ArrayList<>(values.length);
+    for (Object value : values) {
+      converted.add(ParallelConversion.<T>cast(value));
+    }
+    return converted;
+  }
+
+  public static <K, F, T> Map<K, T> convertMap(Map<K, F> source, Converter<F, T> converter) {
+    List<K> keys = new ArrayList<>(source.size());
+    Object[] values = new Object[source.size()];
+    int i = 0;
+    for (Map.Entry<K, F> entry : source.entrySet()) {
+      keys.add(entry.getKey());
+      values[i++] = entry.getValue();
+    }
+    convertAll(values, converter);
+
+    Map<K, T> converted = new HashMap<>((int) (values.length / 0.75f) + 1);
+    for (i = 0; i < values.length; i++) {
+      converted.put(keys.get(i), ParallelConversion.<T>cast(values[i]));
+    }
+    return converted;
+  }
+
+  // Converts the values in place, in contiguous chunks
+  private static <F, T> void convertAll(Object[] values, Converter<F, T> converter) {
+    int chunkCount = Math.min(values.length, PARALLELISM * 4);
+    List<Chunk<F, T>> chunks = new ArrayList<>(chunkCount);
+    for (int i = 0; i < chunkCount; i++) {
+      chunks.add(new Chunk<>(values, converter,
+        (int) ((long) values.length * i / chunkCount),
+        (int) ((long) values.length * (i + 1) / chunkCount)));
+    }
+
+    Executor executor = ParallelConversion.executor;
+    if (executor == null) {
+      executor = DefaultExecutor.INSTANCE;
+    }
+    for (int i = 1; i < chunks.size(); i++) {
+      executor.execute(chunks.get(i));
+    }
+    // Run every chunk the executor hasn't started yet here, so a busy executor can't stall us
+    for (Chunk<F, T> chunk : chunks) {
+      chunk.run();
+    }
+    for (Chunk<F, T> chunk : chunks) {
+      chunk.await();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T cast(Object value) {
+    return (T) value;
+  }
+
+  private static final class Chunk<F, T> implements Runnable {
+    private final Object[] values;
+    private final Converter<F, T> converter;
+    private final int from;
+    private final int to;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Throwable failure;
+
+    Chunk(Object[] values, Converter<F, T> converter, int from, int to) {
+      this.values = values;
+      this.converter = converter;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public void run() {
+      if (!claimed.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        for (int i = from; i < to; i++) {
+          if (values[i] != null) {
+            values[i] = converter.convert(ParallelConversion.<F>cast(values[i]));
+          }
+        }
+      } catch (Throwable t) {
+        failure = t;
+      } finally {
+        done.countDown();
+      }
+    }
+
+    void await() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure instanceof Error) {
+        throw (Error) failure;
+      } else if (failure != null) {
+        throw new RuntimeException(failure);
+      }
+    }
+  }
+
+  private static final class DefaultExecutor {
+    static final Executor INSTANCE = new ForkJoinPool(PARALLELISM);
+  }
+}
@@ -0,0 +1,19 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+/**
+ * Converts between the type of a property and a type Firebase stores directly: a boxed
+ * primitive or a String.
+ *
+ * <p>Properties annotated with {@code @FirebaseAdapter} are converted by one instance of their
+ * converter, created once by the generated class, so converters must have a no-argument
+ * constructor and be safe to call from several threads. Nulls are never passed to a converter.
+ *
+ * @param <T> the type of the property
+ * @param <S> the type Firebase stores the property as
+ */
+public interface TypeConverter<T, S> {
+
+  S toFirebaseValue(T value);
+
+  T fromFirebaseValue(S value);
+}
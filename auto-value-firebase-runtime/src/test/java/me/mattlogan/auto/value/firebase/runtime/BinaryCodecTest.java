@@ -0,0 +1,146 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class BinaryCodecTest {
+
+  private static Taco taco() {
+    Map<String, Review> history = new HashMap<>();
+    history.put("-KZ1", Review.create("Too spicy.", 2));
+    return Taco.create("Kalimari Desert",
+                       Arrays.asList(Ingredient.create("Cactus", 3), Ingredient.create("Lime", 0)),
+                       Review.create("Amazing taco.", 5),
+                       Collections.singletonMap("matt", 1L),
+                       history);
+  }
+
+  private static Logbook logbook() {
+    Map<Integer, Review> reviewsByDay = new HashMap<>();
+    reviewsByDay.put(1, Review.create("Dusty.", 2));
+    reviewsByDay.put(-3, null);
+    Map<String, List<Long>> splits = new HashMap<>();
+    splits.put("first", Arrays.asList(-1L, Long.MAX_VALUE, null));
+    splits.put("second", null);
+    return Logbook.create("Route 66", -1478649600000L, true, 4, Logbook.Weather.RAINY,
+                          Arrays.asList(Arrays.asList("Chicago", null), null, Collections.<String>emptyList()),
+                          reviewsByDay, splits);
+  }
+
+  private static byte[] write(Logbook logbook) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    AutoValue_Logbook.writeTo(logbook, new DataOutputStream(bytes));
+    return bytes.toByteArray();
+  }
+
+  private static Logbook readLogbook(byte[] bytes) throws IOException {
+    return AutoValue_Logbook.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+  }
+
+  @Test
+  public void nestedCollectionsRoundTrip() throws Exception {
+    assertThat(readLogbook(write(logbook()))).isEqualTo(logbook());
+  }
+
+  @Test
+  public void nullsRoundTrip() throws Exception {
+    Logbook logbook = Logbook.create(null, 0, false, null, null, Collections.<List<String>>emptyList(),
+                                     Collections.<Integer, Review>emptyMap(),
+                                     Collections.<String, List<Long>>emptyMap());
+
+    assertThat(readLogbook(write(logbook))).isEqualTo(logbook);
+  }
+
+  @Test
+  public void excludedPropertiesAreNotWritten() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    AutoValue_Taco.writeTo(taco(), new DataOutputStream(bytes));
+
+    Taco taco = AutoValue_Taco.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertThat(taco.name()).isEqualTo(taco().name());
+    assertThat(taco.ingredients()).isEqualTo(taco().ingredients());
+    assertThat(taco.review()).isEqualTo(taco().review());
+    assertThat(taco.votes()).isEqualTo(taco().votes());
+    assertThat(taco.history()).isNull();
+  }
+
+  @Test
+  public void primitiveArraysRoundTrip() throws Exception {
+    Series series = Series.create(new long[] {1478649600000L, -2}, new double[] {0.5, Double.NaN});
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    AutoValue_Series.writeTo(series, new DataOutputStream(bytes));
+
+    Series read = AutoValue_Series.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertThat(read.timestamps()).isEqualTo(series.timestamps());
+    // Arrays.equals() compares doubles by their bits, so NaN equals itself
+    assertThat(Arrays.equals(read.readings(), series.readings())).isTrue();
+  }
+
+  @Test
+  public void adaptedPropertiesAreWrittenAsTheirStoredValues() throws Exception {
+    Receipt receipt = Receipt.create("Kalimari Desert", null, new BigDecimal("12.50"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    AutoValue_Receipt.writeTo(receipt, new DataOutputStream(bytes));
+
+    Receipt read = AutoValue_Receipt.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertThat(read).isEqualTo(receipt);
+    assertThat(read.total().scale()).isEqualTo(2);
+  }
+
+  @Test
+  public void staleRecordsAreRejected() throws Exception {
+    byte[] bytes = write(logbook());
+    // A record written by another version of the class starts with another schema hash
+    bytes[0] ^= 1;
+
+    try {
+      readLogbook(bytes);
+      fail();
+    } catch (BinaryFormat.StaleRecordException expected) {
+    }
+  }
+
+  @Test
+  public void schemaHashesDifferBetweenClasses() throws Exception {
+    assertThat(AutoValue_Taco.SCHEMA_HASH).isNotEqualTo(AutoValue_Review.SCHEMA_HASH);
+    assertThat(AutoValue_Series.SCHEMA_HASH).isNotEqualTo(AutoValue_Receipt.SCHEMA_HASH);
+  }
+
+  @Test
+  public void smallValuesTakeOneByte() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    AutoValue_Review.writeTo(Review.create("ok", -5), new DataOutputStream(bytes));
+
+    // The schema hash, the length and characters of the description, and the rating
+    assertThat(bytes.size()).isEqualTo(4 + 1 + 2 + 1);
+  }
+
+  @Test
+  public void smallerThanJson() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    AutoValue_Taco.writeTo(taco(), new DataOutputStream(bytes));
+    StringWriter json = new StringWriter();
+    AutoValue_Taco.writeTo(taco(), new JsonWriter(json));
+
+    assertThat(bytes.size()).isLessThan(json.toString().length() / 2);
+  }
+}
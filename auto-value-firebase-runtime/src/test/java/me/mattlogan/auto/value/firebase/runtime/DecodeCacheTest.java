@@ -0,0 +1,150 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class DecodeCacheTest {
+
+  private static final DecodeCache.Decoder<Review> DECODER = new DecodeCache.Decoder<Review>() {
+    @Override
+    @SuppressWarnings("unchecked")
+    public Review decode(Object value) {
+      return AutoValue_Review.fromMap((Map<String, Object>) value);
+    }
+  };
+
+  private static Map<String, Object> review(String description, long stars) {
+    Map<String, Object> review = new HashMap<>();
+    review.put("description", description);
+    review.put("stars", stars);
+    return review;
+  }
+
+  @Test
+  public void unchangedValueReturnsCachedInstance() throws Exception {
+    DecodeCache<Review> cache = DecodeCache.create(16);
+
+    Review first = cache.get("-KaB1", review("Amazing taco.", 5), DECODER);
+    Review second = cache.get("-KaB1", review("Amazing taco.", 5), DECODER);
+
+    assertThat(first).isEqualTo(Review.create("Amazing taco.", 5));
+    assertThat(second).isSameAs(first);
+    assertThat(cache.hitCount()).isEqualTo(1L);
+    assertThat(cache.missCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void changedValueIsDecodedAgain() throws Exception {
+    DecodeCache<Review> cache = DecodeCache.create(16);
+
+    Review first = cache.get("-KaB1", review("Amazing taco.", 5), DECODER);
+    Review second = cache.get("-KaB1", review("Amazing taco.", 4), DECODER);
+
+    assertThat(second).isEqualTo(Review.create("Amazing taco.", 4));
+    assertThat(second).isNotSameAs(first);
+    assertThat(cache.hitCount()).isEqualTo(0L);
+    assertThat(cache.missCount()).isEqualTo(2L);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void nullValueInvalidates() throws Exception {
+    DecodeCache<Review> cache = DecodeCache.create(16);
+    cache.get("-KaB1", review("Amazing taco.", 5), DECODER);
+
+    assertThat(cache.get("-KaB1", null, DECODER)).isNull();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws Exception {
+    DecodeCache<Review> cache = new DecodeCache<>(2, 1);
+    Review first = cache.get("first", review("First", 1), DECODER);
+    cache.get("second", review("Second", 2), DECODER);
+
+    // Reading the first entry makes the second one the least recently used
+    cache.get("first", review("First", 1), DECODER);
+    cache.get("third", review("Third", 3), DECODER);
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.get("first", review("First", 1), DECODER)).isSameAs(first);
+    long misses = cache.missCount();
+    cache.get("second", review("Second", 2), DECODER);
+    assertThat(cache.missCount()).isEqualTo(misses + 1);
+  }
+
+  @Test
+  public void sizeIsBounded() throws Exception {
+    DecodeCache<Review> cache = DecodeCache.create(64);
+
+    for (int i = 0; i < 10000; i++) {
+      cache.get("review" + i, review("Review", i), DECODER);
+    }
+
+    assertThat(cache.size()).isAtMost(64);
+  }
+
+  @Test
+  public void fingerprintIgnoresMapOrder() throws Exception {
+    Map<String, Object> first = new LinkedHashMap<>();
+    first.put("description", "Amazing taco.");
+    first.put("stars", 5L);
+    Map<String, Object> second = new LinkedHashMap<>();
+    second.put("stars", 5L);
+    second.put("description", "Amazing taco.");
+
+    assertThat(DecodeCache.fingerprint(second)).isEqualTo(DecodeCache.fingerprint(first));
+  }
+
+  @Test
+  public void fingerprintDistinguishesValues() throws Exception {
+    assertThat(DecodeCache.fingerprint(Arrays.<Object>asList("a", "b")))
+      .isNotEqualTo(DecodeCache.fingerprint(Arrays.<Object>asList("b", "a")));
+    assertThat(DecodeCache.fingerprint(1L)).isNotEqualTo(DecodeCache.fingerprint(1.0));
+    assertThat(DecodeCache.fingerprint("1")).isNotEqualTo(DecodeCache.fingerprint(1L));
+    assertThat(DecodeCache.fingerprint(true)).isNotEqualTo(DecodeCache.fingerprint(false));
+    assertThat(DecodeCache.fingerprint(review("Amazing taco.", 5)))
+      .isNotEqualTo(DecodeCache.fingerprint(review("Amazing taco!", 5)));
+  }
+
+  @Test
+  public void concurrentReadsAgree() throws Exception {
+    final DecodeCache<Review> cache = DecodeCache.create(1024);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<List<Review>>> results = new ArrayList<>();
+
+    for (int thread = 0; thread < 8; thread++) {
+      results.add(executor.submit(new Callable<List<Review>>() {
+        @Override
+        public List<Review> call() {
+          List<Review> reviews = new ArrayList<>();
+          for (int i = 0; i < 100; i++) {
+            reviews.add(cache.get("review" + i, review("Review", i), DECODER));
+          }
+          return reviews;
+        }
+      }));
+    }
+
+    for (Future<List<Review>> result : results) {
+      List<Review> reviews = result.get();
+      for (int i = 0; i < reviews.size(); i++) {
+        assertThat(reviews.get(i)).isEqualTo(Review.create("Review", i));
+      }
+    }
+    assertThat(cache.hitCount() + cache.missCount()).isEqualTo(800L);
+    assertThat(cache.size()).isEqualTo(100);
+    executor.shutdown();
+  }
+}
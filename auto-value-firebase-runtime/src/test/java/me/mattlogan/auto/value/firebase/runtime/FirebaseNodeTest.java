@@ -0,0 +1,128 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class FirebaseNodeTest {
+
+  /**
+   * A Map-backed stand-in for a DataSnapshot that records the path of every node whose value
+   * or children are read.
+   */
+  static final class RecordingNode implements FirebaseNode {
+    private final String path;
+    private final FirebaseNode delegate;
+    private final List<String> visited;
+
+    RecordingNode(String path, FirebaseNode delegate, List<String> visited) {
+      this.path = path;
+      this.delegate = delegate;
+      this.visited = visited;
+    }
+
+    @Override
+    public String key() {
+      return delegate.key();
+    }
+
+    @Override
+    public FirebaseNode child(String key) {
+      FirebaseNode child = delegate.child(key);
+      return child == null ? null : new RecordingNode(path + "/" + key, child, visited);
+    }
+
+    @Override
+    public Iterable<FirebaseNode> children() {
+      visited.add(path);
+      List<FirebaseNode> children = new ArrayList<>();
+      for (FirebaseNode child : delegate.children()) {
+        children.add(new RecordingNode(path + "/" + child.key(), child, visited));
+      }
+      return children;
+    }
+
+    @Override
+    public Object value() {
+      visited.add(path);
+      return delegate.value();
+    }
+  }
+
+  private static Map<String, Object> review(String description, long stars) {
+    Map<String, Object> review = new HashMap<>();
+    review.put("description", description);
+    review.put("stars", stars);
+    return review;
+  }
+
+  private static Map<String, Object> taco() {
+    Map<String, Object> ingredient = new HashMap<>();
+    ingredient.put("name", "Cactus");
+    ingredient.put("spiciness", 3L);
+
+    Map<String, Object> votes = new HashMap<>();
+    votes.put("matt", 1L);
+
+    Map<String, Object> history = new HashMap<>();
+    history.put("-KZ1", review("Too spicy.", 2L));
+
+    Map<String, Object> taco = new HashMap<>();
+    taco.put("name", "Kalimari Desert");
+    taco.put("ingredients", Arrays.<Object>asList(ingredient));
+    taco.put("review", review("Amazing taco.", 5L));
+    taco.put("votes", votes);
+    taco.put("history", history);
+    taco.put("comments", Arrays.<Object>asList("first!", "second!"));
+    return taco;
+  }
+
+  @Test
+  public void fromNodeMatchesFromMap() throws Exception {
+    Taco taco = AutoValue_Taco.fromNode(MapFirebaseNode.create(taco()));
+
+    assertThat(taco).isEqualTo(AutoValue_Taco.fromMap(taco()));
+    assertThat(taco.ingredients()).containsExactly(Ingredient.create("Cactus", 3));
+    assertThat(taco.review()).isEqualTo(Review.create("Amazing taco.", 5));
+    assertThat(taco.votes()).containsEntry("matt", 1L);
+    assertThat(taco.history()).isNull();
+  }
+
+  @Test
+  public void fromNodeOnlyVisitsDeclaredChildren() throws Exception {
+    List<String> visited = new ArrayList<>();
+
+    AutoValue_Taco.fromNode(new RecordingNode("", MapFirebaseNode.create(taco()), visited));
+
+    assertThat(visited).containsExactly(
+      "/name",
+      "/ingredients",
+      "/ingredients/0/name",
+      "/ingredients/0/spiciness",
+      "/review/description",
+      "/review/stars",
+      "/votes",
+      "/votes/matt");
+  }
+
+  @Test
+  public void mapNodeChildren() throws Exception {
+    FirebaseNode node = MapFirebaseNode.create(taco());
+
+    assertThat(node.key()).isNull();
+    assertThat(node.child("missing")).isNull();
+    assertThat(node.child("ingredients").child("0").child("name").value()).isEqualTo("Cactus");
+    assertThat(node.child("ingredients").child("1")).isNull();
+
+    List<String> keys = new ArrayList<>();
+    for (FirebaseNode child : node.child("comments").children()) {
+      keys.add(child.key());
+    }
+    assertThat(keys).containsExactly("0", "1").inOrder();
+  }
+}
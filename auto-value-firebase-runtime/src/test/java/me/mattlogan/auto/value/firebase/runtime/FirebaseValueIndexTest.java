@@ -0,0 +1,65 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class FirebaseValueIndexTest {
+
+  private static Taco taco() {
+    return Taco.create("Kalimari Desert",
+                       Arrays.asList(Ingredient.create("Cactus", 3)),
+                       Review.create("Amazing taco.", 5),
+                       Collections.singletonMap("matt", 1L),
+                       null);
+  }
+
+  @Test
+  public void adaptersAreLookedUpByModelClass() throws Exception {
+    FirebaseValueAdapter<Taco> adapter = FirebaseValues.get(Taco.class);
+
+    Map<String, Object> map = adapter.toMap(taco());
+
+    assertThat(map).isEqualTo(new AutoValue_Taco.FirebaseValue(taco()).toMap());
+    assertThat(adapter.fromMap(map)).isEqualTo(taco());
+  }
+
+  @Test
+  public void adaptersAreLookedUpByAutoValueClass() throws Exception {
+    assertThat(FirebaseValues.get(taco().getClass())).isSameAs(FirebaseValues.get(Taco.class));
+    assertThat(FirebaseValues.get(AutoValue_Review.class)).isSameAs(FirebaseValues.get(Review.class));
+  }
+
+  @Test
+  public void toFirebaseValueReturnsTheGeneratedClass() throws Exception {
+    Object firebaseValue = FirebaseValues.get(Review.class).toFirebaseValue(Review.create("Amazing taco.", 5));
+
+    assertThat(firebaseValue).isInstanceOf(AutoValue_Review.FirebaseValue.class);
+    assertThat(((AutoValue_Review.FirebaseValue) firebaseValue).toAutoValue())
+      .isEqualTo(Review.create("Amazing taco.", 5));
+  }
+
+  @Test
+  public void fromNodeMatchesFromMap() throws Exception {
+    FirebaseValueAdapter<Taco> adapter = FirebaseValues.get(Taco.class);
+    Map<String, Object> map = adapter.toMap(taco());
+
+    assertThat(adapter.fromNode(MapFirebaseNode.create(map))).isEqualTo(adapter.fromMap(map));
+  }
+
+  @Test
+  public void everyModelIsIndexed() throws Exception {
+    for (Class<?> type : Arrays.<Class<?>>asList(Catalog.class, Ingredient.class, Logbook.class, Menu.class,
+                                                 Receipt.class, Review.class, Series.class, Taco.class)) {
+      assertThat(FirebaseValues.get(type)).isNotNull();
+    }
+  }
+
+  @Test
+  public void otherClassesAreNotIndexed() throws Exception {
+    assertThat(FirebaseValues.get(String.class)).isNull();
+  }
+}
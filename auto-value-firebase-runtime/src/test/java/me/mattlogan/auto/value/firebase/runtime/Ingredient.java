@@ -0,0 +1,17 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.ThrowOnExtraProperties;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue(intern = true) @ThrowOnExtraProperties
+abstract class Ingredient {
+
+  static Ingredient create(String name, int spiciness) {
+    return new AutoValue_Ingredient(name, spiciness);
+  }
+
+  abstract String name();
+
+  abstract int spiciness();
+}
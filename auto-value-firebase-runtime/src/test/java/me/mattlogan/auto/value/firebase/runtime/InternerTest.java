@@ -0,0 +1,84 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class InternerTest {
+
+  @Test
+  public void equalValuesShareOneInstance() throws Exception {
+    Interner<String> interner = Interner.create();
+    String first = new String("Cactus");
+    String second = new String("Cactus");
+
+    assertThat(interner.intern(first)).isSameAs(first);
+    assertThat(interner.intern(second)).isSameAs(first);
+    assertThat(interner.intern(null)).isNull();
+  }
+
+  @Test
+  public void sizeIsBounded() throws Exception {
+    Interner<Integer> interner = Interner.create(64);
+
+    for (int i = 0; i < 10000; i++) {
+      interner.intern(i);
+    }
+
+    assertThat(interner.size()).isAtMost(64);
+  }
+
+  @Test
+  public void concurrentInternsAgree() throws Exception {
+    final Interner<String> interner = Interner.create();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<List<String>>> results = new ArrayList<>();
+
+    for (int thread = 0; thread < 8; thread++) {
+      results.add(executor.submit(new Callable<List<String>>() {
+        @Override
+        public List<String> call() {
+          List<String> interned = new ArrayList<>();
+          for (int i = 0; i < 100; i++) {
+            interned.add(interner.intern(new String("Ingredient " + i)));
+          }
+          return interned;
+        }
+      }));
+    }
+
+    List<String> expected = results.get(0).get();
+    for (Future<List<String>> result : results) {
+      List<String> interned = result.get();
+      for (int i = 0; i < interned.size(); i++) {
+        assertThat(interned.get(i)).isSameAs(expected.get(i));
+      }
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void toAutoValueInternsNestedValues() throws Exception {
+    Taco taco = Taco.create("Kalimari Desert",
+      Arrays.asList(Ingredient.create("Cactus", 3), Ingredient.create("Cactus", 3)),
+      Review.create("Amazing taco.", 5),
+      Collections.<String, Long>emptyMap(),
+      null);
+
+    Taco first = new AutoValue_Taco.FirebaseValue(taco).toAutoValue();
+    Taco second = new AutoValue_Taco.FirebaseValue(taco).toAutoValue();
+
+    assertThat(first.ingredients().get(1)).isSameAs(first.ingredients().get(0));
+    assertThat(second.ingredients().get(0)).isSameAs(first.ingredients().get(0));
+    // Review doesn't set intern, so each conversion makes a new one
+    assertThat(second.review()).isNotSameAs(first.review());
+  }
+}
@@ -0,0 +1,150 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class JsonTest {
+
+  private static final String TACO = ""
+    + "{"
+    + "\"name\": \"Kalimari Desert\","
+    + "\"ingredients\": [{\"name\": \"Cactus\", \"spiciness\": 3}],"
+    + "\"review\": {\"description\": \"Amazing taco.\", \"stars\": 5},"
+    + "\"votes\": {\"matt\": 1},"
+    + "\"history\": {\"-KZ1\": {\"description\": \"Too spicy.\", \"stars\": 2}},"
+    + "\"comments\": [\"first!\", {\"nested\": [1, 2, 3]}]"
+    + "}";
+
+  @Test
+  public void fromJsonReadsDeclaredProperties() throws Exception {
+    Taco taco = AutoValue_Taco.fromJson(new StringReader(TACO));
+
+    assertThat(taco.name()).isEqualTo("Kalimari Desert");
+    assertThat(taco.ingredients()).containsExactly(Ingredient.create("Cactus", 3));
+    assertThat(taco.review()).isEqualTo(Review.create("Amazing taco.", 5));
+    assertThat(taco.votes()).containsEntry("matt", 1L);
+    // Excluded properties are skipped like any other unknown key
+    assertThat(taco.history()).isNull();
+  }
+
+  @Test
+  public void fromJsonReadsInputStreams() throws Exception {
+    ByteArrayInputStream in = new ByteArrayInputStream(TACO.getBytes("UTF-8"));
+
+    Taco taco = AutoValue_Taco.fromJson(new InputStreamReader(in, "UTF-8"));
+
+    assertThat(taco).isEqualTo(AutoValue_Taco.fromJson(new StringReader(TACO)));
+  }
+
+  @Test
+  public void fromJsonTreatsNullsAsMissing() throws Exception {
+    // Firebase never stores nulls, so a null isn't an extra property even with @ThrowOnExtraProperties
+    Ingredient ingredient = AutoValue_Ingredient.fromJson(
+      new StringReader("{\"name\": \"Cactus\", \"spiciness\": null, \"color\": null}"));
+
+    assertThat(ingredient).isEqualTo(Ingredient.create("Cactus", 0));
+  }
+
+  @Test
+  public void fromJsonThrowsOnExtraProperties() throws Exception {
+    try {
+      AutoValue_Ingredient.fromJson(new StringReader("{\"name\": \"Cactus\", \"color\": \"green\"}"));
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).isEqualTo("Found unknown property 'color' for Ingredient");
+    }
+  }
+
+  @Test
+  public void writeToMatchesDatabaseJson() throws Exception {
+    Taco taco = Taco.create("Kalimari Desert",
+      Arrays.asList(Ingredient.create("Cactus", 3)),
+      Review.create("Amazing taco.", 5),
+      Collections.singletonMap("matt", 1L),
+      Collections.singletonMap("-KZ1", Review.create("Too spicy.", 2)));
+
+    // history is excluded, and the review rating is written under its @PropertyName
+    assertThat(write(taco)).isEqualTo(""
+      + "{"
+      + "\"name\":\"Kalimari Desert\","
+      + "\"ingredients\":[{\"name\":\"Cactus\",\"spiciness\":3}],"
+      + "\"review\":{\"description\":\"Amazing taco.\",\"stars\":5},"
+      + "\"votes\":{\"matt\":1}"
+      + "}");
+  }
+
+  @Test
+  public void writeToRoundTripsThroughFromJson() throws Exception {
+    Taco taco = Taco.create("Kalimari Desert",
+      Arrays.asList(Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 5)),
+      Review.create("Amazing taco.", 5),
+      Collections.singletonMap("matt", 1L),
+      null);
+
+    assertThat(AutoValue_Taco.fromJson(new StringReader(write(taco)))).isEqualTo(taco);
+  }
+
+  @Test
+  public void writeToRoundTripsNullListElements() throws Exception {
+    Taco taco = Taco.create("Kalimari Desert",
+      Arrays.asList(Ingredient.create("Cactus", 3), null, Ingredient.create("Peppers", 5)),
+      Review.create("Amazing taco.", 5),
+      Collections.singletonMap("matt", 1L),
+      null);
+
+    assertThat(AutoValue_Taco.fromJson(new StringReader(write(taco)))).isEqualTo(taco);
+  }
+
+  @Test
+  public void fromJsonReadsSparseArrays() throws Exception {
+    // Arrays with missing indexes are exported with nulls in their place
+    Taco taco = AutoValue_Taco.fromJson(new StringReader(""
+      + "{"
+      + "\"name\": \"Kalimari Desert\","
+      + "\"ingredients\": [null, {\"name\": \"Cactus\", \"spiciness\": 3}],"
+      + "\"review\": {\"description\": \"Amazing taco.\", \"stars\": 5},"
+      + "\"votes\": {\"matt\": 1}"
+      + "}"));
+
+    assertThat(taco.ingredients()).containsExactly(null, Ingredient.create("Cactus", 3)).inOrder();
+  }
+
+  @Test
+  public void fromJsonThrowsOnNullsInImmutableLists() throws Exception {
+    // Leaving the null out would move "c" to index 1, so both decoders throw instead
+    Map<String, Object> map = new HashMap<>();
+    map.put("name", "Road trip");
+    map.put("tags", Arrays.asList("a", null, "c"));
+    try {
+      AutoValue_Playlist.fromMap(map);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+
+    try {
+      AutoValue_Playlist.fromJson(new StringReader("{\"name\": \"Road trip\", \"tags\": [\"a\", null, \"c\"]}"));
+      fail();
+    } catch (NullPointerException expected) {
+      assertThat(expected.getMessage()).isEqualTo("tags is an ImmutableList, which can't hold nulls");
+    }
+  }
+
+  private static String write(Taco taco) throws Exception {
+    StringWriter out = new StringWriter();
+    JsonWriter writer = new JsonWriter(out);
+    AutoValue_Taco.writeTo(taco, writer);
+    writer.flush();
+    return out.toString();
+  }
+}
@@ -0,0 +1,107 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class LazyCollectionsTest {
+
+  static final class CountingList extends LazyList<String, Integer> {
+    final List<String> converted = new ArrayList<>();
+
+    CountingList(List<String> source) {
+      super(source);
+    }
+
+    @Override
+    protected Integer convert(String value) {
+      converted.add(value);
+      return Integer.valueOf(value);
+    }
+  }
+
+  static final class CountingMap extends LazyMap<String, String, Integer> {
+    final List<String> converted = new ArrayList<>();
+
+    CountingMap(Map<String, String> source) {
+      super(source);
+    }
+
+    @Override
+    protected Integer convert(String value) {
+      converted.add(value);
+      return Integer.valueOf(value);
+    }
+  }
+
+  @Test
+  public void lazyListConvertsEachElementOnceWhenRead() {
+    CountingList list = new CountingList(new LinkedList<>(Arrays.asList("1", null, "3")));
+
+    assertThat(list.size()).isEqualTo(3);
+    assertThat(list.converted).isEmpty();
+
+    assertThat(list.get(2)).isEqualTo(3);
+    assertThat(list.get(2)).isSameAs(list.get(2));
+    assertThat(list.get(1)).isNull();
+    assertThat(list.converted).containsExactly("3");
+
+    assertThat(list).containsExactly(1, null, 3).inOrder();
+    assertThat(list.converted).containsExactly("3", "1").inOrder();
+  }
+
+  @Test
+  public void lazyMapConvertsEachValueOnceWhenRead() {
+    Map<String, String> source = new LinkedHashMap<>();
+    source.put("a", "1");
+    source.put("b", "2");
+    CountingMap map = new CountingMap(source);
+
+    assertThat(map.size()).isEqualTo(2);
+    assertThat(map.containsKey("b")).isTrue();
+    assertThat(map.converted).isEmpty();
+
+    assertThat(map.get("b")).isEqualTo(2);
+    assertThat(map.get("b")).isSameAs(map.get("b"));
+    assertThat(map.get("c")).isNull();
+    assertThat(map.converted).containsExactly("2");
+
+    Map<String, Integer> expected = new HashMap<>();
+    expected.put("a", 1);
+    expected.put("b", 2);
+    assertThat(map).isEqualTo(expected);
+    assertThat(map.converted).containsExactly("2", "1").inOrder();
+  }
+
+  @Test
+  public void generatedViewsAreReadOnlyAndEqualToTheOriginal() {
+    Map<String, Review> reviews = new HashMap<>();
+    reviews.put("matt", Review.create("Great", 5));
+    Menu menu = Menu.create(Arrays.asList(Ingredient.create("Salsa", 3), Ingredient.create("Rice", 0)), reviews);
+
+    Menu converted = new AutoValue_Menu.FirebaseValue(menu).toAutoValue();
+
+    assertThat(converted).isEqualTo(menu);
+    assertThat(converted.ingredients()).isInstanceOf(LazyList.class);
+    assertThat(converted.reviews()).isInstanceOf(LazyMap.class);
+    assertThat(converted.ingredients().get(0)).isSameAs(converted.ingredients().get(0));
+    try {
+      converted.ingredients().add(Ingredient.create("Cheese", 0));
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      converted.reviews().put("logan", Review.create("Good", 4));
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+  }
+}
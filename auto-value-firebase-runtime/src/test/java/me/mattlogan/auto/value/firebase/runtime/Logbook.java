@@ -0,0 +1,39 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+abstract class Logbook {
+
+  enum Weather {
+    SUNNY, RAINY
+  }
+
+  static Logbook create(String title, long startedAt, boolean archived, Integer rating, Weather weather,
+                        List<List<String>> stops, Map<Integer, Review> reviewsByDay,
+                        Map<String, List<Long>> splits) {
+    return new AutoValue_Logbook(title, startedAt, archived, rating, weather, stops, reviewsByDay, splits);
+  }
+
+  @Nullable
+  abstract String title();
+
+  abstract long startedAt();
+
+  abstract boolean archived();
+
+  @Nullable
+  abstract Integer rating();
+
+  @Nullable
+  abstract Weather weather();
+
+  abstract List<List<String>> stops();
+
+  abstract Map<Integer, Review> reviewsByDay();
+
+  abstract Map<String, List<Long>> splits();
+}
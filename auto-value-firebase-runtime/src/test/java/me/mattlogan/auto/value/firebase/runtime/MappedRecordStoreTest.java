@@ -0,0 +1,218 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MappedRecordStoreTest {
+
+  private static final MappedRecordStore.Codec<Review> CODEC = new MappedRecordStore.Codec<Review>() {
+    @Override
+    public void write(Review review, DataOutput out) throws IOException {
+      AutoValue_Review.writeTo(review, out);
+    }
+
+    @Override
+    public Review read(DataInput in) throws IOException {
+      return AutoValue_Review.readFrom(in);
+    }
+  };
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+  private MappedRecordStore<Review> store;
+
+  @Before
+  public void setUp() throws Exception {
+    file = new File(temporaryFolder.getRoot(), "reviews.db");
+    store = MappedRecordStore.open(file, CODEC);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    store.close();
+  }
+
+  @Test
+  public void putThenGet() throws Exception {
+    store.put("-KZ1", Review.create("Amazing taco.", 5));
+
+    assertThat(store.get("-KZ1")).isEqualTo(Review.create("Amazing taco.", 5));
+    assertThat(store.get("-KZ2")).isNull();
+    assertThat(store.containsKey("-KZ1")).isTrue();
+    assertThat(store.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void putReplacesValues() throws Exception {
+    store.put("-KZ1", Review.create("Amazing taco.", 5));
+    store.put("-KZ1", Review.create("Too spicy.", 2));
+
+    assertThat(store.get("-KZ1")).isEqualTo(Review.create("Too spicy.", 2));
+    assertThat(store.size()).isEqualTo(1);
+    assertThat(store.garbageBytes()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void removeAndPutNull() throws Exception {
+    store.put("-KZ1", Review.create("Amazing taco.", 5));
+    store.put("-KZ2", Review.create("Too spicy.", 2));
+
+    assertThat(store.remove("-KZ1")).isTrue();
+    assertThat(store.remove("-KZ1")).isFalse();
+    store.put("-KZ2", null);
+
+    assertThat(store.get("-KZ1")).isNull();
+    assertThat(store.get("-KZ2")).isNull();
+    assertThat(store.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void reopeningReplaysTheFile() throws Exception {
+    store.put("-KZ1", Review.create("Amazing taco.", 5));
+    store.put("-KZ2", Review.create("Too spicy.", 2));
+    store.put("-KZ1", Review.create("Still amazing.", 4));
+    store.remove("-KZ2");
+    long garbageBytes = store.garbageBytes();
+    store.close();
+
+    store = MappedRecordStore.open(file, CODEC);
+
+    assertThat(store.get("-KZ1")).isEqualTo(Review.create("Still amazing.", 4));
+    assertThat(store.get("-KZ2")).isNull();
+    assertThat(store.size()).isEqualTo(1);
+    assertThat(store.garbageBytes()).isEqualTo(garbageBytes);
+  }
+
+  @Test
+  public void manyRecordsAcrossChunks() throws Exception {
+    store.close();
+    // Small chunks, so records are spread over many of them. A new file, since existing ones keep
+    // the chunk size they were created with.
+    file = new File(temporaryFolder.getRoot(), "chunked.db");
+    store = MappedRecordStore.open(file, CODEC, 256);
+
+    for (int i = 0; i < 1000; i++) {
+      store.put("review" + i, Review.create("Review number " + i, i));
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      store.remove("review" + i);
+    }
+    store.close();
+    store = MappedRecordStore.open(file, CODEC, 256);
+
+    assertThat(store.size()).isEqualTo(500);
+    for (int i = 0; i < 1000; i++) {
+      Review expected = i % 2 == 0 ? null : Review.create("Review number " + i, i);
+      assertThat(store.get("review" + i)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void iterationDecodesValuesOnAccess() throws Exception {
+    Map<String, Review> reviews = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      reviews.put("review" + i, Review.create("Review number " + i, i));
+      store.put("review" + i, reviews.get("review" + i));
+    }
+
+    Map<String, Review> iterated = new HashMap<>();
+    for (MappedRecordStore.Record<Review> record : store) {
+      iterated.put(record.key(), record.value());
+    }
+
+    assertThat(iterated).isEqualTo(reviews);
+  }
+
+  @Test
+  public void iterationFailsOnChanges() throws Exception {
+    store.put("-KZ1", Review.create("Amazing taco.", 5));
+    store.put("-KZ2", Review.create("Too spicy.", 2));
+    Iterator<MappedRecordStore.Record<Review>> iterator = store.iterator();
+    iterator.next();
+
+    store.put("-KZ3", Review.create("Meh.", 3));
+
+    try {
+      iterator.next();
+      fail();
+    } catch (ConcurrentModificationException expected) {
+    }
+  }
+
+  @Test
+  public void compactReclaimsGarbage() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      store.put("review" + (i % 10), Review.create("Review number " + i, i));
+    }
+    long length = file.length();
+
+    store.compact();
+
+    assertThat(store.garbageBytes()).isEqualTo(0L);
+    assertThat(store.size()).isEqualTo(10);
+    assertThat(store.get("review3")).isEqualTo(Review.create("Review number 93", 93));
+    store.close();
+    assertThat(file.length()).isAtMost(length);
+    store = MappedRecordStore.open(file, CODEC);
+    assertThat(store.get("review7")).isEqualTo(Review.create("Review number 97", 97));
+  }
+
+  @Test
+  public void recordsLargerThanAChunk() throws Exception {
+    store.close();
+    // A new file, since existing ones keep the chunk size they were created with
+    store = MappedRecordStore.open(new File(temporaryFolder.getRoot(), "small.db"), CODEC, 64);
+    StringBuilder description = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      description.append("Amazing. ");
+    }
+
+    try {
+      store.put("-KZ1", Review.create(description.toString(), 5));
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertThat(expected.getMessage()).contains("-KZ1");
+    }
+  }
+
+  @Test
+  public void otherFilesAreRejected() throws Exception {
+    store.close();
+    File other = temporaryFolder.newFile("other.db");
+    Files.write(other.toPath(), "Not a store, but long enough".getBytes("UTF-8"));
+
+    try {
+      MappedRecordStore.open(other, CODEC);
+      fail();
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains("Not a record store");
+    }
+  }
+
+  @Test
+  public void closedStoresThrow() throws Exception {
+    store.close();
+
+    try {
+      store.get("-KZ1");
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
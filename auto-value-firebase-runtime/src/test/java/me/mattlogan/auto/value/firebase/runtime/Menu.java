@@ -0,0 +1,18 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue(lazyCollections = true)
+abstract class Menu {
+
+  static Menu create(List<Ingredient> ingredients, Map<String, Review> reviews) {
+    return new AutoValue_Menu(ingredients, reviews);
+  }
+
+  abstract List<Ingredient> ingredients();
+
+  abstract Map<String, Review> reviews();
+}
@@ -0,0 +1,14 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * AutoValue allows null for any property annotated with an annotation named Nullable.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+@interface Nullable {
+}
@@ -0,0 +1,117 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class ParallelConversionTest {
+
+  /** Runs tasks on a real pool and counts how many it was handed. */
+  static final class CountingExecutor implements Executor {
+    final ExecutorService delegate = Executors.newFixedThreadPool(4);
+    final AtomicInteger executed = new AtomicInteger();
+
+    @Override
+    public void execute(Runnable command) {
+      executed.incrementAndGet();
+      delegate.execute(command);
+    }
+  }
+
+  private CountingExecutor executor;
+
+  @Before
+  public void setUp() {
+    executor = new CountingExecutor();
+    ParallelConversion.setExecutor(executor);
+  }
+
+  @After
+  public void tearDown() {
+    ParallelConversion.setExecutor(null);
+    executor.delegate.shutdown();
+  }
+
+  private static Catalog catalog(int size) {
+    List<Ingredient> ingredients = new ArrayList<>();
+    Map<String, Review> reviews = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      ingredients.add(Ingredient.create("Ingredient " + i, i % 10));
+      reviews.put("user" + i, Review.create("Review " + i, i % 5));
+    }
+    return Catalog.create(ingredients, reviews);
+  }
+
+  @Test
+  public void largeCollectionsConvertInParallelInOrder() {
+    Catalog catalog = catalog(10000);
+
+    AutoValue_Catalog.FirebaseValue firebaseValue = new AutoValue_Catalog.FirebaseValue(catalog);
+    assertThat(executor.executed.get()).isGreaterThan(0);
+    assertThat(firebaseValue.getReviews()).hasSize(10000);
+    for (int i = 0; i < 10000; i++) {
+      assertThat(firebaseValue.getIngredients().get(i).getName()).isEqualTo("Ingredient " + i);
+    }
+
+    assertThat(firebaseValue.toAutoValue()).isEqualTo(catalog);
+  }
+
+  @Test
+  public void smallCollectionsConvertOnTheCallingThread() {
+    Catalog catalog = catalog(99);
+
+    assertThat(new AutoValue_Catalog.FirebaseValue(catalog).toAutoValue()).isEqualTo(catalog);
+    assertThat(executor.executed.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void convertsOnTheCallingThreadWhenTheExecutorNeverRuns() {
+    ParallelConversion.setExecutor(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        // Dropped, like a saturated executor that hasn't gotten to it yet
+      }
+    });
+
+    List<Integer> converted = ParallelConversion.convertList(Arrays.asList("1", null, "3"),
+      new ParallelConversion.Converter<String, Integer>() {
+        @Override
+        public Integer convert(String value) {
+          return Integer.valueOf(value);
+        }
+      });
+
+    assertThat(converted).containsExactly(1, null, 3).inOrder();
+  }
+
+  @Test
+  public void failuresAreRethrownOnTheCallingThread() {
+    List<String> source = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      source.add(i == 500 ? "not a number" : String.valueOf(i));
+    }
+
+    try {
+      ParallelConversion.convertList(source, new ParallelConversion.Converter<String, Integer>() {
+        @Override
+        public Integer convert(String value) {
+          return Integer.valueOf(value);
+        }
+      });
+      fail();
+    } catch (NumberFormatException expected) {
+    }
+  }
+}
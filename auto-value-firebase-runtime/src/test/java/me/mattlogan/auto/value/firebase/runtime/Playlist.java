@@ -0,0 +1,17 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+abstract class Playlist {
+
+  static Playlist create(String name, ImmutableList<String> tags) {
+    return new AutoValue_Playlist(name, tags);
+  }
+
+  abstract String name();
+
+  abstract ImmutableList<String> tags();
+}
@@ -0,0 +1,70 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PrimitiveArrayTest {
+
+  private static final int SIZE = 10000;
+
+  private static Series series() {
+    long[] timestamps = new long[SIZE];
+    double[] readings = new double[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      timestamps[i] = 1478649600000L + i;
+      readings[i] = i / 4.0;
+    }
+    return Series.create(timestamps, readings);
+  }
+
+  @Test
+  public void jsonRoundTrip() throws Exception {
+    StringWriter json = new StringWriter();
+    AutoValue_Series.writeTo(series(), new JsonWriter(json));
+
+    assertThat(AutoValue_Series.fromJson(new StringReader(json.toString()))).isEqualTo(series());
+  }
+
+  @Test
+  public void fromJsonReadsNullsAsZeros() throws Exception {
+    Series series = AutoValue_Series.fromJson(new StringReader(
+      "{\"timestamps\": [1, null, 3], \"readings\": []}"));
+
+    assertThat(series).isEqualTo(Series.create(new long[] {1, 0, 3}, new double[0]));
+  }
+
+  @Test
+  public void fromNodeMatchesFromMap() throws Exception {
+    Map<String, Object> map = new HashMap<>();
+    map.put("timestamps", Arrays.<Object>asList(1L, 2L, 3L));
+    map.put("readings", Arrays.<Object>asList(0.5, 1L));
+
+    assertThat(AutoValue_Series.fromNode(MapFirebaseNode.create(map)))
+      .isEqualTo(AutoValue_Series.fromMap(map));
+  }
+
+  @Test
+  public void fromNodePlacesElementsByKey() throws Exception {
+    // Firebase leaves missing indexes out of a node's children
+    Map<String, Object> timestamps = new HashMap<>();
+    timestamps.put("0", 1L);
+    timestamps.put("20", 3L);
+    Map<String, Object> map = new HashMap<>();
+    map.put("timestamps", timestamps);
+    map.put("readings", Arrays.<Object>asList(0.5));
+
+    Series series = AutoValue_Series.fromNode(MapFirebaseNode.create(map));
+
+    long[] expected = new long[21];
+    expected[0] = 1;
+    expected[20] = 3;
+    assertThat(series).isEqualTo(Series.create(expected, new double[] {0.5}));
+  }
+}
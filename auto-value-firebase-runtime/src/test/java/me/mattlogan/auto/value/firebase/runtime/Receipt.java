@@ -0,0 +1,57 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import java.math.BigDecimal;
+import java.util.Date;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseAdapter;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+abstract class Receipt {
+
+  static Receipt create(String name, Date placedAt, BigDecimal total) {
+    return new AutoValue_Receipt(name, placedAt, total);
+  }
+
+  abstract String name();
+
+  @FirebaseAdapter(DateConverter.class) @Nullable
+  abstract Date placedAt();
+
+  @FirebaseAdapter(BigDecimalConverter.class)
+  abstract BigDecimal total();
+
+  // Stored as milliseconds since the epoch
+  static final class DateConverter implements TypeConverter<Date, Long> {
+
+    static int instances;
+
+    DateConverter() {
+      instances++;
+    }
+
+    @Override
+    public Long toFirebaseValue(Date value) {
+      return value.getTime();
+    }
+
+    @Override
+    public Date fromFirebaseValue(Long value) {
+      return new Date(value);
+    }
+  }
+
+  // Stored as a String, since a double would lose precision
+  static final class BigDecimalConverter implements TypeConverter<BigDecimal, String> {
+
+    @Override
+    public String toFirebaseValue(BigDecimal value) {
+      return value.toPlainString();
+    }
+
+    @Override
+    public BigDecimal fromFirebaseValue(String value) {
+      return new BigDecimal(value);
+    }
+  }
+}
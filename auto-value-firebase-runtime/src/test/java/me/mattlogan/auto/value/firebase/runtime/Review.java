@@ -0,0 +1,18 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.PropertyName;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+abstract class Review {
+
+  static Review create(String description, int rating) {
+    return new AutoValue_Review(description, rating);
+  }
+
+  abstract String description();
+
+  @PropertyName("stars")
+  abstract int rating();
+}
@@ -0,0 +1,18 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+abstract class Series {
+
+  static Series create(long[] timestamps, double[] readings) {
+    return new AutoValue_Series(timestamps, readings);
+  }
+
+  @SuppressWarnings("mutable")
+  abstract long[] timestamps();
+
+  @SuppressWarnings("mutable")
+  abstract double[] readings();
+}
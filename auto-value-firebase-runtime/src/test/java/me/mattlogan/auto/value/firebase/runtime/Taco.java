@@ -0,0 +1,27 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.Exclude;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+abstract class Taco {
+
+  static Taco create(String name, List<Ingredient> ingredients, Review review,
+                     Map<String, Long> votes, Map<String, Review> history) {
+    return new AutoValue_Taco(name, ingredients, review, votes, history);
+  }
+
+  abstract String name();
+
+  abstract List<Ingredient> ingredients();
+
+  abstract Review review();
+
+  abstract Map<String, Long> votes();
+
+  @Exclude @Nullable
+  abstract Map<String, Review> history();
+}
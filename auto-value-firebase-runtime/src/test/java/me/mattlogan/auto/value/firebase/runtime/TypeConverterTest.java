@@ -0,0 +1,87 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TypeConverterTest {
+
+  private static Receipt receipt() {
+    return Receipt.create("Kalimari Desert", new Date(1478649600000L), new BigDecimal("12.50"));
+  }
+
+  @Test
+  public void toMapStoresConvertedValues() throws Exception {
+    Map<String, Object> map = new AutoValue_Receipt.FirebaseValue(receipt()).toMap();
+
+    assertThat(map).containsEntry("placedAt", 1478649600000L);
+    assertThat(map).containsEntry("total", "12.50");
+  }
+
+  @Test
+  public void fromMapReadsToMapOutput() throws Exception {
+    Map<String, Object> map = new AutoValue_Receipt.FirebaseValue(receipt()).toMap();
+
+    assertThat(AutoValue_Receipt.fromMap(map)).isEqualTo(receipt());
+  }
+
+  @Test
+  public void fromNodeMatchesFromMap() throws Exception {
+    Map<String, Object> map = new AutoValue_Receipt.FirebaseValue(receipt()).toMap();
+
+    assertThat(AutoValue_Receipt.fromNode(MapFirebaseNode.create(map)))
+      .isEqualTo(AutoValue_Receipt.fromMap(map));
+  }
+
+  @Test
+  public void jsonRoundTrip() throws Exception {
+    StringWriter json = new StringWriter();
+    AutoValue_Receipt.writeTo(receipt(), new JsonWriter(json));
+
+    assertThat(json.toString()).contains("\"total\":\"12.50\"");
+    assertThat(AutoValue_Receipt.fromJson(new StringReader(json.toString()))).isEqualTo(receipt());
+  }
+
+  @Test
+  public void nullsAreNeverConverted() throws Exception {
+    Receipt receipt = Receipt.create("Kalimari Desert", null, new BigDecimal("12.50"));
+
+    AutoValue_Receipt.FirebaseValue firebaseValue = new AutoValue_Receipt.FirebaseValue(receipt);
+
+    assertThat(firebaseValue.toMap()).containsEntry("placedAt", null);
+    assertThat(firebaseValue.toAutoValue()).isEqualTo(receipt);
+  }
+
+  @Test
+  public void diffConvertsChangedProperties() throws Exception {
+    Receipt before = receipt();
+    Receipt after = Receipt.create(before.name(), before.placedAt(), new BigDecimal("13.00"));
+
+    assertThat(AutoValue_Receipt.diff(before, after)).containsExactly("total", "13.00");
+  }
+
+  @Test
+  public void applyDeltaConvertsTheNewValue() throws Exception {
+    Receipt before = receipt();
+
+    Receipt after = AutoValue_Receipt.applyDelta(before, "placedAt", 1478736000000L);
+
+    assertThat(after.placedAt()).isEqualTo(new Date(1478736000000L));
+    assertThat(after.total()).isSameAs(before.total());
+  }
+
+  @Test
+  public void convertersAreCreatedOnce() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      new AutoValue_Receipt.FirebaseValue(receipt()).toAutoValue();
+    }
+
+    assertThat(Receipt.DateConverter.instances).isEqualTo(1);
+  }
+}
@@ -0,0 +1,15 @@
+package com.google.firebase.database;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This is a stand-in for the Exclude annotation from the Firebase Realtime
+ * Database SDK, so the test models can be compiled without the SDK.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.FIELD})
+public @interface Exclude {
+}
@@ -0,0 +1,17 @@
+package test;
+
+import com.google.auto.value.AutoValue;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Burrito {
+
+  public static Burrito create(String name, Map<String, Long> fillings) {
+    return new AutoValue_Burrito(name, fillings);
+  }
+
+  public abstract String name();
+
+  public abstract Map<String, Long> fillings();
+}
@@ -0,0 +1,17 @@
+package test;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Taco {
+
+  public static Taco create(String name, List<String> toppings) {
+    return new AutoValue_Taco(name, toppings);
+  }
+
+  public abstract String name();
+
+  public abstract List<String> toppings();
+}
@@ -0,0 +1,115 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class IncrementalCompilationTest {
+
+  // The first Gradle release that supports AutoValue's dynamic incremental processor
+  private static final String GRADLE_VERSION = "5.0";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File projectDir;
+
+  @Before
+  public void setUp() throws IOException {
+    projectDir = temporaryFolder.newFolder("incremental");
+    copy(new File(System.getProperty("fixturesDir"), "incremental"), projectDir);
+  }
+
+  @Test
+  public void touchingOneModelRecompilesOnlyThatModel() throws IOException {
+    build("compileJava");
+    File burrito = classFile("AutoValue_Burrito");
+    File burritoFirebaseValue = classFile("AutoValue_Burrito$FirebaseValue");
+    String tacoSource = Files.toString(generatedSource("AutoValue_Taco"), Charsets.UTF_8);
+    // Anything recompiled from here on gets a newer timestamp
+    burrito.setLastModified(0);
+    burritoFirebaseValue.setLastModified(0);
+
+    File taco = new File(projectDir, "src/main/java/test/Taco.java");
+    Files.write(Files.toString(taco, Charsets.UTF_8).replace("toppings", "fillings"), taco, Charsets.UTF_8);
+    BuildResult result = build("compileJava");
+
+    assertThat(result.getOutput()).doesNotContain("Full recompilation is required");
+    assertThat(Files.toString(generatedSource("AutoValue_Taco"), Charsets.UTF_8))
+      .isNotEqualTo(tacoSource);
+    assertThat(burrito.lastModified()).isEqualTo(0L);
+    assertThat(burritoFirebaseValue.lastModified()).isEqualTo(0L);
+  }
+
+  @Test
+  public void rebuildingGeneratesIdenticalSources() throws IOException {
+    build("compileJava");
+    Map<String, String> first = generatedSources();
+
+    build("clean", "compileJava");
+
+    assertThat(generatedSources()).isEqualTo(first);
+  }
+
+  private BuildResult build(String... tasks) {
+    String[] arguments = new String[tasks.length + 3];
+    System.arraycopy(tasks, 0, arguments, 0, tasks.length);
+    arguments[tasks.length] = "--info";
+    arguments[tasks.length + 1] = "-PprocessorPath=" + System.getProperty("processorPath");
+    arguments[tasks.length + 2] = "-PcompilePath=" + System.getProperty("compilePath");
+
+    return GradleRunner.create()
+                       .withGradleVersion(GRADLE_VERSION)
+                       .withProjectDir(projectDir)
+                       .withArguments(arguments)
+                       .build();
+  }
+
+  private File classFile(String name) {
+    File file = new File(projectDir, "build/classes/java/main/test/" + name + ".class");
+    assertThat(file.exists()).isTrue();
+    return file;
+  }
+
+  private File generatedSource(String name) {
+    File file = new File(generatedSourcesDir(), "test/" + name + ".java");
+    assertThat(file.exists()).isTrue();
+    return file;
+  }
+
+  private File generatedSourcesDir() {
+    return new File(projectDir, "build/generated/sources/annotationProcessor/java/main");
+  }
+
+  private Map<String, String> generatedSources() throws IOException {
+    Map<String, String> sources = new TreeMap<>();
+    File[] files = new File(generatedSourcesDir(), "test").listFiles();
+    assertThat(files).isNotNull();
+    for (File file : files) {
+      sources.put(file.getName(), Files.toString(file, Charsets.UTF_8));
+    }
+    return sources;
+  }
+
+  private static void copy(File from, File to) throws IOException {
+    for (File file : from.listFiles()) {
+      File target = new File(to, file.getName());
+      if (file.isDirectory()) {
+        target.mkdirs();
+        copy(file, target);
+      } else {
+        Files.copy(file, target);
+      }
+    }
+  }
+}
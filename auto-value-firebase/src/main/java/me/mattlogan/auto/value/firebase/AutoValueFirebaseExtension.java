@@ -4,7 +4,9 @@ import com.google.auto.service.AutoService;
 import com.google.auto.value.extension.AutoValueExtension;
 import com.google.common.collect.Lists;
 import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
@@ -13,17 +15,33 @@ import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
 
 import static javax.lang.model.element.Modifier.ABSTRACT;
 import static javax.lang.model.element.Modifier.FINAL;
 import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PROTECTED;
 import static javax.lang.model.element.Modifier.PUBLIC;
 import static javax.lang.model.element.Modifier.STATIC;
 
@@ -32,15 +50,32 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
 
   static final String AUTOVALUE_PREFIX = "AutoValue_";
   static final String FIREBASEVALUE = "FirebaseValue";
+  static final String INTERNER_FIELD = "INTERNER";
+  static final String KEYS_FIELD = "KEYS";
+  static final String ADAPTER_FIELD = "ADAPTER";
 
   static final ClassName STRING = ClassName.get("java.lang", "String");
   static final ClassName LIST = ClassName.get("java.util", "List");
   static final ClassName MAP = ClassName.get("java.util", "Map");
   static final ClassName ARRAY_LIST = ClassName.get("java.util", "ArrayList");
   static final ClassName HASH_MAP = ClassName.get("java.util", "HashMap");
+  static final ClassName LINKED_HASH_MAP = ClassName.get("java.util", "LinkedHashMap");
   static final ClassName MAP_ENTRY = ClassName.get("java.util", "Map", "Entry");
+  static final ClassName RANDOM_ACCESS = ClassName.get("java.util", "RandomAccess");
+  static final ClassName COLLECTIONS = ClassName.get("java.util", "Collections");
+  static final ClassName ARRAYS = ClassName.get("java.util", "Arrays");
+  static final ClassName ABSTRACT_LIST = ClassName.get("java.util", "AbstractList");
+  static final ClassName IMMUTABLE_LIST = ClassName.get("com.google.common.collect", "ImmutableList");
+  static final ClassName IMMUTABLE_MAP = ClassName.get("com.google.common.collect", "ImmutableMap");
+  static final ParameterizedTypeName STRING_OBJECT_MAP =
+    ParameterizedTypeName.get(MAP, STRING, ClassName.OBJECT);
+  static final ParameterizedTypeName OBJECT_LIST = ParameterizedTypeName.get(LIST, ClassName.OBJECT);
+  static final ParameterizedTypeName WILDCARD_LIST =
+    ParameterizedTypeName.get(LIST, WildcardTypeName.subtypeOf(Object.class));
   static final ClassName FIREBASE_VALUE_ANNOTATION =
     ClassName.get("me.mattlogan.auto.value.firebase.annotation", "FirebaseValue");
+  static final ClassName FIREBASE_ADAPTER =
+    ClassName.get("me.mattlogan.auto.value.firebase.annotation", "FirebaseAdapter");
   static final ClassName IGNORE_EXTRA_PROPERTIES =
     ClassName.get("com.google.firebase.database", "IgnoreExtraProperties");
   static final ClassName THROW_ON_EXTRA_PROPERTIES =
@@ -49,59 +84,532 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
     ClassName.get("com.google.firebase.database", "Exclude");
   static final ClassName PROPERTY_NAME =
     ClassName.get("com.google.firebase.database", "PropertyName");
+  static final ClassName FIREBASE_NODE =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "FirebaseNode");
+  static final ClassName LAZY_LIST =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "LazyList");
+  static final ClassName LAZY_MAP =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "LazyMap");
+  static final ClassName JSON_READER = ClassName.get("com.google.gson.stream", "JsonReader");
+  static final ClassName JSON_TOKEN = ClassName.get("com.google.gson.stream", "JsonToken");
+  static final ClassName JSON_WRITER = ClassName.get("com.google.gson.stream", "JsonWriter");
+  static final ClassName READER = ClassName.get("java.io", "Reader");
+  static final ClassName IO_EXCEPTION = ClassName.get("java.io", "IOException");
+  static final ClassName PARALLEL_CONVERSION =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "ParallelConversion");
+  static final ClassName CONVERTER = PARALLEL_CONVERSION.nestedClass("Converter");
+  static final ClassName INTERNER = ClassName.get("me.mattlogan.auto.value.firebase.runtime", "Interner");
+  static final ClassName TYPE_CONVERTER =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "TypeConverter");
+  static final ClassName FIREBASE_VALUE_ADAPTER =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "FirebaseValueAdapter");
+
+  // Analyzing a type only depends on the type, so it's done once for every class that uses it
+  private final Map<TypeName, PropertyType> propertyTypes = new HashMap<>();
+
+  // Everything generated for a class is derived from that class and the types of its properties,
+  // so Gradle only needs to reprocess the classes that changed
+  @Override
+  public IncrementalExtensionType incrementalType(ProcessingEnvironment processingEnvironment) {
+    return IncrementalExtensionType.ISOLATING;
+  }
 
   @Override
   public boolean applicable(Context context) {
-    for (AnnotationMirror annotation : context.autoValueClass().getAnnotationMirrors()) {
-      if (FIREBASE_VALUE_ANNOTATION.equals(AnnotationSpec.get(annotation).type)) {
-        return true;
-      }
-    }
-    return false;
+    return hasAnnotation(context.autoValueClass(), FIREBASE_VALUE_ANNOTATION);
   }
 
   @Override
   public String generateClass(Context context, String classNameString, String classToExtend, boolean isFinal) {
     String packageName = context.packageName();
     TypeElement autoValueTypeElement = context.autoValueClass();
-    Map<String, ExecutableElement> properties = context.properties();
-    LinkedHashMap<String, TypeName> types = convertPropertiesToTypes(properties);
+    FirebaseValueOptions options = FirebaseValueOptions.of(autoValueTypeElement);
+    LinkedHashMap<String, FirebaseProperty> properties =
+      analyzeProperties(context.properties(), context.processingEnvironment(), options.compactKeys);
+    if (properties == null || !hasUniqueKeys(context, properties) || !hasNullableEnums(context, properties)
+        || !hasVisibleNestedTypes(context, properties)) {
+      return null;
+    }
     ClassName className = ClassName.get(packageName, classNameString);
 
+    if ((options.lazyCollections && !hasRuntimeType(context, LAZY_LIST, "lazyCollections"))
+        || (options.parallelThreshold > 0 && !hasRuntimeType(context, PARALLEL_CONVERSION, "parallelThreshold"))
+        || (options.intern && !hasRuntimeType(context, INTERNER, "intern"))
+        || !hasPresizedBuilders(context, properties)) {
+      return null;
+    }
+
     TypeSpec firebaseValue = TypeSpec.classBuilder(FIREBASEVALUE)
                                      .addModifiers(STATIC, FINAL)
                                      .addAnnotations(generateFirebaseValueClassAnnotations(autoValueTypeElement))
-                                     .addFields(generateFirebaseValueFields(packageName, types))
+                                     .addFields(generateFirebaseValueFields(properties))
                                      .addMethod(generateEmptyFirebaseValueConstructor())
                                      .addMethod(generateFirebaseValueConstructorWithAutoValueParam(
-                                       packageName, autoValueTypeElement, types))
+                                       autoValueTypeElement, properties, options))
                                      .addMethod(generateFirebaseValueToAutoValueMethod(
-                                       packageName, className, types))
-                                     .addMethods(generateFirebaseValueGetters(packageName, properties))
+                                       className, properties, options))
+                                     .addMethod(generateFirebaseValueToMapMethod(properties))
+                                     .addMethod(generateFirebaseValueToUpdatePathsMethod())
+                                     .addMethod(generateFirebaseValueToUpdatePathsWithMapMethod(properties))
+                                     .addMethods(generateFirebaseValueGetters(properties))
                                      .build();
 
-    TypeSpec generatedClass = TypeSpec.classBuilder(className)
-                                      .superclass(TypeVariableName.get(classToExtend))
-                                      .addMethod(generateStandardAutoValueConstructor(types))
-                                      .addType(firebaseValue)
-                                      .addModifiers(isFinal ? FINAL : ABSTRACT)
-                                      .build();
+    TypeSpec.Builder generatedClass = TypeSpec.classBuilder(className)
+                                              .superclass(TypeVariableName.get(classToExtend))
+                                              .addMethod(generateStandardAutoValueConstructor(properties))
+                                              .addMethod(generateFromMapMethod(className, properties))
+                                              .addMethod(generateDiffMethod(autoValueTypeElement))
+                                              .addMethod(generateDiffWithMapMethod(autoValueTypeElement, properties))
+                                              .addMethod(generateApplyDeltaMethod(autoValueTypeElement, className, properties));
+
+    // Only generate the FirebaseNode decoder if the runtime library is on the classpath
+    if (context.processingEnvironment().getElementUtils().getTypeElement(FIREBASE_NODE.toString()) != null) {
+      generatedClass.addMethod(generateFromNodeMethod(className, properties));
+    }
+
+    // Only generate the streaming JSON decoders if Gson is on the classpath
+    if (context.processingEnvironment().getElementUtils().getTypeElement(JSON_READER.toString()) != null) {
+      generatedClass.addMethod(generateFromJsonMethod(autoValueTypeElement, className, properties))
+                    .addMethod(generateFromJsonReaderMethod(className, properties));
+    }
+
+    // Only generate the streaming JSON encoder if Gson is on the classpath
+    if (context.processingEnvironment().getElementUtils().getTypeElement(JSON_WRITER.toString()) != null) {
+      generatedClass.addMethod(generateWriteToMethod(autoValueTypeElement, properties));
+    }
+
+    // Only generate the binary codec if the runtime library is on the classpath
+    if (context.processingEnvironment().getElementUtils().getTypeElement(BinaryCodec.BINARY_FORMAT.toString()) != null) {
+      generatedClass.addField(BinaryCodec.generateSchemaHashField(context.properties()))
+                    .addMethod(BinaryCodec.generateWriteToMethod(autoValueTypeElement))
+                    .addMethod(BinaryCodec.generateWriteFieldsMethod(autoValueTypeElement, properties))
+                    .addMethod(BinaryCodec.generateReadFromMethod(className))
+                    .addMethod(BinaryCodec.generateReadFieldsMethod(className, properties));
+    }
+
+    // Only generate the adapter if the runtime library is on the classpath
+    if (context.processingEnvironment().getElementUtils().getTypeElement(FIREBASE_VALUE_ADAPTER.toString()) != null) {
+      generatedClass.addField(generateAdapterField(autoValueTypeElement, className));
+    }
+
+    addEnumTables(generatedClass, properties);
+    addConverters(generatedClass, properties);
+
+    if (options.compactKeys) {
+      addKeysTable(generatedClass, properties);
+    }
+
+    if (options.intern) {
+      // The canonical instances handed out by FirebaseValue.toAutoValue()
+      TypeName internerType = ParameterizedTypeName.get(INTERNER, stripDollarSignsFromClassName(className));
+      generatedClass.addField(FieldSpec.builder(internerType, INTERNER_FIELD, PRIVATE, STATIC, FINAL)
+                                       .initializer("$T.create()", INTERNER)
+                                       .build());
+    }
+
+    generatedClass.addType(firebaseValue)
+                  .addModifiers(isFinal ? FINAL : ABSTRACT);
+
+    return JavaFile.builder(packageName, generatedClass.build()).build().toString();
+  }
+
+  // Options that generate calls into the runtime library are errors without it
+  static boolean hasRuntimeType(Context context, ClassName runtimeType, String option) {
+    if (context.processingEnvironment().getElementUtils().getTypeElement(runtimeType.toString()) != null) {
+      return true;
+    }
+    context.processingEnvironment().getMessager().printMessage(Diagnostic.Kind.ERROR,
+      option + " requires the auto-value-firebase-runtime library", context.autoValueClass());
+    return false;
+  }
+
+  // Immutable collections are filled through builderWithExpectedSize(), which Guava added in 23.1
+  static boolean hasPresizedBuilders(Context context, Map<String, FirebaseProperty> properties) {
+    boolean immutable = false;
+    for (FirebaseProperty property : properties.values()) {
+      immutable |= property.type.immutable;
+    }
+    if (!immutable) {
+      return true;
+    }
+
+    TypeElement immutableList =
+      context.processingEnvironment().getElementUtils().getTypeElement(IMMUTABLE_LIST.toString());
+    if (immutableList != null) {
+      for (ExecutableElement method : ElementFilter.methodsIn(immutableList.getEnclosedElements())) {
+        if (method.getSimpleName().contentEquals("builderWithExpectedSize")) {
+          return true;
+        }
+      }
+    }
+    context.processingEnvironment().getMessager().printMessage(Diagnostic.Kind.ERROR,
+      "ImmutableList and ImmutableMap properties require Guava 23.1 or later", context.autoValueClass());
+    return false;
+  }
+
+  // Returns null if any property has an unsupported type, after reporting each of them as an error
+  LinkedHashMap<String, FirebaseProperty> analyzeProperties(Map<String, ExecutableElement> elements,
+                                                            ProcessingEnvironment environment,
+                                                            boolean compactKeys) {
+    Messager messager = environment.getMessager();
+    LinkedHashMap<String, FirebaseProperty> properties = new LinkedHashMap<>();
+    boolean supported = true;
+    for (Map.Entry<String, ExecutableElement> entry : elements.entrySet()) {
+      TypeMirror returnType = entry.getValue().getReturnType();
+      TypeName typeName = TypeName.get(returnType);
+      AnnotationMirror adapter = annotation(entry.getValue(), FIREBASE_ADAPTER);
+      PropertyType type = adapter == null ? propertyTypes.get(typeName) : null;
+      if (type == null) {
+        try {
+          TypeElement enumType = enumElement(returnType);
+          if (adapter != null) {
+            type = adaptedType(returnType, adapter, environment);
+          } else if (enumType == null && hasEnumTypeArgument(returnType)) {
+            throw unsupportedType(typeName, "Enums are only supported as properties, not in collections");
+          } else {
+            type = enumType != null
+                   ? PropertyType.ofEnum(typeName, enumConstants(enumType))
+                   : PropertyType.of(typeName);
+          }
+        } catch (RuntimeException e) {
+          // Thrown back through the compiler this would crash it, so report it on the property
+          messager.printMessage(Diagnostic.Kind.ERROR, e.getMessage(), entry.getValue());
+          supported = false;
+          continue;
+        }
+        if (adapter == null) {
+          propertyTypes.put(typeName, type);
+        }
+      }
+      properties.put(entry.getKey(), FirebaseProperty.of(entry.getKey(), entry.getValue(), type, compactKeys));
+    }
+    return supported ? properties : null;
+  }
+
+  // Properties stored under the same key would overwrite each other. Compact keys make that possible
+  // without any @PropertyName, so each collision is reported on the property that hit it.
+  static boolean hasUniqueKeys(Context context, Map<String, FirebaseProperty> properties) {
+    Map<String, String> names = new HashMap<>();
+    boolean unique = true;
+    for (FirebaseProperty property : properties.values()) {
+      if (property.excluded) {
+        continue;
+      }
+      String other = names.put(property.key, property.name);
+      if (other != null) {
+        context.processingEnvironment().getMessager().printMessage(Diagnostic.Kind.ERROR,
+          other + " and " + property.name + " are both stored under \"" + property.key
+          + "\". Give one of them a different @PropertyName.", context.properties().get(property.name));
+        unique = false;
+      }
+    }
+    return unique;
+  }
+
+  // Stored names that aren't constants of the enum, like those of constants added by newer clients,
+  // decode to null, which AutoValue only accepts for @Nullable properties
+  static boolean hasNullableEnums(Context context, Map<String, FirebaseProperty> properties) {
+    boolean nullable = true;
+    for (FirebaseProperty property : properties.values()) {
+      ExecutableElement element = context.properties().get(property.name);
+      if (property.type.kind == PropertyType.Kind.ENUM && !property.excluded && !isNullable(element)) {
+        context.processingEnvironment().getMessager().printMessage(Diagnostic.Kind.ERROR,
+          property.name + "() must be @Nullable, since stored names that aren't constants of "
+          + property.type.type + " decode to null", element);
+        nullable = false;
+      }
+    }
+    return nullable;
+  }
+
+  // Like AutoValue, accepts any annotation named Nullable
+  static boolean isNullable(ExecutableElement element) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      if (annotation.getAnnotationType().asElement().getSimpleName().contentEquals("Nullable")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Generated classes are package-private, so a nested @FirebaseValue class from another package
+  // would be referenced through classes that aren't visible. That's reported here, on the property,
+  // rather than as an access error in generated code.
+  static boolean hasVisibleNestedTypes(Context context, Map<String, FirebaseProperty> properties) {
+    boolean visible = true;
+    for (FirebaseProperty property : properties.values()) {
+      ClassName autoValueName = property.type.autoValueName;
+      if (autoValueName != null && !autoValueName.packageName().equals(context.packageName())) {
+        context.processingEnvironment().getMessager().printMessage(Diagnostic.Kind.ERROR,
+          property.name + "() can't contain @FirebaseValue classes from " + autoValueName.packageName()
+          + ", since their generated " + autoValueName.simpleName() + " is only visible there",
+          context.properties().get(property.name));
+        visible = false;
+      }
+    }
+    return visible;
+  }
+
+  // The name table of a class with compact keys, from the names of its properties to the keys
+  // they're stored under, for queries and for pinning keys before renaming a property
+  static void addKeysTable(TypeSpec.Builder generatedClass, Map<String, FirebaseProperty> properties) {
+    CodeBlock.Builder table = CodeBlock.builder();
+    int size = 0;
+    for (FirebaseProperty property : properties.values()) {
+      if (!property.excluded) {
+        table.addStatement("keys.put($S, $S)", property.name, property.key);
+        size++;
+      }
+    }
+
+    TypeName keysType = ParameterizedTypeName.get(MAP, STRING, STRING);
+    generatedClass.addField(FieldSpec.builder(keysType, KEYS_FIELD, STATIC, FINAL).build())
+                  .addStaticBlock(CodeBlock.builder()
+                                           .addStatement("$T keys = new $T<>($L)", keysType, LINKED_HASH_MAP,
+                                             hashMapCapacity(String.valueOf(size)))
+                                           .add(table.build())
+                                           .addStatement("$L = $T.unmodifiableMap(keys)", KEYS_FIELD, COLLECTIONS)
+                                           .build());
+  }
+
+  // The reflection-free adapter the FirebaseValue index hands out for this class. It calls the
+  // generated methods through the class name, since its own methods have the same names.
+  static FieldSpec generateAdapterField(TypeElement autoValueTypeElement, ClassName autoValueClassName) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    TypeName adapterType = ParameterizedTypeName.get(FIREBASE_VALUE_ADAPTER, autoValueType);
+    ClassName firebaseValueType = autoValueClassName.nestedClass(FIREBASEVALUE);
+
+    TypeSpec adapter = TypeSpec.anonymousClassBuilder("")
+                               .addSuperinterface(adapterType)
+                               .addMethod(MethodSpec.methodBuilder("toFirebaseValue")
+                                                    .addAnnotation(Override.class)
+                                                    .addModifiers(PUBLIC)
+                                                    .addParameter(autoValueType, "value")
+                                                    .returns(Object.class)
+                                                    .addStatement("return new $T(value)", firebaseValueType)
+                                                    .build())
+                               .addMethod(MethodSpec.methodBuilder("toMap")
+                                                    .addAnnotation(Override.class)
+                                                    .addModifiers(PUBLIC)
+                                                    .addParameter(autoValueType, "value")
+                                                    .returns(STRING_OBJECT_MAP)
+                                                    .addStatement("return new $T(value).toMap()", firebaseValueType)
+                                                    .build())
+                               .addMethod(MethodSpec.methodBuilder("fromMap")
+                                                    .addAnnotation(Override.class)
+                                                    .addModifiers(PUBLIC)
+                                                    .addParameter(STRING_OBJECT_MAP, "map")
+                                                    .returns(autoValueType)
+                                                    .addStatement("return $T.fromMap(map)", autoValueClassName)
+                                                    .build())
+                               .addMethod(MethodSpec.methodBuilder("fromNode")
+                                                    .addAnnotation(Override.class)
+                                                    .addModifiers(PUBLIC)
+                                                    .addParameter(FIREBASE_NODE, "node")
+                                                    .returns(autoValueType)
+                                                    .addStatement("return $T.fromNode(node)", autoValueClassName)
+                                                    .build())
+                               .build();
+
+    return FieldSpec.builder(adapterType, ADAPTER_FIELD, STATIC, FINAL)
+                    .initializer("$L", adapter)
+                    .build();
+  }
+
+  // The converter of a @FirebaseAdapter property has to convert exactly the type of the property,
+  // to a type Firebase stores directly
+  static PropertyType adaptedType(TypeMirror type, AnnotationMirror adapter, ProcessingEnvironment environment) {
+    TypeName typeName = TypeName.get(type);
+    TypeElement typeConverter = environment.getElementUtils().getTypeElement(TYPE_CONVERTER.toString());
+    if (typeConverter == null) {
+      throw new RuntimeException("@FirebaseAdapter requires the auto-value-firebase-runtime library");
+    }
+
+    Object value = null;
+    for (AnnotationValue annotationValue : adapter.getElementValues().values()) {
+      value = annotationValue.getValue();
+    }
+    if (!(value instanceof DeclaredType)) {
+      throw unsupportedType(typeName, "@FirebaseAdapter needs a TypeConverter class");
+    }
+    DeclaredType converter = (DeclaredType) value;
+    TypeElement converterElement = (TypeElement) converter.asElement();
+    DeclaredType converterType = supertype(converter, typeConverter, environment.getTypeUtils());
+
+    if (!converterElement.getTypeParameters().isEmpty()) {
+      throw unsupportedType(typeName, converterElement + " can't be generic");
+    } else if (converterType == null || converterType.getTypeArguments().size() != 2) {
+      throw unsupportedType(typeName, converterElement + " must implement " + TYPE_CONVERTER);
+    } else if (!environment.getTypeUtils().isSameType(type, converterType.getTypeArguments().get(0))) {
+      throw unsupportedType(typeName,
+        converterElement + " converts " + converterType.getTypeArguments().get(0) + ", not " + type);
+    }
+
+    TypeName storedType = TypeName.get(converterType.getTypeArguments().get(1));
+    if (!typeIsPrimitive(storedType)) {
+      throw unsupportedType(typeName,
+        "Converters can only store properties as boxed primitives or Strings, not " + storedType);
+    }
+    return PropertyType.ofAdapted(typeName, storedType, ClassName.get(converterElement));
+  }
+
+  // The parameterization of a class or interface that a type extends or implements, or null
+  static DeclaredType supertype(TypeMirror type, TypeElement supertypeElement, Types types) {
+    if (types.isSameType(types.erasure(type), types.erasure(supertypeElement.asType()))) {
+      return (DeclaredType) type;
+    }
+    for (TypeMirror directSupertype : types.directSupertypes(type)) {
+      DeclaredType supertype = supertype(directSupertype, supertypeElement, types);
+      if (supertype != null) {
+        return supertype;
+      }
+    }
+    return null;
+  }
+
+  // Every adapted property gets one instance of its converter, created when the class is loaded,
+  // so converting it never looks anything up or allocates a converter
+  static void addConverters(TypeSpec.Builder generatedClass, Map<String, FirebaseProperty> properties) {
+    for (FirebaseProperty property : properties.values()) {
+      PropertyType propertyType = property.type;
+      if (propertyType.kind == PropertyType.Kind.ADAPTED) {
+        generatedClass.addField(FieldSpec.builder(propertyType.converter, converterName(property.name),
+                                                  PRIVATE, STATIC, FINAL)
+                                         .initializer("new $T()", propertyType.converter)
+                                         .build());
+      }
+    }
+  }
+
+  static String converterName(String fieldName) {
+    return constantName(fieldName) + "_CONVERTER";
+  }
+
+  // Converts a non-null property to the type Firebase stores it as
+  static CodeBlock toStored(String fieldName, String value) {
+    return CodeBlock.of("$L.toFirebaseValue($L)", converterName(fieldName), value);
+  }
+
+  // Converts a non-null stored value back to the type of the property
+  static CodeBlock fromStored(String fieldName, CodeBlock value) {
+    return CodeBlock.of("$L.fromFirebaseValue($L)", converterName(fieldName), value);
+  }
+
+  // The element of an enum type, or null if the type isn't an enum
+  static TypeElement enumElement(TypeMirror type) {
+    if (type.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    Element element = ((DeclaredType) type).asElement();
+    return element.getKind() == ElementKind.ENUM ? (TypeElement) element : null;
+  }
+
+  static boolean hasEnumTypeArgument(TypeMirror type) {
+    if (type.getKind() != TypeKind.DECLARED) {
+      return false;
+    }
+    for (TypeMirror typeArgument : ((DeclaredType) type).getTypeArguments()) {
+      if (enumElement(typeArgument) != null || hasEnumTypeArgument(typeArgument)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The constants of an enum, mapped to their @PropertyName values if they have one
+  static Map<String, String> enumConstants(TypeElement enumType) {
+    Map<String, String> constants = new LinkedHashMap<>();
+    for (Element element : enumType.getEnclosedElements()) {
+      if (element.getKind() != ElementKind.ENUM_CONSTANT) {
+        continue;
+      }
+      String name = element.getSimpleName().toString();
+      String key = name;
+      for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+        if (isAnnotation(annotation, PROPERTY_NAME)) {
+          for (AnnotationValue value : annotation.getElementValues().values()) {
+            key = (String) value.getValue();
+          }
+        }
+      }
+      constants.put(name, key);
+    }
+    return Collections.unmodifiableMap(constants);
+  }
+
+  // Every enum property gets a static table from stored names to constants, built when the class
+  // is loaded, so decoding one is a single lookup. Constants with @PropertyName values also get an
+  // array of their names, indexed by ordinal.
+  static void addEnumTables(TypeSpec.Builder generatedClass, Map<String, FirebaseProperty> properties) {
+    CodeBlock.Builder tables = CodeBlock.builder();
+    boolean hasTables = false;
+
+    for (FirebaseProperty property : properties.values()) {
+      PropertyType propertyType = property.type;
+      if (propertyType.kind != PropertyType.Kind.ENUM) {
+        continue;
+      }
+      String valuesName = enumValuesName(property.name);
+      generatedClass.addField(
+        FieldSpec.builder(ParameterizedTypeName.get(MAP, STRING, propertyType.type), valuesName, PRIVATE, STATIC, FINAL)
+                 .initializer("new $T<>($L)", HASH_MAP,
+                   hashMapCapacity(String.valueOf(propertyType.enumConstants.size())))
+                 .build());
+      for (Map.Entry<String, String> constant : propertyType.enumConstants.entrySet()) {
+        tables.addStatement("$L.put($S, $T.$L)", valuesName, constant.getValue(), propertyType.type,
+          constant.getKey());
+      }
+      hasTables = true;
+
+      if (!propertyType.enumNamesAreConstantNames()) {
+        CodeBlock.Builder names = CodeBlock.builder().add("new $T[] {", STRING);
+        String separator = "";
+        for (String name : propertyType.enumConstants.values()) {
+          names.add("$L$S", separator, name);
+          separator = ", ";
+        }
+        generatedClass.addField(FieldSpec.builder(ArrayTypeName.of(STRING), enumNamesName(property.name),
+                                                  PRIVATE, STATIC, FINAL)
+                                         .initializer(names.add("}").build())
+                                         .build());
+      }
+    }
 
-    return JavaFile.builder(packageName, generatedClass).build().toString();
+    if (hasTables) {
+      generatedClass.addStaticBlock(tables.build());
+    }
   }
 
-  static LinkedHashMap<String, TypeName> convertPropertiesToTypes(Map<String, ExecutableElement> properties) {
-    LinkedHashMap<String, TypeName> types = new LinkedHashMap<>();
-    for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
-      types.put(entry.getKey(), TypeName.get(entry.getValue().getReturnType()));
+  static String enumValuesName(String fieldName) {
+    return constantName(fieldName) + "_VALUES";
+  }
+
+  static String enumNamesName(String fieldName) {
+    return constantName(fieldName) + "_NAMES";
+  }
+
+  // The name an enum constant is stored under, for a non-null value
+  static CodeBlock enumName(PropertyType enumType, String fieldName, String value) {
+    if (enumType.enumNamesAreConstantNames()) {
+      return CodeBlock.of("$L.name()", value);
     }
-    return types;
+    return CodeBlock.of("$L[$L.ordinal()]", enumNamesName(fieldName), value);
   }
 
-  static MethodSpec generateStandardAutoValueConstructor(Map<String, TypeName> properties) {
+  // Looks a stored name up in an enum table. Unknown names, and values that aren't names at all,
+  // decode to null instead of throwing.
+  static CodeBlock decodeEnum(String fieldName, String value) {
+    return decodeEnum(fieldName, CodeBlock.of("$L", value));
+  }
+
+  static CodeBlock decodeEnum(String fieldName, CodeBlock value) {
+    return CodeBlock.of("$L.get($L)", enumValuesName(fieldName), value);
+  }
+
+  static MethodSpec generateStandardAutoValueConstructor(Map<String, FirebaseProperty> properties) {
     List<ParameterSpec> params = Lists.newArrayList();
-    for (Map.Entry<String, TypeName> entry : properties.entrySet()) {
-      params.add(ParameterSpec.builder(entry.getValue(), entry.getKey()).build());
+    for (FirebaseProperty property : properties.values()) {
+      params.add(ParameterSpec.builder(property.type.type, property.name).build());
     }
 
     MethodSpec.Builder builder = MethodSpec.constructorBuilder()
@@ -120,67 +628,999 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
     return builder.build();
   }
 
-  static List<AnnotationSpec> generateFirebaseValueClassAnnotations(TypeElement type) {
-    List<AnnotationSpec> annotations = new ArrayList<>();
+  // "return new AutoValue_Foo(a, b, c);" from locals named after the properties
+  static CodeBlock returnNewAutoValue(ClassName autoValueClassName, Map<String, FirebaseProperty> properties) {
+    return CodeBlock.of("return $L;\n", newAutoValue(autoValueClassName, properties));
+  }
 
-    for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
-      AnnotationSpec annotationSpec = AnnotationSpec.get(annotation);
-      TypeName annotationType = AnnotationSpec.get(annotation).type;
+  static CodeBlock newAutoValue(ClassName autoValueClassName, Map<String, FirebaseProperty> properties) {
+    StringBuilder constructorArgsFormat = new StringBuilder("new $T(");
+    for (int i = properties.size(); i > 0; i--) {
+      constructorArgsFormat.append("$N");
+      if (i > 1) {
+        constructorArgsFormat.append(", ");
+      }
+    }
+    constructorArgsFormat.append(")");
+
+    List<Object> args = new ArrayList<>();
+    args.add(autoValueClassName);
+    args.addAll(properties.keySet());
+    return CodeBlock.of(constructorArgsFormat.toString(), args.toArray());
+  }
 
-      if (IGNORE_EXTRA_PROPERTIES.equals(annotationType)) {
-        annotations.add(annotationSpec);
-      } else if (THROW_ON_EXTRA_PROPERTIES.equals(annotationType)) {
-        annotations.add(annotationSpec);
+  static MethodSpec generateFromMapMethod(ClassName autoValueClassName,
+                                          Map<String, FirebaseProperty> properties) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    String mapName = nonConflictingName("map", properties.keySet());
+    String valueName = nonConflictingName("value", properties.keySet());
+    String indexName = nonConflictingName("i", properties.keySet());
+    boolean unchecked = false;
+
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("fromMap")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(STRING_OBJECT_MAP, mapName)
+                                                 .returns(finalAutoValueClassName)
+                                                 .addStatement("$T $L", Object.class, valueName);
+
+    for (FirebaseProperty property : properties.values()) {
+      String fieldName = property.name;
+      PropertyType propertyType = property.type;
+      TypeName type = propertyType.type;
+
+      if (property.excluded) {
+        // Excluded properties are never written, so there's nothing to read back
+        methodBuilder.addStatement("$T $L = $L", type, fieldName, defaultValue(type));
+        continue;
       }
+      methodBuilder.addStatement("$L = $L.get($S)", valueName, mapName, property.key);
+      String builderName = nonConflictingName(fieldName + "Builder", properties.keySet());
+      unchecked |= addDecode(methodBuilder, propertyType, fieldName, valueName, indexName, builderName, true);
     }
 
-    return annotations;
+    if (unchecked) {
+      methodBuilder.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                                                .addMember("value", "\"unchecked\"")
+                                                .build());
+    }
+
+    return methodBuilder.addCode(returnNewAutoValue(finalAutoValueClassName, properties)).build();
   }
 
-  static List<FieldSpec> generateFirebaseValueFields(String packageName,
-                                                     Map<String, TypeName> types) {
-    List<FieldSpec> fields = new ArrayList<>();
+  // Decodes a raw Firebase value into a property, declaring the local for it if asked to. Returns
+  // whether the decoding needs an unchecked cast.
+  static boolean addDecode(MethodSpec.Builder methodBuilder, PropertyType propertyType, String fieldName,
+                           String valueName, String indexName, String builderName, boolean declare) {
+    TypeName type = propertyType.type;
+    CodeBlock target = declare ? CodeBlock.of("$T $L", type, fieldName) : CodeBlock.of("$L", fieldName);
+
+    if (propertyType.kind == PropertyType.Kind.PRIMITIVE) {
+      methodBuilder.addStatement("$L = $L", target, coerceNullable(type, valueName));
+      return false;
+
+    } else if (propertyType.kind == PropertyType.Kind.ENUM) {
+      methodBuilder.addStatement("$L = $L", target, decodeEnum(fieldName, valueName));
+      return false;
+
+    } else if (propertyType.kind == PropertyType.Kind.ADAPTED) {
+      methodBuilder.addStatement("$L = $L == null ? null : $L", target, valueName,
+        fromStored(fieldName, coerce(propertyType.firebaseValueType, valueName)));
+      return false;
+
+    } else if (propertyType.kind == PropertyType.Kind.PRIMITIVE_ARRAY) {
+      // Straight from the List Firebase returns into an exactly sized array, without boxing again
+      methodBuilder.addStatement("$L = null", target)
+                   .beginControlFlow("if ($L != null)", valueName)
+                   .addStatement("$L = new $T[(($T) $L).size()]", fieldName, propertyType.elementType,
+                     WILDCARD_LIST, valueName)
+                   .addStatement("int $L = 0", indexName)
+                   .beginControlFlow("for ($T item : ($T) $L)", Object.class, WILDCARD_LIST, valueName)
+                   .addStatement("$L[$L++] = $L", fieldName, indexName,
+                     coerceNullable(propertyType.elementType, "item"))
+                   .endControlFlow()
+                   .endControlFlow();
+      return false;
+
+    } else if (propertyType.kind == PropertyType.Kind.FIREBASE_VALUE) {
+      methodBuilder.addStatement("$L = $L == null ? null : $T.fromMap(($T) $L)",
+        target, valueName, propertyType.autoValueName, STRING_OBJECT_MAP, valueName);
+
+    } else if (propertyType.kind == PropertyType.Kind.NESTED_COLLECTION) {
+      methodBuilder.addStatement("$L = null", target)
+                   .beginControlFlow("if ($L != null)", valueName);
+      NestedCollections.convert(methodBuilder, propertyType, valueName, fieldName, NestedCollections.FROM_MAP, 0);
+      methodBuilder.endControlFlow();
+      // Only decoding @FirebaseValue types needs an unchecked cast
+      return propertyType.autoValueName != null;
+
+    } else if (propertyType.isList()) {
+      TypeName typeParam = propertyType.elementType;
+
+      if ((STRING.equals(typeParam) || typeParam.equals(ClassName.get(Boolean.class))) && propertyType.immutable) {
+        // Copied once, straight out of the List Firebase returns
+        methodBuilder.addStatement("$L = $L == null ? null : $T.copyOf(($T) $L)", target, valueName,
+          IMMUTABLE_LIST, propertyType.firebaseValueType, valueName);
+      } else if (STRING.equals(typeParam) || typeParam.equals(ClassName.get(Boolean.class))) {
+        methodBuilder.addStatement("$L = ($T) $L", target, type, valueName);
+      } else {
+        methodBuilder.addStatement("$L = null", target)
+                     .beginControlFlow("if ($L != null)", valueName);
+        String fillName = beginFill(methodBuilder, propertyType, fieldName, builderName,
+          CodeBlock.of("(($T) $L).size()", WILDCARD_LIST, valueName));
+        methodBuilder.beginControlFlow("for ($T item : ($T) $L)", Object.class, OBJECT_LIST, valueName)
+                     .addStatement("$L.add($L)", fillName, decodeElement(propertyType, "item"))
+                     .endControlFlow();
+        endFill(methodBuilder, propertyType, fieldName, fillName);
+        methodBuilder.endControlFlow();
+      }
+
+    } else {
+      TypeName keyParam = propertyType.keyType;
+      TypeName valueParam = propertyType.elementType;
+
+      boolean direct = STRING.equals(keyParam)
+                       && (STRING.equals(valueParam) || valueParam.equals(ClassName.get(Boolean.class)));
+      if (direct && propertyType.immutable) {
+        methodBuilder.addStatement("$L = $L == null ? null : $T.copyOf(($T) $L)", target, valueName,
+          IMMUTABLE_MAP, propertyType.firebaseValueType, valueName);
+      } else if (direct) {
+        methodBuilder.addStatement("$L = ($T) $L", target, type, valueName);
+      } else {
+        CodeBlock key = decodeKey(keyParam, CodeBlock.of("entry.getKey()"), true);
+
+        methodBuilder.addStatement("$L = null", target)
+                     .beginControlFlow("if ($L != null)", valueName);
+        String fillName = beginFill(methodBuilder, propertyType, fieldName, builderName,
+          CodeBlock.of("(($T) $L).size()", STRING_OBJECT_MAP, valueName));
+        methodBuilder.beginControlFlow("for ($T<$T, $T> entry : (($T) $L).entrySet())",
+                       MAP_ENTRY, STRING, Object.class, STRING_OBJECT_MAP, valueName)
+                     .addStatement("$L.put($L, $L)", fillName, key,
+                       decodeElement(propertyType, "entry.getValue()"))
+                     .endControlFlow();
+        endFill(methodBuilder, propertyType, fieldName, fillName);
+        methodBuilder.endControlFlow();
+      }
+    }
+    return true;
+  }
+
+  static MethodSpec generateApplyDeltaMethod(TypeElement autoValueTypeElement,
+                                             ClassName autoValueClassName,
+                                             Map<String, FirebaseProperty> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    String baseName = nonConflictingName("base", properties.keySet());
+    String pathName = nonConflictingName("path", properties.keySet());
+    String valueName = nonConflictingName("value", properties.keySet());
+    String keyName = nonConflictingName("key", properties.keySet());
+    String restName = nonConflictingName("rest", properties.keySet());
+    String slashName = nonConflictingName("slash", properties.keySet());
+    String indexName = nonConflictingName("index", properties.keySet());
+
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("applyDelta")
+                                                 .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                                                                              .addMember("value", "\"unchecked\"")
+                                                                              .build())
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, baseName)
+                                                 .addParameter(STRING, pathName)
+                                                 .addParameter(Object.class, valueName)
+                                                 .returns(autoValueType)
+                                                 .beginControlFlow("if ($L.isEmpty())", pathName)
+                                                 .addStatement("return $L == null ? null : fromMap(($T) $L)",
+                                                   valueName, STRING_OBJECT_MAP, valueName)
+                                                 .endControlFlow()
+                                                 // A change below a missing node is decoded as the only data there
+                                                 .beginControlFlow("if ($L == null)", baseName)
+                                                 .addStatement("$L = fromMap($T.<$T, $T>emptyMap())",
+                                                   baseName, COLLECTIONS, STRING, Object.class)
+                                                 .endControlFlow();
+
+    boolean hasKeys = false;
+    for (FirebaseProperty property : properties.values()) {
+      hasKeys |= !property.excluded;
+    }
+    if (!hasKeys) {
+      // Excluded properties aren't part of the value, so changes to them change nothing
+      return methodBuilder.addStatement("return $L", baseName).build();
+    }
+
+    methodBuilder.addStatement("int $L = $L.indexOf('/')", slashName, pathName)
+                 .addStatement("$T $L = $L < 0 ? $L : $L.substring(0, $L)",
+                   STRING, keyName, slashName, pathName, pathName, slashName)
+                 .addStatement("$T $L = $L < 0 ? null : $L.substring($L + 1)",
+                   STRING, restName, slashName, pathName, slashName);
+
+    // Every property starts out as the base's, so untouched subtrees are shared with it
+    for (FirebaseProperty property : properties.values()) {
+      methodBuilder.addStatement("$T $L = $L.$L()", property.type.type, property.name, baseName, property.name);
+    }
+    methodBuilder.beginControlFlow("switch ($L)", keyName);
+
+    for (FirebaseProperty property : properties.values()) {
+      if (property.excluded) {
+        continue;
+      }
+      String fieldName = property.name;
+      PropertyType propertyType = property.type;
+      String builderName = nonConflictingName(fieldName + "Builder", properties.keySet());
+      methodBuilder.addCode("case $S:\n$>", property.key);
+
+      if (propertyType.kind == PropertyType.Kind.PRIMITIVE || propertyType.kind == PropertyType.Kind.ENUM
+          || propertyType.kind == PropertyType.Kind.ADAPTED) {
+        addDecode(methodBuilder, propertyType, fieldName, valueName, indexName, builderName, false);
+
+      } else if (propertyType.kind == PropertyType.Kind.FIREBASE_VALUE) {
+        methodBuilder.beginControlFlow("if ($L == null)", restName);
+        addDecode(methodBuilder, propertyType, fieldName, valueName, indexName, builderName, false);
+        methodBuilder.nextControlFlow("else")
+                     .addStatement("$L = $T.applyDelta($L, $L, $L)",
+                       fieldName, propertyType.autoValueName, fieldName, restName, valueName)
+                     .endControlFlow();
+
+      } else {
+        methodBuilder.beginControlFlow("if ($L == null)", restName);
+        addDecode(methodBuilder, propertyType, fieldName, valueName, indexName, builderName, false);
+        methodBuilder.nextControlFlow("else")
+                     .addStatement("$L = $L.indexOf('/')", slashName, restName);
+
+        if (propertyType.kind == PropertyType.Kind.NESTED_COLLECTION) {
+          NestedCollections.applyDelta(methodBuilder, propertyType, fieldName, slashName, restName, valueName, 0);
+        } else if (propertyType.kind == PropertyType.Kind.PRIMITIVE_ARRAY) {
+          // Arrays are copied rather than written through, since the base still refers to them
+          methodBuilder.addStatement("int $L = $T.parseInt($L < 0 ? $L : $L.substring(0, $L))",
+                         indexName, Integer.class, slashName, restName, restName, slashName)
+                       .addStatement("$L = $L == null ? new $T[$L + 1] : $T.copyOf($L, $T.max($L.length, $L + 1))",
+                         fieldName, fieldName, propertyType.elementType, indexName, ARRAYS, fieldName, Math.class,
+                         fieldName, indexName)
+                       .addStatement("$L[$L] = $L", fieldName, indexName,
+                         coerceNullable(propertyType.elementType, valueName));
+        } else if (propertyType.isList()) {
+          // Immutable Lists are edited in a mutable copy, since they can't be written through
+          String listName = fieldName;
+          if (propertyType.immutable) {
+            listName = nonConflictingName(fieldName + "Copy", properties.keySet());
+            methodBuilder.addStatement("$T $L", ParameterizedTypeName.get(LIST, propertyType.elementType), listName);
+          }
+          methodBuilder.addStatement("int $L = $T.parseInt($L < 0 ? $L : $L.substring(0, $L))",
+                         indexName, Integer.class, slashName, restName, restName, slashName)
+                       .addStatement("$L = $L == null ? new $T<$T>() : new $T<>($L)", listName, fieldName,
+                         ARRAY_LIST, propertyType.elementType, ARRAY_LIST, fieldName);
+          if (propertyType.immutable) {
+            // Writing past the end would leave a gap of nulls, and a null leaf would store one
+            methodBuilder.beginControlFlow("if ($L > $L.size() || $L < 0 && $L == null)",
+                           indexName, listName, slashName, valueName)
+                         .addStatement("throw new $T($S + $L)", IllegalArgumentException.class,
+                           fieldName + " is an ImmutableList, which can't hold nulls, so can't apply ", pathName)
+                         .endControlFlow();
+          }
+          methodBuilder.beginControlFlow("while ($L.size() <= $L)", listName, indexName)
+                       .addStatement("$L.add(null)", listName)
+                       .endControlFlow()
+                       .addStatement("$L.set($L, $L)", listName, indexName, elementDelta(propertyType,
+                         listName + ".get(" + indexName + ")", slashName, restName, valueName));
+          if (propertyType.immutable) {
+            methodBuilder.addStatement("$L = $T.copyOf($L)", fieldName, IMMUTABLE_LIST, listName);
+          }
+        } else {
+          String entryKeyName = nonConflictingName("entryKey", properties.keySet());
+          CodeBlock entryKey = decodeKey(propertyType.keyType,
+            CodeBlock.of("$L < 0 ? $L : $L.substring(0, $L)", slashName, restName, restName, slashName), false);
+          String mapName = fieldName;
+          if (propertyType.immutable) {
+            mapName = nonConflictingName(fieldName + "Copy", properties.keySet());
+            methodBuilder.addStatement("$T $L",
+              ParameterizedTypeName.get(MAP, propertyType.keyType, propertyType.elementType), mapName);
+          }
+          methodBuilder.addStatement("$T $L = $L", propertyType.keyType, entryKeyName, entryKey)
+                       .addStatement("$L = $L == null ? new $T<$T, $T>() : new $T<>($L)", mapName, fieldName,
+                         HASH_MAP, propertyType.keyType, propertyType.elementType, HASH_MAP, fieldName)
+                       // Firebase doesn't store nulls, so a null entry is a removed entry
+                       .beginControlFlow("if ($L < 0 && $L == null)", slashName, valueName)
+                       .addStatement("$L.remove($L)", mapName, entryKeyName)
+                       .nextControlFlow("else")
+                       .addStatement("$L.put($L, $L)", mapName, entryKeyName, elementDelta(propertyType,
+                         mapName + ".get(" + entryKeyName + ")", slashName, restName, valueName))
+                       .endControlFlow();
+          if (propertyType.immutable) {
+            methodBuilder.addStatement("$L = $T.copyOf($L)", fieldName, IMMUTABLE_MAP, mapName);
+          }
+        }
+        methodBuilder.endControlFlow();
+      }
+      methodBuilder.addStatement("break")
+                   .addCode("$<");
+    }
+
+    // Unknown and excluded properties aren't part of the value, so changes to them change nothing
+    methodBuilder.addCode("default:\n$>")
+                 .addStatement("return $L", baseName)
+                 .addCode("$<")
+                 .endControlFlow();
+
+    return methodBuilder.addCode(returnNewAutoValue(finalAutoValueClassName, properties)).build();
+  }
+
+  // The new value of a List element or Map value after a change at or below it
+  static CodeBlock elementDelta(PropertyType collectionType, String current, String slash, String rest,
+                                String value) {
+    if (collectionType.autoValueName == null) {
+      return decodeElement(collectionType, value);
+    }
+    return CodeBlock.of("$L < 0 ? ($L) : $T.applyDelta($L, $L.substring($L + 1), $L)",
+      slash, decodeElement(collectionType, value), collectionType.autoValueName, current, rest, slash, value);
+  }
+
+  static MethodSpec generateDiffMethod(TypeElement autoValueTypeElement) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+
+    return MethodSpec.methodBuilder("diff")
+                     .addModifiers(STATIC)
+                     .returns(STRING_OBJECT_MAP)
+                     .addParameter(autoValueType, "before")
+                     .addParameter(autoValueType, "after")
+                     .addStatement("$T updates = new $T<>()", STRING_OBJECT_MAP, HASH_MAP)
+                     .addStatement("diff(before, after, $S, updates)", "")
+                     .addStatement("return updates")
+                     .build();
+  }
+
+  static MethodSpec generateDiffWithMapMethod(TypeElement autoValueTypeElement,
+                                              Map<String, FirebaseProperty> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("diff")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, "before")
+                                                 .addParameter(autoValueType, "after")
+                                                 .addParameter(STRING, "path")
+                                                 .addParameter(STRING_OBJECT_MAP, "updates")
+                                                 .beginControlFlow("if (before == after)")
+                                                 .addStatement("return")
+                                                 .endControlFlow();
+
+    for (FirebaseProperty property : properties.values()) {
+      if (property.excluded) {
+        continue;
+      }
+      PropertyType propertyType = property.type;
+      String before = "before." + property.name + "()";
+      String after = "after." + property.name + "()";
+      CodeBlock path = CodeBlock.of("path + $S", property.key);
+
+      if (propertyType.kind == PropertyType.Kind.PRIMITIVE
+          || propertyType.kind == PropertyType.Kind.FIREBASE_VALUE) {
+        addDiff(methodBuilder, propertyType.type, propertyType, before, after, path,
+          CodeBlock.of("path + $S", property.key + "/"));
+        continue;
+      }
+
+      if (propertyType.kind == PropertyType.Kind.ENUM) {
+        methodBuilder.beginControlFlow("if ($L)", changed(propertyType.type, before, after))
+                     .addStatement("updates.put($L, $L == null ? null : $L)", path, after,
+                       enumName(propertyType, property.name, after))
+                     .endControlFlow();
+        continue;
+      }
+
+      if (propertyType.kind == PropertyType.Kind.ADAPTED) {
+        // Compared before converting, so unchanged properties are never converted
+        methodBuilder.beginControlFlow("if ($L)", changed(propertyType.type, before, after))
+                     .addStatement("updates.put($L, $L == null ? null : $L)", path, after,
+                       toStored(property.name, after))
+                     .endControlFlow();
+        continue;
+      }
+
+      if (propertyType.kind == PropertyType.Kind.NESTED_COLLECTION) {
+        // Nested collections are written whole when they change
+        methodBuilder.beginControlFlow("if ($L)", changed(propertyType.type, before, after));
+        if (propertyType.autoValueName == null) {
+          methodBuilder.addStatement("updates.put($L, $L)", path, after);
+        } else {
+          methodBuilder.addStatement("$T value = null", NestedCollections.rawType(propertyType))
+                       .beginControlFlow("if ($L != null)", after);
+          NestedCollections.convert(methodBuilder, propertyType, after, "value", NestedCollections.AUTO_VALUE_TO_MAP, 0);
+          methodBuilder.endControlFlow()
+                       .addStatement("updates.put($L, value)", path);
+        }
+        methodBuilder.endControlFlow();
+        continue;
+      }
+
+      // Only collections that changed are walked, so unchanged ones cost an equals() call
+      methodBuilder.beginControlFlow("if ($L)", changed(propertyType.type, before, after))
+                   .beginControlFlow("if ($L == null)", after)
+                   .addStatement("updates.put($L, null)", path);
+
+      if (propertyType.kind == PropertyType.Kind.PRIMITIVE_ARRAY) {
+        methodBuilder.nextControlFlow("else")
+                     .beginControlFlow("for (int i = 0; i < $L.length; i++)", after)
+                     .beginControlFlow("if ($L == null || i >= $L.length || $L)", before, before,
+                       changed(propertyType.elementType, before + "[i]", after + "[i]"))
+                     .addStatement("updates.put(path + $S + i, $L[i])", property.key + "/", after)
+                     .endControlFlow()
+                     .endControlFlow()
+                     .beginControlFlow("for (int i = $L.length; $L != null && i < $L.length; i++)",
+                       after, before, before)
+                     .addStatement("updates.put(path + $S + i, null)", property.key + "/")
+                     .endControlFlow()
+                     .endControlFlow();
+
+      } else if (propertyType.isList()) {
+        methodBuilder.nextControlFlow("else")
+                     .beginControlFlow("for (int i = 0; i < $L.size(); i++)", after)
+                     .addStatement("$T previous = $L == null || i >= $L.size() ? null : $L.get(i)",
+                       propertyType.elementType, before, before, before)
+                     .addStatement("$T item = $L.get(i)", propertyType.elementType, after);
+        addDiff(methodBuilder, propertyType.elementType, propertyType, "previous", "item",
+          CodeBlock.of("path + $S + i", property.key + "/"),
+          CodeBlock.of("path + $S + i + $S", property.key + "/", "/"));
+        methodBuilder.endControlFlow()
+                     // Shrinking a list removes the indexes past its new end
+                     .beginControlFlow("for (int i = $L.size(); $L != null && i < $L.size(); i++)",
+                       after, before, before)
+                     .addStatement("updates.put(path + $S + i, null)", property.key + "/")
+                     .endControlFlow()
+                     .endControlFlow();
+
+      } else {
+        methodBuilder.nextControlFlow("else")
+                     .beginControlFlow("for ($T<$T, $T> entry : $L.entrySet())",
+                       MAP_ENTRY, propertyType.keyType, propertyType.elementType, after)
+                     .addStatement("$T previous = $L == null ? null : $L.get(entry.getKey())",
+                       propertyType.elementType, before, before)
+                     .addStatement("$T item = entry.getValue()", propertyType.elementType);
+        addDiff(methodBuilder, propertyType.elementType, propertyType, "previous", "item",
+          CodeBlock.of("path + $S + entry.getKey()", property.key + "/"),
+          CodeBlock.of("path + $S + entry.getKey() + $S", property.key + "/", "/"));
+        methodBuilder.endControlFlow()
+                     .beginControlFlow("if ($L != null)", before)
+                     .beginControlFlow("for ($T key : $L.keySet())", propertyType.keyType, before)
+                     .beginControlFlow("if (!$L.containsKey(key))", after)
+                     .addStatement("updates.put(path + $S + key, null)", property.key + "/")
+                     .endControlFlow()
+                     .endControlFlow()
+                     .endControlFlow()
+                     .endControlFlow();
+      }
+      methodBuilder.endControlFlow();
+    }
+
+    return methodBuilder.build();
+  }
+
+  // Puts the new value of a property or collection element at its path if it changed, recursing into
+  // @FirebaseValue types so only the properties that changed are written
+  static void addDiff(MethodSpec.Builder methodBuilder, TypeName type, PropertyType propertyType,
+                      String before, String after, CodeBlock path, CodeBlock prefix) {
+    methodBuilder.beginControlFlow("if ($L)", changed(type, before, after));
+
+    if (propertyType.autoValueName == null) {
+      methodBuilder.addStatement("updates.put($L, $L)", path, after);
+    } else {
+      methodBuilder.beginControlFlow("if ($L == null || $L == null)", before, after)
+                   .addStatement("updates.put($L, $L == null ? null : new $T($L).toMap())",
+                     path, after, propertyType.firebaseValueName, after)
+                   .nextControlFlow("else")
+                   .addStatement("$T.diff($L, $L, $L, updates)",
+                     propertyType.autoValueName, before, after, prefix)
+                   .endControlFlow();
+    }
+    methodBuilder.endControlFlow();
+  }
+
+  static CodeBlock changed(TypeName type, String before, String after) {
+    if (type instanceof ArrayTypeName) {
+      return CodeBlock.of("!$T.equals($L, $L)", ARRAYS, before, after);
+    } else if (TypeName.FLOAT.equals(type) || TypeName.DOUBLE.equals(type)) {
+      return CodeBlock.of("$T.compare($L, $L) != 0", Double.class, before, after);
+    } else if (type.isPrimitive()) {
+      return CodeBlock.of("$L != $L", before, after);
+    }
+    return CodeBlock.of("$L == null ? $L != null : !$L.equals($L)", before, after, before, after);
+  }
+
+  static MethodSpec generateFromNodeMethod(ClassName autoValueClassName,
+                                           Map<String, FirebaseProperty> properties) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    String nodeName = nonConflictingName("node", properties.keySet());
+    String childName = nonConflictingName("child", properties.keySet());
+
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("fromNode")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(FIREBASE_NODE, nodeName)
+                                                 .returns(finalAutoValueClassName)
+                                                 .addStatement("$T $L", FIREBASE_NODE, childName);
+    boolean unchecked = false;
+
+    for (FirebaseProperty property : properties.values()) {
+      String fieldName = property.name;
+      PropertyType propertyType = property.type;
+      TypeName type = propertyType.type;
+
+      if (property.excluded) {
+        // Excluded subtrees are never visited
+        methodBuilder.addStatement("$T $L = $L", type, fieldName, defaultValue(type));
+        continue;
+      }
+      methodBuilder.addStatement("$L = $L.child($S)", childName, nodeName, property.key);
+
+      if (propertyType.kind == PropertyType.Kind.PRIMITIVE) {
+        methodBuilder.addStatement("$T $L = $L == null ? $L : $L", type, fieldName, childName,
+          defaultValue(type), coerce(type, childName + ".value()"));
+
+      } else if (propertyType.kind == PropertyType.Kind.ENUM) {
+        methodBuilder.addStatement("$T $L = $L == null ? null : $L", type, fieldName, childName,
+          decodeEnum(fieldName, childName + ".value()"));
+
+      } else if (propertyType.kind == PropertyType.Kind.ADAPTED) {
+        methodBuilder.addStatement("$T $L = $L == null ? null : $L", type, fieldName, childName,
+          fromStored(fieldName, coerce(propertyType.firebaseValueType, childName + ".value()")));
+
+      } else if (propertyType.kind == PropertyType.Kind.FIREBASE_VALUE) {
+        methodBuilder.addStatement("$T $L = $L == null ? null : $T.fromNode($L)",
+          type, fieldName, childName, propertyType.autoValueName, childName);
+
+      } else if (propertyType.kind == PropertyType.Kind.NESTED_COLLECTION) {
+        // Every level of a nested collection is part of the property, so it's decoded from its value
+        methodBuilder.addStatement("$T $L = null", type, fieldName)
+                     .beginControlFlow("if ($L != null)", childName);
+        NestedCollections.convert(methodBuilder, propertyType, childName + ".value()", fieldName,
+          NestedCollections.FROM_MAP, 0);
+        methodBuilder.endControlFlow();
+        unchecked |= propertyType.autoValueName != null;
+
+      } else if (propertyType.kind == PropertyType.Kind.PRIMITIVE_ARRAY) {
+        String lengthName = nonConflictingName(fieldName + "Length", properties.keySet());
+        String indexName = nonConflictingName("index", properties.keySet());
+
+        methodBuilder.addStatement("$T $L = null", type, fieldName)
+                     .beginControlFlow("if ($L != null)", childName);
+        beginArrayBuffer(methodBuilder, propertyType, fieldName, lengthName);
+        // Firebase leaves out the children of missing indexes, so elements are placed by key
+        methodBuilder.beginControlFlow("for ($T item : $L.children())", FIREBASE_NODE, childName)
+                     .addStatement("int $L = $T.parseInt(item.key())", indexName, Integer.class)
+                     .beginControlFlow("if ($L >= $L.length)", indexName, fieldName)
+                     .addStatement("$L = $T.copyOf($L, $T.max($L.length * 2, $L + 1))",
+                       fieldName, ARRAYS, fieldName, Math.class, fieldName, indexName)
+                     .endControlFlow()
+                     .addStatement("$L[$L] = $L", fieldName, indexName, coerce(propertyType.elementType, "item.value()"))
+                     .addStatement("$L = $T.max($L, $L + 1)", lengthName, Math.class, lengthName, indexName)
+                     .endControlFlow();
+        endArrayBuffer(methodBuilder, fieldName, lengthName);
+        methodBuilder.endControlFlow();
+
+      } else if (propertyType.isList()) {
+        methodBuilder.addStatement("$T $L = null", type, fieldName)
+                     .beginControlFlow("if ($L != null)", childName);
+        String fillName = beginFill(methodBuilder, propertyType, fieldName,
+          nonConflictingName(fieldName + "Builder", properties.keySet()), null);
+        methodBuilder.beginControlFlow("for ($T item : $L.children())", FIREBASE_NODE, childName)
+                     .addStatement("$L.add($L)", fillName, decodeNode(propertyType, "item"))
+                     .endControlFlow();
+        endFill(methodBuilder, propertyType, fieldName, fillName);
+        methodBuilder.endControlFlow();
+
+      } else {
+        TypeName keyParam = propertyType.keyType;
+        CodeBlock key = decodeKey(keyParam, CodeBlock.of("entry.key()"), true);
+
+        methodBuilder.addStatement("$T $L = null", type, fieldName)
+                     .beginControlFlow("if ($L != null)", childName);
+        String fillName = beginFill(methodBuilder, propertyType, fieldName,
+          nonConflictingName(fieldName + "Builder", properties.keySet()), null);
+        methodBuilder.beginControlFlow("for ($T entry : $L.children())", FIREBASE_NODE, childName)
+                     .addStatement("$L.put($L, $L)", fillName, key, decodeNode(propertyType, "entry"))
+                     .endControlFlow();
+        endFill(methodBuilder, propertyType, fieldName, fillName);
+        methodBuilder.endControlFlow();
+      }
+    }
+
+    if (unchecked) {
+      methodBuilder.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                                                .addMember("value", "\"unchecked\"")
+                                                .build());
+    }
 
-    for (Map.Entry<String, TypeName> entry : types.entrySet()) {
-      String fieldName = entry.getKey();
-      TypeName originalType = entry.getValue();
-
-      // This is important! This doesn't have to be here, but it's gotta be somewhere.
-      checkIfTypeIsSupported(entry.getValue());
-
-      if (typeIsPrimitive(originalType) || typeIsPrimitiveCollection(originalType)) {
-        fields.add(FieldSpec.builder(originalType, fieldName, PRIVATE).build());
-
-      } else if (typeIsNonPrimitiveCollection(originalType)) {
-        ParameterizedTypeName fullType = (ParameterizedTypeName) originalType;
-        ClassName rawType = fullType.rawType;
-        if (LIST.equals(rawType)) {
-          ClassName typeParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName newTypeParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + typeParam.simpleName(), FIREBASEVALUE);
-          ParameterizedTypeName newFullType =
-            ParameterizedTypeName.get(rawType, newTypeParam);
-
-          fields.add(FieldSpec.builder(newFullType, fieldName, PRIVATE).build());
-
-        } else if (MAP.equals(rawType)) {
-          ClassName keyParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName valueParam = (ClassName) fullType.typeArguments.get(1);
-          ClassName newTypeParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + valueParam.simpleName(), FIREBASEVALUE);
-          ParameterizedTypeName newFullType =
-            ParameterizedTypeName.get(rawType, keyParam, newTypeParam);
-
-          fields.add(FieldSpec.builder(newFullType, fieldName, PRIVATE).build());
+    return methodBuilder.addCode(returnNewAutoValue(finalAutoValueClassName, properties)).build();
+  }
+
+  static MethodSpec generateFromJsonMethod(TypeElement autoValueTypeElement,
+                                           ClassName autoValueClassName,
+                                           Map<String, FirebaseProperty> properties) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    String readerName = nonConflictingName("reader", properties.keySet());
+    String keyName = nonConflictingName("key", properties.keySet());
+
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("fromJson")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(JSON_READER, readerName)
+                                                 .returns(finalAutoValueClassName)
+                                                 .addException(IO_EXCEPTION);
+
+    for (FirebaseProperty property : properties.values()) {
+      TypeName type = property.type.type;
+      methodBuilder.addStatement("$T $L = $L", type, property.name, defaultValue(type));
+    }
+
+    methodBuilder.addStatement("$L.beginObject()", readerName)
+                 .beginControlFlow("while ($L.hasNext())", readerName)
+                 .addStatement("$T $L = $L.nextName()", STRING, keyName, readerName)
+                 // Firebase doesn't store nulls, so a null is the same as a missing property
+                 .beginControlFlow("if ($L.peek() == $T.NULL)", readerName, JSON_TOKEN)
+                 .addStatement("$L.nextNull()", readerName)
+                 .addStatement("continue")
+                 .endControlFlow()
+                 .beginControlFlow("switch ($L)", keyName);
+
+    for (FirebaseProperty property : properties.values()) {
+      // Excluded properties are never written, so they're as unknown here as any other key
+      if (property.excluded) {
+        continue;
+      }
+      String fieldName = property.name;
+      PropertyType propertyType = property.type;
+      methodBuilder.addCode("case $S:\n$>", property.key);
+
+      if (propertyType.kind == PropertyType.Kind.PRIMITIVE
+          || propertyType.kind == PropertyType.Kind.FIREBASE_VALUE) {
+        methodBuilder.addStatement("$L = $L", fieldName, readJson(propertyType.type, propertyType, readerName));
+
+      } else if (propertyType.kind == PropertyType.Kind.ENUM) {
+        methodBuilder.addStatement("$L = $L", fieldName, decodeEnum(fieldName, readerName + ".nextString()"));
+
+      } else if (propertyType.kind == PropertyType.Kind.ADAPTED) {
+        methodBuilder.addStatement("$L = $L", fieldName,
+          fromStored(fieldName, readJson(propertyType.firebaseValueType, propertyType, readerName)));
+
+      } else if (propertyType.kind == PropertyType.Kind.NESTED_COLLECTION) {
+        NestedCollections.readJson(methodBuilder, propertyType, fieldName, readerName, 0);
+
+      } else if (propertyType.kind == PropertyType.Kind.PRIMITIVE_ARRAY) {
+        String lengthName = nonConflictingName(fieldName + "Length", properties.keySet());
+
+        beginArrayBuffer(methodBuilder, propertyType, fieldName, lengthName);
+        methodBuilder.addStatement("$L.beginArray()", readerName)
+                     .beginControlFlow("while ($L.hasNext())", readerName)
+                     .beginControlFlow("if ($L == $L.length)", lengthName, fieldName)
+                     .addStatement("$L = $T.copyOf($L, $L * 2)", fieldName, ARRAYS, fieldName, lengthName)
+                     .endControlFlow()
+                     // Missing indexes are exported as nulls, and read back as zeros
+                     .beginControlFlow("if ($L.peek() == $T.NULL)", readerName, JSON_TOKEN)
+                     .addStatement("$L.nextNull()", readerName)
+                     .addStatement("$L++", lengthName)
+                     .nextControlFlow("else")
+                     .addStatement("$L[$L++] = $L", fieldName, lengthName,
+                       readJson(propertyType.elementType, propertyType, readerName))
+                     .endControlFlow()
+                     .endControlFlow()
+                     .addStatement("$L.endArray()", readerName);
+        endArrayBuffer(methodBuilder, fieldName, lengthName);
+
+      } else if (propertyType.isList()) {
+        String fillName = beginFill(methodBuilder, propertyType, fieldName,
+          nonConflictingName(fieldName + "Builder", properties.keySet()), null);
+        methodBuilder.addStatement("$L.beginArray()", readerName)
+                     .beginControlFlow("while ($L.hasNext())", readerName)
+                     // Null elements are written as nulls, and so are the missing indexes of exports
+                     .beginControlFlow("if ($L.peek() == $T.NULL)", readerName, JSON_TOKEN);
+        if (propertyType.immutable) {
+          // ImmutableLists can't hold nulls, and leaving them out would move the elements after them,
+          // so this throws like fromMap() does
+          methodBuilder.addStatement("throw new $T($S)", NullPointerException.class,
+            fieldName + " is an ImmutableList, which can't hold nulls");
+        } else {
+          methodBuilder.addStatement("$L.nextNull()", readerName)
+                       .addStatement("$L.add(null)", fillName);
         }
+        methodBuilder.nextControlFlow("else")
+                     .addStatement("$L.add($L)", fillName,
+                       readJson(propertyType.elementType, propertyType, readerName))
+                     .endControlFlow()
+                     .endControlFlow()
+                     .addStatement("$L.endArray()", readerName);
+        endFill(methodBuilder, propertyType, fieldName, fillName);
+
       } else {
-        ClassName firebaseValueName =
-          ClassName.get(packageName, AUTOVALUE_PREFIX + ((ClassName) originalType).simpleName(), FIREBASEVALUE);
+        CodeBlock key = decodeKey(propertyType.keyType, CodeBlock.of("$L.nextName()", readerName), true);
+
+        String fillName = beginFill(methodBuilder, propertyType, fieldName,
+          nonConflictingName(fieldName + "Builder", properties.keySet()), null);
+        methodBuilder.addStatement("$L.beginObject()", readerName)
+                     .beginControlFlow("while ($L.hasNext())", readerName)
+                     .addStatement("$L.put($L, $L)", fillName, key,
+                       readJson(propertyType.elementType, propertyType, readerName))
+                     .endControlFlow()
+                     .addStatement("$L.endObject()", readerName);
+        endFill(methodBuilder, propertyType, fieldName, fillName);
+      }
+      methodBuilder.addStatement("break")
+                   .addCode("$<");
+    }
+
+    methodBuilder.addCode("default:\n$>");
+    if (hasAnnotation(autoValueTypeElement, THROW_ON_EXTRA_PROPERTIES)) {
+      methodBuilder.addStatement("throw new $T($S + $L + $S)", IllegalStateException.class,
+        "Found unknown property '", keyName, "' for " + autoValueTypeElement.getSimpleName());
+    } else {
+      methodBuilder.addStatement("$L.skipValue()", readerName);
+    }
+    methodBuilder.addCode("$<")
+                 .endControlFlow()
+                 .endControlFlow()
+                 .addStatement("$L.endObject()", readerName);
+
+    return methodBuilder.addCode(returnNewAutoValue(finalAutoValueClassName, properties)).build();
+  }
+
+  static MethodSpec generateFromJsonReaderMethod(ClassName autoValueClassName,
+                                                 Map<String, FirebaseProperty> properties) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    String readerName = nonConflictingName("reader", properties.keySet());
+
+    return MethodSpec.methodBuilder("fromJson")
+                     .addModifiers(STATIC)
+                     .addParameter(READER, readerName)
+                     .returns(finalAutoValueClassName)
+                     .addException(IO_EXCEPTION)
+                     .addStatement("return fromJson(new $T($L))", JSON_READER, readerName)
+                     .build();
+  }
+
+  static MethodSpec generateWriteToMethod(TypeElement autoValueTypeElement,
+                                          Map<String, FirebaseProperty> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    String paramName = firstLetterToLowerCase(autoValueType);
+    String writerName = nonConflictingName("writer", Collections.singleton(paramName));
+
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("writeTo")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, paramName)
+                                                 .addParameter(JSON_WRITER, writerName)
+                                                 .addException(IO_EXCEPTION)
+                                                 .addStatement("$L.beginObject()", writerName);
+
+    for (FirebaseProperty property : properties.values()) {
+      if (property.excluded) {
+        continue;
+      }
+      PropertyType propertyType = property.type;
+      TypeName type = propertyType.type;
+      String value = paramName + "." + property.name + "()";
+
+      if (type.isPrimitive()) {
+        methodBuilder.addStatement("$L.name($S)", writerName, property.key)
+                     .addStatement("$L", writeJson(type, propertyType, value, writerName));
+        continue;
+      }
+
+      // Firebase doesn't store nulls, so null properties are left out like they are in the database
+      methodBuilder.beginControlFlow("if ($L != null)", value)
+                   .addStatement("$L.name($S)", writerName, property.key);
+
+      if (propertyType.kind == PropertyType.Kind.PRIMITIVE
+          || propertyType.kind == PropertyType.Kind.FIREBASE_VALUE) {
+        methodBuilder.addStatement("$L", writeJson(type, propertyType, value, writerName));
+
+      } else if (propertyType.kind == PropertyType.Kind.ENUM) {
+        methodBuilder.addStatement("$L.value($L)", writerName, enumName(propertyType, property.name, value));
+
+      } else if (propertyType.kind == PropertyType.Kind.ADAPTED) {
+        methodBuilder.addStatement("$L", writeJson(propertyType.firebaseValueType, propertyType,
+          toStored(property.name, value).toString(), writerName));
+
+      } else if (propertyType.kind == PropertyType.Kind.NESTED_COLLECTION) {
+        NestedCollections.writeJson(methodBuilder, propertyType, value, writerName, 0);
+
+      } else if (propertyType.kind == PropertyType.Kind.PRIMITIVE_ARRAY) {
+        methodBuilder.addStatement("$L.beginArray()", writerName)
+                     .beginControlFlow("for ($T item : $L)", propertyType.elementType, value)
+                     .addStatement("$L", writeJson(propertyType.elementType, propertyType, "item", writerName))
+                     .endControlFlow()
+                     .addStatement("$L.endArray()", writerName);
+
+      } else if (propertyType.isList()) {
+        methodBuilder.addStatement("$L.beginArray()", writerName)
+                     .beginControlFlow("for ($T item : $L)", propertyType.elementType, value)
+                     .beginControlFlow("if (item == null)")
+                     .addStatement("$L.nullValue()", writerName)
+                     .nextControlFlow("else")
+                     .addStatement("$L", writeJson(propertyType.elementType, propertyType, "item", writerName))
+                     .endControlFlow()
+                     .endControlFlow()
+                     .addStatement("$L.endArray()", writerName);
+
+      } else {
+        CodeBlock key = STRING.equals(propertyType.keyType)
+                        ? CodeBlock.of("entry.getKey()")
+                        : CodeBlock.of("$T.valueOf(entry.getKey())", STRING);
+
+        methodBuilder.addStatement("$L.beginObject()", writerName)
+                     .beginControlFlow("for ($T<$T, $T> entry : $L.entrySet())",
+                       MAP_ENTRY, propertyType.keyType, propertyType.elementType, value)
+                     .beginControlFlow("if (entry.getValue() != null)")
+                     .addStatement("$L.name($L)", writerName, key)
+                     .addStatement("$L", writeJson(propertyType.elementType, propertyType, "entry.getValue()", writerName))
+                     .endControlFlow()
+                     .endControlFlow()
+                     .addStatement("$L.endObject()", writerName);
+      }
+      methodBuilder.endControlFlow();
+    }
+
+    return methodBuilder.addStatement("$L.endObject()", writerName).build();
+  }
+
+  // Starts reading an array of unknown length into a buffer, which grows by doubling
+  static void beginArrayBuffer(MethodSpec.Builder methodBuilder, PropertyType arrayType, String fieldName,
+                               String lengthName) {
+    methodBuilder.addStatement("$L = new $T[16]", fieldName, arrayType.elementType)
+                 .addStatement("int $L = 0", lengthName);
+  }
+
+  // Trims the buffer down to the elements that were read
+  static void endArrayBuffer(MethodSpec.Builder methodBuilder, String fieldName, String lengthName) {
+    methodBuilder.beginControlFlow("if ($L < $L.length)", lengthName, fieldName)
+                 .addStatement("$L = $T.copyOf($L, $L)", fieldName, ARRAYS, fieldName, lengthName)
+                 .endControlFlow();
+  }
+
+  // Writes one non-null JSON value of a property, or of an element of a List or Map property
+  static CodeBlock writeJson(TypeName type, PropertyType propertyType, String value, String writer) {
+    if (propertyType.autoValueName != null) {
+      return CodeBlock.of("$T.writeTo($L, $L)", propertyType.autoValueName, value, writer);
+    }
+    // Firebase has no char type, so chars are written as one-character Strings
+    if (TypeName.CHAR.equals(type) || TypeName.CHAR.box().equals(type)) {
+      return CodeBlock.of("$L.value($T.valueOf($L))", writer, STRING, value);
+    }
+    return CodeBlock.of("$L.value($L)", writer, value);
+  }
+
+  // Reads one JSON value of a property, or of an element of a List or Map property
+  static CodeBlock readJson(TypeName type, PropertyType propertyType, String reader) {
+    if (propertyType.autoValueName != null) {
+      return CodeBlock.of("$T.fromJson($L)", propertyType.autoValueName, reader);
+    }
+    TypeName unboxed = type.isBoxedPrimitive() ? type.unbox() : type;
+
+    if (TypeName.BOOLEAN.equals(unboxed)) {
+      return CodeBlock.of("$L.nextBoolean()", reader);
+    } else if (TypeName.CHAR.equals(unboxed)) {
+      return CodeBlock.of("$L.nextString().charAt(0)", reader);
+    } else if (TypeName.LONG.equals(unboxed)) {
+      return CodeBlock.of("$L.nextLong()", reader);
+    } else if (TypeName.DOUBLE.equals(unboxed)) {
+      return CodeBlock.of("$L.nextDouble()", reader);
+    } else if (TypeName.INT.equals(unboxed)) {
+      return CodeBlock.of("$L.nextInt()", reader);
+    } else if (TypeName.FLOAT.equals(unboxed)) {
+      return CodeBlock.of("(float) $L.nextDouble()", reader);
+    } else if (TypeName.SHORT.equals(unboxed)) {
+      return CodeBlock.of("(short) $L.nextInt()", reader);
+    } else if (TypeName.BYTE.equals(unboxed)) {
+      return CodeBlock.of("(byte) $L.nextInt()", reader);
+    }
+    return CodeBlock.of("$L.nextString()", reader);
+  }
+
+  // Decodes one child node of a List or Map value. Firebase never stores null children.
+  static CodeBlock decodeNode(PropertyType collectionType, String node) {
+    if (collectionType.kind == PropertyType.Kind.PRIMITIVE_COLLECTION) {
+      return coerce(collectionType.elementType, node + ".value()");
+    }
+    return CodeBlock.of("$T.fromNode($L)", collectionType.autoValueName, node);
+  }
+
+  // Decodes one element of a List or Map value, which may be null
+  // Firebase keys are always Strings, so other key types are parsed out of them, and Character keys
+  // are their first character. key is parenthesized for charAt() unless it's a primary expression.
+  static CodeBlock decodeKey(TypeName keyType, CodeBlock key, boolean primary) {
+    if (STRING.equals(keyType)) {
+      return key;
+    } else if (TypeName.CHAR.box().equals(keyType)) {
+      return CodeBlock.of(primary ? "$L.charAt(0)" : "($L).charAt(0)", key);
+    }
+    return CodeBlock.of("$T.valueOf($L)", keyType.box(), key);
+  }
+
+  static CodeBlock decodeElement(PropertyType collectionType, String expression) {
+    if (collectionType.kind == PropertyType.Kind.PRIMITIVE_COLLECTION) {
+      return coerceNullable(collectionType.elementType, expression);
+    }
+    return CodeBlock.of("$L == null ? null : $T.fromMap(($T) $L)",
+      expression, collectionType.autoValueName, STRING_OBJECT_MAP, expression);
+  }
+
+  static CodeBlock coerceNullable(TypeName type, String expression) {
+    if (STRING.equals(type) || type.equals(ClassName.get(Boolean.class))) {
+      return CodeBlock.of("($T) $L", type, expression);
+    }
+    return CodeBlock.of("$L == null ? $L : $L", expression, defaultValue(type), coerce(type, expression));
+  }
+
+  // Firebase hands back every number as a Long or a Double, so they're narrowed through Number
+  static CodeBlock coerce(TypeName type, String expression) {
+    TypeName unboxed = type.isBoxedPrimitive() ? type.unbox() : type;
+
+    if (TypeName.BOOLEAN.equals(unboxed)) {
+      return CodeBlock.of("($T) $L", Boolean.class, expression);
+    } else if (TypeName.CHAR.equals(unboxed)) {
+      return CodeBlock.of("(($T) $L).charAt(0)", STRING, expression);
+    } else if (STRING.equals(type)) {
+      return CodeBlock.of("($T) $L", STRING, expression);
+    }
+    return CodeBlock.of("(($T) $L).$LValue()", Number.class, expression, unboxed);
+  }
+
+  // An initial capacity large enough that a HashMap won't resize before holding this many entries
+  static CodeBlock hashMapCapacity(String sizeExpression) {
+    return CodeBlock.of("(int) ($L / 0.75f) + 1", sizeExpression);
+  }
 
-        fields.add(FieldSpec.builder(firebaseValueName, fieldName, PRIVATE).build());
+  // Starts filling a new collection into target, and returns the name to add its elements to.
+  // Immutable collections are filled through a builder, pre-sized if size isn't null, so they're
+  // built once instead of being copied out of a mutable collection.
+  static String beginFill(MethodSpec.Builder methodBuilder, PropertyType collectionType, String target,
+                          String builderName, CodeBlock size) {
+    if (!collectionType.immutable) {
+      methodBuilder.addStatement("$L = new $T<>()", target, collectionType.isList() ? ARRAY_LIST : HASH_MAP);
+      return target;
+    }
+
+    ClassName immutableType = collectionType.isList() ? IMMUTABLE_LIST : IMMUTABLE_MAP;
+    TypeName builderType = collectionType.isList()
+                           ? ParameterizedTypeName.get(IMMUTABLE_LIST.nestedClass("Builder"),
+                             collectionType.elementType)
+                           : ParameterizedTypeName.get(IMMUTABLE_MAP.nestedClass("Builder"),
+                             collectionType.keyType, collectionType.elementType);
+    if (size == null) {
+      methodBuilder.addStatement("$T $L = $T.builder()", builderType, builderName, immutableType);
+    } else {
+      methodBuilder.addStatement("$T $L = $T.builderWithExpectedSize($L)", builderType, builderName,
+        immutableType, size);
+    }
+    return builderName;
+  }
+
+  static void endFill(MethodSpec.Builder methodBuilder, PropertyType collectionType, String target,
+                      String fillName) {
+    if (collectionType.immutable) {
+      methodBuilder.addStatement("$L = $L.build()", target, fillName);
+    }
+  }
+
+  static String defaultValue(TypeName type) {
+    if (TypeName.BOOLEAN.equals(type)) {
+      return "false";
+    } else if (type.isPrimitive()) {
+      return "0";
+    }
+    return "null";
+  }
+
+  static List<AnnotationSpec> generateFirebaseValueClassAnnotations(TypeElement type) {
+    List<AnnotationSpec> annotations = new ArrayList<>();
+
+    for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+      if (isAnnotation(annotation, IGNORE_EXTRA_PROPERTIES)
+          || isAnnotation(annotation, THROW_ON_EXTRA_PROPERTIES)) {
+        annotations.add(AnnotationSpec.get(annotation));
       }
     }
 
+    return annotations;
+  }
+
+  static List<FieldSpec> generateFirebaseValueFields(Map<String, FirebaseProperty> properties) {
+    List<FieldSpec> fields = new ArrayList<>();
+
+    for (FirebaseProperty property : properties.values()) {
+      fields.add(FieldSpec.builder(property.type.firebaseValueType, property.name, PRIVATE).build());
+    }
+
     return fields;
   }
 
@@ -192,53 +1632,133 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
                      .build();
   }
 
-  static MethodSpec generateFirebaseValueConstructorWithAutoValueParam(String packageName,
-                                                                       TypeElement autoValueTypeElement,
-                                                                       Map<String, TypeName> types) {
+  static MethodSpec generateFirebaseValueConstructorWithAutoValueParam(TypeElement autoValueTypeElement,
+                                                                       Map<String, FirebaseProperty> properties,
+                                                                       FirebaseValueOptions options) {
     MethodSpec.Builder autoValueConstructorBuilder = MethodSpec.constructorBuilder();
     ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
     String autoValueConstructorParamName = firstLetterToLowerCase(autoValueType);
+    String indexName = nonConflictingName("i", properties.keySet());
+    String sizeName = nonConflictingName("size", properties.keySet());
     autoValueConstructorBuilder.addParameter(
       ParameterSpec.builder(autoValueType, autoValueConstructorParamName).build());
 
-    for (Map.Entry<String, TypeName> entry : types.entrySet()) {
-      String fieldName = entry.getKey();
-      TypeName originalType = entry.getValue();
-
-      if (typeIsPrimitive(originalType) || typeIsPrimitiveCollection(originalType)) {
-        autoValueConstructorBuilder.addCode("this.$L = $L.$L();\n",
-          fieldName, autoValueConstructorParamName, fieldName);
+    for (FirebaseProperty property : properties.values()) {
+      String fieldName = property.name;
+      PropertyType propertyType = property.type;
+      TypeName originalType = propertyType.type;
+
+      switch (propertyType.kind) {
+        case PRIMITIVE:
+        case PRIMITIVE_COLLECTION:
+          autoValueConstructorBuilder.addCode("this.$L = $L.$L();\n",
+            fieldName, autoValueConstructorParamName, fieldName);
+          break;
+
+        case ENUM: {
+          String value = autoValueConstructorParamName + "." + fieldName + "()";
+          autoValueConstructorBuilder.addStatement("this.$L = $L == null ? null : $L",
+            fieldName, value, enumName(propertyType, fieldName, value));
+          break;
+        }
 
-      } else if (typeIsNonPrimitiveCollection(originalType)) {
-        ParameterizedTypeName fullType = (ParameterizedTypeName) originalType;
-        ClassName rawType = fullType.rawType;
+        case ADAPTED: {
+          String value = autoValueConstructorParamName + "." + fieldName + "()";
+          autoValueConstructorBuilder.addStatement("this.$L = $L == null ? null : $L",
+            fieldName, value, toStored(fieldName, value));
+          break;
+        }
 
-        if (LIST.equals(rawType)) {
-          ClassName typeParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName newTypeParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + typeParam.simpleName(), FIREBASEVALUE);
+        case NESTED_COLLECTION:
+          if (propertyType.autoValueName == null) {
+            // Firebase handles nested collections of primitives directly
+            autoValueConstructorBuilder.addStatement("this.$L = $L.$L()",
+              fieldName, autoValueConstructorParamName, fieldName);
+            break;
+          }
+          autoValueConstructorBuilder.beginControlFlow("if ($L.$L() != null)", autoValueConstructorParamName, fieldName);
+          NestedCollections.convert(autoValueConstructorBuilder, propertyType,
+            autoValueConstructorParamName + "." + fieldName + "()", "this." + fieldName,
+            NestedCollections.TO_FIREBASE_VALUE, 0);
+          autoValueConstructorBuilder.endControlFlow();
+          break;
+
+        case PRIMITIVE_ARRAY:
+          // A List view over the array, so elements are only boxed as Firebase reads them
+          autoValueConstructorBuilder
+            .addStatement("final $T $L = $L.$L()", originalType, fieldName, autoValueConstructorParamName, fieldName)
+            .addStatement("this.$L = $L == null ? null : $L", fieldName, fieldName, arrayView(propertyType, fieldName));
+          break;
+
+        case LIST: {
+          TypeName typeParam = propertyType.elementType;
+          ClassName newTypeParam = propertyType.firebaseValueName;
+          String collection = autoValueConstructorParamName + "." + fieldName + "()";
+          TypeSpec converter =
+            converter(typeParam, newTypeParam, CodeBlock.of("new $T(value)", newTypeParam));
+
+          if (options.minimalAllocation) {
+            // Convert the List into an exactly sized ArrayList, by index if possible
+            beginCollectionConversion(autoValueConstructorBuilder, collection, "this." + fieldName,
+              propertyType, converter, options);
+            autoValueConstructorBuilder
+              .addStatement("$T $L = $L.$L()", originalType, fieldName, autoValueConstructorParamName, fieldName)
+              .addStatement("this.$L = new $T<>($L.size())", fieldName, ARRAY_LIST, fieldName)
+              .beginControlFlow("if ($L instanceof $T)", fieldName, RANDOM_ACCESS)
+              .beginControlFlow("for (int $L = 0, $L = $L.size(); $L < $L; $L++)",
+                indexName, sizeName, fieldName, indexName, sizeName, indexName)
+              .addStatement("this.$L.add(new $T($L.get($L)))", fieldName, newTypeParam, fieldName, indexName)
+              .endControlFlow()
+              .nextControlFlow("else")
+              .beginControlFlow("for ($T item : $L)", typeParam, fieldName)
+              .addStatement("this.$L.add(new $T(item))", fieldName, newTypeParam)
+              .endControlFlow()
+              .endControlFlow()
+              .endControlFlow();
+            break;
+          }
 
           // Convert the List in the constructor
+          beginCollectionConversion(autoValueConstructorBuilder, collection, "this." + fieldName,
+            propertyType, converter, options);
           autoValueConstructorBuilder
-            .beginControlFlow("if ($L.$L() != null)",
-              autoValueConstructorParamName, fieldName)
             .addStatement("this.$L = new $T<>()", fieldName, ARRAY_LIST)
             .beginControlFlow("for ($T item : $L.$L())",
               typeParam, autoValueConstructorParamName, fieldName)
             .addStatement("$L.add(new $T(item))", fieldName, newTypeParam)
             .endControlFlow()
             .endControlFlow();
+          break;
+        }
 
-        } else if (MAP.equals(rawType)) {
-          ClassName keyParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName valueParam = (ClassName) fullType.typeArguments.get(1);
-          ClassName newTypeParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + valueParam.simpleName(), FIREBASEVALUE);
+        case MAP: {
+          TypeName keyParam = propertyType.keyType;
+          TypeName valueParam = propertyType.elementType;
+          ClassName newTypeParam = propertyType.firebaseValueName;
+          String collection = autoValueConstructorParamName + "." + fieldName + "()";
+          TypeSpec converter =
+            converter(valueParam, newTypeParam, CodeBlock.of("new $T(value)", newTypeParam));
+
+          if (options.minimalAllocation) {
+            // Convert the Map into a HashMap that won't need to resize
+            beginCollectionConversion(autoValueConstructorBuilder, collection, "this." + fieldName,
+              propertyType, converter, options);
+            autoValueConstructorBuilder
+              .addStatement("$T $L = $L.$L()", originalType, fieldName, autoValueConstructorParamName, fieldName)
+              .addStatement("this.$L = new $T<>($L)", fieldName, HASH_MAP, hashMapCapacity(fieldName + ".size()"))
+              .beginControlFlow("for ($T<$T, $T> entry : $L.entrySet())",
+                MAP_ENTRY, keyParam, valueParam, fieldName)
+              .addStatement("this.$L.put(entry.getKey(), new $T(entry.getValue()))",
+                fieldName, newTypeParam)
+              .endControlFlow()
+              .endControlFlow();
+            break;
+          }
 
           // Convert the Map in the constructor
+          beginCollectionConversion(autoValueConstructorBuilder, collection, "this." + fieldName,
+            propertyType, converter, options);
           autoValueConstructorBuilder
-            .beginControlFlow("if ($L.$L() != null)",
-              autoValueConstructorParamName, fieldName)
             .addStatement("this.$L = new $T<>()", fieldName, HASH_MAP)
             .beginControlFlow("for ($T<$T, $T> entry : $L.$L().entrySet())",
               MAP_ENTRY, keyParam, valueParam,
@@ -247,183 +1767,440 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
               fieldName, newTypeParam)
             .endControlFlow()
             .endControlFlow();
+          break;
         }
-      } else {
-        ClassName firebaseValueName =
-          ClassName.get(packageName, AUTOVALUE_PREFIX + ((ClassName) originalType).simpleName(), FIREBASEVALUE);
 
-        autoValueConstructorBuilder.addCode("this.$L = $L.$L() == null ? null : new $T($L.$L());\n",
-          fieldName, autoValueConstructorParamName, fieldName,
-          firebaseValueName, autoValueConstructorParamName, fieldName);
+        case FIREBASE_VALUE:
+          autoValueConstructorBuilder.addCode("this.$L = $L.$L() == null ? null : new $T($L.$L());\n",
+            fieldName, autoValueConstructorParamName, fieldName,
+            propertyType.firebaseValueName, autoValueConstructorParamName, fieldName);
+          break;
       }
     }
 
     return autoValueConstructorBuilder.build();
   }
 
-  static List<MethodSpec> generateFirebaseValueGetters(String packageName,
-                                                       Map<String, ExecutableElement> properties) {
+  static List<MethodSpec> generateFirebaseValueGetters(Map<String, FirebaseProperty> properties) {
     List<MethodSpec> getters = new ArrayList<>();
 
-    for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
-      String fieldName = entry.getKey();
-      TypeName originalType = TypeName.get(entry.getValue().getReturnType());
-      checkIfTypeIsSupported(originalType);
-
-      MethodSpec.Builder methodBuilder =
-        MethodSpec.methodBuilder(fieldNameToGetterName(fieldName))
-                  .addModifiers(PUBLIC)
-                  .addCode("return " + fieldName + ";\n");
-
-      methodBuilder.addAnnotations(generateFirebaseValueMethodAnnotations(entry.getValue()));
-
-      if (typeIsPrimitive(originalType) || typeIsPrimitiveCollection(originalType)) {
-        methodBuilder.returns(originalType);
-
-      } else if (typeIsNonPrimitiveCollection(originalType)) {
-        ParameterizedTypeName fullType = (ParameterizedTypeName) originalType;
-        ClassName rawType = fullType.rawType;
-
-        if (LIST.equals(rawType)) {
-          ClassName typeParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName newTypeParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + typeParam.simpleName(), FIREBASEVALUE);
-          ParameterizedTypeName newFullType =
-            ParameterizedTypeName.get(rawType, newTypeParam);
-
-          methodBuilder.returns(newFullType);
-
-        } else if (MAP.equals(rawType)) {
-          ClassName keyParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName valueParam = (ClassName) fullType.typeArguments.get(1);
-          ClassName newTypeParam = ClassName.get(packageName,
-            AUTOVALUE_PREFIX + valueParam.simpleName(),
-            FIREBASEVALUE);
-          ParameterizedTypeName newFullType =
-            ParameterizedTypeName.get(rawType, keyParam, newTypeParam);
-
-          methodBuilder.returns(newFullType);
-        }
-
-      } else {
-        ClassName firebaseValueName =
-          ClassName.get(packageName, AUTOVALUE_PREFIX + ((ClassName) originalType).simpleName(), FIREBASEVALUE);
-
-        methodBuilder.returns(firebaseValueName);
-      }
-
-      getters.add(methodBuilder.build());
+    for (FirebaseProperty property : properties.values()) {
+      getters.add(MethodSpec.methodBuilder(fieldNameToGetterName(property.name))
+                            .addModifiers(PUBLIC)
+                            .addCode("return " + property.name + ";\n")
+                            .addAnnotations(property.annotations)
+                            .returns(property.type.firebaseValueType)
+                            .build());
     }
 
     return getters;
   }
 
-  static List<AnnotationSpec> generateFirebaseValueMethodAnnotations(ExecutableElement property) {
-    List<AnnotationSpec> annotations = new ArrayList<>();
-
-    for (AnnotationMirror annotation : property.getAnnotationMirrors()) {
-      AnnotationSpec annotationSpec = AnnotationSpec.get(annotation);
-      TypeName annotationType = AnnotationSpec.get(annotation).type;
-
-      if (EXCLUDE.equals(annotationType)) {
-        annotations.add(annotationSpec);
-      } else if (PROPERTY_NAME.equals(annotationType)) {
-        annotations.add(annotationSpec);
-      }
-    }
-
-    return annotations;
-  }
-
-  static MethodSpec generateFirebaseValueToAutoValueMethod(String packageName,
-                                                           ClassName autoValueClassName,
-                                                           LinkedHashMap<String, TypeName> types) {
+  static MethodSpec generateFirebaseValueToAutoValueMethod(ClassName autoValueClassName,
+                                                           Map<String, FirebaseProperty> properties,
+                                                           FirebaseValueOptions options) {
     ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
     MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("toAutoValue")
                                                  .addAnnotation(EXCLUDE)
                                                  .returns(finalAutoValueClassName);
+    String indexName = nonConflictingName("i", properties.keySet());
+    String sizeName = nonConflictingName("size", properties.keySet());
+
+    for (FirebaseProperty property : properties.values()) {
+      String fieldName = property.name;
+      PropertyType propertyType = property.type;
+      TypeName type = propertyType.type;
+
+      if (propertyType.immutable) {
+        // Built once, exactly sized, so there's nothing for the lazy or parallel conversions to save
+        addImmutableToAutoValue(methodBuilder, propertyType, fieldName,
+          nonConflictingName(fieldName + "Builder", properties.keySet()));
+        continue;
+      }
 
-    for (Map.Entry<String, TypeName> entry : types.entrySet()) {
-      String fieldName = entry.getKey();
-      TypeName type = entry.getValue();
-
-      if (typeIsPrimitive(type) || typeIsPrimitiveCollection(type)) {
-        methodBuilder.addStatement("$T $L = this.$L", type, fieldName, fieldName);
-
-      } else if (typeIsNonPrimitiveCollection(type)) {
-        ParameterizedTypeName pType = (ParameterizedTypeName) type;
-
-        if (LIST.equals(pType.rawType)) {
-          ClassName outputParam = (ClassName) pType.typeArguments.get(0);
-          ClassName inputParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + outputParam.simpleName() + "." + FIREBASEVALUE);
-
+      switch (propertyType.kind) {
+        case PRIMITIVE_COLLECTION:
+          if (options.minimalAllocation) {
+            // A view rather than a copy, so it can't be changed through the AutoValue instance but
+            // still reflects changes to the collection Firebase deserialized into
+            String wrapper = propertyType.isList() ? "unmodifiableList" : "unmodifiableMap";
+            methodBuilder.addStatement("$T $L = this.$L == null ? null : $T.$L(this.$L)",
+              type, fieldName, fieldName, COLLECTIONS, wrapper, fieldName);
+          } else {
+            methodBuilder.addStatement("$T $L = this.$L", type, fieldName, fieldName);
+          }
+          break;
+
+        case PRIMITIVE:
+          methodBuilder.addStatement("$T $L = this.$L", type, fieldName, fieldName);
+          break;
+
+        case ENUM:
+          methodBuilder.addStatement("$T $L = $L", type, fieldName, decodeEnum(fieldName, "this." + fieldName));
+          break;
+
+        case ADAPTED:
+          methodBuilder.addStatement("$T $L = this.$L == null ? null : $L", type, fieldName, fieldName,
+            fromStored(fieldName, CodeBlock.of("this.$L", fieldName)));
+          break;
+
+        case NESTED_COLLECTION:
+          if (propertyType.autoValueName == null) {
+            methodBuilder.addStatement("$T $L = this.$L", type, fieldName, fieldName);
+            break;
+          }
+          methodBuilder.addStatement("$T $L = null", type, fieldName)
+                       .beginControlFlow("if (this.$L != null)", fieldName);
+          NestedCollections.convert(methodBuilder, propertyType, "this." + fieldName, fieldName,
+            NestedCollections.TO_AUTO_VALUE, 0);
+          methodBuilder.endControlFlow();
+          break;
+
+        case PRIMITIVE_ARRAY:
+          // Unboxed through Number, in case Firebase handed back a Long for a whole double
           methodBuilder.addStatement("$T $L = null", type, fieldName)
                        .beginControlFlow("if (this.$L != null)", fieldName)
-                       .addStatement("$L = new $T<>()", fieldName, ARRAY_LIST)
+                       .addStatement("$L = new $T[this.$L.size()]", fieldName, propertyType.elementType, fieldName)
+                       .addStatement("int $L = 0", indexName)
+                       .beginControlFlow("for ($T item : this.$L)", Number.class, fieldName)
+                       .addStatement("$L[$L++] = item == null ? 0 : item.$LValue()",
+                         fieldName, indexName, propertyType.elementType)
+                       .endControlFlow()
+                       .endControlFlow();
+          break;
+
+        case LIST: {
+          ClassName inputParam = propertyType.firebaseValueName;
+          TypeSpec converter =
+            converter(inputParam, propertyType.elementType, CodeBlock.of("value.toAutoValue()"));
+
+          if (options.lazyCollections) {
+            methodBuilder.addStatement("$T $L = this.$L == null ? null : $L", type, fieldName, fieldName,
+              lazyView(ParameterizedTypeName.get(LAZY_LIST, inputParam, propertyType.elementType),
+                fieldName, propertyType));
+            break;
+          }
+
+          if (options.minimalAllocation) {
+            methodBuilder.addStatement("$T $L = null", type, fieldName);
+            beginCollectionConversion(methodBuilder, "this." + fieldName, fieldName, propertyType, converter, options);
+            methodBuilder.addStatement("$L = new $T<>(this.$L.size())", fieldName, ARRAY_LIST, fieldName)
+                         .beginControlFlow("if (this.$L instanceof $T)", fieldName, RANDOM_ACCESS)
+                         .beginControlFlow("for (int $L = 0, $L = this.$L.size(); $L < $L; $L++)",
+                           indexName, sizeName, fieldName, indexName, sizeName, indexName)
+                         .addStatement("$L.add(this.$L.get($L).toAutoValue())", fieldName, fieldName, indexName)
+                         .endControlFlow()
+                         .nextControlFlow("else")
+                         .beginControlFlow("for ($T item : this.$L)", inputParam, fieldName)
+                         .addStatement("$L.add(item.toAutoValue())", fieldName)
+                         .endControlFlow()
+                         .endControlFlow()
+                         .endControlFlow();
+            break;
+          }
+
+          methodBuilder.addStatement("$T $L = null", type, fieldName);
+          beginCollectionConversion(methodBuilder, "this." + fieldName, fieldName, propertyType, converter, options);
+          methodBuilder.addStatement("$L = new $T<>()", fieldName, ARRAY_LIST)
                        .beginControlFlow("for ($T item : this.$L)", inputParam, fieldName)
                        .addStatement("$L.add(item.toAutoValue())", fieldName)
                        .endControlFlow()
                        .endControlFlow();
+          break;
+        }
 
-        } else if (MAP.equals(pType.rawType)) {
-          ClassName keyParam = (ClassName) pType.typeArguments.get(0);
-          ClassName outputParam = (ClassName) pType.typeArguments.get(1);
-          ClassName inputParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + outputParam.simpleName() + "." + FIREBASEVALUE);
-
-          methodBuilder.addStatement("$T $L = null", type, fieldName)
-                       .beginControlFlow("if (this.$L != null)", fieldName)
-                       .addStatement("$L = new $T<>()", fieldName, HASH_MAP)
+        case MAP: {
+          if (options.lazyCollections) {
+            methodBuilder.addStatement("$T $L = this.$L == null ? null : $L", type, fieldName, fieldName,
+              lazyView(ParameterizedTypeName.get(LAZY_MAP, propertyType.keyType, propertyType.firebaseValueName,
+                propertyType.elementType), fieldName, propertyType));
+            break;
+          }
+
+          TypeSpec converter = converter(propertyType.firebaseValueName, propertyType.elementType,
+            CodeBlock.of("value.toAutoValue()"));
+          CodeBlock capacity = options.minimalAllocation ? hashMapCapacity("this." + fieldName + ".size()") : CodeBlock.of("");
+          methodBuilder.addStatement("$T $L = null", type, fieldName);
+          beginCollectionConversion(methodBuilder, "this." + fieldName, fieldName, propertyType, converter, options);
+          methodBuilder.addStatement("$L = new $T<>($L)", fieldName, HASH_MAP, capacity)
                        .beginControlFlow("for ($T<$T, $T> entry : this.$L.entrySet())",
-                         MAP_ENTRY, keyParam, inputParam, fieldName)
+                         MAP_ENTRY, propertyType.keyType, propertyType.firebaseValueName, fieldName)
                        .addStatement("$L.put(entry.getKey(), entry.getValue().toAutoValue())",
                          fieldName)
                        .endControlFlow()
                        .endControlFlow();
+          break;
         }
 
-      } else {
-        methodBuilder.addStatement("$T $L = this.$L == null ? null : this.$L.toAutoValue()",
-          type, fieldName, fieldName, fieldName);
+        case FIREBASE_VALUE:
+          methodBuilder.addStatement("$T $L = this.$L == null ? null : this.$L.toAutoValue()",
+            type, fieldName, fieldName, fieldName);
+          break;
       }
     }
 
-    methodBuilder.addCode("return new $T(", finalAutoValueClassName);
-    StringBuilder constructorArgsFormat = new StringBuilder();
-    for (int i = types.size(); i > 0; i--) {
-      constructorArgsFormat.append("$N");
-      if (i > 1) {
-        constructorArgsFormat.append(", ");
+    if (options.intern) {
+      return methodBuilder.addStatement("return $L.intern($L)", INTERNER_FIELD,
+                            newAutoValue(finalAutoValueClassName, properties))
+                          .build();
+    }
+    return methodBuilder.addCode(returnNewAutoValue(finalAutoValueClassName, properties)).build();
+  }
+
+  // Converts a FirebaseValue field into an ImmutableList or ImmutableMap local
+  static void addImmutableToAutoValue(MethodSpec.Builder methodBuilder, PropertyType propertyType, String fieldName,
+                                      String builderName) {
+    if (propertyType.kind == PropertyType.Kind.PRIMITIVE_COLLECTION) {
+      // Primitives don't need converting, so copyOf() builds it from an exactly sized array
+      methodBuilder.addStatement("$T $L = this.$L == null ? null : $T.copyOf(this.$L)", propertyType.type,
+        fieldName, fieldName, propertyType.isList() ? IMMUTABLE_LIST : IMMUTABLE_MAP, fieldName);
+      return;
+    }
+
+    methodBuilder.addStatement("$T $L = null", propertyType.type, fieldName)
+                 .beginControlFlow("if (this.$L != null)", fieldName);
+    String fillName = beginFill(methodBuilder, propertyType, fieldName, builderName,
+      CodeBlock.of("this.$L.size()", fieldName));
+    if (propertyType.isList()) {
+      methodBuilder.beginControlFlow("for ($T item : this.$L)", propertyType.firebaseValueName, fieldName)
+                   .addStatement("$L.add(item.toAutoValue())", fillName);
+    } else {
+      methodBuilder.beginControlFlow("for ($T<$T, $T> entry : this.$L.entrySet())",
+                     MAP_ENTRY, propertyType.keyType, propertyType.firebaseValueName, fieldName)
+                   .addStatement("$L.put(entry.getKey(), entry.getValue().toAutoValue())", fillName);
+    }
+    methodBuilder.endControlFlow();
+    endFill(methodBuilder, propertyType, fieldName, fillName);
+    methodBuilder.endControlFlow();
+  }
+
+  // Opens the block that converts a non-null collection, after a branch that converts it on
+  // several threads instead if it's at or over the parallel threshold
+  static void beginCollectionConversion(MethodSpec.Builder builder,
+                                        String collection,
+                                        String target,
+                                        PropertyType collectionType,
+                                        TypeSpec converter,
+                                        FirebaseValueOptions options) {
+    if (options.parallelThreshold > 0) {
+      builder.beginControlFlow("if ($L != null && $L.size() >= $L)", collection, collection, options.parallelThreshold)
+             .addStatement("$L = $T.$L($L, $L)", target, PARALLEL_CONVERSION,
+               collectionType.isList() ? "convertList" : "convertMap", collection, converter)
+             .nextControlFlow("else if ($L != null)", collection);
+    } else {
+      builder.beginControlFlow("if ($L != null)", collection);
+    }
+  }
+
+  // A ParallelConversion.Converter that converts each value with the given expression
+  static TypeSpec converter(TypeName from, TypeName to, CodeBlock conversion) {
+    return TypeSpec.anonymousClassBuilder("")
+                   .addSuperinterface(ParameterizedTypeName.get(CONVERTER, from, to))
+                   .addMethod(MethodSpec.methodBuilder("convert")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PUBLIC)
+                                        .returns(to)
+                                        .addParameter(from, "value")
+                                        .addStatement("return $L", conversion)
+                                        .build())
+                   .build();
+  }
+
+  // A read-only List over a primitive array, which boxes each element as it's read
+  static TypeSpec arrayView(PropertyType arrayType, String arrayName) {
+    TypeName boxedType = arrayType.elementType.box();
+    return TypeSpec.anonymousClassBuilder("")
+                   .superclass(ParameterizedTypeName.get(ABSTRACT_LIST, boxedType))
+                   .addMethod(MethodSpec.methodBuilder("get")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PUBLIC)
+                                        .returns(boxedType)
+                                        .addParameter(TypeName.INT, "index")
+                                        .addStatement("return $L[index]", arrayName)
+                                        .build())
+                   .addMethod(MethodSpec.methodBuilder("size")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PUBLIC)
+                                        .returns(TypeName.INT)
+                                        .addStatement("return $L.length", arrayName)
+                                        .build())
+                   .build();
+  }
+
+  // A LazyList or LazyMap over a FirebaseValue field, which calls toAutoValue() on elements as they're read
+  static TypeSpec lazyView(ParameterizedTypeName viewType, String fieldName, PropertyType collectionType) {
+    return TypeSpec.anonymousClassBuilder("this.$L", fieldName)
+                   .superclass(viewType)
+                   .addMethod(MethodSpec.methodBuilder("convert")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PROTECTED)
+                                        .returns(collectionType.elementType)
+                                        .addParameter(collectionType.firebaseValueName, "value")
+                                        .addStatement("return value.toAutoValue()")
+                                        .build())
+                   .build();
+  }
+
+  static MethodSpec generateFirebaseValueToMapMethod(Map<String, FirebaseProperty> properties) {
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("toMap")
+                                                 .addAnnotation(EXCLUDE)
+                                                 .returns(STRING_OBJECT_MAP)
+                                                 .addStatement("$T map = new $T<>()", STRING_OBJECT_MAP, HASH_MAP);
+
+    for (FirebaseProperty property : properties.values()) {
+      if (property.excluded) {
+        continue;
+      }
+      addMapValue(methodBuilder, property, "map", CodeBlock.of("$S", property.key));
+    }
+
+    return methodBuilder.addStatement("return map").build();
+  }
+
+  static MethodSpec generateFirebaseValueToUpdatePathsMethod() {
+    return MethodSpec.methodBuilder("toUpdatePaths")
+                     .addAnnotation(EXCLUDE)
+                     .returns(STRING_OBJECT_MAP)
+                     .addParameter(STRING, "basePath")
+                     .addStatement("$T updates = new $T<>()", STRING_OBJECT_MAP, HASH_MAP)
+                     .addStatement("toUpdatePaths(basePath, updates)")
+                     .addStatement("return updates")
+                     .build();
+  }
+
+  static MethodSpec generateFirebaseValueToUpdatePathsWithMapMethod(Map<String, FirebaseProperty> properties) {
+    String basePathName = nonConflictingName("basePath", properties.keySet());
+    String updatesName = nonConflictingName("updates", properties.keySet());
+
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("toUpdatePaths")
+                                                 .addAnnotation(EXCLUDE)
+                                                 .addParameter(STRING, basePathName)
+                                                 .addParameter(STRING_OBJECT_MAP, updatesName);
+
+    for (FirebaseProperty property : properties.values()) {
+      if (property.excluded) {
+        continue;
+      }
+      String fieldName = property.name;
+      CodeBlock path = CodeBlock.of("$L + $S", basePathName, "/" + property.key);
+
+      if (property.type.kind == PropertyType.Kind.FIREBASE_VALUE) {
+        // Nested values are flattened too, so a write only touches the paths of their properties
+        methodBuilder.beginControlFlow("if (this.$L == null)", fieldName)
+                     .addStatement("$L.put($L, null)", updatesName, path)
+                     .nextControlFlow("else")
+                     .addStatement("this.$L.toUpdatePaths($L, $L)", fieldName, path, updatesName)
+                     .endControlFlow();
+      } else {
+        // Collections are written whole, which also removes elements that are no longer there
+        addMapValue(methodBuilder, property, updatesName, path);
       }
     }
-    constructorArgsFormat.append(");\n");
-    methodBuilder.addCode(constructorArgsFormat.toString(), types.keySet().toArray());
 
     return methodBuilder.build();
   }
 
+  // Puts the Firebase representation of a property into a map, converting @FirebaseValue types to maps
+  static void addMapValue(MethodSpec.Builder methodBuilder, FirebaseProperty property, String mapName,
+                          CodeBlock key) {
+    String fieldName = property.name;
+    PropertyType propertyType = property.type;
+
+    switch (propertyType.kind) {
+      case PRIMITIVE:
+      case PRIMITIVE_COLLECTION:
+      case PRIMITIVE_ARRAY:
+      case ENUM:
+      case ADAPTED:
+        methodBuilder.addStatement("$L.put($L, this.$L)", mapName, key, fieldName);
+        break;
+
+      case LIST:
+        methodBuilder.addStatement("$T $L = null", OBJECT_LIST, fieldName)
+                     .beginControlFlow("if (this.$L != null)", fieldName)
+                     .addStatement("$L = new $T<>()", fieldName, ARRAY_LIST)
+                     .beginControlFlow("for ($T item : this.$L)", propertyType.firebaseValueName, fieldName)
+                     .addStatement("$L.add(item.toMap())", fieldName)
+                     .endControlFlow()
+                     .endControlFlow()
+                     .addStatement("$L.put($L, $L)", mapName, key, fieldName);
+        break;
+
+      case MAP: {
+        TypeName keyParam = propertyType.keyType;
+        // Firebase only accepts String keys on the wire
+        String entryKey = STRING.equals(keyParam) ? "entry.getKey()" : "String.valueOf(entry.getKey())";
+
+        methodBuilder.addStatement("$T $L = null", STRING_OBJECT_MAP, fieldName)
+                     .beginControlFlow("if (this.$L != null)", fieldName)
+                     .addStatement("$L = new $T<>()", fieldName, HASH_MAP)
+                     .beginControlFlow("for ($T<$T, $T> entry : this.$L.entrySet())",
+                       MAP_ENTRY, keyParam, propertyType.firebaseValueName, fieldName)
+                     .addStatement("$L.put($L, entry.getValue().toMap())", fieldName, entryKey)
+                     .endControlFlow()
+                     .endControlFlow()
+                     .addStatement("$L.put($L, $L)", mapName, key, fieldName);
+        break;
+      }
+
+      case FIREBASE_VALUE:
+        methodBuilder.addStatement("$L.put($L, this.$L == null ? null : this.$L.toMap())",
+          mapName, key, fieldName, fieldName);
+        break;
+
+      case NESTED_COLLECTION:
+        if (propertyType.autoValueName == null) {
+          methodBuilder.addStatement("$L.put($L, this.$L)", mapName, key, fieldName);
+          break;
+        }
+        methodBuilder.addStatement("$T $L = null", NestedCollections.rawType(propertyType), fieldName)
+                     .beginControlFlow("if (this.$L != null)", fieldName);
+        NestedCollections.convert(methodBuilder, propertyType, "this." + fieldName, fieldName,
+          NestedCollections.FIREBASE_VALUE_TO_MAP, 0);
+        methodBuilder.endControlFlow()
+                     .addStatement("$L.put($L, $L)", mapName, key, fieldName);
+        break;
+    }
+  }
+
   static boolean checkIfTypeIsSupported(TypeName type) {
     if (typeIsPrimitive(type)) {
       return true;
 
+    } else if (type instanceof ArrayTypeName) {
+      if (!typeIsPrimitiveArray(type)) {
+        throw unsupportedType(type, "int[], long[] and double[] are the only supported array types");
+      }
+
     } else if (type instanceof ParameterizedTypeName) {
       ParameterizedTypeName pType = (ParameterizedTypeName) type;
 
-      if (LIST.equals(pType.rawType)) {
+      if (LIST.equals(pType.rawType) || IMMUTABLE_LIST.equals(pType.rawType)) {
         if (pType.typeArguments.get(0) instanceof ParameterizedTypeName) {
-          throw unsupportedType(type, "Parameterized types are not allowed as List type arguments");
+          if (IMMUTABLE_LIST.equals(pType.rawType) || typeIsImmutableCollection(pType.typeArguments.get(0))) {
+            throw unsupportedType(type, "Immutable collections can't be nested in other collections");
+          }
+          // Nested collections are supported as long as each level is
+          checkIfTypeIsSupported(pType.typeArguments.get(0));
+        } else if (pType.typeArguments.get(0) instanceof ArrayTypeName) {
+          throw unsupportedType(type, "Arrays are not allowed as List type arguments");
         }
 
-      } else if (MAP.equals(pType.rawType)) {
+      } else if (MAP.equals(pType.rawType) || IMMUTABLE_MAP.equals(pType.rawType)) {
         if (!typeIsPrimitive(pType.typeArguments.get(0))) {
           throw unsupportedType(type, "Only primitives, boxed primitives, and Strings are allowed as Map keys");
         } else if (pType.typeArguments.get(1) instanceof ParameterizedTypeName) {
-          throw unsupportedType(type, "Parameterized types are not allowed as Map values");
+          if (IMMUTABLE_MAP.equals(pType.rawType) || typeIsImmutableCollection(pType.typeArguments.get(1))) {
+            throw unsupportedType(type, "Immutable collections can't be nested in other collections");
+          }
+          checkIfTypeIsSupported(pType.typeArguments.get(1));
+        } else if (pType.typeArguments.get(1) instanceof ArrayTypeName) {
+          throw unsupportedType(type, "Arrays are not allowed as Map values");
         }
 
       } else {
-        throw unsupportedType(type, "List and Map are the only supported parameterized types");
+        throw unsupportedType(type,
+          "List, Map, ImmutableList and ImmutableMap are the only supported parameterized types");
       }
     }
     return true;
@@ -433,39 +2210,88 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
     return typeName.isPrimitive() || typeName.isBoxedPrimitive() || STRING.equals(typeName);
   }
 
+  static boolean typeIsPrimitiveArray(TypeName typeName) {
+    if (!(typeName instanceof ArrayTypeName)) {
+      return false;
+    }
+    TypeName componentType = ((ArrayTypeName) typeName).componentType;
+    return TypeName.INT.equals(componentType)
+           || TypeName.LONG.equals(componentType)
+           || TypeName.DOUBLE.equals(componentType);
+  }
+
   static boolean typeIsPrimitiveCollection(TypeName typeName) {
     if (typeName instanceof ParameterizedTypeName) {
       ParameterizedTypeName pTypeName = (ParameterizedTypeName) typeName;
       TypeName rawType = pTypeName.rawType;
 
-      if (LIST.equals(rawType)) {
+      if (LIST.equals(rawType) || IMMUTABLE_LIST.equals(rawType)) {
         return typeIsPrimitive(pTypeName.typeArguments.get(0));
-      } else if (MAP.equals(rawType)) {
+      } else if (MAP.equals(rawType) || IMMUTABLE_MAP.equals(rawType)) {
         return typeIsPrimitive(pTypeName.typeArguments.get(1));
       }
     }
     return false;
   }
 
-  static boolean typeIsNonPrimitiveCollection(TypeName typeName) {
+  static boolean typeIsImmutableCollection(TypeName typeName) {
     if (typeName instanceof ParameterizedTypeName) {
-      ParameterizedTypeName pTypeName = (ParameterizedTypeName) typeName;
-      TypeName rawType = pTypeName.rawType;
+      ClassName rawType = ((ParameterizedTypeName) typeName).rawType;
+      return IMMUTABLE_LIST.equals(rawType) || IMMUTABLE_MAP.equals(rawType);
+    }
+    return false;
+  }
 
-      if (LIST.equals(rawType)) {
-        return !typeIsPrimitive(pTypeName.typeArguments.get(0));
-      } else if (MAP.equals(rawType)) {
-        return !typeIsPrimitive(pTypeName.typeArguments.get(1));
+  // The annotation of a type on an element, or null
+  static AnnotationMirror annotation(Element element, ClassName annotationType) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      if (isAnnotation(annotation, annotationType)) {
+        return annotation;
+      }
+    }
+    return null;
+  }
+
+  static boolean hasAnnotation(TypeElement type, ClassName annotationType) {
+    for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+      if (isAnnotation(annotation, annotationType)) {
+        return true;
       }
     }
     return false;
   }
 
+  // Compares names directly rather than building an AnnotationSpec for every annotation we see
+  static boolean isAnnotation(AnnotationMirror annotation, ClassName annotationType) {
+    TypeElement element = (TypeElement) annotation.getAnnotationType().asElement();
+    return element.getQualifiedName().contentEquals(annotationType.toString());
+  }
+
+  static String nonConflictingName(String name, Collection<String> taken) {
+    while (taken.contains(name)) {
+      name = name + "_";
+    }
+    return name;
+  }
+
   static String firstLetterToLowerCase(ClassName className) {
     return className.simpleName().substring(0, 1).toLowerCase() +
            className.simpleName().substring(1);
   }
 
+  // "someField" to "SOME_FIELD"
+  static String constantName(String fieldName) {
+    StringBuilder name = new StringBuilder();
+    for (int i = 0; i < fieldName.length(); i++) {
+      char c = fieldName.charAt(i);
+      if (Character.isUpperCase(c) && i > 0) {
+        name.append('_');
+      }
+      name.append(Character.toUpperCase(c));
+    }
+    return name.toString();
+  }
+
   static String fieldNameToGetterName(String fieldName) {
     return "get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
   }
@@ -0,0 +1,400 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+import static javax.lang.model.element.Modifier.ABSTRACT;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.STATIC;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.ARRAY_LIST;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.FIREBASE_VALUE_ANNOTATION;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.HASH_MAP;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.IMMUTABLE_LIST;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.IMMUTABLE_MAP;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.IO_EXCEPTION;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.LIST;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.MAP_ENTRY;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.STRING;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.decodeEnum;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.defaultValue;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.enumName;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.firstLetterToLowerCase;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.fromStored;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.hasAnnotation;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.hashMapCapacity;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.nonConflictingName;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.returnNewAutoValue;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.stripDollarSignsFromClassName;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.toStored;
+
+/**
+ * Generates the binary codec of a class, for persisting values locally and passing them between
+ * processes. Properties are written in declaration order, without keys, in the encodings of the
+ * runtime library's BinaryFormat. Like NestedCollections, every level of a collection gets a typed
+ * loop of its own, with locals numbered by depth.
+ */
+final class BinaryCodec {
+
+  static final ClassName BINARY_FORMAT =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "BinaryFormat");
+  static final ClassName DATA_OUTPUT = ClassName.get("java.io", "DataOutput");
+  static final ClassName DATA_INPUT = ClassName.get("java.io", "DataInput");
+  static final String SCHEMA_HASH_FIELD = "SCHEMA_HASH";
+
+  private BinaryCodec() {
+  }
+
+  static FieldSpec generateSchemaHashField(Map<String, ExecutableElement> properties) {
+    return FieldSpec.builder(TypeName.INT, SCHEMA_HASH_FIELD, STATIC, FINAL)
+                    .initializer("$L", String.format("0x%08x", schemaHash(properties)))
+                    .build();
+  }
+
+  // Covers the names, types and annotations of the properties, and of the properties of every
+  // @FirebaseValue class they contain, so changing any of them invalidates the records written before
+  static int schemaHash(Map<String, ExecutableElement> properties) {
+    StringBuilder schema = new StringBuilder();
+    describeProperties(properties, schema, new HashSet<String>());
+    return schema.toString().hashCode();
+  }
+
+  private static void describeProperties(Map<String, ExecutableElement> properties, StringBuilder schema,
+                                         Set<String> described) {
+    for (Map.Entry<String, ExecutableElement> property : properties.entrySet()) {
+      schema.append(property.getKey())
+            .append(property.getValue().getAnnotationMirrors())
+            .append(':');
+      describeType(property.getValue().getReturnType(), schema, described);
+      schema.append(';');
+    }
+  }
+
+  private static void describeType(TypeMirror type, StringBuilder schema, Set<String> described) {
+    schema.append(type);
+    if (type.getKind() != TypeKind.DECLARED) {
+      return;
+    }
+    for (TypeMirror typeArgument : ((DeclaredType) type).getTypeArguments()) {
+      describeType(typeArgument, schema, described);
+    }
+    TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+    // Each class is only described once, so recursive types end
+    if (hasAnnotation(element, FIREBASE_VALUE_ANNOTATION) && described.add(element.getQualifiedName().toString())) {
+      schema.append('{');
+      describeProperties(abstractMethods(element), schema, described);
+      schema.append('}');
+    }
+  }
+
+  // The properties of a class that isn't the one being generated, as AutoValue finds them
+  private static Map<String, ExecutableElement> abstractMethods(TypeElement type) {
+    Map<String, ExecutableElement> methods = new LinkedHashMap<>();
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      if (method.getModifiers().contains(ABSTRACT)
+          && method.getParameters().isEmpty()
+          && method.getReturnType().getKind() != TypeKind.VOID) {
+        methods.put(method.getSimpleName().toString(), method);
+      }
+    }
+    return methods;
+  }
+
+  static MethodSpec generateWriteToMethod(TypeElement autoValueTypeElement) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    String paramName = firstLetterToLowerCase(autoValueType);
+    String outName = nonConflictingName("out", Collections.singleton(paramName));
+
+    return MethodSpec.methodBuilder("writeTo")
+                     .addModifiers(STATIC)
+                     .addParameter(autoValueType, paramName)
+                     .addParameter(DATA_OUTPUT, outName)
+                     .addException(IO_EXCEPTION)
+                     .addStatement("$L.writeInt($L)", outName, SCHEMA_HASH_FIELD)
+                     .addStatement("writeFields($L, $L)", paramName, outName)
+                     .build();
+  }
+
+  // Writes the properties of a value without its schema hash, which nested values don't repeat
+  static MethodSpec generateWriteFieldsMethod(TypeElement autoValueTypeElement,
+                                              Map<String, FirebaseProperty> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    String paramName = firstLetterToLowerCase(autoValueType);
+    String outName = nonConflictingName("out", Collections.singleton(paramName));
+
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("writeFields")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, paramName)
+                                                 .addParameter(DATA_OUTPUT, outName)
+                                                 .addException(IO_EXCEPTION);
+
+    for (FirebaseProperty property : properties.values()) {
+      // Excluded properties aren't part of the value, so they're left out like everywhere else
+      if (property.excluded) {
+        continue;
+      }
+      PropertyType propertyType = property.type;
+      String value = paramName + "." + property.name + "()";
+
+      if (propertyType.kind == PropertyType.Kind.ENUM) {
+        methodBuilder.addStatement("$T.writeString($L, $L == null ? null : $L)", BINARY_FORMAT, outName, value,
+          enumName(propertyType, property.name, value));
+
+      } else if (propertyType.kind == PropertyType.Kind.ADAPTED) {
+        String storedName = property.name + "Stored";
+        methodBuilder.addStatement("$T $L = $L == null ? null : $L", propertyType.firebaseValueType, storedName,
+          value, toStored(property.name, value));
+        write(methodBuilder, propertyType.firebaseValueType, storedName, outName, 0);
+
+      } else {
+        write(methodBuilder, propertyType.type, value, outName, 0);
+      }
+    }
+
+    return methodBuilder.build();
+  }
+
+  static MethodSpec generateReadFromMethod(ClassName autoValueClassName) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+
+    return MethodSpec.methodBuilder("readFrom")
+                     .addModifiers(STATIC)
+                     .addParameter(DATA_INPUT, "in")
+                     .returns(finalAutoValueClassName)
+                     .addException(IO_EXCEPTION)
+                     .addStatement("$T.checkSchema(in, $L)", BINARY_FORMAT, SCHEMA_HASH_FIELD)
+                     .addStatement("return readFields(in)")
+                     .build();
+  }
+
+  static MethodSpec generateReadFieldsMethod(ClassName autoValueClassName,
+                                             Map<String, FirebaseProperty> properties) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    String inName = nonConflictingName("in", properties.keySet());
+
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("readFields")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(DATA_INPUT, inName)
+                                                 .returns(finalAutoValueClassName)
+                                                 .addException(IO_EXCEPTION);
+
+    for (FirebaseProperty property : properties.values()) {
+      String fieldName = property.name;
+      PropertyType propertyType = property.type;
+      TypeName type = propertyType.type;
+
+      if (property.excluded) {
+        methodBuilder.addStatement("$T $L = $L", type, fieldName, defaultValue(type));
+        continue;
+      }
+
+      if (propertyType.kind == PropertyType.Kind.ENUM) {
+        methodBuilder.addStatement("$T $L = $L", type, fieldName,
+          decodeEnum(fieldName, CodeBlock.of("$T.readString($L)", BINARY_FORMAT, inName)));
+
+      } else if (propertyType.kind == PropertyType.Kind.ADAPTED) {
+        String storedName = nonConflictingName(fieldName + "Stored", properties.keySet());
+        methodBuilder.addStatement("$T $L = $L", propertyType.firebaseValueType, storedName,
+                       readExpression(propertyType.firebaseValueType, inName))
+                     .addStatement("$T $L = $L == null ? null : $L", type, fieldName, storedName,
+                       fromStored(fieldName, CodeBlock.of("$L", storedName)));
+
+      } else if (readExpression(type, inName) != null) {
+        methodBuilder.addStatement("$T $L = $L", type, fieldName, readExpression(type, inName));
+
+      } else {
+        // Collections are read through locals of their own, so each one gets a block
+        methodBuilder.addStatement("$T $L = null", type, fieldName)
+                     .addCode("{\n$>");
+        read(methodBuilder, type, fieldName, inName, 0);
+        methodBuilder.addCode("$<}\n");
+      }
+    }
+
+    return methodBuilder.addCode(returnNewAutoValue(finalAutoValueClassName, properties)).build();
+  }
+
+  // Writes one value of any supported type, which may be null unless it's a primitive
+  static void write(MethodSpec.Builder methodBuilder, TypeName type, String value, String out, int depth) {
+    if (type.isPrimitive()) {
+      methodBuilder.addStatement("$L", writePrimitive(type, value, out));
+
+    } else if (STRING.equals(type)) {
+      methodBuilder.addStatement("$T.writeString($L, $L)", BINARY_FORMAT, out, value);
+
+    } else if (type.isBoxedPrimitive()) {
+      methodBuilder.addStatement("$L.writeBoolean($L != null)", out, value)
+                   .beginControlFlow("if ($L != null)", value)
+                   .addStatement("$L", writePrimitive(type.unbox(), value, out))
+                   .endControlFlow();
+
+    } else if (type instanceof ArrayTypeName) {
+      TypeName componentType = ((ArrayTypeName) type).componentType;
+      methodBuilder.addStatement("$T.writeSize($L, $L == null ? -1 : $L.length)", BINARY_FORMAT, out, value, value)
+                   .beginControlFlow("if ($L != null)", value)
+                   .beginControlFlow("for ($T item$L : $L)", componentType, depth, value)
+                   .addStatement("$L", writePrimitive(componentType, "item" + depth, out))
+                   .endControlFlow()
+                   .endControlFlow();
+
+    } else if (type instanceof ParameterizedTypeName) {
+      ParameterizedTypeName collectionType = (ParameterizedTypeName) type;
+      methodBuilder.addStatement("$T.writeSize($L, $L == null ? -1 : $L.size())", BINARY_FORMAT, out, value, value)
+                   .beginControlFlow("if ($L != null)", value);
+
+      if (isList(collectionType)) {
+        TypeName elementType = collectionType.typeArguments.get(0);
+        methodBuilder.beginControlFlow("for ($T item$L : $L)", elementType, depth, value);
+        write(methodBuilder, elementType, "item" + depth, out, depth + 1);
+        methodBuilder.endControlFlow();
+      } else {
+        TypeName keyType = collectionType.typeArguments.get(0);
+        TypeName valueType = collectionType.typeArguments.get(1);
+        String entry = "entry" + depth;
+        methodBuilder.beginControlFlow("for ($T<$T, $T> $L : $L.entrySet())", MAP_ENTRY, keyType, valueType, entry,
+          value);
+        write(methodBuilder, keyType, entry + ".getKey()", out, depth + 1);
+        write(methodBuilder, valueType, entry + ".getValue()", out, depth + 1);
+        methodBuilder.endControlFlow();
+      }
+      methodBuilder.endControlFlow();
+
+    } else {
+      ClassName autoValueName = PropertyType.autoValueClassName((ClassName) type);
+      methodBuilder.addStatement("$L.writeBoolean($L != null)", out, value)
+                   .beginControlFlow("if ($L != null)", value)
+                   .addStatement("$T.writeFields($L, $L)", autoValueName, value, out)
+                   .endControlFlow();
+    }
+  }
+
+  static CodeBlock writePrimitive(TypeName type, String value, String out) {
+    if (TypeName.BOOLEAN.equals(type)) {
+      return CodeBlock.of("$L.writeBoolean($L)", out, value);
+    } else if (TypeName.CHAR.equals(type)) {
+      return CodeBlock.of("$L.writeChar($L)", out, value);
+    } else if (TypeName.FLOAT.equals(type)) {
+      return CodeBlock.of("$L.writeFloat($L)", out, value);
+    } else if (TypeName.DOUBLE.equals(type)) {
+      return CodeBlock.of("$L.writeDouble($L)", out, value);
+    }
+    return CodeBlock.of("$T.writeSignedVarint($L, $L)", BINARY_FORMAT, out, value);
+  }
+
+  // Reads one value of any supported type into a declared local, which is left alone for nulls
+  static void read(MethodSpec.Builder methodBuilder, TypeName type, String target, String in, int depth) {
+    CodeBlock expression = readExpression(type, in);
+    if (expression != null) {
+      methodBuilder.addStatement("$L = $L", target, expression);
+      return;
+    }
+
+    String sizeName = "size" + depth;
+    String indexName = "i" + depth;
+    methodBuilder.addStatement("int $L = $T.readSize($L)", sizeName, BINARY_FORMAT, in)
+                 .beginControlFlow("if ($L >= 0)", sizeName);
+
+    if (type instanceof ArrayTypeName) {
+      TypeName componentType = ((ArrayTypeName) type).componentType;
+      methodBuilder.addStatement("$L = new $T[$L]", target, componentType, sizeName)
+                   .beginControlFlow("for (int $L = 0; $L < $L; $L++)", indexName, indexName, sizeName, indexName)
+                   .addStatement("$L[$L] = $L", target, indexName, readExpression(componentType, in))
+                   .endControlFlow();
+
+    } else {
+      ParameterizedTypeName collectionType = (ParameterizedTypeName) type;
+      boolean immutable = IMMUTABLE_LIST.equals(collectionType.rawType) || IMMUTABLE_MAP.equals(collectionType.rawType);
+      boolean list = isList(collectionType);
+      TypeName elementType = collectionType.typeArguments.get(list ? 0 : 1);
+      String fillName = (list ? "list" : "map") + depth;
+
+      // Filled locals are exactly sized, since the size is known up front
+      if (immutable) {
+        ClassName builderType = collectionType.rawType.nestedClass("Builder");
+        methodBuilder.addStatement("$T $L = $T.builderWithExpectedSize($L)",
+          ParameterizedTypeName.get(builderType, collectionType.typeArguments.toArray(new TypeName[0])),
+          fillName, collectionType.rawType, sizeName);
+      } else if (list) {
+        methodBuilder.addStatement("$T $L = new $T<>($L)", ParameterizedTypeName.get(ARRAY_LIST, elementType),
+          fillName, ARRAY_LIST, sizeName);
+      } else {
+        methodBuilder.addStatement("$T $L = new $T<>($L)",
+          ParameterizedTypeName.get(HASH_MAP, collectionType.typeArguments.toArray(new TypeName[0])),
+          fillName, HASH_MAP, hashMapCapacity(sizeName));
+      }
+
+      methodBuilder.beginControlFlow("for (int $L = 0; $L < $L; $L++)", indexName, indexName, sizeName, indexName);
+      String keyName = "key" + depth;
+      if (!list) {
+        // The key comes first on the wire, so it's read before the value. Keys are never collections.
+        TypeName keyType = collectionType.typeArguments.get(0);
+        methodBuilder.addStatement("$T $L = $L", keyType, keyName, readExpression(keyType, in));
+      }
+      CodeBlock element = readExpression(elementType, in);
+      if (element == null) {
+        // A nested collection, read into a local of its own
+        String elementName = "item" + depth;
+        methodBuilder.addStatement("$T $L = null", elementType, elementName);
+        read(methodBuilder, elementType, elementName, in, depth + 1);
+        element = CodeBlock.of("$L", elementName);
+      }
+      if (list) {
+        methodBuilder.addStatement("$L.add($L)", fillName, element);
+      } else {
+        methodBuilder.addStatement("$L.put($L, $L)", fillName, keyName, element);
+      }
+      methodBuilder.endControlFlow()
+                   .addStatement(immutable ? "$L = $L.build()" : "$L = $L", target, fillName);
+    }
+    methodBuilder.endControlFlow();
+  }
+
+  // An expression reading a value that isn't a collection or array, or null for those
+  static CodeBlock readExpression(TypeName type, String in) {
+    if (type.isPrimitive()) {
+      return readPrimitive(type, in);
+    } else if (STRING.equals(type)) {
+      return CodeBlock.of("$T.readString($L)", BINARY_FORMAT, in);
+    } else if (type.isBoxedPrimitive()) {
+      return CodeBlock.of("$L.readBoolean() ? $L : null", in, readPrimitive(type.unbox(), in));
+    } else if (type instanceof ArrayTypeName || type instanceof ParameterizedTypeName) {
+      return null;
+    }
+    return CodeBlock.of("$L.readBoolean() ? $T.readFields($L) : null", in,
+      PropertyType.autoValueClassName((ClassName) type), in);
+  }
+
+  static CodeBlock readPrimitive(TypeName type, String in) {
+    if (TypeName.BOOLEAN.equals(type)) {
+      return CodeBlock.of("$L.readBoolean()", in);
+    } else if (TypeName.CHAR.equals(type)) {
+      return CodeBlock.of("$L.readChar()", in);
+    } else if (TypeName.FLOAT.equals(type)) {
+      return CodeBlock.of("$L.readFloat()", in);
+    } else if (TypeName.DOUBLE.equals(type)) {
+      return CodeBlock.of("$L.readDouble()", in);
+    } else if (TypeName.LONG.equals(type)) {
+      return CodeBlock.of("$T.readSignedVarint($L)", BINARY_FORMAT, in);
+    }
+    return CodeBlock.of("($T) $T.readSignedVarint($L)", type, BINARY_FORMAT, in);
+  }
+
+  private static boolean isList(ParameterizedTypeName collectionType) {
+    return LIST.equals(collectionType.rawType) || IMMUTABLE_LIST.equals(collectionType.rawType);
+  }
+}
@@ -0,0 +1,93 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.squareup.javapoet.AnnotationSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ExecutableElement;
+
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.EXCLUDE;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.PROPERTY_NAME;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.isAnnotation;
+
+/**
+ * A property of a @FirebaseValue class, analyzed once and shared by all of the generators.
+ */
+final class FirebaseProperty {
+
+  /** The length of compact keys. Properties with names at most this long keep their names. */
+  static final int COMPACT_KEY_LENGTH = 3;
+  private static final String KEY_CHARACTERS =
+    "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+  /** The name of the property, which is also the name of the generated field. */
+  final String name;
+  /**
+   * The key Firebase uses for the property: the @PropertyName value if present, otherwise the
+   * compact key with {@code compactKeys}, otherwise the name.
+   */
+  final String key;
+  /** Whether the property is annotated with @Exclude. */
+  final boolean excluded;
+  final PropertyType type;
+  /** The Firebase annotations copied onto the generated getter. */
+  final List<AnnotationSpec> annotations;
+
+  private FirebaseProperty(String name, String key, boolean excluded, PropertyType type,
+                           List<AnnotationSpec> annotations) {
+    this.name = name;
+    this.key = key;
+    this.excluded = excluded;
+    this.type = type;
+    this.annotations = annotations;
+  }
+
+  static FirebaseProperty of(String name, ExecutableElement element, PropertyType type, boolean compactKeys) {
+    String key = name;
+    boolean named = false;
+    boolean excluded = false;
+    List<AnnotationSpec> annotations = new ArrayList<>();
+
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      if (isAnnotation(annotation, EXCLUDE)) {
+        excluded = true;
+        annotations.add(AnnotationSpec.get(annotation));
+      } else if (isAnnotation(annotation, PROPERTY_NAME)) {
+        for (AnnotationValue value : annotation.getElementValues().values()) {
+          key = (String) value.getValue();
+        }
+        named = true;
+        annotations.add(AnnotationSpec.get(annotation));
+      }
+    }
+
+    if (compactKeys && !named && !excluded) {
+      // The getter is annotated too, so the Firebase SDK's own mapper agrees with the generated code
+      key = compactKey(name);
+      annotations.add(AnnotationSpec.builder(PROPERTY_NAME).addMember("value", "$S", key).build());
+    }
+
+    return new FirebaseProperty(name, key, excluded, type, Collections.unmodifiableList(annotations));
+  }
+
+  // Derived from the name alone, through String.hashCode(), which is specified, so adding, removing
+  // or reordering other properties never changes a key. Keys start with a letter, so Firebase never
+  // mistakes an object of them for an array.
+  static String compactKey(String name) {
+    if (name.length() <= COMPACT_KEY_LENGTH) {
+      return name;
+    }
+    long hash = name.hashCode() & 0xffffffffL;
+    StringBuilder key = new StringBuilder(COMPACT_KEY_LENGTH);
+    // The first 52 characters are the letters
+    key.append(KEY_CHARACTERS.charAt((int) (hash % 52)));
+    hash /= 52;
+    while (key.length() < COMPACT_KEY_LENGTH) {
+      key.append(KEY_CHARACTERS.charAt((int) (hash % KEY_CHARACTERS.length())));
+      hash /= KEY_CHARACTERS.length();
+    }
+    return key.toString();
+  }
+}
@@ -0,0 +1,210 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.google.auto.service.AutoService;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.ADAPTER_FIELD;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.FIREBASE_VALUE_ADAPTER;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.FIREBASE_VALUE_ANNOTATION;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.HASH_MAP;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.MAP;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.hasAnnotation;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.hashMapCapacity;
+
+/**
+ * Generates the FirebaseValue index of a module, which maps every @FirebaseValue class to the
+ * adapter of its generated class. Only runs with the {@code autoValueFirebase.index} option, set to
+ * the qualified name of the index class.
+ *
+ * <p>Generated classes are package-private, so every package gets a public registrar that puts its
+ * own adapters into the index's map, keyed by both the @FirebaseValue class and its AutoValue
+ * class. The index fills its map once, when it's loaded, so lookups are a single map hit.
+ */
+@AutoService(Processor.class)
+public final class FirebaseValueIndexProcessor extends AbstractProcessor {
+
+  static final String INDEX_OPTION = "autoValueFirebase.index";
+  static final String REGISTRAR_SUFFIX = "_Registrar";
+  static final ClassName AUTO_VALUE = ClassName.get("com.google.auto.value", "AutoValue");
+
+  // The index is aggregating, so Gradle only needs to know that when there's an index
+  private static final String GRADLE_ISOLATING = "org.gradle.annotation.processing.isolating";
+  private static final String GRADLE_AGGREGATING = "org.gradle.annotation.processing.aggregating";
+
+  // Sorted, so rebuilding generates identical sources
+  private final Map<String, List<TypeElement>> typesByPackage = new TreeMap<>();
+  private boolean generated;
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(FIREBASE_VALUE_ANNOTATION.toString());
+  }
+
+  @Override
+  public Set<String> getSupportedOptions() {
+    Set<String> options = new HashSet<>();
+    options.add(INDEX_OPTION);
+    options.add(processingEnv.getOptions().containsKey(INDEX_OPTION) ? GRADLE_AGGREGATING : GRADLE_ISOLATING);
+    return options;
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+    String indexName = processingEnv.getOptions().get(INDEX_OPTION);
+    if (indexName == null || generated) {
+      return false;
+    }
+
+    TypeElement annotation = processingEnv.getElementUtils().getTypeElement(FIREBASE_VALUE_ANNOTATION.toString());
+    boolean found = false;
+    if (annotation != null) {
+      for (Element element : roundEnvironment.getElementsAnnotatedWith(annotation)) {
+        // Only AutoValue classes get a generated class with an adapter
+        if (element instanceof TypeElement && hasAnnotation((TypeElement) element, AUTO_VALUE)) {
+          add((TypeElement) element);
+          found = true;
+        }
+      }
+    }
+
+    // @FirebaseValue classes are written by hand, so the index is written in the round after them,
+    // which compiles the generated classes it refers to
+    if ((!found && !typesByPackage.isEmpty()) || roundEnvironment.processingOver()) {
+      generated = true;
+      if (processingEnv.getElementUtils().getTypeElement(FIREBASE_VALUE_ADAPTER.toString()) == null) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          INDEX_OPTION + " requires the auto-value-firebase-runtime library");
+        return false;
+      }
+      writeIndex(indexName);
+    }
+    return false;
+  }
+
+  private void add(TypeElement type) {
+    String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    List<TypeElement> types = typesByPackage.get(packageName);
+    if (types == null) {
+      types = new ArrayList<>();
+      typesByPackage.put(packageName, types);
+    }
+    types.add(type);
+  }
+
+  private void writeIndex(String indexName) {
+    int lastDot = indexName.lastIndexOf('.');
+    ClassName indexClassName = ClassName.get(lastDot < 0 ? "" : indexName.substring(0, lastDot),
+                                             indexName.substring(lastDot + 1));
+    ParameterizedTypeName adaptersType = ParameterizedTypeName.get(MAP,
+      ParameterizedTypeName.get(ClassName.get(Class.class), WildcardTypeName.subtypeOf(Object.class)),
+      ParameterizedTypeName.get(FIREBASE_VALUE_ADAPTER, WildcardTypeName.subtypeOf(Object.class)));
+
+    int typeCount = 0;
+    List<TypeElement> allTypes = new ArrayList<>();
+    CodeBlock.Builder registration = CodeBlock.builder();
+    for (Map.Entry<String, List<TypeElement>> packageTypes : typesByPackage.entrySet()) {
+      ClassName registrarName =
+        ClassName.get(packageTypes.getKey(), indexClassName.simpleName() + REGISTRAR_SUFFIX);
+      write(packageTypes.getKey(), registrar(registrarName, adaptersType, packageTypes.getValue()),
+        packageTypes.getValue());
+      registration.addStatement("$T.register(adapters)", registrarName);
+      typeCount += packageTypes.getValue().size();
+      allTypes.addAll(packageTypes.getValue());
+    }
+
+    TypeVariableName typeVariable = TypeVariableName.get("T");
+    TypeSpec index = TypeSpec.classBuilder(indexClassName)
+                             .addJavadoc("The FirebaseValue adapters of this module, by @FirebaseValue and AutoValue class.\n")
+                             .addModifiers(PUBLIC, FINAL)
+                             .addField(FieldSpec.builder(adaptersType, "ADAPTERS", PRIVATE, STATIC, FINAL).build())
+                             .addStaticBlock(CodeBlock.builder()
+                                                      .addStatement("$T adapters = new $T<>($L)", adaptersType,
+                                                        HASH_MAP, hashMapCapacity(String.valueOf(typeCount * 2)))
+                                                      .add(registration.build())
+                                                      .addStatement("ADAPTERS = adapters")
+                                                      .build())
+                             .addMethod(MethodSpec.constructorBuilder().addModifiers(PRIVATE).build())
+                             .addMethod(MethodSpec.methodBuilder("get")
+                                                  .addJavadoc("Returns the adapter of {@code type}, or null if it's not a "
+                                                              + "@FirebaseValue class of this module.\n")
+                                                  .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                                                                             .addMember("value", "\"unchecked\"")
+                                                                             .build())
+                                                  .addModifiers(PUBLIC, STATIC)
+                                                  .addTypeVariable(typeVariable)
+                                                  .addParameter(ParameterizedTypeName.get(ClassName.get(Class.class),
+                                                    typeVariable), "type")
+                                                  .returns(ParameterizedTypeName.get(FIREBASE_VALUE_ADAPTER, typeVariable))
+                                                  .addStatement("return ($T) ADAPTERS.get(type)",
+                                                    ParameterizedTypeName.get(FIREBASE_VALUE_ADAPTER, typeVariable))
+                                                  .build())
+                             .build();
+    write(indexClassName.packageName(), index, allTypes);
+  }
+
+  // Puts the adapters of one package into the index's map. Only this class can see them.
+  private static TypeSpec registrar(ClassName registrarName, ParameterizedTypeName adaptersType,
+                                    List<TypeElement> types) {
+    MethodSpec.Builder register = MethodSpec.methodBuilder("register")
+                                            .addModifiers(PUBLIC, STATIC)
+                                            .addParameter(adaptersType, "adapters");
+    for (TypeElement type : types) {
+      ClassName typeName = ClassName.get(type);
+      ClassName autoValueName = PropertyType.autoValueClassName(typeName);
+      register.addStatement("adapters.put($T.class, $T.$L)", typeName, autoValueName, ADAPTER_FIELD)
+              .addStatement("adapters.put($T.class, $T.$L)", autoValueName, autoValueName, ADAPTER_FIELD);
+    }
+
+    return TypeSpec.classBuilder(registrarName)
+                   .addModifiers(PUBLIC, FINAL)
+                   .addMethod(MethodSpec.constructorBuilder().addModifiers(PRIVATE).build())
+                   .addMethod(register.build())
+                   .build();
+  }
+
+  private void write(String packageName, TypeSpec type, List<TypeElement> originatingElements) {
+    TypeSpec.Builder builder = type.toBuilder();
+    for (TypeElement element : originatingElements) {
+      builder.addOriginatingElement(element);
+    }
+    try {
+      JavaFile.builder(packageName, builder.build()).build().writeTo(processingEnv.getFiler());
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+        "Couldn't write " + packageName + "." + type.name + ": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.FIREBASE_VALUE_ANNOTATION;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.isAnnotation;
+
+/**
+ * The attributes set on the @FirebaseValue annotation of a class. The annotation is only
+ * retained in source, so they're read from its AnnotationMirror.
+ */
+final class FirebaseValueOptions {
+
+  /** {@code allocation = MINIMAL} */
+  final boolean minimalAllocation;
+  /** {@code lazyCollections = true} */
+  final boolean lazyCollections;
+  /** {@code parallelThreshold}, or zero if collections are never converted in parallel */
+  final int parallelThreshold;
+  /** {@code intern = true} */
+  final boolean intern;
+  /** {@code compactKeys = true} */
+  final boolean compactKeys;
+
+  private FirebaseValueOptions(boolean minimalAllocation, boolean lazyCollections, int parallelThreshold,
+                               boolean intern, boolean compactKeys) {
+    this.minimalAllocation = minimalAllocation;
+    this.lazyCollections = lazyCollections;
+    this.parallelThreshold = parallelThreshold;
+    this.intern = intern;
+    this.compactKeys = compactKeys;
+  }
+
+  static FirebaseValueOptions of(TypeElement type) {
+    Map<String, Object> values = new HashMap<>();
+    for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+      if (!isAnnotation(annotation, FIREBASE_VALUE_ANNOTATION)) {
+        continue;
+      }
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+        : annotation.getElementValues().entrySet()) {
+        values.put(entry.getKey().getSimpleName().toString(), entry.getValue().getValue());
+      }
+    }
+
+    return new FirebaseValueOptions(
+      "MINIMAL".equals(enumConstant(values.get("allocation"))),
+      Boolean.TRUE.equals(values.get("lazyCollections")),
+      values.containsKey("parallelThreshold") ? (Integer) values.get("parallelThreshold") : 0,
+      Boolean.TRUE.equals(values.get("intern")),
+      Boolean.TRUE.equals(values.get("compactKeys")));
+  }
+
+  // The name of an enum constant attribute, or null if it isn't set
+  private static String enumConstant(Object value) {
+    return value == null ? null : ((VariableElement) value).getSimpleName().toString();
+  }
+}
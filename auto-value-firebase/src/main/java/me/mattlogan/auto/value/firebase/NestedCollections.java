@@ -0,0 +1,382 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.WildcardTypeName;
+
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.ARRAY_LIST;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.HASH_MAP;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.JSON_TOKEN;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.LIST;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.MAP;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.MAP_ENTRY;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.OBJECT_LIST;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.STRING;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.STRING_OBJECT_MAP;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.decodeElement;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.decodeKey;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.hashMapCapacity;
+
+/**
+ * Generates the code for Lists and Maps nested to any depth. Every level gets a typed loop of its
+ * own, with locals numbered by depth, so nested values are never walked with instanceof checks.
+ */
+final class NestedCollections {
+
+  private static final WildcardTypeName WILDCARD = WildcardTypeName.subtypeOf(Object.class);
+
+  /** How the elements of each level are read, and what they're converted into. */
+  abstract static class Conversion {
+
+    /** The type a collection is converted into. */
+    abstract TypeName targetType(PropertyType collectionType);
+
+    /** The type the elements of a collection are read as. */
+    abstract TypeName sourceElementType(PropertyType collectionType);
+
+    abstract CodeBlock convertKey(PropertyType mapType, String key);
+
+    /** Converts an element that isn't a collection itself. The element may be null. */
+    abstract CodeBlock convertLeaf(PropertyType collectionType, String element);
+
+    /** Whether the collections are raw Firebase values, which are cast before they're read. */
+    boolean rawSource() {
+      return false;
+    }
+  }
+
+  /** From an AutoValue property to the field of a generated FirebaseValue. */
+  static final Conversion TO_FIREBASE_VALUE = new Conversion() {
+    @Override
+    TypeName targetType(PropertyType collectionType) {
+      return collectionType.firebaseValueType;
+    }
+
+    @Override
+    TypeName sourceElementType(PropertyType collectionType) {
+      return collectionType.elementType;
+    }
+
+    @Override
+    CodeBlock convertKey(PropertyType mapType, String key) {
+      return CodeBlock.of("$L", key);
+    }
+
+    @Override
+    CodeBlock convertLeaf(PropertyType collectionType, String element) {
+      if (collectionType.autoValueName == null) {
+        return CodeBlock.of("$L", element);
+      }
+      return CodeBlock.of("$L == null ? null : new $T($L)", element, collectionType.firebaseValueName, element);
+    }
+  };
+
+  /** From the field of a generated FirebaseValue back to an AutoValue property. */
+  static final Conversion TO_AUTO_VALUE = new Conversion() {
+    @Override
+    TypeName targetType(PropertyType collectionType) {
+      return collectionType.type;
+    }
+
+    @Override
+    TypeName sourceElementType(PropertyType collectionType) {
+      return collectionType.firebaseValueElementType();
+    }
+
+    @Override
+    CodeBlock convertKey(PropertyType mapType, String key) {
+      return CodeBlock.of("$L", key);
+    }
+
+    @Override
+    CodeBlock convertLeaf(PropertyType collectionType, String element) {
+      if (collectionType.autoValueName == null) {
+        return CodeBlock.of("$L", element);
+      }
+      return CodeBlock.of("$L == null ? null : $L.toAutoValue()", element, element);
+    }
+  };
+
+  /** From the field of a generated FirebaseValue to the value Firebase stores. */
+  static final Conversion FIREBASE_VALUE_TO_MAP = new Conversion() {
+    @Override
+    TypeName targetType(PropertyType collectionType) {
+      return rawType(collectionType);
+    }
+
+    @Override
+    TypeName sourceElementType(PropertyType collectionType) {
+      return collectionType.firebaseValueElementType();
+    }
+
+    @Override
+    CodeBlock convertKey(PropertyType mapType, String key) {
+      return stringKey(mapType, key);
+    }
+
+    @Override
+    CodeBlock convertLeaf(PropertyType collectionType, String element) {
+      if (collectionType.autoValueName == null) {
+        return CodeBlock.of("$L", element);
+      }
+      return CodeBlock.of("$L == null ? null : $L.toMap()", element, element);
+    }
+  };
+
+  /** From an AutoValue property straight to the value Firebase stores. */
+  static final Conversion AUTO_VALUE_TO_MAP = new Conversion() {
+    @Override
+    TypeName targetType(PropertyType collectionType) {
+      return rawType(collectionType);
+    }
+
+    @Override
+    TypeName sourceElementType(PropertyType collectionType) {
+      return collectionType.elementType;
+    }
+
+    @Override
+    CodeBlock convertKey(PropertyType mapType, String key) {
+      return stringKey(mapType, key);
+    }
+
+    @Override
+    CodeBlock convertLeaf(PropertyType collectionType, String element) {
+      if (collectionType.autoValueName == null) {
+        return CodeBlock.of("$L", element);
+      }
+      return CodeBlock.of("$L == null ? null : new $T($L).toMap()",
+        element, collectionType.firebaseValueName, element);
+    }
+  };
+
+  /** From the value Firebase returns to an AutoValue property. */
+  static final Conversion FROM_MAP = new Conversion() {
+    @Override
+    TypeName targetType(PropertyType collectionType) {
+      return collectionType.type;
+    }
+
+    @Override
+    TypeName sourceElementType(PropertyType collectionType) {
+      return ClassName.OBJECT;
+    }
+
+    @Override
+    CodeBlock convertKey(PropertyType mapType, String key) {
+      return decodeKey(mapType.keyType, CodeBlock.of("($T) $L", STRING, key), false);
+    }
+
+    @Override
+    CodeBlock convertLeaf(PropertyType collectionType, String element) {
+      return decodeElement(collectionType, element);
+    }
+
+    @Override
+    boolean rawSource() {
+      return true;
+    }
+  };
+
+  private NestedCollections() {
+  }
+
+  // Converts the non-null collection in source into a new collection assigned to target
+  static void convert(MethodSpec.Builder methodBuilder, PropertyType collectionType, String source, String target,
+                      Conversion conversion, int depth) {
+    String collection = source;
+    if (conversion.rawSource()) {
+      TypeName rawType = collectionType.isList()
+                         ? ParameterizedTypeName.get(LIST, WILDCARD)
+                         : ParameterizedTypeName.get(MAP, WILDCARD, WILDCARD);
+      collection = (collectionType.isList() ? "list" : "map") + depth;
+      methodBuilder.addStatement("$T $L = ($T) $L", rawType, collection, rawType, source);
+    }
+
+    String element;
+    if (collectionType.isList()) {
+      element = "item" + depth;
+      methodBuilder.addStatement("$L = new $T<>($L.size())", target, ARRAY_LIST, collection)
+                   .beginControlFlow("for ($T $L : $L)", conversion.sourceElementType(collectionType), element,
+                     collection);
+    } else {
+      TypeName entryType = conversion.rawSource()
+                           ? ParameterizedTypeName.get(MAP_ENTRY, WILDCARD, WILDCARD)
+                           : ParameterizedTypeName.get(MAP_ENTRY, collectionType.keyType,
+                             conversion.sourceElementType(collectionType));
+      element = "entry" + depth + ".getValue()";
+      methodBuilder.addStatement("$L = new $T<>($L)", target, HASH_MAP, hashMapCapacity(collection + ".size()"))
+                   .beginControlFlow("for ($T entry$L : $L.entrySet())", entryType, depth, collection);
+    }
+
+    CodeBlock converted;
+    if (collectionType.element != null) {
+      String convertedName = "converted" + depth;
+      methodBuilder.addStatement("$T $L = null", conversion.targetType(collectionType.element), convertedName)
+                   .beginControlFlow("if ($L != null)", element);
+      convert(methodBuilder, collectionType.element, element, convertedName, conversion, depth + 1);
+      methodBuilder.endControlFlow();
+      converted = CodeBlock.of("$L", convertedName);
+    } else {
+      converted = conversion.convertLeaf(collectionType, element);
+    }
+
+    if (collectionType.isList()) {
+      methodBuilder.addStatement("$L.add($L)", target, converted);
+    } else {
+      methodBuilder.addStatement("$L.put($L, $L)", target,
+        conversion.convertKey(collectionType, "entry" + depth + ".getKey()"), converted);
+    }
+    methodBuilder.endControlFlow();
+  }
+
+  // Copies the collection along the path in rest, sharing everything off the path, and replaces
+  // the element at its end with value. slash is the index of the first '/' in rest.
+  static void applyDelta(MethodSpec.Builder methodBuilder, PropertyType collectionType, String collection,
+                         String slash, String rest, String value, int depth) {
+    CodeBlock segment = CodeBlock.of("$L < 0 ? $L : $L.substring(0, $L)", slash, rest, rest, slash);
+
+    String key;
+    if (collectionType.isList()) {
+      key = "index" + depth;
+      methodBuilder.addStatement("int $L = $T.parseInt($L)", key, Integer.class, segment)
+                   .addStatement("$L = $L == null ? new $T<$T>() : new $T<>($L)", collection, collection,
+                     ARRAY_LIST, collectionType.elementType, ARRAY_LIST, collection)
+                   .beginControlFlow("while ($L.size() <= $L)", collection, key)
+                   .addStatement("$L.add(null)", collection)
+                   .endControlFlow();
+    } else {
+      key = "key" + depth;
+      CodeBlock parsed = decodeKey(collectionType.keyType, segment, false);
+      methodBuilder.addStatement("$T $L = $L", collectionType.keyType, key, parsed)
+                   .addStatement("$L = $L == null ? new $T<$T, $T>() : new $T<>($L)", collection, collection,
+                     HASH_MAP, collectionType.keyType, collectionType.elementType, HASH_MAP, collection);
+    }
+    String put = collectionType.isList() ? "set" : "put";
+
+    methodBuilder.beginControlFlow("if ($L < 0)", slash);
+    if (!collectionType.isList()) {
+      // Firebase doesn't store nulls, so a null entry is a removed entry
+      methodBuilder.beginControlFlow("if ($L == null)", value)
+                   .addStatement("$L.remove($L)", collection, key)
+                   .nextControlFlow("else");
+    }
+    if (collectionType.element != null) {
+      String decodedName = "decoded" + depth;
+      methodBuilder.addStatement("$T $L = null", collectionType.elementType, decodedName)
+                   .beginControlFlow("if ($L != null)", value);
+      convert(methodBuilder, collectionType.element, value, decodedName, FROM_MAP, depth + 1);
+      methodBuilder.endControlFlow()
+                   .addStatement("$L.$L($L, $L)", collection, put, key, decodedName);
+    } else {
+      methodBuilder.addStatement("$L.$L($L, $L)", collection, put, key, decodeElement(collectionType, value));
+    }
+    if (!collectionType.isList()) {
+      methodBuilder.endControlFlow();
+    }
+
+    // Primitives have nothing below them, so only collections and @FirebaseValue types go deeper
+    if (collectionType.element != null) {
+      String elementName = "element" + depth;
+      methodBuilder.nextControlFlow("else")
+                   .addStatement("$L = $L.substring($L + 1)", rest, rest, slash)
+                   .addStatement("$L = $L.indexOf('/')", slash, rest)
+                   .addStatement("$T $L = $L.get($L)", collectionType.elementType, elementName, collection, key);
+      applyDelta(methodBuilder, collectionType.element, elementName, slash, rest, value, depth + 1);
+      methodBuilder.addStatement("$L.$L($L, $L)", collection, put, key, elementName);
+    } else if (collectionType.autoValueName != null) {
+      methodBuilder.nextControlFlow("else")
+                   .addStatement("$L.$L($L, $T.applyDelta($L.get($L), $L.substring($L + 1), $L))", collection, put,
+                     key, collectionType.autoValueName, collection, key, rest, slash, value);
+    }
+    methodBuilder.endControlFlow();
+  }
+
+  // Reads the collection at the reader's position into target
+  static void readJson(MethodSpec.Builder methodBuilder, PropertyType collectionType, String target,
+                       String reader, int depth) {
+    if (collectionType.isList()) {
+      methodBuilder.addStatement("$L = new $T<>()", target, ARRAY_LIST)
+                   .addStatement("$L.beginArray()", reader)
+                   .beginControlFlow("while ($L.hasNext())", reader);
+    } else {
+      CodeBlock key = decodeKey(collectionType.keyType, CodeBlock.of("$L.nextName()", reader), true);
+      methodBuilder.addStatement("$L = new $T<>()", target, HASH_MAP)
+                   .addStatement("$L.beginObject()", reader)
+                   .beginControlFlow("while ($L.hasNext())", reader)
+                   .addStatement("$T key$L = $L", collectionType.keyType, depth, key);
+    }
+
+    CodeBlock element;
+    if (collectionType.element != null) {
+      String elementName = "element" + depth;
+      methodBuilder.addStatement("$T $L = null", collectionType.elementType, elementName)
+                   .beginControlFlow("if ($L.peek() == $T.NULL)", reader, JSON_TOKEN)
+                   .addStatement("$L.nextNull()", reader)
+                   .nextControlFlow("else");
+      readJson(methodBuilder, collectionType.element, elementName, reader, depth + 1);
+      methodBuilder.endControlFlow();
+      element = CodeBlock.of("$L", elementName);
+    } else {
+      element = AutoValueFirebaseExtension.readJson(collectionType.elementType, collectionType, reader);
+    }
+
+    if (collectionType.isList()) {
+      methodBuilder.addStatement("$L.add($L)", target, element)
+                   .endControlFlow()
+                   .addStatement("$L.endArray()", reader);
+    } else {
+      methodBuilder.addStatement("$L.put(key$L, $L)", target, depth, element)
+                   .endControlFlow()
+                   .addStatement("$L.endObject()", reader);
+    }
+  }
+
+  // Writes the non-null collection in value
+  static void writeJson(MethodSpec.Builder methodBuilder, PropertyType collectionType, String value,
+                        String writer, int depth) {
+    String element;
+    if (collectionType.isList()) {
+      element = "item" + depth;
+      methodBuilder.addStatement("$L.beginArray()", writer)
+                   .beginControlFlow("for ($T $L : $L)", collectionType.elementType, element, value)
+                   .beginControlFlow("if ($L == null)", element)
+                   .addStatement("$L.nullValue()", writer)
+                   .nextControlFlow("else");
+    } else {
+      element = "entry" + depth + ".getValue()";
+      methodBuilder.addStatement("$L.beginObject()", writer)
+                   .beginControlFlow("for ($T<$T, $T> entry$L : $L.entrySet())",
+                     MAP_ENTRY, collectionType.keyType, collectionType.elementType, depth, value)
+                   .beginControlFlow("if ($L != null)", element)
+                   .addStatement("$L.name($L)", writer, stringKey(collectionType, "entry" + depth + ".getKey()"));
+    }
+
+    if (collectionType.element != null) {
+      writeJson(methodBuilder, collectionType.element, element, writer, depth + 1);
+    } else {
+      methodBuilder.addStatement("$L", AutoValueFirebaseExtension.writeJson(collectionType.elementType,
+        collectionType, element, writer));
+    }
+
+    methodBuilder.endControlFlow()
+                 .endControlFlow()
+                 .addStatement(collectionType.isList() ? "$L.endArray()" : "$L.endObject()", writer);
+  }
+
+  // The type of a collection as Firebase stores it
+  static TypeName rawType(PropertyType collectionType) {
+    return collectionType.isList() ? OBJECT_LIST : STRING_OBJECT_MAP;
+  }
+
+  // Firebase only accepts String keys on the wire
+  static CodeBlock stringKey(PropertyType mapType, String key) {
+    if (STRING.equals(mapType.keyType)) {
+      return CodeBlock.of("$L", key);
+    }
+    return CodeBlock.of("$T.valueOf($L)", STRING, key);
+  }
+}
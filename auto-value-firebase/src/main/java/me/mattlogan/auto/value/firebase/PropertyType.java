@@ -0,0 +1,208 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import java.util.Map;
+
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.AUTOVALUE_PREFIX;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.FIREBASEVALUE;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.IMMUTABLE_LIST;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.LIST;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.MAP;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.STRING;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.checkIfTypeIsSupported;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.typeIsImmutableCollection;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.typeIsPrimitive;
+import static me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension.typeIsPrimitiveCollection;
+
+/**
+ * What the generators need to know about the type of a property. These only depend on the
+ * type, so they're computed once per distinct type and shared across every AutoValue class.
+ */
+final class PropertyType {
+
+  enum Kind {
+    /** Primitives, boxed primitives and Strings, which Firebase handles directly. */
+    PRIMITIVE,
+    /** Lists and Maps of primitives, which Firebase handles directly. Either may be immutable. */
+    PRIMITIVE_COLLECTION,
+    /** int[], long[] and double[], which Firebase stores as Lists. */
+    PRIMITIVE_ARRAY,
+    /** Lists of @FirebaseValue types, which may be immutable. */
+    LIST,
+    /** Maps with @FirebaseValue values, which may be immutable. */
+    MAP,
+    /** A @FirebaseValue type. */
+    FIREBASE_VALUE,
+    /** Lists and Maps of Lists or Maps, nested to any depth. */
+    NESTED_COLLECTION,
+    /** An enum, which Firebase stores as the name of the constant. */
+    ENUM,
+    /** Any type, which a @FirebaseAdapter converter stores as a primitive or String. */
+    ADAPTED
+  }
+
+  /** The type of the property on the AutoValue class. */
+  final TypeName type;
+  final Kind kind;
+  /** The type of the field on the generated FirebaseValue class. */
+  final TypeName firebaseValueType;
+  /** The key type of a Map, or null. */
+  final TypeName keyType;
+  /** The element type of a List or array, the value type of a Map, or null. */
+  final TypeName elementType;
+  /** The type of the elements of a nested collection, which is a collection itself, or null. */
+  final PropertyType element;
+  /**
+   * The generated AutoValue class of a @FirebaseValue type or element type, or null. For nested
+   * collections, this is the class of the innermost elements.
+   */
+  final ClassName autoValueName;
+  /** The generated FirebaseValue class of a @FirebaseValue type or element type, or null. */
+  final ClassName firebaseValueName;
+  /** Whether the property is a Guava ImmutableList or ImmutableMap, which is filled through a builder. */
+  final boolean immutable;
+  /**
+   * The constants of an enum in declaration order, mapped to the names they're stored under, or
+   * null. These are the @PropertyName values of the constants that have one.
+   */
+  final Map<String, String> enumConstants;
+  /** The @FirebaseAdapter converter of an adapted property, or null. */
+  final ClassName converter;
+
+  private PropertyType(TypeName type, Kind kind, TypeName firebaseValueType, TypeName keyType,
+                       TypeName elementType, ClassName autoValueName) {
+    this(type, kind, firebaseValueType, keyType, elementType, null, autoValueName, null, null);
+  }
+
+  private PropertyType(TypeName type, Kind kind, TypeName firebaseValueType, TypeName keyType,
+                       TypeName elementType, PropertyType element, ClassName autoValueName,
+                       Map<String, String> enumConstants, ClassName converter) {
+    this.type = type;
+    this.kind = kind;
+    this.firebaseValueType = firebaseValueType;
+    this.keyType = keyType;
+    this.elementType = elementType;
+    this.element = element;
+    this.autoValueName = autoValueName;
+    this.firebaseValueName = autoValueName == null ? null : autoValueName.nestedClass(FIREBASEVALUE);
+    this.immutable = kind != Kind.ADAPTED && typeIsImmutableCollection(type);
+    this.enumConstants = enumConstants;
+    this.converter = converter;
+  }
+
+  static PropertyType of(TypeName type) {
+    // This is important! This doesn't have to be here, but it's gotta be somewhere.
+    checkIfTypeIsSupported(type);
+
+    if (typeIsPrimitive(type)) {
+      return new PropertyType(type, Kind.PRIMITIVE, type, null, null, null);
+    }
+
+    if (type instanceof ArrayTypeName) {
+      TypeName componentType = ((ArrayTypeName) type).componentType;
+      return new PropertyType(type, Kind.PRIMITIVE_ARRAY, ParameterizedTypeName.get(LIST, componentType.box()),
+        null, componentType, null);
+    }
+
+    if (type instanceof ParameterizedTypeName) {
+      ParameterizedTypeName pType = (ParameterizedTypeName) type;
+      TypeName lastTypeArgument = pType.typeArguments.get(pType.typeArguments.size() - 1);
+
+      if (lastTypeArgument instanceof ParameterizedTypeName) {
+        // The elements are collections themselves, which are analyzed the same way
+        PropertyType element = of(lastTypeArgument);
+        TypeName keyType = LIST.equals(pType.rawType) ? null : pType.typeArguments.get(0);
+        TypeName firebaseValueType = keyType == null
+                                     ? ParameterizedTypeName.get(LIST, element.firebaseValueType)
+                                     : ParameterizedTypeName.get(MAP, keyType, element.firebaseValueType);
+        return new PropertyType(type, Kind.NESTED_COLLECTION, firebaseValueType, keyType, lastTypeArgument,
+          element, element.autoValueName, null, null);
+      }
+
+      boolean list = LIST.equals(pType.rawType) || IMMUTABLE_LIST.equals(pType.rawType);
+      Kind kind = typeIsPrimitiveCollection(type)
+                  ? Kind.PRIMITIVE_COLLECTION
+                  : list ? Kind.LIST : Kind.MAP;
+
+      // Firebase only knows List and Map, so immutable collections are plain ones on the FirebaseValue
+      if (list) {
+        TypeName elementType = pType.typeArguments.get(0);
+        if (kind == Kind.PRIMITIVE_COLLECTION) {
+          return new PropertyType(type, kind, ParameterizedTypeName.get(LIST, elementType), null, elementType,
+            null);
+        }
+        ClassName autoValueName = autoValueClassName((ClassName) elementType);
+        return new PropertyType(type, kind,
+          ParameterizedTypeName.get(LIST, autoValueName.nestedClass(FIREBASEVALUE)),
+          null, elementType, autoValueName);
+
+      } else {
+        TypeName keyType = pType.typeArguments.get(0);
+        TypeName elementType = pType.typeArguments.get(1);
+        if (kind == Kind.PRIMITIVE_COLLECTION) {
+          return new PropertyType(type, kind, ParameterizedTypeName.get(MAP, keyType, elementType), keyType,
+            elementType, null);
+        }
+        ClassName autoValueName = autoValueClassName((ClassName) elementType);
+        return new PropertyType(type, kind,
+          ParameterizedTypeName.get(MAP, keyType, autoValueName.nestedClass(FIREBASEVALUE)),
+          keyType, elementType, autoValueName);
+      }
+    }
+
+    ClassName autoValueName = autoValueClassName((ClassName) type);
+    return new PropertyType(type, Kind.FIREBASE_VALUE, autoValueName.nestedClass(FIREBASEVALUE),
+      null, null, autoValueName);
+  }
+
+  // Enums are only told apart from @FirebaseValue types by their element, so they're analyzed separately
+  static PropertyType ofEnum(TypeName type, Map<String, String> enumConstants) {
+    return new PropertyType(type, Kind.ENUM, STRING, null, null, null, null, enumConstants, null);
+  }
+
+  // Adapted types depend on the annotation of the property as well, so they're never shared
+  static PropertyType ofAdapted(TypeName type, TypeName storedType, ClassName converter) {
+    return new PropertyType(type, Kind.ADAPTED, storedType, null, null, null, null, null, converter);
+  }
+
+  /** Whether every constant of an enum is stored under its own name. */
+  boolean enumNamesAreConstantNames() {
+    for (Map.Entry<String, String> constant : enumConstants.entrySet()) {
+      if (!constant.getKey().equals(constant.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** The type of the elements of the generated FirebaseValue field, for Lists and Maps. */
+  TypeName firebaseValueElementType() {
+    if (element != null) {
+      return element.firebaseValueType;
+    }
+    return firebaseValueName != null ? firebaseValueName : elementType;
+  }
+
+  boolean isList() {
+    if (!(type instanceof ParameterizedTypeName)) {
+      return false;
+    }
+    ClassName rawType = ((ParameterizedTypeName) type).rawType;
+    return LIST.equals(rawType) || IMMUTABLE_LIST.equals(rawType);
+  }
+
+  // AutoValue names the generated class for Foo AutoValue_Foo, and for Outer.Foo AutoValue_Outer_Foo
+  static ClassName autoValueClassName(ClassName type) {
+    StringBuilder simpleName = new StringBuilder(AUTOVALUE_PREFIX);
+    for (String name : type.simpleNames()) {
+      if (simpleName.length() > AUTOVALUE_PREFIX.length()) {
+        simpleName.append('_');
+      }
+      simpleName.append(name);
+    }
+    return ClassName.get(type.packageName(), simpleName.toString());
+  }
+}
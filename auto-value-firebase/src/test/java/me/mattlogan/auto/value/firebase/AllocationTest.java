@@ -0,0 +1,90 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import me.mattlogan.auto.value.firebase.model.Batch;
+import me.mattlogan.auto.value.firebase.model.Ingredient;
+import me.mattlogan.auto.value.firebase.model.MinimalBatch;
+import me.mattlogan.auto.value.firebase.model.Review;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class AllocationTest {
+
+  private static final int SIZE = 10000;
+
+  private final List<Ingredient> ingredients = new ArrayList<>();
+  private final Map<String, Review> reviews = new HashMap<>();
+  private final List<Long> samples = new ArrayList<>();
+
+  private com.sun.management.ThreadMXBean threadMXBean;
+
+  @Before
+  public void setUp() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+    for (int i = 0; i < SIZE; i++) {
+      ingredients.add(Ingredient.create("Ingredient " + i, i % 10));
+      reviews.put("user" + i, Review.create("Review " + i, i % 5));
+      samples.add((long) i);
+    }
+  }
+
+  // The fewest bytes allocated by this thread across several runs, to filter out noise
+  private long allocatedBytes(Callable<?> roundTrip) throws Exception {
+    long min = Long.MAX_VALUE;
+    for (int run = 0; run < 20; run++) {
+      long threadId = Thread.currentThread().getId();
+      long before = threadMXBean.getThreadAllocatedBytes(threadId);
+      roundTrip.call();
+      min = Math.min(min, threadMXBean.getThreadAllocatedBytes(threadId) - before);
+    }
+    return min;
+  }
+
+  @Test
+  public void minimalAllocatesLessPerRoundTrip() throws Exception {
+    final Batch batch = Batch.create(ingredients, reviews, samples);
+    final MinimalBatch minimalBatch = MinimalBatch.create(ingredients, reviews, samples);
+
+    long defaultBytes = allocatedBytes(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return batch.roundTrip();
+      }
+    });
+    long minimalBytes = allocatedBytes(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return minimalBatch.roundTrip();
+      }
+    });
+
+    // Both profiles allocate the same FirebaseValue and AutoValue instances, so the difference
+    // is the backing arrays and tables thrown away while the default collections grow.
+    assertThat(minimalBytes).isLessThan(defaultBytes);
+    assertThat(defaultBytes - minimalBytes).isGreaterThan(4L * SIZE);
+  }
+
+  @Test
+  public void minimalRoundTripIsEqual() throws Exception {
+    MinimalBatch minimalBatch = MinimalBatch.create(ingredients, reviews, samples);
+
+    assertThat(minimalBatch.roundTrip()).isEqualTo(minimalBatch);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void minimalPrimitiveCollectionsAreUnmodifiableViews() throws Exception {
+    MinimalBatch.create(ingredients, reviews, samples).roundTrip().samples().add(1L);
+  }
+}
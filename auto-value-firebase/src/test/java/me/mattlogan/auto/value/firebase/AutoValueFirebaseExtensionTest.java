@@ -47,6 +47,12 @@ public class AutoValueFirebaseExtensionTest {
     + "public @interface Exclude {\n"
     + "}\n");
 
+  private static final JavaFileObject NULLABLE = JavaFileObjects.forSourceString("test.Nullable",
+    "package test;\n"
+    + "\n"
+    + "public @interface Nullable {\n"
+    + "}\n");
+
   private static final JavaFileObject PROPERTY_NAME =
     JavaFileObjects.forSourceString("com.google.firebase.database.PropertyName",
       "package com.google.firebase.database;\n"
@@ -90,6 +96,202 @@ public class AutoValueFirebaseExtensionTest {
       + "public @interface ThrowOnExtraProperties {\n"
       + "}\n");
 
+  private static final JavaFileObject FIREBASE_NODE =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.FirebaseNode",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "public interface FirebaseNode {\n"
+      + "  String key();\n"
+      + "  FirebaseNode child(String key);\n"
+      + "  Iterable<FirebaseNode> children();\n"
+      + "  Object value();\n"
+      + "}\n");
+
+  private static final JavaFileObject LAZY_LIST =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.LazyList",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "import java.util.AbstractList;\n"
+      + "import java.util.List;\n"
+      + "\n"
+      + "public abstract class LazyList<F, T> extends AbstractList<T> {\n"
+      + "  protected LazyList(List<F> source) {\n"
+      + "  }\n"
+      + "  protected abstract T convert(F value);\n"
+      + "  public T get(int index) {\n"
+      + "    return null;\n"
+      + "  }\n"
+      + "  public int size() {\n"
+      + "    return 0;\n"
+      + "  }\n"
+      + "}\n");
+
+  private static final JavaFileObject LAZY_MAP =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.LazyMap",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "import java.util.AbstractMap;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Set;\n"
+      + "\n"
+      + "public abstract class LazyMap<K, F, T> extends AbstractMap<K, T> {\n"
+      + "  protected LazyMap(Map<K, F> source) {\n"
+      + "  }\n"
+      + "  protected abstract T convert(F value);\n"
+      + "  public Set<Map.Entry<K, T>> entrySet() {\n"
+      + "    return null;\n"
+      + "  }\n"
+      + "}\n");
+
+  private static final JavaFileObject PARALLEL_CONVERSION =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.ParallelConversion",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "\n"
+      + "public final class ParallelConversion {\n"
+      + "  public interface Converter<F, T> {\n"
+      + "    T convert(F value);\n"
+      + "  }\n"
+      + "  public static <F, T> List<T> convertList(List<F> source, Converter<F, T> converter) {\n"
+      + "    return null;\n"
+      + "  }\n"
+      + "  public static <K, F, T> Map<K, T> convertMap(Map<K, F> source, Converter<F, T> converter) {\n"
+      + "    return null;\n"
+      + "  }\n"
+      + "}\n");
+
+  private static final JavaFileObject JSON_READER =
+    JavaFileObjects.forSourceString("com.google.gson.stream.JsonReader",
+      "package com.google.gson.stream;\n"
+      + "\n"
+      + "import java.io.Reader;\n"
+      + "\n"
+      + "public class JsonReader {\n"
+      + "  public JsonReader(Reader in) {}\n"
+      + "  public void beginArray() {}\n"
+      + "  public void endArray() {}\n"
+      + "  public void beginObject() {}\n"
+      + "  public void endObject() {}\n"
+      + "  public boolean hasNext() { return false; }\n"
+      + "  public JsonToken peek() { return null; }\n"
+      + "  public String nextName() { return null; }\n"
+      + "  public String nextString() { return null; }\n"
+      + "  public boolean nextBoolean() { return false; }\n"
+      + "  public void nextNull() {}\n"
+      + "  public double nextDouble() { return 0; }\n"
+      + "  public long nextLong() { return 0; }\n"
+      + "  public int nextInt() { return 0; }\n"
+      + "  public void skipValue() {}\n"
+      + "}\n");
+
+  private static final JavaFileObject JSON_TOKEN =
+    JavaFileObjects.forSourceString("com.google.gson.stream.JsonToken",
+      "package com.google.gson.stream;\n"
+      + "\n"
+      + "public enum JsonToken {\n"
+      + "  BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT\n"
+      + "}\n");
+
+  private static final JavaFileObject JSON_WRITER =
+    JavaFileObjects.forSourceString("com.google.gson.stream.JsonWriter",
+      "package com.google.gson.stream;\n"
+      + "\n"
+      + "public class JsonWriter {\n"
+      + "  public JsonWriter beginArray() { return this; }\n"
+      + "  public JsonWriter endArray() { return this; }\n"
+      + "  public JsonWriter beginObject() { return this; }\n"
+      + "  public JsonWriter endObject() { return this; }\n"
+      + "  public JsonWriter name(String name) { return this; }\n"
+      + "  public JsonWriter value(String value) { return this; }\n"
+      + "  public JsonWriter nullValue() { return this; }\n"
+      + "  public JsonWriter value(boolean value) { return this; }\n"
+      + "  public JsonWriter value(double value) { return this; }\n"
+      + "  public JsonWriter value(long value) { return this; }\n"
+      + "  public JsonWriter value(Number value) { return this; }\n"
+      + "}\n");
+
+  private static final JavaFileObject INTERNER =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.Interner",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "public final class Interner<T> {\n"
+      + "  public static <T> Interner<T> create() {\n"
+      + "    return new Interner<>();\n"
+      + "  }\n"
+      + "  public T intern(T value) {\n"
+      + "    return value;\n"
+      + "  }\n"
+      + "}\n");
+
+  private static final JavaFileObject TYPE_CONVERTER =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.TypeConverter",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "public interface TypeConverter<T, S> {\n"
+      + "  S toFirebaseValue(T value);\n"
+      + "  T fromFirebaseValue(S value);\n"
+      + "}\n");
+
+  private static final JavaFileObject BINARY_FORMAT =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.BinaryFormat",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "import java.io.DataInput;\n"
+      + "import java.io.DataOutput;\n"
+      + "import java.io.IOException;\n"
+      + "\n"
+      + "public final class BinaryFormat {\n"
+      + "  public static void writeSignedVarint(DataOutput out, long value) throws IOException {}\n"
+      + "  public static long readSignedVarint(DataInput in) throws IOException { return 0; }\n"
+      + "  public static void writeSize(DataOutput out, int size) throws IOException {}\n"
+      + "  public static int readSize(DataInput in) throws IOException { return -1; }\n"
+      + "  public static void writeString(DataOutput out, String value) throws IOException {}\n"
+      + "  public static String readString(DataInput in) throws IOException { return null; }\n"
+      + "  public static void checkSchema(DataInput in, int schemaHash) throws IOException {}\n"
+      + "}\n");
+
+  private static final JavaFileObject FIREBASE_VALUE_ADAPTER =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.FirebaseValueAdapter",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "import java.util.Map;\n"
+      + "\n"
+      + "public interface FirebaseValueAdapter<T> {\n"
+      + "  Object toFirebaseValue(T value);\n"
+      + "  Map<String, Object> toMap(T value);\n"
+      + "  T fromMap(Map<String, Object> map);\n"
+      + "  T fromNode(FirebaseNode node);\n"
+      + "}\n");
+
+  private static final JavaFileObject OTHER_REVIEW = JavaFileObjects.forSourceString("test.other.Review",
+    "package test.other;\n"
+    + "\n"
+    + "import com.google.auto.value.AutoValue;\n"
+    + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+    + "\n"
+    + "@AutoValue @FirebaseValue\n"
+    + "public abstract class Review {\n"
+    + "  public abstract String description();\n"
+    + "}\n");
+
+  private static final JavaFileObject DATE_CONVERTER =
+    JavaFileObjects.forSourceString("test.DateConverter",
+      "package test;\n"
+      + "\n"
+      + "import java.util.Date;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.TypeConverter;\n"
+      + "\n"
+      + "public class DateConverter implements TypeConverter<Date, Long> {\n"
+      + "  public Long toFirebaseValue(Date value) {\n"
+      + "    return value.getTime();\n"
+      + "  }\n"
+      + "  public Date fromFirebaseValue(Long value) {\n"
+      + "    return new Date(value);\n"
+      + "  }\n"
+      + "}\n");
+
   @Test
   public void primitive() throws Exception {
     JavaFileObject source = JavaFileObjects.forSourceString("test.Ingredient",
@@ -107,13 +309,63 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
       + "  AutoValue_Ingredient(int spiciness) {\n"
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"spiciness\");\n"
+      + "    int spiciness = value == null ? 0 : ((Number) value).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Ingredient before, Ingredient after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.spiciness() != after.spiciness()) {\n"
+      + "      updates.put(path + \"spiciness\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Ingredient applyDelta(Ingredient base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    int spiciness = base.spiciness();\n"
+      + "    switch (key) {\n"
+      + "      case \"spiciness\":\n"
+      + "        spiciness = value == null ? 0 : ((Number) value).intValue();\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private int spiciness;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -127,6 +379,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      int spiciness = this.spiciness;\n"
       + "      return new AutoValue_Ingredient(spiciness);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"spiciness\", this.spiciness);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/spiciness\", this.spiciness);\n"
+      + "    }\n"
       + "    public int getSpiciness() {\n"
       + "      return spiciness;\n"
       + "    }\n"
@@ -159,13 +427,63 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
       + "import java.lang.Integer;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
       + "  AutoValue_Ingredient(Integer spiciness) {\n"
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"spiciness\");\n"
+      + "    Integer spiciness = value == null ? null : ((Number) value).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Ingredient before, Ingredient after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.spiciness() == null ? after.spiciness() != null : !before.spiciness().equals(after.spiciness())) {\n"
+      + "      updates.put(path + \"spiciness\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Ingredient applyDelta(Ingredient base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    Integer spiciness = base.spiciness();\n"
+      + "    switch (key) {\n"
+      + "      case \"spiciness\":\n"
+      + "        spiciness = value == null ? null : ((Number) value).intValue();\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private Integer spiciness;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -179,6 +497,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      Integer spiciness = this.spiciness;\n"
       + "      return new AutoValue_Ingredient(spiciness);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"spiciness\", this.spiciness);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/spiciness\", this.spiciness);\n"
+      + "    }\n"
       + "    public Integer getSpiciness() {\n"
       + "      return spiciness;\n"
       + "    }\n"
@@ -210,14 +544,62 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Review extends $AutoValue_Review {\n"
       + "  AutoValue_Review(String description) {\n"
       + "    super(description);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Review fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"description\");\n"
+      + "    String description = (String) value;\n"
+      + "    return new AutoValue_Review(description);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Review before, Review after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Review before, Review after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.description() == null ? after.description() != null : !before.description().equals(after.description())) {\n"
+      + "      updates.put(path + \"description\", after.description());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Review applyDelta(Review base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    String description = base.description();\n"
+      + "    switch (key) {\n"
+      + "      case \"description\":\n"
+      + "        description = (String) value;\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Review(description);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private String description;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -231,6 +613,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      String description = this.description;\n"
       + "      return new AutoValue_Review(description);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"description\", this.description);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/description\", this.description);\n"
+      + "    }\n"
       + "    public String getDescription() {\n"
       + "      return description;\n"
       + "    }\n"
@@ -262,13 +660,71 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
       + "  AutoValue_Taco(Ingredient ingredient) {\n"
       + "    super(ingredient);\n"
       + "  }\n"
       + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredient\");\n"
+      + "    Ingredient ingredient = value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value);\n"
+      + "    return new AutoValue_Taco(ingredient);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredient() == null ? after.ingredient() != null : !before.ingredient().equals(after.ingredient())) {\n"
+      + "      if (before.ingredient() == null || after.ingredient() == null) {\n"
+      + "        updates.put(path + \"ingredient\", after.ingredient() == null ? null : new AutoValue_Ingredient.FirebaseValue(after.ingredient()).toMap());\n"
+      + "      } else {\n"
+      + "        AutoValue_Ingredient.diff(before.ingredient(), after.ingredient(), path + \"ingredient/\", updates);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    Ingredient ingredient = base.ingredient();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredient\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredient = value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value);\n"
+      + "        } else {\n"
+      + "          ingredient = AutoValue_Ingredient.applyDelta(ingredient, rest, value);\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredient);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private AutoValue_Ingredient.FirebaseValue ingredient;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -282,6 +738,26 @@ public class AutoValueFirebaseExtensionTest {
       + "      Ingredient ingredient = this.ingredient == null ? null : this.ingredient.toAutoValue();\n"
       + "      return new AutoValue_Taco(ingredient);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"ingredient\", this.ingredient == null ? null : this.ingredient.toMap());\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      if (this.ingredient == null) {\n"
+      + "        updates.put(basePath + \"/ingredient\", null);\n"
+      + "      } else {\n"
+      + "        this.ingredient.toUpdatePaths(basePath + \"/ingredient\", updates);\n"
+      + "      }\n"
+      + "    }\n"
       + "    public AutoValue_Ingredient.FirebaseValue getIngredient() {\n"
       + "      return ingredient;\n"
       + "    }\n"
@@ -315,14 +791,101 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
       + "import java.lang.Integer;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
       + "import java.util.List;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
       + "  AutoValue_Taco(List<Integer> ingredients) {\n"
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    List<Integer> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new ArrayList<>();\n"
+      + "      for (Object item : (List<Object>) value) {\n"
+      + "        ingredients.add(item == null ? null : ((Number) item).intValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.ingredients().size(); i++) {\n"
+      + "          Integer previous = before.ingredients() == null || i >= before.ingredients().size() ? null : before.ingredients().get(i);\n"
+      + "          Integer item = after.ingredients().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            updates.put(path + \"ingredients/\" + i, item);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.ingredients().size(); before.ingredients() != null && i < before.ingredients().size(); i++) {\n"
+      + "          updates.put(path + \"ingredients/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    List<Integer> ingredients = base.ingredients();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new ArrayList<>();\n"
+      + "            for (Object item : (List<Object>) value) {\n"
+      + "              ingredients.add(item == null ? null : ((Number) item).intValue());\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new ArrayList<Integer>() : new ArrayList<>(ingredients);\n"
+      + "          while (ingredients.size() <= index) {\n"
+      + "            ingredients.add(null);\n"
+      + "          }\n"
+      + "          ingredients.set(index, value == null ? null : ((Number) value).intValue());\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private List<Integer> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -336,6 +899,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      List<Integer> ingredients = this.ingredients;\n"
       + "      return new AutoValue_Taco(ingredients);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"ingredients\", this.ingredients);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/ingredients\", this.ingredients);\n"
+      + "    }\n"
       + "    public List<Integer> getIngredients() {\n"
       + "      return ingredients;\n"
       + "    }\n"
@@ -368,15 +947,89 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
       + "import java.util.List;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
       + "  AutoValue_Taco(List<String> ingredients) {\n"
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    List<String> ingredients = (List<String>) value;\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.ingredients().size(); i++) {\n"
+      + "          String previous = before.ingredients() == null || i >= before.ingredients().size() ? null : before.ingredients().get(i);\n"
+      + "          String item = after.ingredients().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            updates.put(path + \"ingredients/\" + i, item);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.ingredients().size(); before.ingredients() != null && i < before.ingredients().size(); i++) {\n"
+      + "          updates.put(path + \"ingredients/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    List<String> ingredients = base.ingredients();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = (List<String>) value;\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new ArrayList<String>() : new ArrayList<>(ingredients);\n"
+      + "          while (ingredients.size() <= index) {\n"
+      + "            ingredients.add(null);\n"
+      + "          }\n"
+      + "          ingredients.set(index, (String) value);\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private List<String> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -390,6 +1043,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      List<String> ingredients = this.ingredients;\n"
       + "      return new AutoValue_Taco(ingredients);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"ingredients\", this.ingredients);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/ingredients\", this.ingredients);\n"
+      + "    }\n"
       + "    public List<String> getIngredients() {\n"
       + "      return ingredients;\n"
       + "    }\n"
@@ -422,15 +1091,105 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
       + "import java.util.ArrayList;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
       + "import java.util.List;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
       + "  AutoValue_Taco(List<Ingredient> ingredients) {\n"
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new ArrayList<>();\n"
+      + "      for (Object item : (List<Object>) value) {\n"
+      + "        ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.ingredients().size(); i++) {\n"
+      + "          Ingredient previous = before.ingredients() == null || i >= before.ingredients().size() ? null : before.ingredients().get(i);\n"
+      + "          Ingredient item = after.ingredients().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"ingredients/\" + i, item == null ? null : new AutoValue_Ingredient.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Ingredient.diff(previous, item, path + \"ingredients/\" + i + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.ingredients().size(); before.ingredients() != null && i < before.ingredients().size(); i++) {\n"
+      + "          updates.put(path + \"ingredients/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    List<Ingredient> ingredients = base.ingredients();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new ArrayList<>();\n"
+      + "            for (Object item : (List<Object>) value) {\n"
+      + "              ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "          while (ingredients.size() <= index) {\n"
+      + "            ingredients.add(null);\n"
+      + "          }\n"
+      + "          ingredients.set(index, slash < 0 ? (value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value)) : AutoValue_Ingredient.applyDelta(ingredients.get(index), rest.substring(slash + 1), value));\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -455,13 +1214,43 @@ public class AutoValueFirebaseExtensionTest {
       + "      }\n"
       + "      return new AutoValue_Taco(ingredients);\n"
       + "    }\n"
-      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
-      + "      return ingredients;\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredients);\n"
+      + "      return map;\n"
       + "    }\n"
-      + "  }\n"
-      + "}\n");
-
-    assertAbout(javaSources())
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/ingredients\", ingredients);\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
       .that(Arrays.asList(EXCLUDE, INGREDIENT, source))
       .processedWith(new AutoValueProcessor())
       .compilesWithoutError()
@@ -488,7 +1277,12 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
       + "import java.lang.Integer;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
       + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
@@ -496,6 +1290,91 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    Map<Integer, Integer> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new HashMap<>();\n"
+      + "      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "        ingredients.put(Integer.valueOf(entry.getKey()), entry.getValue() == null ? null : ((Number) entry.getValue()).intValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (Map.Entry<Integer, Integer> entry : after.ingredients().entrySet()) {\n"
+      + "          Integer previous = before.ingredients() == null ? null : before.ingredients().get(entry.getKey());\n"
+      + "          Integer item = entry.getValue();\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            updates.put(path + \"ingredients/\" + entry.getKey(), item);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        if (before.ingredients() != null) {\n"
+      + "          for (Integer key : before.ingredients().keySet()) {\n"
+      + "            if (!after.ingredients().containsKey(key)) {\n"
+      + "              updates.put(path + \"ingredients/\" + key, null);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    Map<Integer, Integer> ingredients = base.ingredients();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new HashMap<>();\n"
+      + "            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "              ingredients.put(Integer.valueOf(entry.getKey()), entry.getValue() == null ? null : ((Number) entry.getValue()).intValue());\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          Integer entryKey = Integer.valueOf(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new HashMap<Integer, Integer>() : new HashMap<>(ingredients);\n"
+      + "          if (slash < 0 && value == null) {\n"
+      + "            ingredients.remove(entryKey);\n"
+      + "          } else {\n"
+      + "            ingredients.put(entryKey, value == null ? null : ((Number) value).intValue());\n"
+      + "          }\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private Map<Integer, Integer> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -509,6 +1388,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      Map<Integer, Integer> ingredients = this.ingredients;\n"
       + "      return new AutoValue_Taco(ingredients);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"ingredients\", this.ingredients);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/ingredients\", this.ingredients);\n"
+      + "    }\n"
       + "    public Map<Integer, Integer> getIngredients() {\n"
       + "      return ingredients;\n"
       + "    }\n"
@@ -542,8 +1437,11 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
       + "import java.lang.Integer;\n"
+      + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
       + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
@@ -551,6 +1449,91 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    Map<Integer, String> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new HashMap<>();\n"
+      + "      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "        ingredients.put(Integer.valueOf(entry.getKey()), (String) entry.getValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (Map.Entry<Integer, String> entry : after.ingredients().entrySet()) {\n"
+      + "          String previous = before.ingredients() == null ? null : before.ingredients().get(entry.getKey());\n"
+      + "          String item = entry.getValue();\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            updates.put(path + \"ingredients/\" + entry.getKey(), item);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        if (before.ingredients() != null) {\n"
+      + "          for (Integer key : before.ingredients().keySet()) {\n"
+      + "            if (!after.ingredients().containsKey(key)) {\n"
+      + "              updates.put(path + \"ingredients/\" + key, null);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    Map<Integer, String> ingredients = base.ingredients();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new HashMap<>();\n"
+      + "            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "              ingredients.put(Integer.valueOf(entry.getKey()), (String) entry.getValue());\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          Integer entryKey = Integer.valueOf(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new HashMap<Integer, String>() : new HashMap<>(ingredients);\n"
+      + "          if (slash < 0 && value == null) {\n"
+      + "            ingredients.remove(entryKey);\n"
+      + "          } else {\n"
+      + "            ingredients.put(entryKey, (String) value);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private Map<Integer, String> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -564,6 +1547,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      Map<Integer, String> ingredients = this.ingredients;\n"
       + "      return new AutoValue_Taco(ingredients);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"ingredients\", this.ingredients);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/ingredients\", this.ingredients);\n"
+      + "    }\n"
       + "    public Map<Integer, String> getIngredients() {\n"
       + "      return ingredients;\n"
       + "    }\n"
@@ -596,8 +1595,10 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
       + "import java.util.HashMap;\n"
       + "import java.util.Map;\n"
       + "\n"
@@ -606,6 +1607,95 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    Map<String, Ingredient> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new HashMap<>();\n"
+      + "      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "        ingredients.put(entry.getKey(), entry.getValue() == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) entry.getValue()));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (Map.Entry<String, Ingredient> entry : after.ingredients().entrySet()) {\n"
+      + "          Ingredient previous = before.ingredients() == null ? null : before.ingredients().get(entry.getKey());\n"
+      + "          Ingredient item = entry.getValue();\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"ingredients/\" + entry.getKey(), item == null ? null : new AutoValue_Ingredient.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Ingredient.diff(previous, item, path + \"ingredients/\" + entry.getKey() + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        if (before.ingredients() != null) {\n"
+      + "          for (String key : before.ingredients().keySet()) {\n"
+      + "            if (!after.ingredients().containsKey(key)) {\n"
+      + "              updates.put(path + \"ingredients/\" + key, null);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    Map<String, Ingredient> ingredients = base.ingredients();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new HashMap<>();\n"
+      + "            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "              ingredients.put(entry.getKey(), entry.getValue() == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) entry.getValue()));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          String entryKey = slash < 0 ? rest : rest.substring(0, slash);\n"
+      + "          ingredients = ingredients == null ? new HashMap<String, Ingredient>() : new HashMap<>(ingredients);\n"
+      + "          if (slash < 0 && value == null) {\n"
+      + "            ingredients.remove(entryKey);\n"
+      + "          } else {\n"
+      + "            ingredients.put(entryKey, slash < 0 ? (value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value)) : AutoValue_Ingredient.applyDelta(ingredients.get(entryKey), rest.substring(slash + 1), value));\n"
+      + "          }\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private Map<String, AutoValue_Ingredient.FirebaseValue> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -630,6 +1720,36 @@ public class AutoValueFirebaseExtensionTest {
       + "      }\n"
       + "      return new AutoValue_Taco(ingredients);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      Map<String, Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new HashMap<>();\n"
+      + "        for (Map.Entry<String, AutoValue_Ingredient.FirebaseValue> entry : this.ingredients.entrySet()) {\n"
+      + "          ingredients.put(entry.getKey(), entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredients);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      Map<String, Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new HashMap<>();\n"
+      + "        for (Map.Entry<String, AutoValue_Ingredient.FirebaseValue> entry : this.ingredients.entrySet()) {\n"
+      + "          ingredients.put(entry.getKey(), entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/ingredients\", ingredients);\n"
+      + "    }\n"
       + "    public Map<String, AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
       + "      return ingredients;\n"
       + "    }\n"
@@ -664,16 +1784,131 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
       + "import java.util.ArrayList;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
       + "import java.util.List;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
       + "  AutoValue_Taco(String name, List<Ingredient> ingredients, Review review) {\n"
       + "    super(name, ingredients, review);\n"
       + "  }\n"
       + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"name\");\n"
+      + "    String name = (String) value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new ArrayList<>();\n"
+      + "      for (Object item : (List<Object>) value) {\n"
+      + "        ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"review\");\n"
+      + "    Review review = value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value);\n"
+      + "    return new AutoValue_Taco(name, ingredients, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.name() == null ? after.name() != null : !before.name().equals(after.name())) {\n"
+      + "      updates.put(path + \"name\", after.name());\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.ingredients().size(); i++) {\n"
+      + "          Ingredient previous = before.ingredients() == null || i >= before.ingredients().size() ? null : before.ingredients().get(i);\n"
+      + "          Ingredient item = after.ingredients().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"ingredients/\" + i, item == null ? null : new AutoValue_Ingredient.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Ingredient.diff(previous, item, path + \"ingredients/\" + i + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.ingredients().size(); before.ingredients() != null && i < before.ingredients().size(); i++) {\n"
+      + "          updates.put(path + \"ingredients/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.review() == null ? after.review() != null : !before.review().equals(after.review())) {\n"
+      + "      if (before.review() == null || after.review() == null) {\n"
+      + "        updates.put(path + \"review\", after.review() == null ? null : new AutoValue_Review.FirebaseValue(after.review()).toMap());\n"
+      + "      } else {\n"
+      + "        AutoValue_Review.diff(before.review(), after.review(), path + \"review/\", updates);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    String name = base.name();\n"
+      + "    List<Ingredient> ingredients = base.ingredients();\n"
+      + "    Review review = base.review();\n"
+      + "    switch (key) {\n"
+      + "      case \"name\":\n"
+      + "        name = (String) value;\n"
+      + "        break;\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new ArrayList<>();\n"
+      + "            for (Object item : (List<Object>) value) {\n"
+      + "              ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "          while (ingredients.size() <= index) {\n"
+      + "            ingredients.add(null);\n"
+      + "          }\n"
+      + "          ingredients.set(index, slash < 0 ? (value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value)) : AutoValue_Ingredient.applyDelta(ingredients.get(index), rest.substring(slash + 1), value));\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"review\":\n"
+      + "        if (rest == null) {\n"
+      + "          review = value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value);\n"
+      + "        } else {\n"
+      + "          review = AutoValue_Review.applyDelta(review, rest, value);\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, ingredients, review);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private String name;\n"
       + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
@@ -704,6 +1939,44 @@ public class AutoValueFirebaseExtensionTest {
       + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
       + "      return new AutoValue_Taco(name, ingredients, review);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredients);\n"
+      + "      map.put(\"review\", this.review == null ? null : this.review.toMap());\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/name\", this.name);\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/ingredients\", ingredients);\n"
+      + "      if (this.review == null) {\n"
+      + "        updates.put(basePath + \"/review\", null);\n"
+      + "      } else {\n"
+      + "        this.review.toUpdatePaths(basePath + \"/review\", updates);\n"
+      + "      }\n"
+      + "    }\n"
       + "    public String getName() {\n"
       + "      return name;\n"
       + "    }\n"
@@ -743,13 +2016,47 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
       + "  AutoValue_Ingredient(int spiciness) {\n"
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    int spiciness = 0;\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Ingredient before, Ingredient after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Ingredient applyDelta(Ingredient base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    return base;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private int spiciness;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -764,6 +2071,20 @@ public class AutoValueFirebaseExtensionTest {
       + "      return new AutoValue_Ingredient(spiciness);\n"
       + "    }\n"
       + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "    }\n"
+      + "    @Exclude\n"
       + "    public int getSpiciness() {\n"
       + "      return spiciness;\n"
       + "    }\n"
@@ -798,13 +2119,63 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
       + "import com.google.firebase.database.PropertyName;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
       + "  AutoValue_Ingredient(int spiciness) {\n"
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"picante\");\n"
+      + "    int spiciness = value == null ? 0 : ((Number) value).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Ingredient before, Ingredient after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.spiciness() != after.spiciness()) {\n"
+      + "      updates.put(path + \"picante\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Ingredient applyDelta(Ingredient base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    int spiciness = base.spiciness();\n"
+      + "    switch (key) {\n"
+      + "      case \"picante\":\n"
+      + "        spiciness = value == null ? 0 : ((Number) value).intValue();\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private int spiciness;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -818,6 +2189,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      int spiciness = this.spiciness;\n"
       + "      return new AutoValue_Ingredient(spiciness);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"picante\", this.spiciness);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/picante\", this.spiciness);\n"
+      + "    }\n"
       + "    @PropertyName(\"picante\")\n"
       + "    public int getSpiciness() {\n"
       + "      return spiciness;\n"
@@ -852,13 +2239,63 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
       + "import com.google.firebase.database.IgnoreExtraProperties;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
       + "  AutoValue_Ingredient(int spiciness) {\n"
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"spiciness\");\n"
+      + "    int spiciness = value == null ? 0 : ((Number) value).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Ingredient before, Ingredient after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.spiciness() != after.spiciness()) {\n"
+      + "      updates.put(path + \"spiciness\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Ingredient applyDelta(Ingredient base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    int spiciness = base.spiciness();\n"
+      + "    switch (key) {\n"
+      + "      case \"spiciness\":\n"
+      + "        spiciness = value == null ? 0 : ((Number) value).intValue();\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
       + "  @IgnoreExtraProperties\n"
       + "  static final class FirebaseValue {\n"
       + "    private int spiciness;\n"
@@ -873,6 +2310,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      int spiciness = this.spiciness;\n"
       + "      return new AutoValue_Ingredient(spiciness);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"spiciness\", this.spiciness);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/spiciness\", this.spiciness);\n"
+      + "    }\n"
       + "    public int getSpiciness() {\n"
       + "      return spiciness;\n"
       + "    }\n"
@@ -906,13 +2359,63 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
       + "import com.google.firebase.database.ThrowOnExtraProperties;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
       + "\n"
       + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
       + "  AutoValue_Ingredient(int spiciness) {\n"
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"spiciness\");\n"
+      + "    int spiciness = value == null ? 0 : ((Number) value).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Ingredient before, Ingredient after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.spiciness() != after.spiciness()) {\n"
+      + "      updates.put(path + \"spiciness\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Ingredient applyDelta(Ingredient base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    int spiciness = base.spiciness();\n"
+      + "    switch (key) {\n"
+      + "      case \"spiciness\":\n"
+      + "        spiciness = value == null ? 0 : ((Number) value).intValue();\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
       + "  @ThrowOnExtraProperties\n"
       + "  static final class FirebaseValue {\n"
       + "    private int spiciness;\n"
@@ -927,6 +2430,22 @@ public class AutoValueFirebaseExtensionTest {
       + "      int spiciness = this.spiciness;\n"
       + "      return new AutoValue_Ingredient(spiciness);\n"
       + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"spiciness\", this.spiciness);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/spiciness\", this.spiciness);\n"
+      + "    }\n"
       + "    public int getSpiciness() {\n"
       + "      return spiciness;\n"
       + "    }\n"
@@ -942,34 +2461,2726 @@ public class AutoValueFirebaseExtensionTest {
   }
 
   @Test
-  public void listOfParameterizedTypes() throws Exception {
+  public void firebaseNode() throws Exception {
     JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
       "package test;\n"
       + "\n"
       + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
       + "import java.util.List;\n"
+      + "import java.util.Map;\n"
       + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
       + "\n"
       + "@AutoValue @FirebaseValue\n"
       + "public abstract class Taco {\n"
-      + "  public abstract List<List<String>> ingredients();\n"
+      + "  @PropertyName(\"title\")\n"
+      + "  public abstract String name();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Review review();\n"
+      + "  public abstract Map<String, Integer> votes();\n"
+      + "  @Exclude\n"
+      + "  public abstract long createdAt();\n"
       + "}\n");
 
-    assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, source))
-      .processedWith(new AutoValueProcessor())
-      .failsToCompile();
-  }
-
-  @Test
-  public void mapWithNonPrimitiveKeyTypes() throws Exception {
-    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
       "package test;\n"
       + "\n"
-      + "import com.google.auto.value.AutoValue;\n"
-      + "import java.util.Map;\n"
-      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
-      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.FirebaseNode;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(String name, List<Ingredient> ingredients, Review review, Map<String, Integer> votes, long createdAt) {\n"
+      + "    super(name, ingredients, review, votes, createdAt);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"title\");\n"
+      + "    String name = (String) value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new ArrayList<>();\n"
+      + "      for (Object item : (List<Object>) value) {\n"
+      + "        ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"review\");\n"
+      + "    Review review = value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value);\n"
+      + "    value = map.get(\"votes\");\n"
+      + "    Map<String, Integer> votes = null;\n"
+      + "    if (value != null) {\n"
+      + "      votes = new HashMap<>();\n"
+      + "      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "        votes.put(entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).intValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    long createdAt = 0;\n"
+      + "    return new AutoValue_Taco(name, ingredients, review, votes, createdAt);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.name() == null ? after.name() != null : !before.name().equals(after.name())) {\n"
+      + "      updates.put(path + \"title\", after.name());\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.ingredients().size(); i++) {\n"
+      + "          Ingredient previous = before.ingredients() == null || i >= before.ingredients().size() ? null : before.ingredients().get(i);\n"
+      + "          Ingredient item = after.ingredients().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"ingredients/\" + i, item == null ? null : new AutoValue_Ingredient.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Ingredient.diff(previous, item, path + \"ingredients/\" + i + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.ingredients().size(); before.ingredients() != null && i < before.ingredients().size(); i++) {\n"
+      + "          updates.put(path + \"ingredients/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.review() == null ? after.review() != null : !before.review().equals(after.review())) {\n"
+      + "      if (before.review() == null || after.review() == null) {\n"
+      + "        updates.put(path + \"review\", after.review() == null ? null : new AutoValue_Review.FirebaseValue(after.review()).toMap());\n"
+      + "      } else {\n"
+      + "        AutoValue_Review.diff(before.review(), after.review(), path + \"review/\", updates);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.votes() == null ? after.votes() != null : !before.votes().equals(after.votes())) {\n"
+      + "      if (after.votes() == null) {\n"
+      + "        updates.put(path + \"votes\", null);\n"
+      + "      } else {\n"
+      + "        for (Map.Entry<String, Integer> entry : after.votes().entrySet()) {\n"
+      + "          Integer previous = before.votes() == null ? null : before.votes().get(entry.getKey());\n"
+      + "          Integer item = entry.getValue();\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            updates.put(path + \"votes/\" + entry.getKey(), item);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        if (before.votes() != null) {\n"
+      + "          for (String key : before.votes().keySet()) {\n"
+      + "            if (!after.votes().containsKey(key)) {\n"
+      + "              updates.put(path + \"votes/\" + key, null);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    String name = base.name();\n"
+      + "    List<Ingredient> ingredients = base.ingredients();\n"
+      + "    Review review = base.review();\n"
+      + "    Map<String, Integer> votes = base.votes();\n"
+      + "    long createdAt = base.createdAt();\n"
+      + "    switch (key) {\n"
+      + "      case \"title\":\n"
+      + "        name = (String) value;\n"
+      + "        break;\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new ArrayList<>();\n"
+      + "            for (Object item : (List<Object>) value) {\n"
+      + "              ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "          while (ingredients.size() <= index) {\n"
+      + "            ingredients.add(null);\n"
+      + "          }\n"
+      + "          ingredients.set(index, slash < 0 ? (value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value)) : AutoValue_Ingredient.applyDelta(ingredients.get(index), rest.substring(slash + 1), value));\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"review\":\n"
+      + "        if (rest == null) {\n"
+      + "          review = value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value);\n"
+      + "        } else {\n"
+      + "          review = AutoValue_Review.applyDelta(review, rest, value);\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"votes\":\n"
+      + "        if (rest == null) {\n"
+      + "          votes = null;\n"
+      + "          if (value != null) {\n"
+      + "            votes = new HashMap<>();\n"
+      + "            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "              votes.put(entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).intValue());\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          String entryKey = slash < 0 ? rest : rest.substring(0, slash);\n"
+      + "          votes = votes == null ? new HashMap<String, Integer>() : new HashMap<>(votes);\n"
+      + "          if (slash < 0 && value == null) {\n"
+      + "            votes.remove(entryKey);\n"
+      + "          } else {\n"
+      + "            votes.put(entryKey, value == null ? null : ((Number) value).intValue());\n"
+      + "          }\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, ingredients, review, votes, createdAt);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromNode(FirebaseNode node) {\n"
+      + "    FirebaseNode child;\n"
+      + "    child = node.child(\"title\");\n"
+      + "    String name = child == null ? null : (String) child.value();\n"
+      + "    child = node.child(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (child != null) {\n"
+      + "      ingredients = new ArrayList<>();\n"
+      + "      for (FirebaseNode item : child.children()) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromNode(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    child = node.child(\"review\");\n"
+      + "    Review review = child == null ? null : AutoValue_Review.fromNode(child);\n"
+      + "    child = node.child(\"votes\");\n"
+      + "    Map<String, Integer> votes = null;\n"
+      + "    if (child != null) {\n"
+      + "      votes = new HashMap<>();\n"
+      + "      for (FirebaseNode entry : child.children()) {\n"
+      + "        votes.put(entry.key(), ((Number) entry.value()).intValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    long createdAt = 0;\n"
+      + "    return new AutoValue_Taco(name, ingredients, review, votes, createdAt);\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private AutoValue_Review.FirebaseValue review;\n"
+      + "    private Map<String, Integer> votes;\n"
+      + "    private long createdAt;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.review = taco.review() == null ? null : new AutoValue_Review.FirebaseValue(taco.review());\n"
+      + "      this.votes = taco.votes();\n"
+      + "      this.createdAt = taco.createdAt();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
+      + "      Map<String, Integer> votes = this.votes;\n"
+      + "      long createdAt = this.createdAt;\n"
+      + "      return new AutoValue_Taco(name, ingredients, review, votes, createdAt);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"title\", this.name);\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredients);\n"
+      + "      map.put(\"review\", this.review == null ? null : this.review.toMap());\n"
+      + "      map.put(\"votes\", this.votes);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/title\", this.name);\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/ingredients\", ingredients);\n"
+      + "      if (this.review == null) {\n"
+      + "        updates.put(basePath + \"/review\", null);\n"
+      + "      } else {\n"
+      + "        this.review.toUpdatePaths(basePath + \"/review\", updates);\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/votes\", this.votes);\n"
+      + "    }\n"
+      + "    @PropertyName(\"title\")\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public AutoValue_Review.FirebaseValue getReview() {\n"
+      + "      return review;\n"
+      + "    }\n"
+      + "    public Map<String, Integer> getVotes() {\n"
+      + "      return votes;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    public long getCreatedAt() {\n"
+      + "      return createdAt;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, FIREBASE_NODE, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void json() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import com.google.firebase.database.ThrowOnExtraProperties;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue @ThrowOnExtraProperties\n"
+      + "public abstract class Taco {\n"
+      + "  @PropertyName(\"title\")\n"
+      + "  public abstract String name();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Review review();\n"
+      + "  public abstract Map<Long, Integer> votes();\n"
+      + "  public abstract float rating();\n"
+      + "  @Exclude\n"
+      + "  public abstract long createdAt();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import com.google.firebase.database.ThrowOnExtraProperties;\n"
+      + "import com.google.gson.stream.JsonReader;\n"
+      + "import com.google.gson.stream.JsonToken;\n"
+      + "import com.google.gson.stream.JsonWriter;\n"
+      + "import java.io.IOException;\n"
+      + "import java.io.Reader;\n"
+      + "import java.lang.Double;\n"
+      + "import java.lang.IllegalStateException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Long;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(String name, List<Ingredient> ingredients, Review review, Map<Long, Integer> votes, float rating, long createdAt) {\n"
+      + "    super(name, ingredients, review, votes, rating, createdAt);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"title\");\n"
+      + "    String name = (String) value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new ArrayList<>();\n"
+      + "      for (Object item : (List<Object>) value) {\n"
+      + "        ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"review\");\n"
+      + "    Review review = value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value);\n"
+      + "    value = map.get(\"votes\");\n"
+      + "    Map<Long, Integer> votes = null;\n"
+      + "    if (value != null) {\n"
+      + "      votes = new HashMap<>();\n"
+      + "      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "        votes.put(Long.valueOf(entry.getKey()), entry.getValue() == null ? null : ((Number) entry.getValue()).intValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"rating\");\n"
+      + "    float rating = value == null ? 0 : ((Number) value).floatValue();\n"
+      + "    long createdAt = 0;\n"
+      + "    return new AutoValue_Taco(name, ingredients, review, votes, rating, createdAt);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.name() == null ? after.name() != null : !before.name().equals(after.name())) {\n"
+      + "      updates.put(path + \"title\", after.name());\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.ingredients().size(); i++) {\n"
+      + "          Ingredient previous = before.ingredients() == null || i >= before.ingredients().size() ? null : before.ingredients().get(i);\n"
+      + "          Ingredient item = after.ingredients().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"ingredients/\" + i, item == null ? null : new AutoValue_Ingredient.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Ingredient.diff(previous, item, path + \"ingredients/\" + i + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.ingredients().size(); before.ingredients() != null && i < before.ingredients().size(); i++) {\n"
+      + "          updates.put(path + \"ingredients/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.review() == null ? after.review() != null : !before.review().equals(after.review())) {\n"
+      + "      if (before.review() == null || after.review() == null) {\n"
+      + "        updates.put(path + \"review\", after.review() == null ? null : new AutoValue_Review.FirebaseValue(after.review()).toMap());\n"
+      + "      } else {\n"
+      + "        AutoValue_Review.diff(before.review(), after.review(), path + \"review/\", updates);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.votes() == null ? after.votes() != null : !before.votes().equals(after.votes())) {\n"
+      + "      if (after.votes() == null) {\n"
+      + "        updates.put(path + \"votes\", null);\n"
+      + "      } else {\n"
+      + "        for (Map.Entry<Long, Integer> entry : after.votes().entrySet()) {\n"
+      + "          Integer previous = before.votes() == null ? null : before.votes().get(entry.getKey());\n"
+      + "          Integer item = entry.getValue();\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            updates.put(path + \"votes/\" + entry.getKey(), item);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        if (before.votes() != null) {\n"
+      + "          for (Long key : before.votes().keySet()) {\n"
+      + "            if (!after.votes().containsKey(key)) {\n"
+      + "              updates.put(path + \"votes/\" + key, null);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (Double.compare(before.rating(), after.rating()) != 0) {\n"
+      + "      updates.put(path + \"rating\", after.rating());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    String name = base.name();\n"
+      + "    List<Ingredient> ingredients = base.ingredients();\n"
+      + "    Review review = base.review();\n"
+      + "    Map<Long, Integer> votes = base.votes();\n"
+      + "    float rating = base.rating();\n"
+      + "    long createdAt = base.createdAt();\n"
+      + "    switch (key) {\n"
+      + "      case \"title\":\n"
+      + "        name = (String) value;\n"
+      + "        break;\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new ArrayList<>();\n"
+      + "            for (Object item : (List<Object>) value) {\n"
+      + "              ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "          while (ingredients.size() <= index) {\n"
+      + "            ingredients.add(null);\n"
+      + "          }\n"
+      + "          ingredients.set(index, slash < 0 ? (value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value)) : AutoValue_Ingredient.applyDelta(ingredients.get(index), rest.substring(slash + 1), value));\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"review\":\n"
+      + "        if (rest == null) {\n"
+      + "          review = value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value);\n"
+      + "        } else {\n"
+      + "          review = AutoValue_Review.applyDelta(review, rest, value);\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"votes\":\n"
+      + "        if (rest == null) {\n"
+      + "          votes = null;\n"
+      + "          if (value != null) {\n"
+      + "            votes = new HashMap<>();\n"
+      + "            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "              votes.put(Long.valueOf(entry.getKey()), entry.getValue() == null ? null : ((Number) entry.getValue()).intValue());\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          Long entryKey = Long.valueOf(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          votes = votes == null ? new HashMap<Long, Integer>() : new HashMap<>(votes);\n"
+      + "          if (slash < 0 && value == null) {\n"
+      + "            votes.remove(entryKey);\n"
+      + "          } else {\n"
+      + "            votes.put(entryKey, value == null ? null : ((Number) value).intValue());\n"
+      + "          }\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"rating\":\n"
+      + "        rating = value == null ? 0 : ((Number) value).floatValue();\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, ingredients, review, votes, rating, createdAt);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromJson(JsonReader reader) throws IOException {\n"
+      + "    String name = null;\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    Review review = null;\n"
+      + "    Map<Long, Integer> votes = null;\n"
+      + "    float rating = 0;\n"
+      + "    long createdAt = 0;\n"
+      + "    reader.beginObject();\n"
+      + "    while (reader.hasNext()) {\n"
+      + "      String key = reader.nextName();\n"
+      + "      if (reader.peek() == JsonToken.NULL) {\n"
+      + "        reader.nextNull();\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      switch (key) {\n"
+      + "        case \"title\":\n"
+      + "          name = reader.nextString();\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          ingredients = new ArrayList<>();\n"
+      + "          reader.beginArray();\n"
+      + "          while (reader.hasNext()) {\n"
+      + "            if (reader.peek() == JsonToken.NULL) {\n"
+      + "              reader.nextNull();\n"
+      + "              ingredients.add(null);\n"
+      + "            } else {\n"
+      + "              ingredients.add(AutoValue_Ingredient.fromJson(reader));\n"
+      + "            }\n"
+      + "          }\n"
+      + "          reader.endArray();\n"
+      + "          break;\n"
+      + "        case \"review\":\n"
+      + "          review = AutoValue_Review.fromJson(reader);\n"
+      + "          break;\n"
+      + "        case \"votes\":\n"
+      + "          votes = new HashMap<>();\n"
+      + "          reader.beginObject();\n"
+      + "          while (reader.hasNext()) {\n"
+      + "            votes.put(Long.valueOf(reader.nextName()), reader.nextInt());\n"
+      + "          }\n"
+      + "          reader.endObject();\n"
+      + "          break;\n"
+      + "        case \"rating\":\n"
+      + "          rating = (float) reader.nextDouble();\n"
+      + "          break;\n"
+      + "        default:\n"
+      + "          throw new IllegalStateException(\"Found unknown property '\" + key + \"' for Taco\");\n"
+      + "      }\n"
+      + "    }\n"
+      + "    reader.endObject();\n"
+      + "    return new AutoValue_Taco(name, ingredients, review, votes, rating, createdAt);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromJson(Reader reader) throws IOException {\n"
+      + "    return fromJson(new JsonReader(reader));\n"
+      + "  }\n"
+      + "\n"
+      + "  static void writeTo(Taco taco, JsonWriter writer) throws IOException {\n"
+      + "    writer.beginObject();\n"
+      + "    if (taco.name() != null) {\n"
+      + "      writer.name(\"title\");\n"
+      + "      writer.value(taco.name());\n"
+      + "    }\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      writer.name(\"ingredients\");\n"
+      + "      writer.beginArray();\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        if (item == null) {\n"
+      + "          writer.nullValue();\n"
+      + "        } else {\n"
+      + "          AutoValue_Ingredient.writeTo(item, writer);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    if (taco.review() != null) {\n"
+      + "      writer.name(\"review\");\n"
+      + "      AutoValue_Review.writeTo(taco.review(), writer);\n"
+      + "    }\n"
+      + "    if (taco.votes() != null) {\n"
+      + "      writer.name(\"votes\");\n"
+      + "      writer.beginObject();\n"
+      + "      for (Map.Entry<Long, Integer> entry : taco.votes().entrySet()) {\n"
+      + "        if (entry.getValue() != null) {\n"
+      + "          writer.name(String.valueOf(entry.getKey()));\n"
+      + "          writer.value(entry.getValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      writer.endObject();\n"
+      + "    }\n"
+      + "    writer.name(\"rating\");\n"
+      + "    writer.value(taco.rating());\n"
+      + "    writer.endObject();\n"
+      + "  }\n"
+      + "\n"
+      + "  @ThrowOnExtraProperties\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private AutoValue_Review.FirebaseValue review;\n"
+      + "    private Map<Long, Integer> votes;\n"
+      + "    private float rating;\n"
+      + "    private long createdAt;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.review = taco.review() == null ? null : new AutoValue_Review.FirebaseValue(taco.review());\n"
+      + "      this.votes = taco.votes();\n"
+      + "      this.rating = taco.rating();\n"
+      + "      this.createdAt = taco.createdAt();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
+      + "      Map<Long, Integer> votes = this.votes;\n"
+      + "      float rating = this.rating;\n"
+      + "      long createdAt = this.createdAt;\n"
+      + "      return new AutoValue_Taco(name, ingredients, review, votes, rating, createdAt);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"title\", this.name);\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredients);\n"
+      + "      map.put(\"review\", this.review == null ? null : this.review.toMap());\n"
+      + "      map.put(\"votes\", this.votes);\n"
+      + "      map.put(\"rating\", this.rating);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/title\", this.name);\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/ingredients\", ingredients);\n"
+      + "      if (this.review == null) {\n"
+      + "        updates.put(basePath + \"/review\", null);\n"
+      + "      } else {\n"
+      + "        this.review.toUpdatePaths(basePath + \"/review\", updates);\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/votes\", this.votes);\n"
+      + "      updates.put(basePath + \"/rating\", this.rating);\n"
+      + "    }\n"
+      + "    @PropertyName(\"title\")\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public AutoValue_Review.FirebaseValue getReview() {\n"
+      + "      return review;\n"
+      + "    }\n"
+      + "    public Map<Long, Integer> getVotes() {\n"
+      + "      return votes;\n"
+      + "    }\n"
+      + "    public float getRating() {\n"
+      + "      return rating;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    public long getCreatedAt() {\n"
+      + "      return createdAt;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, THROW_ON_EXTRA_PROPERTIES, JSON_READER, JSON_TOKEN,
+        JSON_WRITER, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void primitiveArrays() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Telemetry",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Telemetry {\n"
+      + "  @SuppressWarnings(\"mutable\")\n"
+      + "  public abstract long[] timestamps();\n"
+      + "  @SuppressWarnings(\"mutable\")\n"
+      + "  public abstract double[] readings();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Telemetry",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.gson.stream.JsonReader;\n"
+      + "import com.google.gson.stream.JsonToken;\n"
+      + "import com.google.gson.stream.JsonWriter;\n"
+      + "import java.io.IOException;\n"
+      + "import java.io.Reader;\n"
+      + "import java.lang.Double;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Long;\n"
+      + "import java.lang.Math;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.Override;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.AbstractList;\n"
+      + "import java.util.Arrays;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.FirebaseNode;\n"
+      + "\n"
+      + "final class AutoValue_Telemetry extends $AutoValue_Telemetry {\n"
+      + "  AutoValue_Telemetry(long[] timestamps, double[] readings) {\n"
+      + "    super(timestamps, readings);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Telemetry fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"timestamps\");\n"
+      + "    long[] timestamps = null;\n"
+      + "    if (value != null) {\n"
+      + "      timestamps = new long[((List<?>) value).size()];\n"
+      + "      int i = 0;\n"
+      + "      for (Object item : (List<?>) value) {\n"
+      + "        timestamps[i++] = item == null ? 0 : ((Number) item).longValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"readings\");\n"
+      + "    double[] readings = null;\n"
+      + "    if (value != null) {\n"
+      + "      readings = new double[((List<?>) value).size()];\n"
+      + "      int i = 0;\n"
+      + "      for (Object item : (List<?>) value) {\n"
+      + "        readings[i++] = item == null ? 0 : ((Number) item).doubleValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Telemetry(timestamps, readings);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Telemetry before, Telemetry after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Telemetry before, Telemetry after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (!Arrays.equals(before.timestamps(), after.timestamps())) {\n"
+      + "      if (after.timestamps() == null) {\n"
+      + "        updates.put(path + \"timestamps\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.timestamps().length; i++) {\n"
+      + "          if (before.timestamps() == null || i >= before.timestamps().length || before.timestamps()[i] != after.timestamps()[i]) {\n"
+      + "            updates.put(path + \"timestamps/\" + i, after.timestamps()[i]);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.timestamps().length; before.timestamps() != null && i < before.timestamps().length; i++) {\n"
+      + "          updates.put(path + \"timestamps/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (!Arrays.equals(before.readings(), after.readings())) {\n"
+      + "      if (after.readings() == null) {\n"
+      + "        updates.put(path + \"readings\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.readings().length; i++) {\n"
+      + "          if (before.readings() == null || i >= before.readings().length || Double.compare(before.readings()[i], after.readings()[i]) != 0) {\n"
+      + "            updates.put(path + \"readings/\" + i, after.readings()[i]);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.readings().length; before.readings() != null && i < before.readings().length; i++) {\n"
+      + "          updates.put(path + \"readings/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Telemetry applyDelta(Telemetry base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    long[] timestamps = base.timestamps();\n"
+      + "    double[] readings = base.readings();\n"
+      + "    switch (key) {\n"
+      + "      case \"timestamps\":\n"
+      + "        if (rest == null) {\n"
+      + "          timestamps = null;\n"
+      + "          if (value != null) {\n"
+      + "            timestamps = new long[((List<?>) value).size()];\n"
+      + "            int index = 0;\n"
+      + "            for (Object item : (List<?>) value) {\n"
+      + "              timestamps[index++] = item == null ? 0 : ((Number) item).longValue();\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          timestamps = timestamps == null ? new long[index + 1] : Arrays.copyOf(timestamps, Math.max(timestamps.length, index + 1));\n"
+      + "          timestamps[index] = value == null ? 0 : ((Number) value).longValue();\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"readings\":\n"
+      + "        if (rest == null) {\n"
+      + "          readings = null;\n"
+      + "          if (value != null) {\n"
+      + "            readings = new double[((List<?>) value).size()];\n"
+      + "            int index = 0;\n"
+      + "            for (Object item : (List<?>) value) {\n"
+      + "              readings[index++] = item == null ? 0 : ((Number) item).doubleValue();\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          readings = readings == null ? new double[index + 1] : Arrays.copyOf(readings, Math.max(readings.length, index + 1));\n"
+      + "          readings[index] = value == null ? 0 : ((Number) value).doubleValue();\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Telemetry(timestamps, readings);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Telemetry fromNode(FirebaseNode node) {\n"
+      + "    FirebaseNode child;\n"
+      + "    child = node.child(\"timestamps\");\n"
+      + "    long[] timestamps = null;\n"
+      + "    if (child != null) {\n"
+      + "      timestamps = new long[16];\n"
+      + "      int timestampsLength = 0;\n"
+      + "      for (FirebaseNode item : child.children()) {\n"
+      + "        int index = Integer.parseInt(item.key());\n"
+      + "        if (index >= timestamps.length) {\n"
+      + "          timestamps = Arrays.copyOf(timestamps, Math.max(timestamps.length * 2, index + 1));\n"
+      + "        }\n"
+      + "        timestamps[index] = ((Number) item.value()).longValue();\n"
+      + "        timestampsLength = Math.max(timestampsLength, index + 1);\n"
+      + "      }\n"
+      + "      if (timestampsLength < timestamps.length) {\n"
+      + "        timestamps = Arrays.copyOf(timestamps, timestampsLength);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    child = node.child(\"readings\");\n"
+      + "    double[] readings = null;\n"
+      + "    if (child != null) {\n"
+      + "      readings = new double[16];\n"
+      + "      int readingsLength = 0;\n"
+      + "      for (FirebaseNode item : child.children()) {\n"
+      + "        int index = Integer.parseInt(item.key());\n"
+      + "        if (index >= readings.length) {\n"
+      + "          readings = Arrays.copyOf(readings, Math.max(readings.length * 2, index + 1));\n"
+      + "        }\n"
+      + "        readings[index] = ((Number) item.value()).doubleValue();\n"
+      + "        readingsLength = Math.max(readingsLength, index + 1);\n"
+      + "      }\n"
+      + "      if (readingsLength < readings.length) {\n"
+      + "        readings = Arrays.copyOf(readings, readingsLength);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Telemetry(timestamps, readings);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Telemetry fromJson(JsonReader reader) throws IOException {\n"
+      + "    long[] timestamps = null;\n"
+      + "    double[] readings = null;\n"
+      + "    reader.beginObject();\n"
+      + "    while (reader.hasNext()) {\n"
+      + "      String key = reader.nextName();\n"
+      + "      if (reader.peek() == JsonToken.NULL) {\n"
+      + "        reader.nextNull();\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      switch (key) {\n"
+      + "        case \"timestamps\":\n"
+      + "          timestamps = new long[16];\n"
+      + "          int timestampsLength = 0;\n"
+      + "          reader.beginArray();\n"
+      + "          while (reader.hasNext()) {\n"
+      + "            if (timestampsLength == timestamps.length) {\n"
+      + "              timestamps = Arrays.copyOf(timestamps, timestampsLength * 2);\n"
+      + "            }\n"
+      + "            if (reader.peek() == JsonToken.NULL) {\n"
+      + "              reader.nextNull();\n"
+      + "              timestampsLength++;\n"
+      + "            } else {\n"
+      + "              timestamps[timestampsLength++] = reader.nextLong();\n"
+      + "            }\n"
+      + "          }\n"
+      + "          reader.endArray();\n"
+      + "          if (timestampsLength < timestamps.length) {\n"
+      + "            timestamps = Arrays.copyOf(timestamps, timestampsLength);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"readings\":\n"
+      + "          readings = new double[16];\n"
+      + "          int readingsLength = 0;\n"
+      + "          reader.beginArray();\n"
+      + "          while (reader.hasNext()) {\n"
+      + "            if (readingsLength == readings.length) {\n"
+      + "              readings = Arrays.copyOf(readings, readingsLength * 2);\n"
+      + "            }\n"
+      + "            if (reader.peek() == JsonToken.NULL) {\n"
+      + "              reader.nextNull();\n"
+      + "              readingsLength++;\n"
+      + "            } else {\n"
+      + "              readings[readingsLength++] = reader.nextDouble();\n"
+      + "            }\n"
+      + "          }\n"
+      + "          reader.endArray();\n"
+      + "          if (readingsLength < readings.length) {\n"
+      + "            readings = Arrays.copyOf(readings, readingsLength);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        default:\n"
+      + "          reader.skipValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    reader.endObject();\n"
+      + "    return new AutoValue_Telemetry(timestamps, readings);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Telemetry fromJson(Reader reader) throws IOException {\n"
+      + "    return fromJson(new JsonReader(reader));\n"
+      + "  }\n"
+      + "\n"
+      + "  static void writeTo(Telemetry telemetry, JsonWriter writer) throws IOException {\n"
+      + "    writer.beginObject();\n"
+      + "    if (telemetry.timestamps() != null) {\n"
+      + "      writer.name(\"timestamps\");\n"
+      + "      writer.beginArray();\n"
+      + "      for (long item : telemetry.timestamps()) {\n"
+      + "        writer.value(item);\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    if (telemetry.readings() != null) {\n"
+      + "      writer.name(\"readings\");\n"
+      + "      writer.beginArray();\n"
+      + "      for (double item : telemetry.readings()) {\n"
+      + "        writer.value(item);\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    writer.endObject();\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private List<Long> timestamps;\n"
+      + "    private List<Double> readings;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Telemetry telemetry) {\n"
+      + "      final long[] timestamps = telemetry.timestamps();\n"
+      + "      this.timestamps = timestamps == null ? null : new AbstractList<Long>() {\n"
+      + "        @Override\n"
+      + "        public Long get(int index) {\n"
+      + "          return timestamps[index];\n"
+      + "        }\n"
+      + "        @Override\n"
+      + "        public int size() {\n"
+      + "          return timestamps.length;\n"
+      + "        }\n"
+      + "      };\n"
+      + "      final double[] readings = telemetry.readings();\n"
+      + "      this.readings = readings == null ? null : new AbstractList<Double>() {\n"
+      + "        @Override\n"
+      + "        public Double get(int index) {\n"
+      + "          return readings[index];\n"
+      + "        }\n"
+      + "        @Override\n"
+      + "        public int size() {\n"
+      + "          return readings.length;\n"
+      + "        }\n"
+      + "      };\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Telemetry toAutoValue() {\n"
+      + "      long[] timestamps = null;\n"
+      + "      if (this.timestamps != null) {\n"
+      + "        timestamps = new long[this.timestamps.size()];\n"
+      + "        int i = 0;\n"
+      + "        for (Number item : this.timestamps) {\n"
+      + "          timestamps[i++] = item == null ? 0 : item.longValue();\n"
+      + "        }\n"
+      + "      }\n"
+      + "      double[] readings = null;\n"
+      + "      if (this.readings != null) {\n"
+      + "        readings = new double[this.readings.size()];\n"
+      + "        int i = 0;\n"
+      + "        for (Number item : this.readings) {\n"
+      + "          readings[i++] = item == null ? 0 : item.doubleValue();\n"
+      + "        }\n"
+      + "      }\n"
+      + "      return new AutoValue_Telemetry(timestamps, readings);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"timestamps\", this.timestamps);\n"
+      + "      map.put(\"readings\", this.readings);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/timestamps\", this.timestamps);\n"
+      + "      updates.put(basePath + \"/readings\", this.readings);\n"
+      + "    }\n"
+      + "    public List<Long> getTimestamps() {\n"
+      + "      return timestamps;\n"
+      + "    }\n"
+      + "    public List<Double> getReadings() {\n"
+      + "      return readings;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, FIREBASE_NODE, JSON_READER, JSON_TOKEN, JSON_WRITER, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void minimalAllocation() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(allocation = FirebaseValue.Allocation.MINIMAL)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Map<String, Review> reviews();\n"
+      + "  public abstract List<String> tags();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.RandomAccess;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(List<Ingredient> ingredients, Map<String, Review> reviews, List<String> tags) {\n"
+      + "    super(ingredients, reviews, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new ArrayList<>();\n"
+      + "      for (Object item : (List<Object>) value) {\n"
+      + "        ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"reviews\");\n"
+      + "    Map<String, Review> reviews = null;\n"
+      + "    if (value != null) {\n"
+      + "      reviews = new HashMap<>();\n"
+      + "      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "        reviews.put(entry.getKey(), entry.getValue() == null ? null : AutoValue_Review.fromMap((Map<String, Object>) entry.getValue()));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"tags\");\n"
+      + "    List<String> tags = (List<String>) value;\n"
+      + "    return new AutoValue_Taco(ingredients, reviews, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.ingredients().size(); i++) {\n"
+      + "          Ingredient previous = before.ingredients() == null || i >= before.ingredients().size() ? null : before.ingredients().get(i);\n"
+      + "          Ingredient item = after.ingredients().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"ingredients/\" + i, item == null ? null : new AutoValue_Ingredient.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Ingredient.diff(previous, item, path + \"ingredients/\" + i + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.ingredients().size(); before.ingredients() != null && i < before.ingredients().size(); i++) {\n"
+      + "          updates.put(path + \"ingredients/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.reviews() == null ? after.reviews() != null : !before.reviews().equals(after.reviews())) {\n"
+      + "      if (after.reviews() == null) {\n"
+      + "        updates.put(path + \"reviews\", null);\n"
+      + "      } else {\n"
+      + "        for (Map.Entry<String, Review> entry : after.reviews().entrySet()) {\n"
+      + "          Review previous = before.reviews() == null ? null : before.reviews().get(entry.getKey());\n"
+      + "          Review item = entry.getValue();\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"reviews/\" + entry.getKey(), item == null ? null : new AutoValue_Review.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Review.diff(previous, item, path + \"reviews/\" + entry.getKey() + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        if (before.reviews() != null) {\n"
+      + "          for (String key : before.reviews().keySet()) {\n"
+      + "            if (!after.reviews().containsKey(key)) {\n"
+      + "              updates.put(path + \"reviews/\" + key, null);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.tags() == null ? after.tags() != null : !before.tags().equals(after.tags())) {\n"
+      + "      if (after.tags() == null) {\n"
+      + "        updates.put(path + \"tags\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.tags().size(); i++) {\n"
+      + "          String previous = before.tags() == null || i >= before.tags().size() ? null : before.tags().get(i);\n"
+      + "          String item = after.tags().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            updates.put(path + \"tags/\" + i, item);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.tags().size(); before.tags() != null && i < before.tags().size(); i++) {\n"
+      + "          updates.put(path + \"tags/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    List<Ingredient> ingredients = base.ingredients();\n"
+      + "    Map<String, Review> reviews = base.reviews();\n"
+      + "    List<String> tags = base.tags();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new ArrayList<>();\n"
+      + "            for (Object item : (List<Object>) value) {\n"
+      + "              ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "          while (ingredients.size() <= index) {\n"
+      + "            ingredients.add(null);\n"
+      + "          }\n"
+      + "          ingredients.set(index, slash < 0 ? (value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value)) : AutoValue_Ingredient.applyDelta(ingredients.get(index), rest.substring(slash + 1), value));\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"reviews\":\n"
+      + "        if (rest == null) {\n"
+      + "          reviews = null;\n"
+      + "          if (value != null) {\n"
+      + "            reviews = new HashMap<>();\n"
+      + "            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "              reviews.put(entry.getKey(), entry.getValue() == null ? null : AutoValue_Review.fromMap((Map<String, Object>) entry.getValue()));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          String entryKey = slash < 0 ? rest : rest.substring(0, slash);\n"
+      + "          reviews = reviews == null ? new HashMap<String, Review>() : new HashMap<>(reviews);\n"
+      + "          if (slash < 0 && value == null) {\n"
+      + "            reviews.remove(entryKey);\n"
+      + "          } else {\n"
+      + "            reviews.put(entryKey, slash < 0 ? (value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value)) : AutoValue_Review.applyDelta(reviews.get(entryKey), rest.substring(slash + 1), value));\n"
+      + "          }\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"tags\":\n"
+      + "        if (rest == null) {\n"
+      + "          tags = (List<String>) value;\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          tags = tags == null ? new ArrayList<String>() : new ArrayList<>(tags);\n"
+      + "          while (tags.size() <= index) {\n"
+      + "            tags.add(null);\n"
+      + "          }\n"
+      + "          tags.set(index, (String) value);\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients, reviews, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private Map<String, AutoValue_Review.FirebaseValue> reviews;\n"
+      + "    private List<String> tags;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        List<Ingredient> ingredients = taco.ingredients();\n"
+      + "        this.ingredients = new ArrayList<>(ingredients.size());\n"
+      + "        if (ingredients instanceof RandomAccess) {\n"
+      + "          for (int i = 0, size = ingredients.size(); i < size; i++) {\n"
+      + "            this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(ingredients.get(i)));\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          for (Ingredient item : ingredients) {\n"
+      + "            this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (taco.reviews() != null) {\n"
+      + "        Map<String, Review> reviews = taco.reviews();\n"
+      + "        this.reviews = new HashMap<>((int) (reviews.size() / 0.75f) + 1);\n"
+      + "        for (Map.Entry<String, Review> entry : reviews.entrySet()) {\n"
+      + "          this.reviews.put(entry.getKey(), new AutoValue_Review.FirebaseValue(entry.getValue()));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.tags = taco.tags();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>(this.ingredients.size());\n"
+      + "        if (this.ingredients instanceof RandomAccess) {\n"
+      + "          for (int i = 0, size = this.ingredients.size(); i < size; i++) {\n"
+      + "            ingredients.add(this.ingredients.get(i).toAutoValue());\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "            ingredients.add(item.toAutoValue());\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "      Map<String, Review> reviews = null;\n"
+      + "      if (this.reviews != null) {\n"
+      + "        reviews = new HashMap<>((int) (this.reviews.size() / 0.75f) + 1);\n"
+      + "        for (Map.Entry<String, AutoValue_Review.FirebaseValue> entry : this.reviews.entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), entry.getValue().toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      List<String> tags = this.tags == null ? null : Collections.unmodifiableList(this.tags);\n"
+      + "      return new AutoValue_Taco(ingredients, reviews, tags);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredients);\n"
+      + "      Map<String, Object> reviews = null;\n"
+      + "      if (this.reviews != null) {\n"
+      + "        reviews = new HashMap<>();\n"
+      + "        for (Map.Entry<String, AutoValue_Review.FirebaseValue> entry : this.reviews.entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"reviews\", reviews);\n"
+      + "      map.put(\"tags\", this.tags);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/ingredients\", ingredients);\n"
+      + "      Map<String, Object> reviews = null;\n"
+      + "      if (this.reviews != null) {\n"
+      + "        reviews = new HashMap<>();\n"
+      + "        for (Map.Entry<String, AutoValue_Review.FirebaseValue> entry : this.reviews.entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/reviews\", reviews);\n"
+      + "      updates.put(basePath + \"/tags\", this.tags);\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public Map<String, AutoValue_Review.FirebaseValue> getReviews() {\n"
+      + "      return reviews;\n"
+      + "    }\n"
+      + "    public List<String> getTags() {\n"
+      + "      return tags;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void lazyCollections() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(lazyCollections = true)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Map<String, Review> reviews();\n"
+      + "  public abstract List<String> tags();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.Override;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.LazyList;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.LazyMap;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(List<Ingredient> ingredients, Map<String, Review> reviews, List<String> tags) {\n"
+      + "    super(ingredients, reviews, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new ArrayList<>();\n"
+      + "      for (Object item : (List<Object>) value) {\n"
+      + "        ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"reviews\");\n"
+      + "    Map<String, Review> reviews = null;\n"
+      + "    if (value != null) {\n"
+      + "      reviews = new HashMap<>();\n"
+      + "      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "        reviews.put(entry.getKey(), entry.getValue() == null ? null : AutoValue_Review.fromMap((Map<String, Object>) entry.getValue()));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"tags\");\n"
+      + "    List<String> tags = (List<String>) value;\n"
+      + "    return new AutoValue_Taco(ingredients, reviews, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.ingredients().size(); i++) {\n"
+      + "          Ingredient previous = before.ingredients() == null || i >= before.ingredients().size() ? null : before.ingredients().get(i);\n"
+      + "          Ingredient item = after.ingredients().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"ingredients/\" + i, item == null ? null : new AutoValue_Ingredient.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Ingredient.diff(previous, item, path + \"ingredients/\" + i + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.ingredients().size(); before.ingredients() != null && i < before.ingredients().size(); i++) {\n"
+      + "          updates.put(path + \"ingredients/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.reviews() == null ? after.reviews() != null : !before.reviews().equals(after.reviews())) {\n"
+      + "      if (after.reviews() == null) {\n"
+      + "        updates.put(path + \"reviews\", null);\n"
+      + "      } else {\n"
+      + "        for (Map.Entry<String, Review> entry : after.reviews().entrySet()) {\n"
+      + "          Review previous = before.reviews() == null ? null : before.reviews().get(entry.getKey());\n"
+      + "          Review item = entry.getValue();\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"reviews/\" + entry.getKey(), item == null ? null : new AutoValue_Review.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Review.diff(previous, item, path + \"reviews/\" + entry.getKey() + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        if (before.reviews() != null) {\n"
+      + "          for (String key : before.reviews().keySet()) {\n"
+      + "            if (!after.reviews().containsKey(key)) {\n"
+      + "              updates.put(path + \"reviews/\" + key, null);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.tags() == null ? after.tags() != null : !before.tags().equals(after.tags())) {\n"
+      + "      if (after.tags() == null) {\n"
+      + "        updates.put(path + \"tags\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.tags().size(); i++) {\n"
+      + "          String previous = before.tags() == null || i >= before.tags().size() ? null : before.tags().get(i);\n"
+      + "          String item = after.tags().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            updates.put(path + \"tags/\" + i, item);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.tags().size(); before.tags() != null && i < before.tags().size(); i++) {\n"
+      + "          updates.put(path + \"tags/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    List<Ingredient> ingredients = base.ingredients();\n"
+      + "    Map<String, Review> reviews = base.reviews();\n"
+      + "    List<String> tags = base.tags();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new ArrayList<>();\n"
+      + "            for (Object item : (List<Object>) value) {\n"
+      + "              ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "          while (ingredients.size() <= index) {\n"
+      + "            ingredients.add(null);\n"
+      + "          }\n"
+      + "          ingredients.set(index, slash < 0 ? (value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value)) : AutoValue_Ingredient.applyDelta(ingredients.get(index), rest.substring(slash + 1), value));\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"reviews\":\n"
+      + "        if (rest == null) {\n"
+      + "          reviews = null;\n"
+      + "          if (value != null) {\n"
+      + "            reviews = new HashMap<>();\n"
+      + "            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "              reviews.put(entry.getKey(), entry.getValue() == null ? null : AutoValue_Review.fromMap((Map<String, Object>) entry.getValue()));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          String entryKey = slash < 0 ? rest : rest.substring(0, slash);\n"
+      + "          reviews = reviews == null ? new HashMap<String, Review>() : new HashMap<>(reviews);\n"
+      + "          if (slash < 0 && value == null) {\n"
+      + "            reviews.remove(entryKey);\n"
+      + "          } else {\n"
+      + "            reviews.put(entryKey, slash < 0 ? (value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value)) : AutoValue_Review.applyDelta(reviews.get(entryKey), rest.substring(slash + 1), value));\n"
+      + "          }\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"tags\":\n"
+      + "        if (rest == null) {\n"
+      + "          tags = (List<String>) value;\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          tags = tags == null ? new ArrayList<String>() : new ArrayList<>(tags);\n"
+      + "          while (tags.size() <= index) {\n"
+      + "            tags.add(null);\n"
+      + "          }\n"
+      + "          tags.set(index, (String) value);\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients, reviews, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private Map<String, AutoValue_Review.FirebaseValue> reviews;\n"
+      + "    private List<String> tags;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (taco.reviews() != null) {\n"
+      + "        this.reviews = new HashMap<>();\n"
+      + "        for (Map.Entry<String, Review> entry : taco.reviews().entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), new AutoValue_Review.FirebaseValue(entry.getValue()));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.tags = taco.tags();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      List<Ingredient> ingredients = this.ingredients == null ? null : new LazyList<AutoValue_Ingredient.FirebaseValue, Ingredient>(this.ingredients) {\n"
+      + "        @Override\n"
+      + "        protected Ingredient convert(AutoValue_Ingredient.FirebaseValue value) {\n"
+      + "          return value.toAutoValue();\n"
+      + "        }\n"
+      + "      };\n"
+      + "      Map<String, Review> reviews = this.reviews == null ? null : new LazyMap<String, AutoValue_Review.FirebaseValue, Review>(this.reviews) {\n"
+      + "        @Override\n"
+      + "        protected Review convert(AutoValue_Review.FirebaseValue value) {\n"
+      + "          return value.toAutoValue();\n"
+      + "        }\n"
+      + "      };\n"
+      + "      List<String> tags = this.tags;\n"
+      + "      return new AutoValue_Taco(ingredients, reviews, tags);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredients);\n"
+      + "      Map<String, Object> reviews = null;\n"
+      + "      if (this.reviews != null) {\n"
+      + "        reviews = new HashMap<>();\n"
+      + "        for (Map.Entry<String, AutoValue_Review.FirebaseValue> entry : this.reviews.entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"reviews\", reviews);\n"
+      + "      map.put(\"tags\", this.tags);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/ingredients\", ingredients);\n"
+      + "      Map<String, Object> reviews = null;\n"
+      + "      if (this.reviews != null) {\n"
+      + "        reviews = new HashMap<>();\n"
+      + "        for (Map.Entry<String, AutoValue_Review.FirebaseValue> entry : this.reviews.entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/reviews\", reviews);\n"
+      + "      updates.put(basePath + \"/tags\", this.tags);\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public Map<String, AutoValue_Review.FirebaseValue> getReviews() {\n"
+      + "      return reviews;\n"
+      + "    }\n"
+      + "    public List<String> getTags() {\n"
+      + "      return tags;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, LAZY_LIST, LAZY_MAP, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void lazyCollectionsRequiresRuntime() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(lazyCollections = true)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, INGREDIENT, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("lazyCollections requires the auto-value-firebase-runtime library");
+  }
+
+  @Test
+  public void parallelThreshold() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(parallelThreshold = 10000)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Map<String, Review> reviews();\n"
+      + "  public abstract List<String> tags();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.Override;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.ParallelConversion;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(List<Ingredient> ingredients, Map<String, Review> reviews, List<String> tags) {\n"
+      + "    super(ingredients, reviews, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (value != null) {\n"
+      + "      ingredients = new ArrayList<>();\n"
+      + "      for (Object item : (List<Object>) value) {\n"
+      + "        ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"reviews\");\n"
+      + "    Map<String, Review> reviews = null;\n"
+      + "    if (value != null) {\n"
+      + "      reviews = new HashMap<>();\n"
+      + "      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "        reviews.put(entry.getKey(), entry.getValue() == null ? null : AutoValue_Review.fromMap((Map<String, Object>) entry.getValue()));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    value = map.get(\"tags\");\n"
+      + "    List<String> tags = (List<String>) value;\n"
+      + "    return new AutoValue_Taco(ingredients, reviews, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.ingredients() == null ? after.ingredients() != null : !before.ingredients().equals(after.ingredients())) {\n"
+      + "      if (after.ingredients() == null) {\n"
+      + "        updates.put(path + \"ingredients\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.ingredients().size(); i++) {\n"
+      + "          Ingredient previous = before.ingredients() == null || i >= before.ingredients().size() ? null : before.ingredients().get(i);\n"
+      + "          Ingredient item = after.ingredients().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"ingredients/\" + i, item == null ? null : new AutoValue_Ingredient.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Ingredient.diff(previous, item, path + \"ingredients/\" + i + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.ingredients().size(); before.ingredients() != null && i < before.ingredients().size(); i++) {\n"
+      + "          updates.put(path + \"ingredients/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.reviews() == null ? after.reviews() != null : !before.reviews().equals(after.reviews())) {\n"
+      + "      if (after.reviews() == null) {\n"
+      + "        updates.put(path + \"reviews\", null);\n"
+      + "      } else {\n"
+      + "        for (Map.Entry<String, Review> entry : after.reviews().entrySet()) {\n"
+      + "          Review previous = before.reviews() == null ? null : before.reviews().get(entry.getKey());\n"
+      + "          Review item = entry.getValue();\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            if (previous == null || item == null) {\n"
+      + "              updates.put(path + \"reviews/\" + entry.getKey(), item == null ? null : new AutoValue_Review.FirebaseValue(item).toMap());\n"
+      + "            } else {\n"
+      + "              AutoValue_Review.diff(previous, item, path + \"reviews/\" + entry.getKey() + \"/\", updates);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "        if (before.reviews() != null) {\n"
+      + "          for (String key : before.reviews().keySet()) {\n"
+      + "            if (!after.reviews().containsKey(key)) {\n"
+      + "              updates.put(path + \"reviews/\" + key, null);\n"
+      + "            }\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (before.tags() == null ? after.tags() != null : !before.tags().equals(after.tags())) {\n"
+      + "      if (after.tags() == null) {\n"
+      + "        updates.put(path + \"tags\", null);\n"
+      + "      } else {\n"
+      + "        for (int i = 0; i < after.tags().size(); i++) {\n"
+      + "          String previous = before.tags() == null || i >= before.tags().size() ? null : before.tags().get(i);\n"
+      + "          String item = after.tags().get(i);\n"
+      + "          if (previous == null ? item != null : !previous.equals(item)) {\n"
+      + "            updates.put(path + \"tags/\" + i, item);\n"
+      + "          }\n"
+      + "        }\n"
+      + "        for (int i = after.tags().size(); before.tags() != null && i < before.tags().size(); i++) {\n"
+      + "          updates.put(path + \"tags/\" + i, null);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    List<Ingredient> ingredients = base.ingredients();\n"
+      + "    Map<String, Review> reviews = base.reviews();\n"
+      + "    List<String> tags = base.tags();\n"
+      + "    switch (key) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (rest == null) {\n"
+      + "          ingredients = null;\n"
+      + "          if (value != null) {\n"
+      + "            ingredients = new ArrayList<>();\n"
+      + "            for (Object item : (List<Object>) value) {\n"
+      + "              ingredients.add(item == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) item));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          ingredients = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "          while (ingredients.size() <= index) {\n"
+      + "            ingredients.add(null);\n"
+      + "          }\n"
+      + "          ingredients.set(index, slash < 0 ? (value == null ? null : AutoValue_Ingredient.fromMap((Map<String, Object>) value)) : AutoValue_Ingredient.applyDelta(ingredients.get(index), rest.substring(slash + 1), value));\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"reviews\":\n"
+      + "        if (rest == null) {\n"
+      + "          reviews = null;\n"
+      + "          if (value != null) {\n"
+      + "            reviews = new HashMap<>();\n"
+      + "            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {\n"
+      + "              reviews.put(entry.getKey(), entry.getValue() == null ? null : AutoValue_Review.fromMap((Map<String, Object>) entry.getValue()));\n"
+      + "            }\n"
+      + "          }\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          String entryKey = slash < 0 ? rest : rest.substring(0, slash);\n"
+      + "          reviews = reviews == null ? new HashMap<String, Review>() : new HashMap<>(reviews);\n"
+      + "          if (slash < 0 && value == null) {\n"
+      + "            reviews.remove(entryKey);\n"
+      + "          } else {\n"
+      + "            reviews.put(entryKey, slash < 0 ? (value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value)) : AutoValue_Review.applyDelta(reviews.get(entryKey), rest.substring(slash + 1), value));\n"
+      + "          }\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      case \"tags\":\n"
+      + "        if (rest == null) {\n"
+      + "          tags = (List<String>) value;\n"
+      + "        } else {\n"
+      + "          slash = rest.indexOf('/');\n"
+      + "          int index = Integer.parseInt(slash < 0 ? rest : rest.substring(0, slash));\n"
+      + "          tags = tags == null ? new ArrayList<String>() : new ArrayList<>(tags);\n"
+      + "          while (tags.size() <= index) {\n"
+      + "            tags.add(null);\n"
+      + "          }\n"
+      + "          tags.set(index, (String) value);\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients, reviews, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private Map<String, AutoValue_Review.FirebaseValue> reviews;\n"
+      + "    private List<String> tags;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      if (taco.ingredients() != null && taco.ingredients().size() >= 10000) {\n"
+      + "        this.ingredients = ParallelConversion.convertList(taco.ingredients(), new ParallelConversion.Converter<Ingredient, AutoValue_Ingredient.FirebaseValue>() {\n"
+      + "          @Override\n"
+      + "          public AutoValue_Ingredient.FirebaseValue convert(Ingredient value) {\n"
+      + "            return new AutoValue_Ingredient.FirebaseValue(value);\n"
+      + "          }\n"
+      + "        });\n"
+      + "      } else if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (taco.reviews() != null && taco.reviews().size() >= 10000) {\n"
+      + "        this.reviews = ParallelConversion.convertMap(taco.reviews(), new ParallelConversion.Converter<Review, AutoValue_Review.FirebaseValue>() {\n"
+      + "          @Override\n"
+      + "          public AutoValue_Review.FirebaseValue convert(Review value) {\n"
+      + "            return new AutoValue_Review.FirebaseValue(value);\n"
+      + "          }\n"
+      + "        });\n"
+      + "      } else if (taco.reviews() != null) {\n"
+      + "        this.reviews = new HashMap<>();\n"
+      + "        for (Map.Entry<String, Review> entry : taco.reviews().entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), new AutoValue_Review.FirebaseValue(entry.getValue()));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.tags = taco.tags();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null && this.ingredients.size() >= 10000) {\n"
+      + "        ingredients = ParallelConversion.convertList(this.ingredients, new ParallelConversion.Converter<AutoValue_Ingredient.FirebaseValue, Ingredient>() {\n"
+      + "          @Override\n"
+      + "          public Ingredient convert(AutoValue_Ingredient.FirebaseValue value) {\n"
+      + "            return value.toAutoValue();\n"
+      + "          }\n"
+      + "        });\n"
+      + "      } else if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      Map<String, Review> reviews = null;\n"
+      + "      if (this.reviews != null && this.reviews.size() >= 10000) {\n"
+      + "        reviews = ParallelConversion.convertMap(this.reviews, new ParallelConversion.Converter<AutoValue_Review.FirebaseValue, Review>() {\n"
+      + "          @Override\n"
+      + "          public Review convert(AutoValue_Review.FirebaseValue value) {\n"
+      + "            return value.toAutoValue();\n"
+      + "          }\n"
+      + "        });\n"
+      + "      } else if (this.reviews != null) {\n"
+      + "        reviews = new HashMap<>();\n"
+      + "        for (Map.Entry<String, AutoValue_Review.FirebaseValue> entry : this.reviews.entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), entry.getValue().toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      List<String> tags = this.tags;\n"
+      + "      return new AutoValue_Taco(ingredients, reviews, tags);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredients);\n"
+      + "      Map<String, Object> reviews = null;\n"
+      + "      if (this.reviews != null) {\n"
+      + "        reviews = new HashMap<>();\n"
+      + "        for (Map.Entry<String, AutoValue_Review.FirebaseValue> entry : this.reviews.entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"reviews\", reviews);\n"
+      + "      map.put(\"tags\", this.tags);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      List<Object> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/ingredients\", ingredients);\n"
+      + "      Map<String, Object> reviews = null;\n"
+      + "      if (this.reviews != null) {\n"
+      + "        reviews = new HashMap<>();\n"
+      + "        for (Map.Entry<String, AutoValue_Review.FirebaseValue> entry : this.reviews.entrySet()) {\n"
+      + "          reviews.put(entry.getKey(), entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      updates.put(basePath + \"/reviews\", reviews);\n"
+      + "      updates.put(basePath + \"/tags\", this.tags);\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public Map<String, AutoValue_Review.FirebaseValue> getReviews() {\n"
+      + "      return reviews;\n"
+      + "    }\n"
+      + "    public List<String> getTags() {\n"
+      + "      return tags;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, PARALLEL_CONVERSION, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void intern() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(intern = true)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  public abstract Review review();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.Collections;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.Interner;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  private static final Interner<AutoValue_Taco> INTERNER = Interner.create();\n"
+      + "\n"
+      + "  AutoValue_Taco(String name, Review review) {\n"
+      + "    super(name, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object value;\n"
+      + "    value = map.get(\"name\");\n"
+      + "    String name = (String) value;\n"
+      + "    value = map.get(\"review\");\n"
+      + "    Review review = value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value);\n"
+      + "    return new AutoValue_Taco(name, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    diff(before, after, \"\", updates);\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(Taco before, Taco after, String path, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before.name() == null ? after.name() != null : !before.name().equals(after.name())) {\n"
+      + "      updates.put(path + \"name\", after.name());\n"
+      + "    }\n"
+      + "    if (before.review() == null ? after.review() != null : !before.review().equals(after.review())) {\n"
+      + "      if (before.review() == null || after.review() == null) {\n"
+      + "        updates.put(path + \"review\", after.review() == null ? null : new AutoValue_Review.FirebaseValue(after.review()).toMap());\n"
+      + "      } else {\n"
+      + "        AutoValue_Review.diff(before.review(), after.review(), path + \"review/\", updates);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static Taco applyDelta(Taco base, String path, Object value) {\n"
+      + "    if (path.isEmpty()) {\n"
+      + "      return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "    }\n"
+      + "    if (base == null) {\n"
+      + "      base = fromMap(Collections.<String, Object>emptyMap());\n"
+      + "    }\n"
+      + "    int slash = path.indexOf('/');\n"
+      + "    String key = slash < 0 ? path : path.substring(0, slash);\n"
+      + "    String rest = slash < 0 ? null : path.substring(slash + 1);\n"
+      + "    String name = base.name();\n"
+      + "    Review review = base.review();\n"
+      + "    switch (key) {\n"
+      + "      case \"name\":\n"
+      + "        name = (String) value;\n"
+      + "        break;\n"
+      + "      case \"review\":\n"
+      + "        if (rest == null) {\n"
+      + "          review = value == null ? null : AutoValue_Review.fromMap((Map<String, Object>) value);\n"
+      + "        } else {\n"
+      + "          review = AutoValue_Review.applyDelta(review, rest, value);\n"
+      + "        }\n"
+      + "        break;\n"
+      + "      default:\n"
+      + "        return base;\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private AutoValue_Review.FirebaseValue review;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      this.review = taco.review() == null ? null : new AutoValue_Review.FirebaseValue(taco.review());\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
+      + "      return INTERNER.intern(new AutoValue_Taco(name, review));\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      Map<String, Object> map = new HashMap<>();\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      map.put(\"review\", this.review == null ? null : this.review.toMap());\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toUpdatePaths(String basePath) {\n"
+      + "      Map<String, Object> updates = new HashMap<>();\n"
+      + "      toUpdatePaths(basePath, updates);\n"
+      + "      return updates;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    void toUpdatePaths(String basePath, Map<String, Object> updates) {\n"
+      + "      updates.put(basePath + \"/name\", this.name);\n"
+      + "      if (this.review == null) {\n"
+      + "        updates.put(basePath + \"/review\", null);\n"
+      + "      } else {\n"
+      + "        this.review.toUpdatePaths(basePath + \"/review\", updates);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    public AutoValue_Review.FirebaseValue getReview() {\n"
+      + "      return review;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, INTERNER, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void internRequiresRuntime() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(intern = true)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("intern requires the auto-value-firebase-runtime library");
+  }
+
+  @Test
+  public void listOfParameterizedTypes() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<List<String>> ingredients();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError();
+  }
+
+  @Test
+  public void listOfUnsupportedParameterizedTypes() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Set;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<Set<String>> ingredients();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("are the only supported parameterized types");
+  }
+
+  @Test
+  public void immutableCollections() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.common.collect.ImmutableList;\n"
+      + "import com.google.common.collect.ImmutableMap;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract ImmutableList<String> toppings();\n"
+      + "  public abstract ImmutableMap<Long, Boolean> orders();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError();
+  }
+
+  @Test
+  public void nestedImmutableCollections() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.common.collect.ImmutableList;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<ImmutableList<String>> toppings();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("Immutable collections can't be nested in other collections");
+  }
+
+  @Test
+  public void enumInCollection() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public enum Topping { SALSA, GUACAMOLE }\n"
+      + "  public abstract List<Topping> toppings();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("Enums are only supported as properties, not in collections");
+  }
+
+  @Test
+  public void nonNullableEnum() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public enum Size { SMALL, LARGE }\n"
+      + "  public abstract Size size();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("size() must be @Nullable, since stored names that aren't constants of test.Taco.Size "
+        + "decode to null");
+  }
+
+  @Test
+  public void characterMapKeys() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract Map<Character, String> letters();\n"
+      + "  public abstract Map<Character, List<String>> words();\n"
+      + "}\n");
+
+    // Every decoder parses keys, so this runs them all
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, FIREBASE_NODE, JSON_READER, JSON_TOKEN, JSON_WRITER, BINARY_FORMAT, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError();
+  }
+
+  @Test
+  public void adapter() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.Date;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseAdapter;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  @FirebaseAdapter(DateConverter.class)\n"
+      + "  public abstract Date servedAt();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, TYPE_CONVERTER, DATE_CONVERTER, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError();
+  }
+
+  @Test
+  public void adapterRequiresRuntime() throws Exception {
+    JavaFileObject converter = JavaFileObjects.forSourceString("test.DateConverter",
+      "package test;\n"
+      + "\n"
+      + "public class DateConverter {\n"
+      + "}\n");
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.Date;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseAdapter;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  @FirebaseAdapter(DateConverter.class)\n"
+      + "  public abstract Date servedAt();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, converter, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("@FirebaseAdapter requires the auto-value-firebase-runtime library");
+  }
+
+  @Test
+  public void adapterForAnotherType() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseAdapter;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  @FirebaseAdapter(DateConverter.class)\n"
+      + "  public abstract long servedAt();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, TYPE_CONVERTER, DATE_CONVERTER, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("test.DateConverter converts java.util.Date, not long");
+  }
+
+  @Test
+  public void adapterStoringUnsupportedType() throws Exception {
+    JavaFileObject converter = JavaFileObjects.forSourceString("test.DateConverter",
+      "package test;\n"
+      + "\n"
+      + "import java.util.Date;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.TypeConverter;\n"
+      + "\n"
+      + "public abstract class DateConverter implements TypeConverter<Date, List<Long>> {\n"
+      + "}\n");
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.Date;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseAdapter;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  @FirebaseAdapter(DateConverter.class)\n"
+      + "  public abstract Date servedAt();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, TYPE_CONVERTER, converter, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("Converters can only store properties as boxed primitives or Strings");
+  }
+
+  @Test
+  public void compactKeyCollision() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(compactKeys = true)\n"
+      + "public abstract class Taco {\n"
+      + "  @PropertyName(\"uTX\")\n"
+      + "  public abstract String code();\n"
+      + "  public abstract String trackingNumber();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("code and trackingNumber are both stored under \"uTX\"");
+  }
+
+  @Test
+  public void duplicatePropertyNames() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  @PropertyName(\"name\")\n"
+      + "  public abstract String title();\n"
+      + "  public abstract String name();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("title and name are both stored under \"name\"");
+  }
+
+  @Test
+  public void binaryCodec() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public enum Size { SMALL, LARGE }\n"
+      + "  public abstract String name();\n"
+      + "  public abstract char grade();\n"
+      + "  public abstract Integer rating();\n"
+      + "  @Nullable\n"
+      + "  public abstract Size size();\n"
+      + "  @SuppressWarnings(\"mutable\")\n"
+      + "  public abstract long[] timestamps();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Map<Integer, List<Review>> reviews();\n"
+      + "  @Exclude\n"
+      + "  public abstract Review review();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, NULLABLE, BINARY_FORMAT, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError();
+  }
+
+  @Test
+  public void index() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "abstract class Taco {\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "}\n");
+
+    // Registered from another package, although the generated classes are package-private
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, FIREBASE_NODE, FIREBASE_VALUE_ADAPTER, INGREDIENT, OTHER_REVIEW, source))
+      .withCompilerOptions("-AautoValueFirebase.index=test.index.FirebaseValues")
+      .processedWith(new AutoValueProcessor(), new FirebaseValueIndexProcessor())
+      .compilesWithoutError();
+  }
+
+  @Test
+  public void indexRequiresRuntime() throws Exception {
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, INGREDIENT))
+      .withCompilerOptions("-AautoValueFirebase.index=test.FirebaseValues")
+      .processedWith(new AutoValueProcessor(), new FirebaseValueIndexProcessor())
+      .failsToCompile()
+      .withErrorContaining("autoValueFirebase.index requires the auto-value-firebase-runtime library");
+  }
+
+  @Test
+  public void nestedClassFromAnotherPackage() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "import test.other.Review;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract Map<String, Review> reviews();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, OTHER_REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("reviews() can't contain @FirebaseValue classes from test.other, "
+                           + "since their generated AutoValue_Review is only visible there");
+  }
+
+  @Test
+  public void mapWithNonPrimitiveKeyTypes() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
       + "@AutoValue @FirebaseValue\n"
       + "public abstract class Taco {\n"
       + "  public abstract Map<Ingredient, Integer> ingredients();\n"
@@ -993,13 +5204,13 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "@AutoValue @FirebaseValue\n"
       + "public abstract class Taco {\n"
-      + "  public abstract Map<Integer, List<Ingredient>> ingredients();\n"
+      + "  public abstract Map<Integer, List<String>> ingredients();\n"
       + "}\n");
 
     assertAbout(javaSources())
       .that(Arrays.asList(EXCLUDE, source))
       .processedWith(new AutoValueProcessor())
-      .failsToCompile();
+      .compilesWithoutError();
   }
 
   @Test
@@ -1041,4 +5252,25 @@ public class AutoValueFirebaseExtensionTest {
       .processedWith(new AutoValueProcessor())
       .failsToCompile();
   }
+
+  @Test
+  public void unsupportedArray() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  @SuppressWarnings(\"mutable\")\n"
+      + "  public abstract boolean[] toppings();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile()
+      .withErrorContaining("int[], long[] and double[] are the only supported array types");
+  }
 }
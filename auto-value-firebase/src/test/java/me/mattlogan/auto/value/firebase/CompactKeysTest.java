@@ -0,0 +1,60 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.util.Arrays;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.model.Ingredient;
+import me.mattlogan.auto.value.firebase.model.Shipment;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CompactKeysTest {
+
+  private static Shipment shipment() {
+    return Shipment.create("s1", "1Z999AA10123456784", "Matt", 1478649600000L, "Leave at the door",
+      Arrays.asList(Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 5)));
+  }
+
+  @Test
+  public void toMapUsesCompactKeys() throws Exception {
+    Map<String, Object> map = shipment().toMap();
+
+    assertThat(map.keySet()).containsExactly("id", "uTX", "qxJ", "DY1", "notes", "rzB");
+    assertThat(map).containsEntry("uTX", "1Z999AA10123456784");
+  }
+
+  @Test
+  public void keysTableListsEveryKey() throws Exception {
+    assertThat(Shipment.keys()).containsEntry("trackingNumber", "uTX");
+    assertThat(Shipment.keys()).containsEntry("deliveryInstructions", "notes");
+    assertThat(Shipment.keys().values()).containsExactly("id", "uTX", "qxJ", "DY1", "notes", "rzB").inOrder();
+  }
+
+  @Test
+  public void keysOnlyDependOnNames() throws Exception {
+    assertThat(FirebaseProperty.compactKey("trackingNumber")).isEqualTo("uTX");
+    assertThat(FirebaseProperty.compactKey("id")).isEqualTo("id");
+  }
+
+  @Test
+  public void toMapMatchesReflectiveMapper() throws Exception {
+    Shipment shipment = shipment();
+
+    assertThat(shipment.toMap()).isEqualTo(ReflectiveMapper.serialize(shipment.toFirebaseValue()));
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    assertThat(shipment().roundTrip()).isEqualTo(shipment());
+    assertThat(Shipment.create(shipment().toMap())).isEqualTo(shipment());
+  }
+
+  @Test
+  public void diffAndApplyDeltaUseCompactKeys() throws Exception {
+    Shipment before = shipment();
+    Shipment after = before.withChange("qxJ", "Anna");
+
+    assertThat(after.recipientName()).isEqualTo("Anna");
+    assertThat(after.changesSince(before)).containsExactly("qxJ", "Anna");
+  }
+}
@@ -0,0 +1,135 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.model.Combo;
+import me.mattlogan.auto.value.firebase.model.Ingredient;
+import me.mattlogan.auto.value.firebase.model.Review;
+import me.mattlogan.auto.value.firebase.model.Taco;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class DeltaTest {
+
+  private static Taco taco() {
+    Map<String, Review> reviewsByUser = new HashMap<>();
+    reviewsByUser.put("matt", Review.create("Amazing taco.", 5));
+    reviewsByUser.put("sam", Review.create("Too spicy.", 2));
+
+    return Taco.create("Kalimari Desert",
+      Arrays.asList(Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 5)),
+      Review.create("Pretty good.", 4),
+      reviewsByUser,
+      Arrays.asList("vegetarian", "spicy"),
+      3.5,
+      1478649600000L);
+  }
+
+  @Test
+  public void propertyChangeSharesEverythingElse() throws Exception {
+    Taco before = taco();
+
+    // Firebase hands back whole numbers as Longs, even for double properties
+    Taco after = before.withChange("cost", 4L);
+
+    assertThat(after.price()).isEqualTo(4.0);
+    assertThat(after.ingredients()).isSameAs(before.ingredients());
+    assertThat(after.review()).isSameAs(before.review());
+    assertThat(after.reviewsByUser()).isSameAs(before.reviewsByUser());
+  }
+
+  @Test
+  public void nestedChangeOnlyRebuildsItsPath() throws Exception {
+    Taco before = taco();
+
+    Taco after = before.withChange("review/stars", 3L);
+
+    assertThat(after.review()).isEqualTo(Review.create("Pretty good.", 3));
+    assertThat(after.ingredients()).isSameAs(before.ingredients());
+  }
+
+  @Test
+  public void listChangeSharesOtherElements() throws Exception {
+    Taco before = taco();
+
+    Taco after = before.withChange("ingredients/1/spiciness", 7L);
+
+    assertThat(after.ingredients()).containsExactly(
+      Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 7)).inOrder();
+    assertThat(after.ingredients().get(0)).isSameAs(before.ingredients().get(0));
+    assertThat(before.ingredients().get(1).spiciness()).isEqualTo(5);
+  }
+
+  @Test
+  public void mapChangesAddAndRemoveEntries() throws Exception {
+    Map<String, Object> review = new HashMap<>();
+    review.put("description", "Crunchy.");
+    review.put("stars", 4L);
+
+    Taco after = taco().withChange("reviewsByUser/sam", null)
+                       .withChange("reviewsByUser/alex", review);
+
+    assertThat(after.reviewsByUser().keySet()).containsExactly("matt", "alex");
+    assertThat(after.reviewsByUser().get("alex")).isEqualTo(Review.create("Crunchy.", 4));
+  }
+
+  @Test
+  public void wholePropertyIsDecoded() throws Exception {
+    Map<String, Object> review = new HashMap<>();
+    review.put("description", "Crunchy.");
+    review.put("stars", 4L);
+
+    Taco after = taco().withChange("review", review);
+
+    assertThat(after.review()).isEqualTo(Review.create("Crunchy.", 4));
+  }
+
+  @Test
+  public void excludedAndUnknownChangesReturnBase() throws Exception {
+    Taco before = taco();
+
+    assertThat(before.withChange("servedAt", 0L)).isSameAs(before);
+    assertThat(before.withChange("comments/-KZ1", "first!")).isSameAs(before);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void deltasMatchDecodingTheWholeValue() throws Exception {
+    Taco before = Taco.create(taco().toMap());
+    Map<String, Object> map = before.toMap();
+    ((Map<String, Object>) map.get("review")).put("stars", 1L);
+
+    assertThat(before.withChange("review/stars", 1L)).isEqualTo(Taco.create(map));
+  }
+
+  @Test
+  public void immutableListDeltasCantLeaveNulls() throws Exception {
+    Combo before = Combo.create(
+      ImmutableList.of(Ingredient.create("Cactus", 3)),
+      ImmutableMap.of("matt", Review.create("Amazing taco.", 5)),
+      ImmutableList.of("chips", "salsa"));
+
+    // Appending right at the end is fine, since it leaves no gap
+    assertThat(before.withChange("sides/2", "guacamole").sides())
+      .containsExactly("chips", "salsa", "guacamole").inOrder();
+
+    try {
+      before.withChange("sides/3", "guacamole");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("sides is an ImmutableList, which can't hold nulls, so can't apply sides/3");
+    }
+
+    try {
+      before.withChange("sides/1", null);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("sides is an ImmutableList, which can't hold nulls, so can't apply sides/1");
+    }
+  }
+}
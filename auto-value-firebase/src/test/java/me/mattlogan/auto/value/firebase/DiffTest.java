@@ -0,0 +1,109 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.model.Ingredient;
+import me.mattlogan.auto.value.firebase.model.Review;
+import me.mattlogan.auto.value.firebase.model.Taco;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class DiffTest {
+
+  private static Map<String, Review> reviewsByUser(String... users) {
+    Map<String, Review> reviewsByUser = new HashMap<>();
+    for (String user : users) {
+      reviewsByUser.put(user, Review.create("Review by " + user + ".", 4));
+    }
+    return reviewsByUser;
+  }
+
+  private static Taco taco() {
+    return Taco.create("Kalimari Desert",
+      Arrays.asList(Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 5)),
+      Review.create("Pretty good.", 4),
+      reviewsByUser("matt", "sam"),
+      Arrays.asList("vegetarian", "spicy"),
+      3.5,
+      1478649600000L);
+  }
+
+  @Test
+  public void equalValuesHaveNoUpdates() throws Exception {
+    assertThat(taco().changesSince(taco())).isEmpty();
+  }
+
+  @Test
+  public void changedPropertiesUsePropertyNames() throws Exception {
+    Taco before = taco();
+    Taco after = Taco.create(before.name(), before.ingredients(), before.review(),
+      before.reviewsByUser(), before.tags(), 4.0, 0L);
+
+    // servedAt is excluded, so changing it isn't an update
+    assertThat(after.changesSince(before)).containsExactly("cost", 4.0);
+  }
+
+  @Test
+  public void nestedValuesAreDiffedByProperty() throws Exception {
+    Taco before = taco();
+    Taco after = Taco.create(before.name(), before.ingredients(), Review.create("Pretty good.", 3),
+      before.reviewsByUser(), before.tags(), before.price(), before.servedAt());
+
+    assertThat(after.changesSince(before)).containsExactly("review/stars", 3);
+  }
+
+  @Test
+  public void listsAreDiffedByIndex() throws Exception {
+    Taco before = taco();
+    Taco after = Taco.create(before.name(),
+      Arrays.asList(Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 7)),
+      before.review(), before.reviewsByUser(), Arrays.asList("vegetarian"), before.price(),
+      before.servedAt());
+
+    assertThat(after.changesSince(before)).containsExactly(
+      "ingredients/1/spiciness", 7,
+      "tags/1", null);
+  }
+
+  @Test
+  public void mapsAreDiffedByKey() throws Exception {
+    Taco before = taco();
+    Taco after = Taco.create(before.name(), before.ingredients(), before.review(),
+      reviewsByUser("matt", "alex"), before.tags(), before.price(), before.servedAt());
+
+    assertThat(after.changesSince(before)).containsExactly(
+      "reviewsByUser/sam", null,
+      "reviewsByUser/alex", Review.create("Review by alex.", 4).toMap());
+  }
+
+  @Test
+  public void applyingDiffMatchesSetValue() throws Exception {
+    Taco before = taco();
+    Taco after = Taco.create("Tatooine",
+      Arrays.asList(Ingredient.create("Sand", 1)),
+      Review.create("Gritty.", 1),
+      reviewsByUser("alex"),
+      Arrays.asList("spicy", "crunchy", "vegan"),
+      2.0,
+      before.servedAt());
+
+    InMemoryDatabase updated = new InMemoryDatabase();
+    updated.setValue("tacos/-KZ1", before.toMap());
+    updated.updateChildren(new HashMap<>(prefix("tacos/-KZ1/", after.changesSince(before))));
+
+    InMemoryDatabase set = new InMemoryDatabase();
+    set.setValue("tacos/-KZ1", after.toMap());
+
+    assertThat(updated.getValue("tacos/-KZ1")).isEqualTo(set.getValue("tacos/-KZ1"));
+  }
+
+  private static Map<String, Object> prefix(String prefix, Map<String, Object> updates) {
+    Map<String, Object> prefixed = new HashMap<>();
+    for (Map.Entry<String, Object> update : updates.entrySet()) {
+      prefixed.put(prefix + update.getKey(), update.getValue());
+    }
+    return prefixed;
+  }
+}
@@ -0,0 +1,63 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.util.HashMap;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.model.Delivery;
+import me.mattlogan.auto.value.firebase.model.Delivery.Size;
+import me.mattlogan.auto.value.firebase.model.Delivery.Status;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class EnumTest {
+
+  @Test
+  public void toMapWritesStoredNames() throws Exception {
+    Delivery delivery = Delivery.create(Status.EN_ROUTE, Size.LARGE);
+
+    Map<String, Object> map = delivery.toMap();
+
+    assertThat(map).containsEntry("status", "on_the_way");
+    assertThat(map).containsEntry("size", "LARGE");
+    assertThat(map).isEqualTo(ReflectiveMapper.serialize(delivery.toFirebaseValue()));
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    for (Status status : Status.values()) {
+      Delivery delivery = Delivery.create(status, Size.SMALL);
+      assertThat(delivery.roundTrip()).isEqualTo(delivery);
+      assertThat(Delivery.create(delivery.toMap())).isEqualTo(delivery);
+    }
+  }
+
+  @Test
+  public void unknownValuesDecodeToNull() throws Exception {
+    Map<String, Object> map = new HashMap<>();
+    map.put("status", "EN_ROUTE");
+    map.put("size", 3L);
+
+    Delivery delivery = Delivery.create(map);
+
+    assertThat(delivery.status()).isNull();
+    assertThat(delivery.size()).isNull();
+  }
+
+  @Test
+  public void diffWritesStoredNames() throws Exception {
+    Delivery before = Delivery.create(Status.PENDING, Size.SMALL);
+    Delivery after = Delivery.create(Status.EN_ROUTE, Size.SMALL);
+
+    assertThat(after.changesSince(before)).containsExactly("status", "on_the_way");
+  }
+
+  @Test
+  public void applyDeltaDecodesStoredNames() throws Exception {
+    Delivery before = Delivery.create(Status.PENDING, Size.SMALL);
+
+    Delivery after = before.withChange("status", "on_the_way")
+                           .withChange("size", "LARGE");
+
+    assertThat(after).isEqualTo(Delivery.create(Status.EN_ROUTE, Size.LARGE));
+  }
+}
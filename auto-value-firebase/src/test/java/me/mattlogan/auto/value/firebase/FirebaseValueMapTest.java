@@ -0,0 +1,100 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.model.Ingredient;
+import me.mattlogan.auto.value.firebase.model.Review;
+import me.mattlogan.auto.value.firebase.model.Taco;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class FirebaseValueMapTest {
+
+  private static Taco taco() {
+    Map<String, Review> reviewsByUser = new HashMap<>();
+    reviewsByUser.put("matt", Review.create("Amazing taco.", 5));
+    reviewsByUser.put("sam", Review.create("Too spicy.", 2));
+
+    return Taco.create("Kalimari Desert",
+      Arrays.asList(Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 5)),
+      Review.create("Pretty good.", 4),
+      reviewsByUser,
+      Arrays.asList("vegetarian", "spicy"),
+      3.5,
+      1478649600000L);
+  }
+
+  @Test
+  public void toMapMatchesReflectiveMapper() throws Exception {
+    Taco taco = taco();
+
+    assertThat(taco.toMap()).isEqualTo(ReflectiveMapper.serialize(taco.toFirebaseValue()));
+  }
+
+  @Test
+  public void toMapUsesPropertyNamesAndSkipsExcludedProperties() throws Exception {
+    Map<String, Object> map = taco().toMap();
+
+    assertThat(map).containsKey("cost");
+    assertThat(map).doesNotContainKey("price");
+    assertThat(map).doesNotContainKey("servedAt");
+    assertThat(map.get("review")).isEqualTo(Review.create("Pretty good.", 4).toMap());
+    assertThat(Review.create("Pretty good.", 4).toMap()).containsEntry("stars", 4);
+  }
+
+  @Test
+  public void toMapWithEmptyCollections() throws Exception {
+    Taco taco = Taco.create("Plain",
+      Collections.<Ingredient>emptyList(),
+      Review.create("Meh.", 1),
+      Collections.<String, Review>emptyMap(),
+      Collections.<String>emptyList(),
+      1.0,
+      0L);
+
+    assertThat(taco.toMap()).isEqualTo(ReflectiveMapper.serialize(taco.toFirebaseValue()));
+  }
+
+  @Test
+  public void fromMapReadsToMapOutput() throws Exception {
+    Taco taco = taco();
+
+    Taco decoded = Taco.create(taco.toMap());
+
+    // servedAt is excluded, so it isn't written and comes back as its default value
+    assertThat(decoded).isEqualTo(Taco.create(taco.name(), taco.ingredients(), taco.review(),
+      taco.reviewsByUser(), taco.tags(), taco.price(), 0L));
+  }
+
+  @Test
+  public void fromMapCoercesFirebaseNumbers() throws Exception {
+    // Firebase hands back every whole number as a Long, even for double properties
+    Map<String, Object> review = new HashMap<>();
+    review.put("description", "Pretty good.");
+    review.put("stars", 4L);
+
+    Map<String, Object> ingredient = new HashMap<>();
+    ingredient.put("name", "Cactus");
+    ingredient.put("spiciness", 3L);
+
+    Map<String, Object> map = new HashMap<>();
+    map.put("name", "Kalimari Desert");
+    map.put("ingredients", Arrays.<Object>asList(ingredient));
+    map.put("review", review);
+    map.put("reviewsByUser", Collections.singletonMap("matt", (Object) review));
+    map.put("tags", Arrays.<Object>asList("spicy"));
+    map.put("cost", 4L);
+    map.put("unknown", "ignored");
+
+    Taco taco = Taco.create(map);
+
+    assertThat(taco.ingredients()).containsExactly(Ingredient.create("Cactus", 3));
+    assertThat(taco.review()).isEqualTo(Review.create("Pretty good.", 4));
+    assertThat(taco.reviewsByUser()).containsEntry("matt", Review.create("Pretty good.", 4));
+    assertThat(taco.tags()).containsExactly("spicy");
+    assertThat(taco.price()).isEqualTo(4.0);
+  }
+}
@@ -0,0 +1,97 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.model.Combo;
+import me.mattlogan.auto.value.firebase.model.Ingredient;
+import me.mattlogan.auto.value.firebase.model.Review;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ImmutableCollectionTest {
+
+  private static Combo combo() {
+    return Combo.create(
+      ImmutableList.of(Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 5)),
+      ImmutableMap.of("matt", Review.create("Amazing taco.", 5)),
+      ImmutableList.of("chips", "salsa"));
+  }
+
+  @Test
+  public void toMapMatchesReflectiveMapper() throws Exception {
+    Combo combo = combo();
+
+    assertThat(combo.toMap()).isEqualTo(ReflectiveMapper.serialize(combo.toFirebaseValue()));
+  }
+
+  @Test
+  public void writeSharesCollectionsOfPrimitives() throws Exception {
+    Combo combo = combo();
+
+    assertThat(combo.toMap().get("sides")).isSameAs(combo.sides());
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    assertThat(combo().roundTrip()).isEqualTo(combo());
+  }
+
+  @Test
+  public void fromMapReadsToMapOutput() throws Exception {
+    assertThat(Combo.create(combo().toMap())).isEqualTo(combo());
+  }
+
+  @Test
+  public void fromMapCopiesCollectionsOfPrimitives() throws Exception {
+    Map<String, Object> map = combo().toMap();
+    map.put("sides", Arrays.<Object>asList("chips", "guacamole"));
+
+    Combo combo = Combo.create(map);
+
+    assertThat(combo.sides()).containsExactly("chips", "guacamole").inOrder();
+  }
+
+  @Test
+  public void applyDeltaRebuildsOnlyTheChangedCollection() throws Exception {
+    Combo before = combo();
+    Map<String, Object> review = new HashMap<>();
+    review.put("description", "Too spicy.");
+    review.put("stars", 2L);
+
+    Combo after = before.withChange("ingredients/1/spiciness", 7L)
+                        .withChange("reviews/anna", review)
+                        .withChange("sides/0", "tortillas");
+
+    assertThat(after.ingredients()).containsExactly(
+      Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 7)).inOrder();
+    assertThat(after.ingredients().get(0)).isSameAs(before.ingredients().get(0));
+    assertThat(after.reviews()).containsEntry("anna", Review.create("Too spicy.", 2));
+    assertThat(after.sides()).containsExactly("tortillas", "salsa").inOrder();
+    assertThat(before).isEqualTo(combo());
+  }
+
+  @Test
+  public void applyDeltaRemovesMapEntries() throws Exception {
+    Combo before = combo();
+
+    Combo after = before.withChange("reviews/matt", null);
+
+    assertThat(after.reviews()).isEmpty();
+    assertThat(after.ingredients()).isSameAs(before.ingredients());
+  }
+
+  @Test
+  public void diffWritesChangedElements() throws Exception {
+    Combo before = combo();
+    Combo after = Combo.create(
+      ImmutableList.of(Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 6)),
+      before.reviews(),
+      before.sides());
+
+    assertThat(after.changesSince(before)).containsExactly("ingredients/1/spiciness", 6);
+  }
+}
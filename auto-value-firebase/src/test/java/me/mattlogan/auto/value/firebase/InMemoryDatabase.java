@@ -0,0 +1,87 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is a stand-in for a Firebase Realtime Database reference. It stores a tree of Maps and
+ * applies setValue() and updateChildren() the way the database does: nulls and empty nodes are
+ * never stored, and each path in an update replaces the whole node at that path.
+ */
+final class InMemoryDatabase {
+
+  private Map<String, Object> root = new HashMap<>();
+
+  void setValue(String path, Object value) {
+    String[] keys = path.split("/");
+    Map<String, Object> node = root;
+    for (int i = 0; i < keys.length - 1; i++) {
+      Object child = node.get(keys[i]);
+      if (!(child instanceof Map)) {
+        child = new HashMap<String, Object>();
+        node.put(keys[i], child);
+      }
+      node = cast(child);
+    }
+
+    Object normalized = normalize(value);
+    if (normalized == null) {
+      node.remove(keys[keys.length - 1]);
+    } else {
+      node.put(keys[keys.length - 1], normalized);
+    }
+    root = cast(normalize(root));
+    if (root == null) {
+      root = new HashMap<>();
+    }
+  }
+
+  void updateChildren(Map<String, Object> updates) {
+    for (Map.Entry<String, Object> update : updates.entrySet()) {
+      setValue(update.getKey(), update.getValue());
+    }
+  }
+
+  Object getValue(String path) {
+    Object node = root;
+    for (String key : path.split("/")) {
+      if (!(node instanceof Map)) {
+        return null;
+      }
+      node = ((Map<?, ?>) node).get(key);
+    }
+    return node;
+  }
+
+  // Lists are stored as Maps keyed by index, and null or empty nodes are dropped
+  private static Object normalize(Object value) {
+    if (value instanceof Map || value instanceof List) {
+      Map<String, Object> map = new HashMap<>();
+      if (value instanceof List) {
+        List<?> list = (List<?>) value;
+        for (int i = 0; i < list.size(); i++) {
+          putNormalized(map, String.valueOf(i), list.get(i));
+        }
+      } else {
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          putNormalized(map, String.valueOf(entry.getKey()), entry.getValue());
+        }
+      }
+      return map.isEmpty() ? null : map;
+    }
+    return value;
+  }
+
+  private static void putNormalized(Map<String, Object> map, String key, Object value) {
+    Object normalized = normalize(value);
+    if (normalized != null) {
+      map.put(key, normalized);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> cast(Object map) {
+    return (Map<String, Object>) map;
+  }
+}
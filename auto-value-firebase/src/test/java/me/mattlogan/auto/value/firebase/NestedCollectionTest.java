@@ -0,0 +1,119 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.model.Ingredient;
+import me.mattlogan.auto.value.firebase.model.Menu;
+import me.mattlogan.auto.value.firebase.model.Review;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class NestedCollectionTest {
+
+  private static Menu menu() {
+    Map<String, List<Review>> reviewsByDay = new HashMap<>();
+    reviewsByDay.put("monday", Arrays.asList(Review.create("Amazing taco.", 5), Review.create("Too spicy.", 2)));
+    reviewsByDay.put("tuesday", Collections.<Review>emptyList());
+
+    Map<String, Review> table = new HashMap<>();
+    table.put("matt", Review.create("Pretty good.", 4));
+    Map<Long, Map<String, Review>> reviewsByTable = new HashMap<>();
+    reviewsByTable.put(3L, table);
+
+    return Menu.create(
+      Arrays.asList(
+        Arrays.asList(Ingredient.create("Cactus", 3)),
+        Arrays.asList(Ingredient.create("Peppers", 5), Ingredient.create("Onions", 1))),
+      reviewsByDay,
+      reviewsByTable,
+      Arrays.asList(Arrays.asList("horchata", "lime"), Collections.<String>emptyList()));
+  }
+
+  @Test
+  public void toMapMatchesReflectiveMapper() throws Exception {
+    Menu menu = menu();
+
+    assertThat(menu.toMap()).isEqualTo(ReflectiveMapper.serialize(menu.toFirebaseValue()));
+  }
+
+  @Test
+  public void toMapConvertsEveryLevel() throws Exception {
+    Map<String, Object> map = menu().toMap();
+
+    assertThat(map.get("courses")).isEqualTo(Arrays.asList(
+      Arrays.asList(Ingredient.create("Cactus", 3).toMap()),
+      Arrays.asList(Ingredient.create("Peppers", 5).toMap(), Ingredient.create("Onions", 1).toMap())));
+    // Firebase only accepts String keys, at any depth
+    assertThat((Map<?, ?>) map.get("reviewsByTable")).containsKey("3");
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    assertThat(menu().roundTrip()).isEqualTo(menu());
+  }
+
+  @Test
+  public void fromMapReadsToMapOutput() throws Exception {
+    assertThat(Menu.create(menu().toMap())).isEqualTo(menu());
+  }
+
+  @Test
+  public void nullElementsSurviveEveryConversion() throws Exception {
+    Menu menu = Menu.create(
+      Arrays.asList(null, Arrays.asList((Ingredient) null)),
+      Collections.<String, List<Review>>emptyMap(),
+      Collections.<Long, Map<String, Review>>emptyMap(),
+      Collections.<List<String>>emptyList());
+
+    assertThat(menu.roundTrip()).isEqualTo(menu);
+    assertThat(Menu.create(menu.toMap())).isEqualTo(menu);
+  }
+
+  @Test
+  public void diffWritesChangedNestedCollectionsWhole() throws Exception {
+    Menu before = menu();
+    Menu after = Menu.create(
+      Arrays.asList(Arrays.asList(Ingredient.create("Cactus", 4))),
+      before.reviewsByDay(),
+      before.reviewsByTable(),
+      before.pairings());
+
+    Map<String, Object> updates = after.changesSince(before);
+
+    assertThat(updates).containsExactly(
+      "courses", Arrays.asList(Arrays.asList(Ingredient.create("Cactus", 4).toMap())));
+  }
+
+  @Test
+  public void applyDeltaFollowsPathsThroughEveryLevel() throws Exception {
+    Menu before = menu();
+
+    Menu after = before.withChange("courses/1/0/spiciness", 7L);
+
+    assertThat(after.courses().get(1)).containsExactly(
+      Ingredient.create("Peppers", 7), Ingredient.create("Onions", 1)).inOrder();
+    assertThat(after.courses().get(0)).isSameAs(before.courses().get(0));
+    assertThat(after.courses().get(1).get(1)).isSameAs(before.courses().get(1).get(1));
+    assertThat(after.reviewsByDay()).isSameAs(before.reviewsByDay());
+    assertThat(before.courses().get(1).get(0).spiciness()).isEqualTo(5);
+  }
+
+  @Test
+  public void applyDeltaReplacesAndRemovesNestedElements() throws Exception {
+    Map<String, Object> review = new HashMap<>();
+    review.put("description", "Crunchy.");
+    review.put("stars", 4L);
+
+    Menu after = menu().withChange("reviewsByDay/tuesday", Arrays.<Object>asList(review))
+                       .withChange("reviewsByTable/3/matt", null)
+                       .withChange("pairings/1/0", "agua fresca");
+
+    assertThat(after.reviewsByDay().get("tuesday")).containsExactly(Review.create("Crunchy.", 4));
+    assertThat(after.reviewsByTable().get(3L)).isEmpty();
+    assertThat(after.pairings().get(1)).containsExactly("agua fresca");
+  }
+}
@@ -0,0 +1,82 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.model.Telemetry;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PrimitiveArrayTest {
+
+  private static Telemetry telemetry() {
+    return Telemetry.create(new int[] {1, 2, 3},
+      new long[] {1478649600000L, 1478649601000L},
+      new double[] {0.5, 1.0, 1.5});
+  }
+
+  @Test
+  public void arraysAreWrittenAsLists() throws Exception {
+    Map<String, Object> map = telemetry().toMap();
+
+    assertThat((List<?>) map.get("counts")).containsExactly(1, 2, 3).inOrder();
+    assertThat((List<?>) map.get("timestamps")).containsExactly(1478649600000L, 1478649601000L).inOrder();
+    assertThat((List<?>) map.get("readings")).containsExactly(0.5, 1.0, 1.5).inOrder();
+    assertThat(map).isEqualTo(ReflectiveMapper.serialize(telemetry().toFirebaseValue()));
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    assertThat(telemetry().roundTrip()).isEqualTo(telemetry());
+    Telemetry empty = Telemetry.create(new int[0], new long[0], new double[0]);
+    assertThat(empty.roundTrip()).isEqualTo(empty);
+  }
+
+  @Test
+  public void fromMapCoercesFirebaseNumbers() throws Exception {
+    // Firebase hands back every whole number as a Long, and leaves nulls where indexes are missing
+    Map<String, Object> map = new HashMap<>();
+    map.put("counts", Arrays.<Object>asList(1L, null, 3L));
+    map.put("timestamps", Arrays.<Object>asList(1478649600000L));
+    map.put("readings", Arrays.<Object>asList(0.5, 1L));
+
+    Telemetry telemetry = Telemetry.create(map);
+
+    assertThat(telemetry).isEqualTo(
+      Telemetry.create(new int[] {1, 0, 3}, new long[] {1478649600000L}, new double[] {0.5, 1.0}));
+  }
+
+  @Test
+  public void fromMapReadsToMapOutput() throws Exception {
+    assertThat(Telemetry.create(telemetry().toMap())).isEqualTo(telemetry());
+  }
+
+  @Test
+  public void diffWritesChangedIndexes() throws Exception {
+    Telemetry before = telemetry();
+    Telemetry after = Telemetry.create(new int[] {1, 5},
+      before.timestamps().clone(),
+      new double[] {0.5, 1.0, 1.5, 2.0});
+
+    Map<String, Object> updates = after.changesSince(before);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("counts/1", 5);
+    expected.put("counts/2", null);
+    expected.put("readings/3", 2.0);
+    assertThat(updates).isEqualTo(expected);
+  }
+
+  @Test
+  public void applyDeltaCopiesTheArray() throws Exception {
+    Telemetry before = telemetry();
+
+    Telemetry after = before.withChange("readings/4", 3L);
+
+    assertThat(Arrays.equals(after.readings(), new double[] {0.5, 1.0, 1.5, 0, 3.0})).isTrue();
+    assertThat(Arrays.equals(before.readings(), new double[] {0.5, 1.0, 1.5})).isTrue();
+    assertThat(after.counts()).isSameAs(before.counts());
+  }
+}
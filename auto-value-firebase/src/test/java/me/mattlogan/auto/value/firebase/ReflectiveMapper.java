@@ -0,0 +1,66 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.google.firebase.database.Exclude;
+import com.google.firebase.database.PropertyName;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is a stand-in for the Firebase SDK's reflective class mapper. It walks the public
+ * "get"-prefixed accessors of a bean the same way the SDK does when you call setValue(), so
+ * the output of the generated code can be compared against it without the SDK.
+ */
+final class ReflectiveMapper {
+
+  private ReflectiveMapper() {
+  }
+
+  static Object serialize(Object value) throws Exception {
+    if (value == null
+        || value instanceof String
+        || value instanceof Number
+        || value instanceof Boolean) {
+      return value;
+
+    } else if (value instanceof List) {
+      List<Object> list = new ArrayList<>();
+      for (Object item : (List<?>) value) {
+        list.add(serialize(item));
+      }
+      return list;
+
+    } else if (value instanceof Map) {
+      Map<String, Object> map = new HashMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        map.put(String.valueOf(entry.getKey()), serialize(entry.getValue()));
+      }
+      return map;
+    }
+
+    Map<String, Object> bean = new HashMap<>();
+    for (Method method : value.getClass().getMethods()) {
+      String name = method.getName();
+      if (!name.startsWith("get")
+          || name.equals("getClass")
+          || method.getParameterTypes().length != 0
+          || Modifier.isStatic(method.getModifiers())
+          || method.isAnnotationPresent(Exclude.class)) {
+        continue;
+      }
+
+      String propertyName = name.substring(3, 4).toLowerCase() + name.substring(4);
+      PropertyName annotation = method.getAnnotation(PropertyName.class);
+      if (annotation != null) {
+        propertyName = annotation.value();
+      }
+
+      method.setAccessible(true);
+      bean.put(propertyName, serialize(method.invoke(value)));
+    }
+    return bean;
+  }
+}
@@ -0,0 +1,77 @@
+package me.mattlogan.auto.value.firebase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.model.Ingredient;
+import me.mattlogan.auto.value.firebase.model.Review;
+import me.mattlogan.auto.value.firebase.model.Taco;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class UpdatePathsTest {
+
+  private static Taco taco(String name, Review review, String... tags) {
+    return Taco.create(name,
+      Arrays.asList(Ingredient.create("Cactus", 3), Ingredient.create("Peppers", 5)),
+      review,
+      Collections.singletonMap("matt", Review.create("Amazing taco.", 5)),
+      Arrays.asList(tags),
+      3.5,
+      1478649600000L);
+  }
+
+  @Test
+  public void toUpdatePathsFlattensNestedValues() throws Exception {
+    Map<String, Object> updates = taco("Kalimari Desert", Review.create("Pretty good.", 4), "spicy")
+      .toUpdatePaths("tacos/-KZ1");
+
+    assertThat(updates.keySet()).containsExactly(
+      "tacos/-KZ1/name",
+      "tacos/-KZ1/ingredients",
+      "tacos/-KZ1/review/description",
+      "tacos/-KZ1/review/stars",
+      "tacos/-KZ1/reviewsByUser",
+      "tacos/-KZ1/tags",
+      "tacos/-KZ1/cost");
+    assertThat(updates).containsEntry("tacos/-KZ1/review/stars", 4);
+    assertThat(updates).containsEntry("tacos/-KZ1/tags", Arrays.asList("spicy"));
+  }
+
+  @Test
+  public void updateChildrenMatchesSetValue() throws Exception {
+    Taco before = taco("Kalimari Desert", Review.create("Pretty good.", 4), "vegetarian", "spicy");
+    Taco after = taco("Kalimari Desert", Review.create("Pretty good.", 3), "spicy");
+
+    InMemoryDatabase updated = new InMemoryDatabase();
+    updated.setValue("tacos/-KZ1", before.toMap());
+    updated.updateChildren(after.toUpdatePaths("tacos/-KZ1"));
+
+    InMemoryDatabase set = new InMemoryDatabase();
+    set.setValue("tacos/-KZ1", after.toMap());
+
+    assertThat(updated.getValue("tacos/-KZ1")).isEqualTo(set.getValue("tacos/-KZ1"));
+    assertThat(updated.getValue("tacos/-KZ1/review/stars")).isEqualTo(3);
+    // Lists are written whole, so the stale second tag is gone
+    assertThat(updated.getValue("tacos/-KZ1/tags/1")).isNull();
+  }
+
+  @Test
+  public void fanOutIsOneUpdate() throws Exception {
+    Taco first = taco("Kalimari Desert", Review.create("Pretty good.", 4));
+    Taco second = taco("Tatooine", Review.create("Sandy.", 2));
+
+    Map<String, Object> updates = new HashMap<>();
+    updates.putAll(first.toUpdatePaths("tacos/-KZ1"));
+    updates.putAll(second.toUpdatePaths("tacos/-KZ2"));
+    updates.putAll(second.toUpdatePaths("tacos-by-user/matt/-KZ2"));
+    InMemoryDatabase database = new InMemoryDatabase();
+    database.updateChildren(updates);
+
+    assertThat(database.getValue("tacos/-KZ1/review/stars")).isEqualTo(4);
+    assertThat(database.getValue("tacos/-KZ2/review/stars")).isEqualTo(2);
+    assertThat(database.getValue("tacos-by-user/matt/-KZ2/name")).isEqualTo("Tatooine");
+  }
+}
@@ -0,0 +1,23 @@
+package me.mattlogan.auto.value.firebase.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This is a copy of the FirebaseAdapter annotation from the separate
+ * auto-value-firebase-annotation module. This is a bit easier than
+ * including auto-value-firebase-annotation as a transitive dependency.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface FirebaseAdapter {
+
+  /**
+   * The {@code TypeConverter} that converts the property to and from the type Firebase stores
+   * it as. The generated class creates one instance of it, which converts the property every
+   * time. This requires the {@code auto-value-firebase-runtime} library.
+   */
+  Class<?> value();
+}
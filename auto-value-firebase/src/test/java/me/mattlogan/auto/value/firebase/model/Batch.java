@@ -0,0 +1,24 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Batch {
+
+  public static Batch create(List<Ingredient> ingredients, Map<String, Review> reviews, List<Long> samples) {
+    return new AutoValue_Batch(ingredients, reviews, samples);
+  }
+
+  public Batch roundTrip() {
+    return new AutoValue_Batch.FirebaseValue(this).toAutoValue();
+  }
+
+  public abstract List<Ingredient> ingredients();
+
+  public abstract Map<String, Review> reviews();
+
+  public abstract List<Long> samples();
+}
@@ -0,0 +1,47 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Combo {
+
+  public static Combo create(ImmutableList<Ingredient> ingredients,
+                             ImmutableMap<String, Review> reviews,
+                             ImmutableList<String> sides) {
+    return new AutoValue_Combo(ingredients, reviews, sides);
+  }
+
+  public static Combo create(Map<String, Object> map) {
+    return AutoValue_Combo.fromMap(map);
+  }
+
+  public Object toFirebaseValue() {
+    return new AutoValue_Combo.FirebaseValue(this);
+  }
+
+  public Map<String, Object> toMap() {
+    return new AutoValue_Combo.FirebaseValue(this).toMap();
+  }
+
+  public Combo roundTrip() {
+    return new AutoValue_Combo.FirebaseValue(this).toAutoValue();
+  }
+
+  public Map<String, Object> changesSince(Combo before) {
+    return AutoValue_Combo.diff(before, this);
+  }
+
+  public Combo withChange(String path, Object value) {
+    return AutoValue_Combo.applyDelta(this, path, value);
+  }
+
+  public abstract ImmutableList<Ingredient> ingredients();
+
+  public abstract ImmutableMap<String, Review> reviews();
+
+  public abstract ImmutableList<String> sides();
+}
@@ -0,0 +1,55 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.PropertyName;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Delivery {
+
+  public enum Status {
+    PENDING,
+    @PropertyName("on_the_way") EN_ROUTE,
+    DELIVERED
+  }
+
+  public enum Size {
+    SMALL,
+    LARGE
+  }
+
+  public static Delivery create(Status status, Size size) {
+    return new AutoValue_Delivery(status, size);
+  }
+
+  public static Delivery create(Map<String, Object> map) {
+    return AutoValue_Delivery.fromMap(map);
+  }
+
+  public Object toFirebaseValue() {
+    return new AutoValue_Delivery.FirebaseValue(this);
+  }
+
+  public Map<String, Object> toMap() {
+    return new AutoValue_Delivery.FirebaseValue(this).toMap();
+  }
+
+  public Delivery roundTrip() {
+    return new AutoValue_Delivery.FirebaseValue(this).toAutoValue();
+  }
+
+  public Map<String, Object> changesSince(Delivery before) {
+    return AutoValue_Delivery.diff(before, this);
+  }
+
+  public Delivery withChange(String path, Object value) {
+    return AutoValue_Delivery.applyDelta(this, path, value);
+  }
+
+  @Nullable
+  public abstract Status status();
+
+  @Nullable
+  public abstract Size size();
+}
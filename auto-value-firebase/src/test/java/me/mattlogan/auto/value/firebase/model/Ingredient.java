@@ -0,0 +1,29 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Ingredient {
+
+  public static Ingredient create(String name, int spiciness) {
+    return new AutoValue_Ingredient(name, spiciness);
+  }
+
+  public static Ingredient create(Map<String, Object> map) {
+    return AutoValue_Ingredient.fromMap(map);
+  }
+
+  public Object toFirebaseValue() {
+    return new AutoValue_Ingredient.FirebaseValue(this);
+  }
+
+  public Map<String, Object> toMap() {
+    return new AutoValue_Ingredient.FirebaseValue(this).toMap();
+  }
+
+  public abstract String name();
+
+  public abstract int spiciness();
+}
@@ -0,0 +1,49 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Menu {
+
+  public static Menu create(List<List<Ingredient>> courses,
+                            Map<String, List<Review>> reviewsByDay,
+                            Map<Long, Map<String, Review>> reviewsByTable,
+                            List<List<String>> pairings) {
+    return new AutoValue_Menu(courses, reviewsByDay, reviewsByTable, pairings);
+  }
+
+  public static Menu create(Map<String, Object> map) {
+    return AutoValue_Menu.fromMap(map);
+  }
+
+  public Object toFirebaseValue() {
+    return new AutoValue_Menu.FirebaseValue(this);
+  }
+
+  public Map<String, Object> toMap() {
+    return new AutoValue_Menu.FirebaseValue(this).toMap();
+  }
+
+  public Menu roundTrip() {
+    return new AutoValue_Menu.FirebaseValue(this).toAutoValue();
+  }
+
+  public Map<String, Object> changesSince(Menu before) {
+    return AutoValue_Menu.diff(before, this);
+  }
+
+  public Menu withChange(String path, Object value) {
+    return AutoValue_Menu.applyDelta(this, path, value);
+  }
+
+  public abstract List<List<Ingredient>> courses();
+
+  public abstract Map<String, List<Review>> reviewsByDay();
+
+  public abstract Map<Long, Map<String, Review>> reviewsByTable();
+
+  public abstract List<List<String>> pairings();
+}
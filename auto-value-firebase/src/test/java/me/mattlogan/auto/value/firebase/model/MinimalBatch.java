@@ -0,0 +1,24 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue(allocation = FirebaseValue.Allocation.MINIMAL)
+public abstract class MinimalBatch {
+
+  public static MinimalBatch create(List<Ingredient> ingredients, Map<String, Review> reviews, List<Long> samples) {
+    return new AutoValue_MinimalBatch(ingredients, reviews, samples);
+  }
+
+  public MinimalBatch roundTrip() {
+    return new AutoValue_MinimalBatch.FirebaseValue(this).toAutoValue();
+  }
+
+  public abstract List<Ingredient> ingredients();
+
+  public abstract Map<String, Review> reviews();
+
+  public abstract List<Long> samples();
+}
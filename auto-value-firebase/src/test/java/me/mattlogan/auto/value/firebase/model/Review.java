@@ -0,0 +1,31 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.PropertyName;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Review {
+
+  public static Review create(String description, int rating) {
+    return new AutoValue_Review(description, rating);
+  }
+
+  public static Review create(Map<String, Object> map) {
+    return AutoValue_Review.fromMap(map);
+  }
+
+  public Object toFirebaseValue() {
+    return new AutoValue_Review.FirebaseValue(this);
+  }
+
+  public Map<String, Object> toMap() {
+    return new AutoValue_Review.FirebaseValue(this).toMap();
+  }
+
+  public abstract String description();
+
+  @PropertyName("stars")
+  public abstract int rating();
+}
@@ -0,0 +1,59 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.PropertyName;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue(compactKeys = true)
+public abstract class Shipment {
+
+  public static Shipment create(String id, String trackingNumber, String recipientName,
+                                long estimatedDeliveryTime, String deliveryInstructions,
+                                List<Ingredient> packages) {
+    return new AutoValue_Shipment(id, trackingNumber, recipientName, estimatedDeliveryTime,
+      deliveryInstructions, packages);
+  }
+
+  public static Shipment create(Map<String, Object> map) {
+    return AutoValue_Shipment.fromMap(map);
+  }
+
+  public static Map<String, String> keys() {
+    return AutoValue_Shipment.KEYS;
+  }
+
+  public Object toFirebaseValue() {
+    return new AutoValue_Shipment.FirebaseValue(this);
+  }
+
+  public Map<String, Object> toMap() {
+    return new AutoValue_Shipment.FirebaseValue(this).toMap();
+  }
+
+  public Shipment roundTrip() {
+    return new AutoValue_Shipment.FirebaseValue(this).toAutoValue();
+  }
+
+  public Map<String, Object> changesSince(Shipment before) {
+    return AutoValue_Shipment.diff(before, this);
+  }
+
+  public Shipment withChange(String path, Object value) {
+    return AutoValue_Shipment.applyDelta(this, path, value);
+  }
+
+  public abstract String id();
+
+  public abstract String trackingNumber();
+
+  public abstract String recipientName();
+
+  public abstract long estimatedDeliveryTime();
+
+  @PropertyName("notes")
+  public abstract String deliveryInstructions();
+
+  public abstract List<Ingredient> packages();
+}
@@ -0,0 +1,58 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.Exclude;
+import com.google.firebase.database.PropertyName;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Taco {
+
+  public static Taco create(String name, List<Ingredient> ingredients, Review review,
+                            Map<String, Review> reviewsByUser, List<String> tags, double price,
+                            long servedAt) {
+    return new AutoValue_Taco(name, ingredients, review, reviewsByUser, tags, price, servedAt);
+  }
+
+  public static Taco create(Map<String, Object> map) {
+    return AutoValue_Taco.fromMap(map);
+  }
+
+  public Object toFirebaseValue() {
+    return new AutoValue_Taco.FirebaseValue(this);
+  }
+
+  public Map<String, Object> toMap() {
+    return new AutoValue_Taco.FirebaseValue(this).toMap();
+  }
+
+  public Map<String, Object> changesSince(Taco before) {
+    return AutoValue_Taco.diff(before, this);
+  }
+
+  public Taco withChange(String path, Object value) {
+    return AutoValue_Taco.applyDelta(this, path, value);
+  }
+
+  public Map<String, Object> toUpdatePaths(String basePath) {
+    return new AutoValue_Taco.FirebaseValue(this).toUpdatePaths(basePath);
+  }
+
+  public abstract String name();
+
+  public abstract List<Ingredient> ingredients();
+
+  public abstract Review review();
+
+  public abstract Map<String, Review> reviewsByUser();
+
+  public abstract List<String> tags();
+
+  @PropertyName("cost")
+  public abstract double price();
+
+  @Exclude
+  public abstract long servedAt();
+}
@@ -0,0 +1,46 @@
+package me.mattlogan.auto.value.firebase.model;
+
+import com.google.auto.value.AutoValue;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Telemetry {
+
+  public static Telemetry create(int[] counts, long[] timestamps, double[] readings) {
+    return new AutoValue_Telemetry(counts, timestamps, readings);
+  }
+
+  public static Telemetry create(Map<String, Object> map) {
+    return AutoValue_Telemetry.fromMap(map);
+  }
+
+  public Object toFirebaseValue() {
+    return new AutoValue_Telemetry.FirebaseValue(this);
+  }
+
+  public Map<String, Object> toMap() {
+    return new AutoValue_Telemetry.FirebaseValue(this).toMap();
+  }
+
+  public Telemetry roundTrip() {
+    return new AutoValue_Telemetry.FirebaseValue(this).toAutoValue();
+  }
+
+  public Map<String, Object> changesSince(Telemetry before) {
+    return AutoValue_Telemetry.diff(before, this);
+  }
+
+  public Telemetry withChange(String path, Object value) {
+    return AutoValue_Telemetry.applyDelta(this, path, value);
+  }
+
+  @SuppressWarnings("mutable")
+  public abstract int[] counts();
+
+  @SuppressWarnings("mutable")
+  public abstract long[] timestamps();
+
+  @SuppressWarnings("mutable")
+  public abstract double[] readings();
+}